@@ -3,43 +3,67 @@ package com.gimc.mybatis.db.shard;
 
 import com.gimc.mybatis.db.shard.audit.ISqlAuditor;
 import com.gimc.mybatis.db.shard.datasources.IShardDataSourceService;
+import com.gimc.mybatis.db.shard.datasources.ShardDataSourceLookup;
 import com.gimc.mybatis.db.shard.datasources.ShardDataSourceDescriptor;
 import com.gimc.mybatis.db.shard.merger.IMerger;
+import com.gimc.mybatis.db.shard.merger.KWaySortMerger;
+import com.gimc.mybatis.db.shard.router.IRoutingPlanProvider;
 import com.gimc.mybatis.db.shard.router.IShardRouter;
+import com.gimc.mybatis.db.shard.router.support.BatchRoutingResult;
 import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.router.support.ShardKeyCollectionSplitter;
+import com.gimc.mybatis.db.shard.router.support.ShardKeyRangeSplitter;
+import com.gimc.mybatis.db.shard.router.support.StatementRoutingPlan;
+import com.gimc.mybatis.db.shard.support.execution.ConcurrencyLimitedExecutorService;
 import com.gimc.mybatis.db.shard.support.execution.ConcurrentRequest;
+import com.gimc.mybatis.db.shard.support.execution.Deadline;
 import com.gimc.mybatis.db.shard.support.execution.DefaultConcurrentRequestProcessor;
+import com.gimc.mybatis.db.shard.support.execution.DefaultExecutionPlanner;
+import com.gimc.mybatis.db.shard.support.execution.HedgingPolicy;
+import com.gimc.mybatis.db.shard.support.execution.IAsyncConcurrentRequestProcessor;
+import com.gimc.mybatis.db.shard.support.execution.IConcurrencyLimitFactory;
 import com.gimc.mybatis.db.shard.support.execution.IConcurrentRequestProcessor;
+import com.gimc.mybatis.db.shard.support.execution.IExecutionPlanner;
+import com.gimc.mybatis.db.shard.support.execution.PermitBoundedExecutorService;
+import com.gimc.mybatis.db.shard.support.execution.ShardCursor;
+import com.gimc.mybatis.db.shard.support.execution.VirtualThreads;
+import com.gimc.mybatis.db.shard.support.execution.WorkStealingScheduler;
+import com.gimc.mybatis.db.shard.support.SeekKey;
 import com.gimc.mybatis.db.shard.support.utils.CollectionUtils;
 import com.gimc.mybatis.db.shard.support.utils.MapUtils;
+import com.gimc.mybatis.db.shard.support.utils.Predicate;
 import com.gimc.mybatis.db.shard.support.vo.BatchInsertTask;
-import com.gimc.mybatis.db.shard.support.vo.ShardMRBase;
+import com.gimc.mybatis.db.shard.support.vo.SeekPage;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 import javax.sql.DataSource;
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.commons.lang.Validate;
 import org.apache.ibatis.builder.StaticSqlSource;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
 import org.apache.ibatis.mapping.SqlSource;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.RowBounds;
@@ -49,14 +73,15 @@ import org.mybatis.spring.SqlSessionTemplate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
-import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.dao.support.PersistenceExceptionTranslator;
 import org.springframework.jdbc.CannotGetJdbcConnectionException;
 import org.springframework.jdbc.JdbcUpdateAffectedIncorrectNumberOfRowsException;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 
 public class ShardSqlSessionTemplate extends SqlSessionTemplate implements InitializingBean {
@@ -65,11 +90,24 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
 
     private static final String DEFAULT_DATASOURCE_IDENTITY = "_ShardSqlSessionTemplate_default_data_source_name";
 
+    private static final SortedMap<String, DataSource> NO_DATA_SOURCES = Collections.unmodifiableSortedMap(new TreeMap<String, DataSource>());
+
+    /**
+     * property of the parameter of {@link #selectPage(String, Object, String, int)} that holds the values of the key of the last row of the
+     * previous page.
+     */
+    public static final String SEEK_KEY = "seekKey";
+    /**
+     * property of the parameter of {@link #selectPage(String, Object, String, int)} that holds the number of rows to read from each shard.
+     */
+    public static final String SEEK_LIMIT = "seekLimit";
+
     private String defaultDataSourceName = DEFAULT_DATASOURCE_IDENTITY;
 
     private List<ExecutorService> internalExecutorServiceRegistry = new ArrayList<ExecutorService>();
 
     private IShardDataSourceService shardDataSourceService;
+    private volatile ShardDataSourceLookup shardDataSourceLookup;
 
     private IShardRouter<MyBatisRoutingFact> router;
 
@@ -86,12 +124,79 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
 
     private IConcurrentRequestProcessor concurrentRequestProcessor;
 
+    /**
+     * opt-in execution mode, instead of a thread pool for each data source, all of the data sources share one executor that runs each request
+     * on a thread of its own, a virtual thread on JDK 21+.<br>
+     * requests on each data source are bounded by the pool size of its {@link ShardDataSourceDescriptor} instead of by threads, and the ones
+     * beyond it wait in queue rather than run on the caller thread. it only applies if the executors of data sources are not given.
+     */
+    private boolean virtualThreadExecution = false;
+    private ExecutorService sharedRequestExecutor;
+    private ExecutorService cursorExecutor;
+
+    /**
+     * opt-in execution mode, all of the data sources share one {@link WorkStealingScheduler} of {@link #workStealingParallelism} workers instead
+     * of a thread pool for each, so that threads scale with processors rather than with shards.<br>
+     * requests on each data source are bounded by the pool size of its {@link ShardDataSourceDescriptor}, and the ones beyond wait in queue
+     * rather than run on the caller thread, data sources with waiting requests take turns for free workers. it only applies if the executors of
+     * data sources are not given, and can't be used together with {@link #virtualThreadExecution}.
+     */
+    private boolean workStealingExecution = false;
+    /**
+     * number of workers of the work-stealing scheduler, the default pool size of one data source, since requests block on databases.
+     */
+    private int workStealingParallelism = Runtime.getRuntime().availableProcessors() * 5;
+    private WorkStealingScheduler workStealingScheduler;
+
+    /**
+     * opt-in adaptive concurrency of data sources, the executor of each data source is wrapped by a {@link ConcurrencyLimitedExecutorService}
+     * whose limit is learned from the round trip times of its requests, up to the pool size of its {@link ShardDataSourceDescriptor}. so a data
+     * source slowing down gets fewer requests at a time, instead of the same number of requests queueing up in it.<br>
+     * requests beyond the limit of a data source wait for it, up to {@link #maxQueuedRequests}, and the others are shed.
+     */
+    private IConcurrencyLimitFactory concurrencyLimitFactory;
+    private int maxQueuedRequests = Integer.MAX_VALUE;
+    private Map<String, ConcurrencyLimitedExecutorService> concurrencyLimitedExecutors = Collections.emptyMap();
+
+    /**
+     * opt-in hedging of reads, a read on more than one shard is sent to the standby data source of a shard too if the shard hasn't answered
+     * within the threshold of the policy, and whichever answers first is taken. it applies to the shards whose {@link ShardDataSourceDescriptor}
+     * has a standby data source, and only to reads out of transactions, since standby databases may lag behind.<br>
+     * it's handed to {@link DefaultConcurrentRequestProcessor}, other processors have to apply it on their own.
+     */
+    private HedgingPolicy hedgingPolicy;
+    private Map<String, DataSource> standbyDataSources = Collections.emptyMap();
+
+    /**
+     * decides whether the requests of a sql action run inline in the caller thread, fan out on the executors of the shards, or run in
+     * sub-batches, a {@link DefaultExecutionPlanner} is used if it's not given.
+     */
+    private IExecutionPlanner executionPlanner;
+
+    /**
+     * whether the default {@link DefaultConcurrentRequestProcessor} acquires the connection of each shard in the worker of the shard instead of
+     * in the caller thread, see {@link DefaultConcurrentRequestProcessor#setDeferredConnectionAcquisition(boolean)}.
+     */
+    private boolean deferredConnectionAcquisition = false;
+
     /**
      * timeout threshold to indicate how long the concurrent data access request
      * should time out.<br>
      * time unit in milliseconds.<br>
+     * a deadline is computed from it for each call, no matter how many shards it's routed to, and each statement gets the remaining time as
+     * its query timeout.<br>
+     * requests running on the executors of their shards are also cancelled when the deadline passes and their connections released, so that
+     * one slow shard can't hold the connections of the others; a request running inline in the caller thread, e.g. a write on one shard, is
+     * bounded by the query timeout of its statements only, see {@link DefaultExecutionPlanner}.<br>
+     * 0 or less means no deadline, which is the default, the deadline is opt-in.
+     */
+    private int defaultQueryTimeout = 0;
+    /**
+     * timeouts in milliseconds that override {@link #defaultQueryTimeout} for some sql actions.<br>
+     * map key(String) is the sql action, or the namespace for all of its sql actions; map value(Integer) is the timeout, 0 or less means no
+     * deadline for the sql action.
      */
-    private int defaultQueryTimeout = 100;
+    private Map<String, Integer> queryTimeouts = new HashMap<String, Integer>();
     /**
      * indicator to indicate whether to log/profile long-time-running SQL
      */
@@ -103,10 +208,48 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
      * getting the query result, but they can let
      * {@link ShardSqlSessionTemplate} do this for them too, as long as they
      * provide a relationship mapping between the sql action and the merging
-     * logic provider.
+     * logic provider.<br>
+     * the sql actions not given here are merged by the mergers bound by the "merger" attribute of the rules of router, if any.
      */
     private Map<String, IMerger<Object, Object>> mergers = new HashMap<String, IMerger<Object, Object>>();
 
+    /**
+     * opt-in pagination across shards, a {@link #selectList(String, Object, RowBounds)} routed to more than one shard reads the first
+     * offset+limit rows of each shard, merges them in the order of the {@link KWaySortMerger} of the sql action(or shard after shard if it has no
+     * merger), and returns the rows of the page, instead of the page of each shard. the rows of the shards are streamed out of transactions, and
+     * no more of them are read once the page is full.<br>
+     * pages of sql actions with other mergers, the deprecated ConcurrentSortMerger included, can't be taken across shards, they fail with
+     * {@link InvalidDataAccessApiUsageException}.
+     */
+    private boolean shardedPagination = false;
+
+    /**
+     * sql actions whose parameter holds a collection of shard keys, e.g. the ids of "WHERE memberId IN (...)".<br>
+     * map key(String) is the sql action, or the namespace for all of its sql actions; map value(String) is the property of the parameter that
+     * holds the collection. the collection is split by the shards owning its keys, and each shard is queried with only the keys it owns, instead
+     * of all of the shards the rules give for the whole collection.<br>
+     * only {@link Map} parameters can be split, others are routed as a whole.
+     */
+    private Map<String, String> shardKeyCollections = new HashMap<String, String>();
+
+    /**
+     * sql actions whose parameter holds the bounds of a range query on shard key, e.g. "WHERE gmtModified BETWEEN #{from} AND #{to}".<br>
+     * map key(String) is the sql action, or the namespace for all of its sql actions; map value(String) is the properties of the parameter that
+     * hold the lower and upper bound, separated by comma, like "from,to". the bounds are routed as a range, each shard whose ranges overlap with it
+     * is queried with the bounds clipped to its own ranges.<br>
+     * only {@link Map} parameters can be split, and only range-aware rules can tell the shards apart, others are routed as a whole.
+     */
+    private Map<String, String> shardKeyRanges = new HashMap<String, String>();
+
+    /**
+     * sql actions paged by {@link #selectPage(String, Object, String, int)}.<br>
+     * map key(String) is the sql action, or the namespace for all of its sql actions; map value(String) is the properties of the rows the sql
+     * action is ordered by, separated by comma, each followed by "desc" if it's in descending order, like "gmtCreated desc,id desc". the last
+     * property should break the ties, see {@link SeekKey}.
+     */
+    private Map<String, String> seekKeys = new HashMap<String, String>();
+    private final ConcurrentMap<String, SeekKey> parsedSeekKeys = new ConcurrentHashMap<String, SeekKey>();
+
     public ShardSqlSessionTemplate(SqlSessionFactory sqlSessionFactory) {
         super(sqlSessionFactory);
     }
@@ -135,6 +278,10 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
         long startTimestamp = System.currentTimeMillis();
         try {
             if (isPartitioningBehaviorEnabled()) {
+                List<Object> subsetResults = executeOnShardKeySubsets(statementName, parameterObject, deleteCallBackFactory(statementName));
+                if (subsetResults != null) {
+                    return sumOfRowsAffected(subsetResults);
+                }
                 SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName, parameterObject);
                 if (!MapUtils.isEmpty(dsMap)) {
                     SqlSessionCallBack action = new SqlSessionCallBack() {
@@ -143,17 +290,13 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
                             return session.delete(statementName, parameterObject);
                         }
                     };
-                    if (dsMap.size() == 1) {
-                        DataSource dataSource = dsMap.get(dsMap.firstKey());
-                        return (Integer) executeWith(dataSource, action);
-                    } else {
-                        List<Object> results = executeInConcurrency(dsMap, action);
-                        Integer rowAffacted = 0;
-                        for (Object i : results) {
-                            rowAffacted += (Integer) i;
-                        }
-                        return rowAffacted;
+                    // a single shard is executed inline as planned by the execution planner
+                    List<Object> results = executeInConcurrency(statementName, dsMap, action);
+                    Integer rowAffacted = 0;
+                    for (Object i : results) {
+                        rowAffacted += (Integer) i;
                     }
+                    return rowAffacted;
                 }
             }
             // end if for partitioning status checking
@@ -225,16 +368,13 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
                         }
                     };
                     SortedMap<String, DataSource> resultDataSources = lookupDataSourcesByRouter(statementName, parameterObject);
-                    if (MapUtils.isEmpty(resultDataSources) || resultDataSources.size() == 1) {
+                    if (MapUtils.isEmpty(resultDataSources)) {
                         // fall back to default data source.
                         targetDataSource = getSqlSessionFactory().getConfiguration().getEnvironment().getDataSource();
-                        if (resultDataSources.size() == 1) {
-                            targetDataSource = resultDataSources.values().iterator().next();
-                        }
                         return (Integer) executeWith(targetDataSource, action);
                     } else {
                         int counter = 0;
-                        List<Object> resultInt = executeInConcurrency(resultDataSources, action);
+                        List<Object> resultInt = executeInConcurrency(statementName, resultDataSources, action);
                         for (Object obj : resultInt) {
                             counter += (Integer) obj;
                         }
@@ -256,61 +396,39 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
     }
 
     /**
-     * we reorder the collection of entities in concurrency and commit them in
+     * we route the collection of entities in one batch and commit them in
      * sequence, because we have to conform to the infrastructure of spring's
-     * transaction management layer.
+     * transaction management layer.<br>
+     * entities with the same shard keys are routed only once, see
+     * {@link IShardRouter#doRouteAll(List)}.
      */
     private int batchInsertAfterReordering(final String statementName, final Object parameterObject) {
-        Set<String> keys = new HashSet<String>();
-        keys.add(getDefaultDataSourceName());
-        keys.addAll(getShardDataSourceService().getDataSources().keySet());
-        final ShardMRBase mrbase = new ShardMRBase(keys);
-        ExecutorService executor = createCustomExecutorService(Runtime.getRuntime().availableProcessors(), "batchInsertAfterReordering");
-        try {
-            final StringBuffer exceptionStaktrace = new StringBuffer();
-            Collection<?> paramCollection = ((BatchInsertTask) parameterObject).getEntities();
-            final CountDownLatch latch = new CountDownLatch(paramCollection.size());
-            Iterator<?> iter = paramCollection.iterator();
-            while (iter.hasNext()) {
-                final Object entity = iter.next();
-                Runnable task = new Runnable() {
-                    public void run() {
-                        try {
-                            SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName, entity);
-                            if (MapUtils.isEmpty(dsMap)) {
-                                logger
-                                    .info("can't find routing rule for {} with parameter {}, so use default data source for it.", statementName, entity);
-                                mrbase.emit(getDefaultDataSourceName(), entity);
-                            } else {
-                                if (dsMap.size() > 1) {
-                                    throw new IllegalArgumentException(
-                                        "unexpected routing result, found more than 1 target data source for current entity:" + entity);
-                                }
-                                mrbase.emit(dsMap.firstKey(), entity);
-                            }
-                        } catch (Throwable t) {
-                            exceptionStaktrace.append(ExceptionUtils.getFullStackTrace(t));
-                        } finally {
-                            latch.countDown();
-                        }
-                    }
-                };
-                executor.execute(task);
-            }
-            try {
-                latch.await();
-            } catch (InterruptedException e) {
-                throw new ConcurrencyFailureException("unexpected interruption when re-arranging parameter collection into sub-collections ", e);
-            }
-            if (exceptionStaktrace.length() > 0) {
-                throw new ConcurrencyFailureException(
-                    "unpected exception when re-arranging parameter collection, check previous log for details.\n" + exceptionStaktrace);
+        Collection<?> paramCollection = ((BatchInsertTask) parameterObject).getEntities();
+        List<MyBatisRoutingFact> facts = new ArrayList<MyBatisRoutingFact>(paramCollection.size());
+        for (Object entity : paramCollection) {
+            facts.add(new MyBatisRoutingFact(statementName, entity));
+        }
+        BatchRoutingResult<MyBatisRoutingFact> routing = getRouter().doRouteAll(facts);
+        if (!routing.isPartitioned()) {
+            throw new IllegalArgumentException("unexpected routing result, found more than 1 target data source for some of the entities of:"
+                + statementName);
+        }
+        Map<String, List<Object>> entitiesByShard = new LinkedHashMap<String, List<Object>>();
+        for (Map.Entry<String, List<MyBatisRoutingFact>> entry : routing.getFactsByShard().entrySet()) {
+            if (!getShardDataSourceService().getDataSources().containsKey(entry.getKey())) {
+                throw new IllegalArgumentException("unexpected routing result, data source:" + entry.getKey() + " is not found for statement:"
+                    + statementName);
             }
-        } finally {
-            executor.shutdown();
+            entitiesByShard.put(entry.getKey(), argumentsOf(entry.getValue()));
         }
+        if (!routing.getUnroutedFacts().isEmpty()) {
+            logger.info("can't find routing rule for {} entities of {}, so use default data source for them.", routing.getUnroutedFacts().size(),
+                statementName);
+            entitiesByShard.put(getDefaultDataSourceName(), argumentsOf(routing.getUnroutedFacts()));
+        }
+
         List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
-        for (Map.Entry<String, List<Object>> entity : mrbase.getResources().entrySet()) {
+        for (Map.Entry<String, List<Object>> entity : entitiesByShard.entrySet()) {
             final List<Object> paramList = entity.getValue();
             if (CollectionUtils.isEmpty(paramList)) {
                 continue;
@@ -336,6 +454,14 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
         return counter;
     }
 
+    private static List<Object> argumentsOf(List<MyBatisRoutingFact> facts) {
+        List<Object> arguments = new ArrayList<Object>(facts.size());
+        for (MyBatisRoutingFact fact : facts) {
+            arguments.add(fact.getArgument());
+        }
+        return arguments;
+    }
+
     private DataSource findDataSourceToUse(String key) {
         DataSource dataSourceToUse = null;
         if (StringUtils.equals(key, getDefaultDataSourceName())) {
@@ -352,34 +478,23 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
         long startTimestamp = System.currentTimeMillis();
         try {
             if (isPartitioningBehaviorEnabled()) {
-                SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName, parameterObject);
-                if (!MapUtils.isEmpty(dsMap)) {
-                    SqlSessionCallBack callback = null;
-                    if (rowBounds == null) {
-                        callback = new SqlSessionCallBack() {
-                            public Object execute(SqlSession session) throws SQLException {
-                                return session.selectList(statementName, parameterObject);
-                            }
-                        };
-                    } else {
-                        callback = new SqlSessionCallBack() {
-                            public Object execute(SqlSession session) throws SQLException {
-                                return session.selectList(statementName, parameterObject, rowBounds);
-                            }
-                        };
-                    }
-                    List<Object> originalResultList = executeInConcurrency(dsMap, callback);
-                    if (MapUtils.isNotEmpty(getMergers()) && getMergers().containsKey(statementName)) {
-                        IMerger<Object, Object> merger = getMergers().get(statementName);
-                        if (merger != null) {
-                            return (List) merger.merge(originalResultList);
-                        }
+                if (isShardedPagination() && rowBounds != null && (rowBounds.getOffset() > RowBounds.NO_ROW_OFFSET
+                    || rowBounds.getLimit() < RowBounds.NO_ROW_LIMIT)) {
+                    List<Object> page = selectPageAcrossShards(statementName, parameterObject, rowBounds);
+                    if (page != null) {
+                        return page;
                     }
-                    List<Object> resultList = new ArrayList<Object>();
-                    for (Object item : originalResultList) {
-                        resultList.addAll((List) item);
+                }
+                SqlSessionCallBackFactory callbackFactory = selectListCallBackFactory(statementName, rowBounds);
+                List<Object> originalResultList = executeOnShardKeySubsets(statementName, parameterObject, callbackFactory);
+                if (originalResultList == null) {
+                    SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName, parameterObject);
+                    if (!MapUtils.isEmpty(dsMap)) {
+                        originalResultList = executeInConcurrency(statementName, dsMap, callbackFactory.create(parameterObject));
                     }
-                    return resultList;
+                }
+                if (originalResultList != null) {
+                    return mergeResultsOf(statementName, originalResultList);
                 }
             } // end if for partitioning status checking
             if (rowBounds == null) {
@@ -409,29 +524,208 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
         return this.selectList(statementName, null);
     }
 
-    @Override
-    public Object queryForObject(final String statementName, final Object parameterObject, final Object resultObject) throws DataAccessException {
+    /**
+     * streaming {@link #selectList(String, Object)}, the rows of the shards the sql action is routed to are read as the cursor moves instead of
+     * being loaded into lists, and merged by the comparator if it's given, see {@link ShardCursor}.<br>
+     * the rows of each shard are read on a worker of its own with a connection out of the transaction of the caller, mergers are not applied, and
+     * the cursor should be closed if it's not read through.
+     *
+     * @param comparator order of the rows of each shard, null if the rows of one shard are to follow those of the previous one.
+     */
+    public <E> ShardCursor<E> selectCursor(String statementName, Object parameterObject, Comparator<? super E> comparator) {
+        auditSqlIfNecessary(statementName, parameterObject);
+        ShardCursor<E> cursor = new ShardCursor<E>(getSqlSessionFactory(), getCursorExecutor(), comparator);
+        if (isPartitioningBehaviorEnabled()) {
+            Map<String, Object> parametersByShard = splitByShardKeys(statementName, parameterObject);
+            if (parametersByShard != null) {
+                SortedMap<String, DataSource> dsMap = getShardDataSourceLookup().lookup(new ArrayList<String>(parametersByShard.keySet()));
+                for (Map.Entry<String, DataSource> entry : dsMap.entrySet()) {
+                    cursor.open(entry.getKey(), entry.getValue(), statementName, parametersByShard.get(entry.getKey()));
+                }
+                return cursor;
+            }
+            SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName, parameterObject);
+            if (!MapUtils.isEmpty(dsMap)) {
+                for (Map.Entry<String, DataSource> entry : dsMap.entrySet()) {
+                    cursor.open(entry.getKey(), entry.getValue(), statementName, parameterObject);
+                }
+                return cursor;
+            }
+        }
+        return cursor.open(getDefaultDataSourceName(), getConfiguration().getEnvironment().getDataSource(), statementName, parameterObject);
+    }
+
+    public <E> ShardCursor<E> selectCursor(String statementName, Object parameterObject) {
+        return selectCursor(statementName, parameterObject, null);
+    }
+
+    /**
+     * each shard is queried for its first offset+limit rows, which are all a page could take from it, and the page is taken from their merge.
+     * out of transactions the rows are streamed by a {@link ShardCursor}, which is closed once the page is full, so the shards stop being read and
+     * the merge only goes as far as the page. in transactions the rows have to be read with the connections of the transaction, the rows of each
+     * shard are loaded then, and merged as a whole.
+     *
+     * @return rows of the page, or null if the sql action is routed to one shard or less.
+     * @throws InvalidDataAccessApiUsageException if the merger of the sql action doesn't tell the order of the rows.
+     * @see #pageOf(String, SortedMap, Map, Object, IMerger, Comparator, int, int)
+     */
+    private List<Object> selectPageAcrossShards(String statementName, Object parameterObject, RowBounds rowBounds) {
+        IMerger<Object, Object> merger = mergerOf(statementName);
+        Map<String, Object> parametersByShard = splitByShardKeys(statementName, parameterObject);
+        SortedMap<String, DataSource> dsMap = (parametersByShard != null ? getShardDataSourceLookup().lookup(new ArrayList<String>(
+            parametersByShard.keySet())) : lookupDataSourcesByRouter(statementName, parameterObject));
+        if (dsMap == null || dsMap.size() < 2) {
+            return null;
+        }
+        Comparator<Object> comparator = orderOf(statementName, merger);
+        return pageOf(statementName, dsMap, parametersByShard, parameterObject, merger, comparator, rowBounds.getOffset(), rowBounds.getLimit());
+    }
+
+    /**
+     * @return order of the rows merged by the merger, or null if there's no merger and the rows are concatenated shard after shard.
+     * @throws InvalidDataAccessApiUsageException if the merger is not a {@link KWaySortMerger}.
+     */
+    private static Comparator<Object> orderOf(String statementName, IMerger<Object, Object> merger) {
+        if (merger == null) {
+            return null;
+        }
+        if (merger instanceof KWaySortMerger) {
+            return ((KWaySortMerger<Object>) (IMerger) merger).getComparator();
+        }
+        throw new InvalidDataAccessApiUsageException("rows of sql action:" + statementName + " can't be paged across shards, its merger:" + merger
+            + " is not a KWaySortMerger.");
+    }
+
+    /**
+     * keyset(seek) pagination on the sql actions declared by {@link #setSeekKeys(Map)}, a page costs the same no matter how deep it is, since
+     * each shard is queried for the rows after the last one of the previous page, instead of all of the rows before the page.<br>
+     * the parameter is copied with the values of the key of the last row under {@link #SEEK_KEY}(null for the first page), and the number of
+     * rows to read from each shard under {@link #SEEK_LIMIT}, so the sql action looks like "WHERE (gmtCreated, id) &lt; (#{seekKey.gmtCreated},
+     * #{seekKey.id}) ORDER BY gmtCreated DESC, id DESC LIMIT #{seekLimit}". the rows of the shards are merged in the order of the key the way
+     * paged {@link #selectList(String, Object, RowBounds)} are merged across shards, see {@link #setShardedPagination(boolean)}.
+     *
+     * @param parameterObject a {@link Map}, or null.
+     * @param continuationToken token of the previous page, or null for the first page.
+     * @throws IllegalArgumentException if the sql action doesn't declare a seek key, or the token is not one of it.
+     */
+    public <E> SeekPage<E> selectPage(String statementName, Object parameterObject, String continuationToken, int pageSize) {
+        Validate.isTrue(pageSize > 0 && pageSize < Integer.MAX_VALUE, "page size must be positive.");
+        Validate.isTrue(parameterObject == null || parameterObject instanceof Map, "parameter of seek pagination must be a map.");
+        SeekKey seekKey = seekKeyOf(statementName);
+        Map<Object, Object> seekParameter = new HashMap<Object, Object>();
+        if (parameterObject != null) {
+            seekParameter.putAll((Map<?, ?>) parameterObject);
+        }
+        seekParameter.put(SEEK_KEY, continuationToken == null ? null : seekKey.decode(continuationToken));
+        seekParameter.put(SEEK_LIMIT, pageSize + 1);
+
+        auditSqlIfNecessary(statementName, seekParameter);
+        List<Object> rows = null;
+        if (isPartitioningBehaviorEnabled()) {
+            Map<String, Object> parametersByShard = splitByShardKeys(statementName, seekParameter);
+            SortedMap<String, DataSource> dsMap = (parametersByShard != null ? getShardDataSourceLookup().lookup(new ArrayList<String>(
+                parametersByShard.keySet())) : lookupDataSourcesByRouter(statementName, seekParameter));
+            if (!MapUtils.isEmpty(dsMap)) {
+                KWaySortMerger<Object> merger = new KWaySortMerger<Object>();
+                merger.setComparator(seekKey);
+                rows = pageOf(statementName, dsMap, parametersByShard, seekParameter, (IMerger) merger, seekKey, 0, pageSize + 1);
+            }
+        }
+        if (rows == null) {
+            rows = super.selectList(statementName, seekParameter, new RowBounds(RowBounds.NO_ROW_OFFSET, pageSize + 1));
+        }
+        if (rows.size() <= pageSize) {
+            return new SeekPage<E>((List<E>) rows, null);
+        }
+        rows = new ArrayList<Object>(rows.subList(0, pageSize));
+        return new SeekPage<E>((List<E>) rows, seekKey.encode(rows.get(pageSize - 1)));
+    }
+
+    private SeekKey seekKeyOf(String statementName) {
+        String declaration = declaredFor(getSeekKeys(), statementName);
+        Validate.isTrue(declaration != null, "no seek key is declared for sql action:" + statementName);
+        SeekKey seekKey = parsedSeekKeys.get(declaration);
+        if (seekKey == null) {
+            seekKey = new SeekKey(declaration);
+            parsedSeekKeys.put(declaration, seekKey);
+        }
+        return seekKey;
+    }
+
+    /**
+     * each shard is queried for its first offset+limit rows, which are all a page could take from it, and the page is taken from their merge.
+     *
+     * @param parametersByShard sub-parameters by shards, or null if the shards share the parameter.
+     * @param merger merger of the rows of the shards in transactions, or null if they are concatenated.
+     * @param comparator order of the rows of the shards out of transactions, or null if they are concatenated.
+     */
+    private List<Object> pageOf(String statementName, SortedMap<String, DataSource> dsMap, Map<String, Object> parametersByShard,
+                                Object parameterObject, IMerger<Object, Object> merger, Comparator<Object> comparator, int offset, int limit) {
+        RowBounds shardBounds = new RowBounds(RowBounds.NO_ROW_OFFSET, (int) Math.min(RowBounds.NO_ROW_LIMIT, (long) offset + limit));
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            SqlSessionCallBackFactory callBackFactory = selectListCallBackFactory(statementName, shardBounds);
+            List<ConcurrentRequest> requests = (parametersByShard != null ? requestsOf(dsMap, null, callBacksOf(parametersByShard, callBackFactory),
+                statementName) : requestsOf(dsMap, callBackFactory.create(parameterObject), null, statementName));
+            List<Object> results = getConcurrentRequestProcessor().process(planned(statementName, requests));
+            List rows;
+            if (merger != null) {
+                rows = (List) merger.merge(results);
+            } else {
+                rows = new ArrayList<Object>();
+                for (Object item : results) {
+                    rows.addAll((List) item);
+                }
+            }
+            if (offset >= rows.size()) {
+                return new ArrayList<Object>();
+            }
+            return new ArrayList<Object>(rows.subList(offset, (int) Math.min(rows.size(), (long) offset + limit)));
+        }
+
+        ShardCursor<Object> cursor = new ShardCursor<Object>(getSqlSessionFactory(), getCursorExecutor(), comparator);
+        try {
+            for (Map.Entry<String, DataSource> entry : dsMap.entrySet()) {
+                cursor.open(entry.getKey(), entry.getValue(), statementName, (parametersByShard != null ? parametersByShard.get(entry.getKey())
+                    : parameterObject), shardBounds);
+            }
+        } catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+        return cursor.page(offset, limit);
+    }
+
+    /**
+     * the workers of cursors wait for their readers, so they run on threads of their own instead of on the executors of data sources, which may
+     * run tasks in the caller thread.
+     */
+    private synchronized ExecutorService getCursorExecutor() {
+        if (cursorExecutor == null) {
+            cursorExecutor = VirtualThreads.newThreadPerTaskExecutor("ShardSqlSessionTemplate-cursor-");
+            internalExecutorServiceRegistry.add(cursorExecutor);
+        }
+        return cursorExecutor;
+    }
+
+    /**
+     * selects one row on the shards the sql action is routed to, at most one of the shards may return a row.
+     *
+     * @throws IncorrectResultSizeDataAccessException if more than one shard returns a row.
+     */
+    public Object queryForObject(final String statementName, final Object parameterObject) throws DataAccessException {
         auditSqlIfNecessary(statementName, parameterObject);
         long startTimestamp = System.currentTimeMillis();
         try {
             if (isPartitioningBehaviorEnabled()) {
                 SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName, parameterObject);
                 if (!MapUtils.isEmpty(dsMap)) {
-                    SqlMapClientCallback callback = null;
-                    if (resultObject == null) {
-                        callback = new SqlMapClientCallback() {
-                            public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
-                                return executor.queryForObject(statementName, parameterObject);
-                            }
-                        };
-                    } else {
-                        callback = new SqlMapClientCallback() {
-                            public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
-                                return executor.queryForObject(statementName, parameterObject, resultObject);
-                            }
-                        };
-                    }
-                    List<Object> resultList = executeInConcurrency(callback, dsMap);
+                    SqlSessionCallBack action = new SqlSessionCallBack() {
+                        public Object execute(SqlSession session) throws SQLException {
+                            return session.selectOne(statementName, parameterObject);
+                        }
+                    };
+                    List<Object> resultList = executeInConcurrency(statementName, dsMap, action);
                     @SuppressWarnings("unchecked") Collection<Object> filteredResultList = CollectionUtils.select(resultList, new Predicate() {
                         public boolean evaluate(Object item) {
                             return item != null;
@@ -446,11 +740,7 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
                     return filteredResultList.iterator().next();
                 }
             } // end if for partitioning status checking
-            if (resultObject == null) {
-                return super.queryForObject(statementName, parameterObject);
-            } else {
-                return super.queryForObject(statementName, parameterObject, resultObject);
-            }
+            return super.selectOne(statementName, parameterObject);
         } finally {
             if (isProfileLongTimeRunningSql()) {
                 long interval = System.currentTimeMillis() - startTimestamp;
@@ -463,17 +753,10 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
         }
     }
 
-    @Override
-    public Object queryForObject(final String statementName, final Object parameterObject) throws DataAccessException {
-        return this.queryForObject(statementName, parameterObject, null);
-    }
-
-    @Override
     public Object queryForObject(String statementName) throws DataAccessException {
         return this.queryForObject(statementName, null);
     }
 
-    @Override
     public void update(String statementName, Object parameterObject, int requiredRowsAffected) throws DataAccessException {
         int rowAffected = this.update(statementName, parameterObject);
         if (rowAffected != requiredRowsAffected) {
@@ -488,6 +771,10 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
         long startTimestamp = System.currentTimeMillis();
         try {
             if (isPartitioningBehaviorEnabled()) {
+                List<Object> subsetResults = executeOnShardKeySubsets(statementName, parameterObject, updateCallBackFactory(statementName));
+                if (subsetResults != null) {
+                    return sumOfRowsAffected(subsetResults);
+                }
                 SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName, parameterObject);
                 if (!MapUtils.isEmpty(dsMap)) {
                     SqlSessionCallBack action = new SqlSessionCallBack() {
@@ -496,7 +783,7 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
                         }
                     };
 
-                    List<Object> results = executeInConcurrency(action, dsMap);
+                    List<Object> results = executeInConcurrency(statementName, dsMap, action);
                     Integer rowAffacted = 0;
 
                     for (Object item : results) {
@@ -523,19 +810,144 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
         return this.update(statementName, null);
     }
 
-    protected SortedMap<String, DataSource> lookupDataSourcesByRouter(final String statementName, final Object parameterObject) {
-        SortedMap<String, DataSource> resultMap = new TreeMap<String, DataSource>();
+    /**
+     * asynchronous {@link #selectList(String, Object, RowBounds)}, the sql action is executed on the shards it's routed to without blocking the
+     * caller, and the results are merged in a completion stage.<br>
+     * sql actions that are not routed to any shard run on the default data source in the caller thread, since they take part in its
+     * transaction, and a completed future is returned then. so do all of the sql actions if the {@link IConcurrentRequestProcessor} in use is
+     * not an {@link IAsyncConcurrentRequestProcessor}, and the ones on shards whose connections are bound to the transaction of the caller.
+     */
+    public CompletableFuture<List> selectListAsync(final String statementName, final Object parameterObject, final RowBounds rowBounds) {
+        CompletableFuture<List<Object>> results = executeOnShardsAsync(statementName, parameterObject, selectListCallBackFactory(statementName,
+            rowBounds), true);
+        if (results == null) {
+            return callInCallerThread(() -> selectList(statementName, parameterObject, rowBounds));
+        }
+        return results.thenApply(shardResults -> mergeResultsOf(statementName, shardResults));
+    }
+
+    public CompletableFuture<List> selectListAsync(String statementName, Object parameterObject) {
+        return selectListAsync(statementName, parameterObject, null);
+    }
+
+    /**
+     * asynchronous {@link #insert(String, Object)}, {@link BatchInsertTask}s are always executed in the caller thread.
+     *
+     * @see #selectListAsync(String, Object, RowBounds)
+     */
+    public CompletableFuture<Integer> insertAsync(final String statementName, final Object parameterObject) {
+        CompletableFuture<List<Object>> results = null;
+        if (!(parameterObject instanceof BatchInsertTask)) {
+            results = executeOnShardsAsync(statementName, parameterObject, insertCallBackFactory(statementName), false);
+        }
+        if (results == null) {
+            return callInCallerThread(() -> insert(statementName, parameterObject));
+        }
+        return results.thenApply(this::sumOfRowsAffected);
+    }
+
+    /**
+     * asynchronous {@link #update(String, Object)}.
+     *
+     * @see #selectListAsync(String, Object, RowBounds)
+     */
+    public CompletableFuture<Integer> updateAsync(final String statementName, final Object parameterObject) {
+        CompletableFuture<List<Object>> results = executeOnShardsAsync(statementName, parameterObject, updateCallBackFactory(statementName), true);
+        if (results == null) {
+            return callInCallerThread(() -> update(statementName, parameterObject));
+        }
+        return results.thenApply(this::sumOfRowsAffected);
+    }
+
+    /**
+     * asynchronous {@link #delete(String, Object)}.
+     *
+     * @see #selectListAsync(String, Object, RowBounds)
+     */
+    public CompletableFuture<Integer> deleteAsync(final String statementName, final Object parameterObject) {
+        CompletableFuture<List<Object>> results = executeOnShardsAsync(statementName, parameterObject, deleteCallBackFactory(statementName), true);
+        if (results == null) {
+            return callInCallerThread(() -> delete(statementName, parameterObject));
+        }
+        return results.thenApply(this::sumOfRowsAffected);
+    }
+
+    /**
+     * @param splittable whether the parameter can be split by the shard keys it holds, see {@link #executeOnShardKeySubsets}.
+     * @return future of the results of the shards the sql action is routed to, or null if it's not routed to any shard.
+     */
+    private CompletableFuture<List<Object>> executeOnShardsAsync(final String statementName, final Object parameterObject,
+                                                                 SqlSessionCallBackFactory callBackFactory, boolean splittable) {
+        if (!isPartitioningBehaviorEnabled()) {
+            return null;
+        }
+        final long startTimestamp = System.currentTimeMillis();
+        List<ConcurrentRequest> requests = null;
+        Map<String, Object> parametersByShard = splittable ? splitByShardKeys(statementName, parameterObject) : null;
+        if (parametersByShard != null) {
+            requests = requestsOf(getShardDataSourceLookup().lookup(new ArrayList<String>(parametersByShard.keySet())), null, callBacksOf(
+                parametersByShard, callBackFactory), statementName);
+        } else {
+            SortedMap<String, DataSource> dsMap = lookupDataSourcesByRouter(statementName, parameterObject);
+            if (MapUtils.isEmpty(dsMap)) {
+                return null;
+            }
+            requests = requestsOf(dsMap, callBackFactory.create(parameterObject), null, statementName);
+        }
+        auditSqlIfNecessary(statementName, parameterObject);
+        CompletableFuture<List<Object>> results = processAsync(requests);
+        if (isProfileLongTimeRunningSql()) {
+            results.whenComplete((shardResults, failure) -> warnIfLongTimeRunning(statementName, parameterObject, startTimestamp));
+        }
+        return results;
+    }
+
+    private CompletableFuture<List<Object>> processAsync(final List<ConcurrentRequest> requests) {
+        final IConcurrentRequestProcessor processor = getConcurrentRequestProcessor();
+        if (processor instanceof IAsyncConcurrentRequestProcessor) {
+            return ((IAsyncConcurrentRequestProcessor) processor).processAsync(requests);
+        }
+        return callInCallerThread(() -> processor.process(requests));
+    }
+
+    private static <T> CompletableFuture<T> callInCallerThread(Supplier<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            future.complete(call.get());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
 
+    private void warnIfLongTimeRunning(String statementName, Object parameterObject, long startTimestamp) {
+        long interval = System.currentTimeMillis() - startTimestamp;
+        if (interval > getLongTimeRunningSqlIntervalThreshold()) {
+            logger.warn("SQL Statement [{}] with parameter object [{}] ran out of the normal time range, it consumed [{}] milliseconds.",
+                new Object[]{statementName, parameterObject, interval});
+        }
+    }
+
+    /**
+     * the returned mapping is shared by the requests routed to the same shards, it can't be changed.
+     */
+    protected SortedMap<String, DataSource> lookupDataSourcesByRouter(final String statementName, final Object parameterObject) {
         if (getRouter() != null && getShardDataSourceService() != null) {
             List<String> dsSet = getRouter().doRoute(new MyBatisRoutingFact(statementName, parameterObject)).getResourceIdentities();
             if (CollectionUtils.isNotEmpty(dsSet)) {
-                Collections.sort(dsSet);
-                for (String dsName : dsSet) {
-                    resultMap.put(dsName, getShardDataSourceService().getDataSources().get(dsName));
-                }
+                return getShardDataSourceLookup().lookup(dsSet);
             }
         }
-        return resultMap;
+        return NO_DATA_SOURCES;
+    }
+
+    private ShardDataSourceLookup getShardDataSourceLookup() {
+        ShardDataSourceLookup lookup = shardDataSourceLookup;
+        if (lookup == null || lookup.getShardDataSourceService() != getShardDataSourceService()) {
+            lookup = new ShardDataSourceLookup(getShardDataSourceService());
+            shardDataSourceLookup = lookup;
+        }
+        return lookup;
     }
 
     protected String getSqlByStatementName(String statementName, Object parameterObject) {
@@ -573,17 +985,246 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
         }
     }
 
+    /**
+     * the requests are bound to a deadline of {@link #getDefaultQueryTimeout()}.
+     */
     public List<Object> executeInConcurrency(SortedMap<String, DataSource> dsMap, SqlSessionCallBack callBack) {
+        List<Object> results = getConcurrentRequestProcessor().process(requestsOf(dsMap, callBack, null, null));
+        return results;
+    }
+
+    /**
+     * same as {@link #executeInConcurrency(SortedMap, SqlSessionCallBack)}, except that each data source has its own callback.
+     */
+    public List<Object> executeInConcurrency(SortedMap<String, DataSource> dsMap, Map<String, SqlSessionCallBack> callBacks) {
+        return getConcurrentRequestProcessor().process(requestsOf(dsMap, null, callBacks, null));
+    }
+
+    /**
+     * same as {@link #executeInConcurrency(SortedMap, SqlSessionCallBack)}, except that the requests are bound to the deadline of the sql action,
+     * see {@link #setQueryTimeouts(Map)}, and are executed as planned by {@link #getExecutionPlanner()}.
+     */
+    protected List<Object> executeInConcurrency(String statementName, SortedMap<String, DataSource> dsMap, SqlSessionCallBack callBack) {
+        return getConcurrentRequestProcessor().process(planned(statementName, requestsOf(dsMap, callBack, null, statementName)));
+    }
+
+    /**
+     * the requests share one deadline, and the ones of reads can be hedged to the standby data sources if {@link #getHedgingPolicy()} is given.
+     *
+     * @param callBack the callback for all of the data sources, if callbacks by data sources are not given.
+     * @param statementName the sql action, or null if it's not known.
+     */
+    private List<ConcurrentRequest> requestsOf(SortedMap<String, DataSource> dsMap, SqlSessionCallBack callBack,
+                                               Map<String, SqlSessionCallBack> callBacks, String statementName) {
+        Deadline deadline = deadlineOf(statementName);
+        boolean hedgeable = isHedgeable(statementName);
         List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
         for (Map.Entry<String, DataSource> entry : dsMap.entrySet()) {
             ConcurrentRequest request = new ConcurrentRequest();
-            request.setAction(callBack);
+            request.setIdentity(entry.getKey());
+            request.setAction(callBacks == null ? callBack : callBacks.get(entry.getKey()));
             request.setDataSource(entry.getValue());
             request.setExecutor(getDataSourceSpecificExecutors().get(entry.getKey()));
+            request.setDeadline(deadline);
+            if (hedgeable) {
+                request.setStandbyDataSource(standbyDataSources.get(entry.getKey()));
+            }
             requests.add(request);
         }
-        List<Object> results = getConcurrentRequestProcessor().process(requests);
-        return results;
+        return requests;
+    }
+
+    /**
+     * asynchronous executions are not planned, since they must not run inline in the caller thread.
+     */
+    private List<ConcurrentRequest> planned(String statementName, List<ConcurrentRequest> requests) {
+        if (getExecutionPlanner() == null) {
+            return requests;
+        }
+        return getExecutionPlanner().plan(statementName, commandTypeOf(statementName), requests);
+    }
+
+    private boolean isHedgeable(String statementName) {
+        if (getHedgingPolicy() == null || standbyDataSources.isEmpty()) {
+            return false;
+        }
+        return commandTypeOf(statementName) == SqlCommandType.SELECT;
+    }
+
+    private SqlCommandType commandTypeOf(String statementName) {
+        if (statementName == null || !getConfiguration().hasStatement(statementName)) {
+            return SqlCommandType.UNKNOWN;
+        }
+        return getConfiguration().getMappedStatement(statementName).getSqlCommandType();
+    }
+
+    /**
+     * @param statementName the sql action, or null for the default timeout.
+     * @return deadline from now on by the timeout of the sql action, or null if it has no timeout.
+     */
+    private Deadline deadlineOf(String statementName) {
+        Integer timeout = (statementName == null ? null : declaredFor(getQueryTimeouts(), statementName));
+        int timeoutMillis = (timeout == null ? getDefaultQueryTimeout() : timeout);
+        return timeoutMillis > 0 ? Deadline.after(timeoutMillis) : null;
+    }
+
+    /**
+     * if the sql action declares a shard key collection(see {@link #setShardKeyCollections(Map)}) or a shard key range(see
+     * {@link #setShardKeyRanges(Map)}), its parameter is split by the shards owning the keys, and the sql action is executed on each of them with
+     * only the keys it owns.<br>
+     *
+     * @return results of the shards, or null if the sql action doesn't declare any shard keys or its parameter can't be split, the sql action
+     *         should be routed as a whole then.
+     */
+    protected List<Object> executeOnShardKeySubsets(String statementName, Object parameterObject, SqlSessionCallBackFactory callBackFactory) {
+        Map<String, Object> parametersByShard = splitByShardKeys(statementName, parameterObject);
+        if (parametersByShard == null) {
+            return null;
+        }
+        List<ConcurrentRequest> requests = requestsOf(getShardDataSourceLookup().lookup(new ArrayList<String>(parametersByShard.keySet())), null,
+            callBacksOf(parametersByShard, callBackFactory), statementName);
+        return getConcurrentRequestProcessor().process(planned(statementName, requests));
+    }
+
+    /**
+     * @return sub-parameters by shard identities, or null if the sql action doesn't declare any shard keys or its parameter can't be split.
+     */
+    private Map<String, Object> splitByShardKeys(String statementName, Object parameterObject) {
+        if (getRouter() == null || getShardDataSourceService() == null) {
+            return null;
+        }
+        Map<String, Object> parametersByShard = null;
+        String property = declaredFor(getShardKeyCollections(), statementName);
+        if (property != null) {
+            parametersByShard = ShardKeyCollectionSplitter.split(getRouter(), statementName, parameterObject, property);
+        }
+        String bounds = declaredFor(getShardKeyRanges(), statementName);
+        if (parametersByShard == null && bounds != null) {
+            String[] properties = StringUtils.split(bounds, ',');
+            Validate.isTrue(properties.length == 2, "lower and upper bound properties are expected for range of sql action:" + statementName);
+            parametersByShard = ShardKeyRangeSplitter.split(getRouter(), statementName, parameterObject, StringUtils.trim(properties[0]),
+                StringUtils.trim(properties[1]));
+        }
+        return parametersByShard;
+    }
+
+    private static Map<String, SqlSessionCallBack> callBacksOf(Map<String, Object> parametersByShard, SqlSessionCallBackFactory callBackFactory) {
+        Map<String, SqlSessionCallBack> callBacks = new HashMap<String, SqlSessionCallBack>();
+        for (Map.Entry<String, Object> entry : parametersByShard.entrySet()) {
+            callBacks.put(entry.getKey(), callBackFactory.create(entry.getValue()));
+        }
+        return callBacks;
+    }
+
+    /**
+     * @return the declaration of the sql action, or of its namespace if there's none for the sql action.
+     */
+    private <T> T declaredFor(Map<String, T> declarations, String statementName) {
+        if (MapUtils.isEmpty(declarations)) {
+            return null;
+        }
+        T declaration = declarations.get(statementName);
+        if (declaration == null && statementName.lastIndexOf('.') > 0) {
+            declaration = declarations.get(statementName.substring(0, statementName.lastIndexOf('.')));
+        }
+        return declaration;
+    }
+
+    private List mergeResultsOf(String statementName, List<Object> originalResultList) {
+        IMerger<Object, Object> merger = mergerOf(statementName);
+        if (merger != null) {
+            return (List) merger.merge(originalResultList);
+        }
+        List<Object> resultList = new ArrayList<Object>();
+        for (Object item : originalResultList) {
+            resultList.addAll((List) item);
+        }
+        return resultList;
+    }
+
+    /**
+     * @return the merger of the sql action given by {@link #setMergers(Map)}, or the one bound to it by the rules of router, see
+     *         {@link StatementRoutingPlan#getMerger()}, null if there's none.
+     */
+    @SuppressWarnings("unchecked")
+    private IMerger<Object, Object> mergerOf(String statementName) {
+        if (MapUtils.isNotEmpty(getMergers()) && getMergers().get(statementName) != null) {
+            return getMergers().get(statementName);
+        }
+        if (getRouter() instanceof IRoutingPlanProvider) {
+            return (IMerger<Object, Object>) ((IRoutingPlanProvider) getRouter()).planFor(statementName).getMerger();
+        }
+        return null;
+    }
+
+    private SqlSessionCallBackFactory selectListCallBackFactory(final String statementName, final RowBounds rowBounds) {
+        return new SqlSessionCallBackFactory() {
+            public SqlSessionCallBack create(final Object parameter) {
+                if (rowBounds == null) {
+                    return new SqlSessionCallBack() {
+                        public Object execute(SqlSession session) throws SQLException {
+                            return session.selectList(statementName, parameter);
+                        }
+                    };
+                }
+                return new SqlSessionCallBack() {
+                    public Object execute(SqlSession session) throws SQLException {
+                        return session.selectList(statementName, parameter, rowBounds);
+                    }
+                };
+            }
+        };
+    }
+
+    private SqlSessionCallBackFactory insertCallBackFactory(final String statementName) {
+        return new SqlSessionCallBackFactory() {
+            public SqlSessionCallBack create(final Object parameter) {
+                return new SqlSessionCallBack() {
+                    public Object execute(SqlSession session) throws SQLException {
+                        return session.insert(statementName, parameter);
+                    }
+                };
+            }
+        };
+    }
+
+    private SqlSessionCallBackFactory updateCallBackFactory(final String statementName) {
+        return new SqlSessionCallBackFactory() {
+            public SqlSessionCallBack create(final Object parameter) {
+                return new SqlSessionCallBack() {
+                    public Object execute(SqlSession session) throws SQLException {
+                        return session.update(statementName, parameter);
+                    }
+                };
+            }
+        };
+    }
+
+    private SqlSessionCallBackFactory deleteCallBackFactory(final String statementName) {
+        return new SqlSessionCallBackFactory() {
+            public SqlSessionCallBack create(final Object parameter) {
+                return new SqlSessionCallBack() {
+                    public Object execute(SqlSession session) throws SQLException {
+                        return session.delete(statementName, parameter);
+                    }
+                };
+            }
+        };
+    }
+
+    private int sumOfRowsAffected(List<Object> results) {
+        int rowsAffected = 0;
+        for (Object item : results) {
+            rowsAffected += (Integer) item;
+        }
+        return rowsAffected;
+    }
+
+    /**
+     * creates the callback of a sql action for a given parameter.
+     */
+    protected interface SqlSessionCallBackFactory {
+        SqlSessionCallBack create(Object parameterObject);
     }
 
 
@@ -651,6 +1292,15 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
         if (isPartitioningBehaviorEnabled()) {
 
             if (MapUtils.isEmpty(getDataSourceSpecificExecutors())) {
+                if (isWorkStealingExecution()) {
+                    workStealingScheduler = new WorkStealingScheduler(getWorkStealingParallelism(), "ShardSqlSessionTemplate-worker-");
+                    sharedRequestExecutor = workStealingScheduler.getPool();
+                    logger.info("requests on data sources are executed by {}.", workStealingScheduler);
+                } else if (isVirtualThreadExecution()) {
+                    sharedRequestExecutor = VirtualThreads.newThreadPerTaskExecutor("ShardSqlSessionTemplate-request-");
+                    logger.info("requests on data sources are executed on {}.", VirtualThreads.isSupported() ? "virtual threads"
+                        : "cached threads since virtual threads are not supported");
+                }
 
                 Set<ShardDataSourceDescriptor> dataSourceDescriptors = getShardDataSourceService().getDataSourceDescriptors();
                 for (ShardDataSourceDescriptor descriptor : dataSourceDescriptors) {
@@ -660,11 +1310,21 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
             }
 
             addDefaultSingleThreadExecutorIfNecessary();
+            if (sharedRequestExecutor != null) {
+                // disposed after the executors of data sources that hand tasks to it
+                internalExecutorServiceRegistry.add(sharedRequestExecutor);
+            }
         }
     }
 
     private ExecutorService createExecutorForSpecificDataSource(ShardDataSourceDescriptor descriptor) {
         final String identity = descriptor.getIdentity();
+        if (sharedRequestExecutor != null) {
+            ExecutorService executor = workStealingScheduler != null ? workStealingScheduler.executorFor(descriptor.getPoolSize())
+                : new PermitBoundedExecutorService(sharedRequestExecutor, descriptor.getPoolSize());
+            internalExecutorServiceRegistry.add(executor);
+            return executor;
+        }
         final ExecutorService executor = createCustomExecutorService(descriptor.getPoolSize(),
             "createExecutorForSpecificDataSource-" + identity + " data source");
         // 1. register executor for disposing explicitly
@@ -740,6 +1400,11 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
         return dataSourceSpecificExecutors;
     }
 
+    /**
+     * set the timeout in milliseconds of each call, on one shard or more, see {@link #defaultQueryTimeout}.<br>
+     * note that the default is 0 now, i.e. no deadline, while it used to be 100 milliseconds, which was never enforced; set it explicitly to
+     * bound the calls.
+     */
     public void setDefaultQueryTimeout(int defaultQueryTimeout) {
         this.defaultQueryTimeout = defaultQueryTimeout;
     }
@@ -748,6 +1413,14 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
         return defaultQueryTimeout;
     }
 
+    public void setQueryTimeouts(Map<String, Integer> queryTimeouts) {
+        this.queryTimeouts = queryTimeouts;
+    }
+
+    public Map<String, Integer> getQueryTimeouts() {
+        return queryTimeouts;
+    }
+
     public void setShardDataSourceService(IShardDataSourceService shardDataSourceService) {
         this.shardDataSourceService = shardDataSourceService;
     }
@@ -796,6 +1469,87 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
         return concurrentRequestProcessor;
     }
 
+    public void setVirtualThreadExecution(boolean virtualThreadExecution) {
+        this.virtualThreadExecution = virtualThreadExecution;
+    }
+
+    public boolean isVirtualThreadExecution() {
+        return virtualThreadExecution;
+    }
+
+    public void setWorkStealingExecution(boolean workStealingExecution) {
+        this.workStealingExecution = workStealingExecution;
+    }
+
+    public boolean isWorkStealingExecution() {
+        return workStealingExecution;
+    }
+
+    public void setWorkStealingParallelism(int workStealingParallelism) {
+        Validate.isTrue(workStealingParallelism > 0, "work-stealing parallelism must be positive.");
+        this.workStealingParallelism = workStealingParallelism;
+    }
+
+    public int getWorkStealingParallelism() {
+        return workStealingParallelism;
+    }
+
+    /**
+     * @return the scheduler shared by the data sources if {@link #isWorkStealingExecution()}, null otherwise.
+     */
+    public WorkStealingScheduler getWorkStealingScheduler() {
+        return workStealingScheduler;
+    }
+
+    public void setExecutionPlanner(IExecutionPlanner executionPlanner) {
+        this.executionPlanner = executionPlanner;
+    }
+
+    public IExecutionPlanner getExecutionPlanner() {
+        return executionPlanner;
+    }
+
+    public void setDeferredConnectionAcquisition(boolean deferredConnectionAcquisition) {
+        this.deferredConnectionAcquisition = deferredConnectionAcquisition;
+    }
+
+    public boolean isDeferredConnectionAcquisition() {
+        return deferredConnectionAcquisition;
+    }
+
+    public void setConcurrencyLimitFactory(IConcurrencyLimitFactory concurrencyLimitFactory) {
+        this.concurrencyLimitFactory = concurrencyLimitFactory;
+    }
+
+    public IConcurrencyLimitFactory getConcurrencyLimitFactory() {
+        return concurrencyLimitFactory;
+    }
+
+    public void setMaxQueuedRequests(int maxQueuedRequests) {
+        Validate.isTrue(maxQueuedRequests >= 0, "max queued requests can't be negative.");
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    /**
+     * @return executors of data sources with their current concurrency limits, in-flight and queued requests, by identities of data sources,
+     *         empty unless {@link #setConcurrencyLimitFactory(IConcurrencyLimitFactory)} is given.
+     */
+    public Map<String, ConcurrencyLimitedExecutorService> getConcurrencyLimitedExecutors() {
+        return Collections.unmodifiableMap(new TreeMap<String, ConcurrencyLimitedExecutorService>(concurrencyLimitedExecutors));
+    }
+
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
     public void setMergers(Map<String, IMerger<Object, Object>> mergers) {
         this.mergers = mergers;
     }
@@ -804,6 +1558,38 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
         return mergers;
     }
 
+    public void setShardedPagination(boolean shardedPagination) {
+        this.shardedPagination = shardedPagination;
+    }
+
+    public boolean isShardedPagination() {
+        return shardedPagination;
+    }
+
+    public void setShardKeyCollections(Map<String, String> shardKeyCollections) {
+        this.shardKeyCollections = shardKeyCollections;
+    }
+
+    public Map<String, String> getShardKeyCollections() {
+        return shardKeyCollections;
+    }
+
+    public void setShardKeyRanges(Map<String, String> shardKeyRanges) {
+        this.shardKeyRanges = shardKeyRanges;
+    }
+
+    public Map<String, String> getShardKeyRanges() {
+        return shardKeyRanges;
+    }
+
+    public void setSeekKeys(Map<String, String> seekKeys) {
+        this.seekKeys = seekKeys;
+    }
+
+    public Map<String, String> getSeekKeys() {
+        return seekKeys;
+    }
+
     private ExecutorService createCustomExecutorService(int poolSize, final String method) {
         int coreSize = Runtime.getRuntime().availableProcessors();
         if (poolSize < coreSize) {
@@ -829,10 +1615,62 @@ public class ShardSqlSessionTemplate extends SqlSessionTemplate implements Initi
                 throw new IllegalArgumentException("'longTimeRunningSqlIntervalThreshold' should have a positive value if 'profileLongTimeRunningSql' is set to true");
             }
         }
+        if (isWorkStealingExecution() && isVirtualThreadExecution()) {
+            throw new IllegalArgumentException("'workStealingExecution' and 'virtualThreadExecution' can't be both set to true");
+        }
         setupDefaultExecutorServicesIfNecessary();
+        setUpConcurrencyLimitsIfNecessary();
         setUpDefaultSqlAuditorExecutorIfNecessary();
         if (getConcurrentRequestProcessor() == null) {
-            setConcurrentRequestProcessor(new DefaultConcurrentRequestProcessor(getSqlSessionFactory()));
+            DefaultConcurrentRequestProcessor processor = new DefaultConcurrentRequestProcessor(getSqlSessionFactory());
+            processor.setDeferredConnectionAcquisition(isDeferredConnectionAcquisition());
+            setConcurrentRequestProcessor(processor);
+        }
+        setUpHedgingIfNecessary();
+        if (getExecutionPlanner() == null) {
+            setExecutionPlanner(new DefaultExecutionPlanner());
+        }
+    }
+
+    private void setUpConcurrencyLimitsIfNecessary() {
+        if (getConcurrencyLimitFactory() == null || MapUtils.isEmpty(getDataSourceSpecificExecutors())) {
+            return;
+        }
+        Map<String, Integer> poolSizes = new HashMap<String, Integer>();
+        if (isPartitioningBehaviorEnabled()) {
+            for (ShardDataSourceDescriptor descriptor : getShardDataSourceService().getDataSourceDescriptors()) {
+                poolSizes.put(descriptor.getIdentity(), descriptor.getPoolSize());
+            }
+        }
+        Map<String, ConcurrencyLimitedExecutorService> limitedExecutors = new HashMap<String, ConcurrencyLimitedExecutorService>();
+        for (Map.Entry<String, ExecutorService> entry : getDataSourceSpecificExecutors().entrySet()) {
+            Integer poolSize = poolSizes.get(entry.getKey());
+            ConcurrencyLimitedExecutorService executor = new ConcurrencyLimitedExecutorService(entry.getValue(), getConcurrencyLimitFactory().create(
+                poolSize != null ? poolSize : Runtime.getRuntime().availableProcessors() * 5), getMaxQueuedRequests());
+            limitedExecutors.put(entry.getKey(), executor);
+            // disposed before the executors it hands tasks to
+            internalExecutorServiceRegistry.add(0, executor);
+        }
+        getDataSourceSpecificExecutors().putAll(limitedExecutors);
+        concurrencyLimitedExecutors = limitedExecutors;
+    }
+
+    private void setUpHedgingIfNecessary() {
+        if (getHedgingPolicy() == null || !isPartitioningBehaviorEnabled()) {
+            return;
+        }
+        Map<String, DataSource> standbys = new HashMap<String, DataSource>();
+        for (ShardDataSourceDescriptor descriptor : getShardDataSourceService().getDataSourceDescriptors()) {
+            if (descriptor.getStandbyDataSource() != null) {
+                standbys.put(descriptor.getIdentity(), descriptor.getStandbyDataSource());
+            }
+        }
+        standbyDataSources = standbys;
+        if (getConcurrentRequestProcessor() instanceof DefaultConcurrentRequestProcessor) {
+            DefaultConcurrentRequestProcessor processor = (DefaultConcurrentRequestProcessor) getConcurrentRequestProcessor();
+            if (processor.getHedgingPolicy() == null) {
+                processor.setHedgingPolicy(getHedgingPolicy());
+            }
         }
     }
 }
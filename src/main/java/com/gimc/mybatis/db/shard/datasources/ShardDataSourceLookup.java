@@ -0,0 +1,97 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.datasources;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.Validate;
+
+import com.gimc.mybatis.db.shard.router.support.RoutingTargets;
+
+/**
+ * looks up the data sources of the shard identities a routing result gives.<br>
+ * the sorted mapping of each distinct identity list is built once and shared, so that a routing result of a rule, which is the same list
+ * every time, is turned into data sources with neither sorting nor map building. the shared mappings can't be changed.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class ShardDataSourceLookup {
+
+    /**
+     * identity lists are bounded by the rules in general, the bound only protects from routers that give a new combination on each request.
+     */
+    public static final int DEFAULT_MAXIMUM_MAPPINGS = 10000;
+
+    private final IShardDataSourceService shardDataSourceService;
+    private final int maximumMappings;
+    private final ConcurrentMap<List<String>, SortedMap<String, DataSource>> mappings = new ConcurrentHashMap<List<String>, SortedMap<String, DataSource>>();
+
+    public ShardDataSourceLookup(IShardDataSourceService shardDataSourceService) {
+        this(shardDataSourceService, DEFAULT_MAXIMUM_MAPPINGS);
+    }
+
+    public ShardDataSourceLookup(IShardDataSourceService shardDataSourceService, int maximumMappings) {
+        Validate.notNull(shardDataSourceService);
+        Validate.isTrue(maximumMappings >= 0, "maximum number of mappings can't be negative.");
+        this.shardDataSourceService = shardDataSourceService;
+        this.maximumMappings = maximumMappings;
+    }
+
+    /**
+     * @param identities shard identities of a routing result
+     * @return identity to data source mapping sorted by identities, data sources are null for unknown identities.
+     */
+    public SortedMap<String, DataSource> lookup(List<String> identities) {
+        Validate.notNull(identities);
+        SortedMap<String, DataSource> dataSources = mappings.get(identities);
+        if (dataSources != null) {
+            return dataSources;
+        }
+
+        SortedMap<String, DataSource> mapping = new TreeMap<String, DataSource>();
+        for (String identity : identities) {
+            mapping.put(identity, shardDataSourceService.getDataSources().get(identity));
+        }
+        dataSources = Collections.unmodifiableSortedMap(mapping);
+        if (mappings.size() < maximumMappings) {
+            // routers may hand out mutable lists, which can't be taken as keys
+            List<String> key = identities instanceof RoutingTargets ? identities : Collections.unmodifiableList(new ArrayList<String>(identities));
+            SortedMap<String, DataSource> existing = mappings.putIfAbsent(key, dataSources);
+            if (existing != null) {
+                dataSources = existing;
+            }
+        }
+        return dataSources;
+    }
+
+    /**
+     * forget all of the mappings, it should be called once the data sources of {@link IShardDataSourceService} change.
+     */
+    public void clear() {
+        mappings.clear();
+    }
+
+    public IShardDataSourceService getShardDataSourceService() {
+        return shardDataSourceService;
+    }
+
+}
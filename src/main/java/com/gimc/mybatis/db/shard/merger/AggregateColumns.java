@@ -0,0 +1,133 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.merger;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import com.gimc.mybatis.db.shard.support.utils.ValueUtils;
+
+/**
+ * aggregate columns of the rows of shards, parsed from declarations like {"orders": "COUNT", "amount": "SUM", "lowest": "MIN(price)",
+ * "average": "AVG(amountSum,amountCount)"}, that's, result column to function, the column is aggregated itself if the function doesn't name its
+ * source column.<br>
+ * AVG is not an {@link AggregateFunction}, since it can't be combined from averages, it always names the sum and the count columns, which are
+ * summed up as SUM and COUNT are, and divided once all of the rows are accumulated.<br>
+ * partial results of a group are accumulated in an array of {@link #width()} slots.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+final class AggregateColumns {
+
+    private static final String AVG = "AVG";
+
+    private final String[] columns;
+    /**
+     * functions of the columns, null for AVG.
+     */
+    private final AggregateFunction[] functions;
+    private final boolean[] averages;
+    private final String[] sources;
+    /**
+     * count columns of AVG, null for the others.
+     */
+    private final String[] countSources;
+
+    AggregateColumns(Map<String, String> declarations) {
+        Validate.isTrue(declarations != null && !declarations.isEmpty(), "aggregate columns must be given.");
+        int size = declarations.size();
+        columns = new String[size];
+        functions = new AggregateFunction[size];
+        averages = new boolean[size];
+        sources = new String[size];
+        countSources = new String[size];
+        int i = 0;
+        for (Map.Entry<String, String> entry : declarations.entrySet()) {
+            String declaration = StringUtils.deleteWhitespace(StringUtils.trimToEmpty(entry.getValue()));
+            String name = StringUtils.substringBefore(declaration, "(");
+            String arguments = StringUtils.substringBetween(declaration, "(", ")");
+            columns[i] = StringUtils.trim(entry.getKey());
+            if (AVG.equalsIgnoreCase(name)) {
+                averages[i] = true;
+                String[] pair = StringUtils.split(StringUtils.trimToEmpty(arguments), ',');
+                Validate.isTrue(pair.length == 2, "AVG must name its sum and count columns, like AVG(amountSum,amountCount):" + columns[i]);
+                sources[i] = pair[0];
+                countSources[i] = pair[1];
+            } else {
+                try {
+                    functions[i] = AggregateFunction.valueOf(name.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("unknown aggregate function:" + entry.getValue() + " of column:" + entry.getKey());
+                }
+                sources[i] = StringUtils.isEmpty(arguments) ? columns[i] : arguments;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @return number of slots to accumulate the partial results of a group in, the slots of each column follow those of the previous one.
+     */
+    int width() {
+        int width = 0;
+        for (boolean average : averages) {
+            width += (average ? 2 : 1);
+        }
+        return width;
+    }
+
+    void accumulate(Object[] slots, Map<?, ?> row) {
+        int slot = 0;
+        for (int i = 0; i < functions.length; i++) {
+            if (averages[i]) {
+                slots[slot] = AggregateFunction.SUM.combine(slots[slot], row.get(sources[i]));
+                slots[slot + 1] = AggregateFunction.COUNT.combine(slots[slot + 1], row.get(countSources[i]));
+                slot += 2;
+            } else {
+                slots[slot] = functions[i].combine(slots[slot], row.get(sources[i]));
+                slot++;
+            }
+        }
+    }
+
+    void writeTo(Object[] slots, Map<Object, Object> row) {
+        int slot = 0;
+        for (int i = 0; i < functions.length; i++) {
+            if (averages[i]) {
+                row.put(columns[i], average(slots[slot], slots[slot + 1]));
+                slot += 2;
+            } else {
+                row.put(columns[i], slots[slot]);
+                slot++;
+            }
+        }
+    }
+
+    /**
+     * @return the average, or null if the count is 0 or the sum is null.
+     */
+    static Object average(Object sum, Object count) {
+        if (sum == null || count == null || ((Number) count).longValue() == 0) {
+            return null;
+        }
+        if (sum instanceof Double || sum instanceof Float) {
+            return ((Number) sum).doubleValue() / ((Number) count).longValue();
+        }
+        return ValueUtils.toBigDecimal((Number) sum).divide(BigDecimal.valueOf(((Number) count).longValue()), MathContext.DECIMAL64);
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.merger;
+
+import com.gimc.mybatis.db.shard.support.utils.ValueUtils;
+
+/**
+ * aggregate functions whose partial results of shards can be combined into the result of all of them.<br>
+ * COUNT and SUM are summed up, and MIN and MAX are compared by {@link ValueUtils#compare(Object, Object)}. null partial results, e.g. SUM of a
+ * shard without any rows, are skipped. AVG is not one of them, since it can't be combined from averages, see {@link AggregateColumns} for how
+ * it's computed from sums and counts.<br>
+ * integral sums are kept as Long until they overflow, sums of decimals are BigDecimals, and sums of floating numbers are Doubles.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public enum AggregateFunction {
+
+    COUNT, SUM, MIN, MAX;
+
+    /**
+     * @param result combined result so far, or null.
+     * @param partial partial result of a shard, or null.
+     */
+    public Object combine(Object result, Object partial) {
+        if (partial == null) {
+            return result;
+        }
+        if (result == null) {
+            return this == COUNT || this == SUM ? add(null, (Number) partial) : partial;
+        }
+        switch (this) {
+            case MIN:
+                return ValueUtils.compare(partial, result) < 0 ? partial : result;
+            case MAX:
+                return ValueUtils.compare(partial, result) > 0 ? partial : result;
+            default:
+                return add((Number) result, (Number) partial);
+        }
+    }
+
+    private static Number add(Number result, Number partial) {
+        if (result == null) {
+            return isIntegral(partial) ? Long.valueOf(partial.longValue()) : partial;
+        }
+        if (isIntegral(result) && isIntegral(partial)) {
+            long sum = result.longValue() + partial.longValue();
+            // overflow if both operands have the opposite sign of the sum
+            if (((result.longValue() ^ sum) & (partial.longValue() ^ sum)) >= 0) {
+                return sum;
+            }
+        }
+        if ((result instanceof Double || result instanceof Float) && (partial instanceof Double || partial instanceof Float)) {
+            return result.doubleValue() + partial.doubleValue();
+        }
+        return ValueUtils.toBigDecimal(result).add(ValueUtils.toBigDecimal(partial));
+    }
+
+    private static boolean isIntegral(Number number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+}
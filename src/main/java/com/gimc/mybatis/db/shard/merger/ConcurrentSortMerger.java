@@ -24,6 +24,7 @@ import java.util.concurrent.Future;
 
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.ConcurrencyFailureException;
 
 /**
  * This merger implementation is mainly for situations that the original
@@ -34,7 +35,10 @@ import org.springframework.beans.factory.InitializingBean;
  * @author fujohnwang
  * @since 1.0
  * @param <E>
+ * @deprecated the lists are merged in pairs level by level, each level copies all of the elements again and hands them to the executor.
+ *             {@link KWaySortMerger} merges them in one pass in the caller thread.
  */
+@Deprecated
 public class ConcurrentSortMerger<E> implements IMerger<List<E>, List<E>>, InitializingBean, DisposableBean {
 
     private boolean usingDefaultExecutor = false;
@@ -66,9 +70,10 @@ public class ConcurrentSortMerger<E> implements IMerger<List<E>, List<E>>, Initi
                     try {
                         partialResult.add(f.get());
                     } catch (InterruptedException e) {
-                        e.printStackTrace();
+                        Thread.currentThread().interrupt();
+                        throw new ConcurrencyFailureException("interrupted when merging sub-result lists", e);
                     } catch (ExecutionException e) {
-                        e.printStackTrace();
+                        throw new ConcurrencyFailureException("failed to merge sub-result lists", e.getCause());
                     }
                 }
 
@@ -0,0 +1,204 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.merger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.gimc.mybatis.db.shard.support.utils.CollectionUtils;
+
+/**
+ * merger for the results of an aggregate sql action with "GROUP BY", e.g. "SELECT sellerId, COUNT(*) AS orders, SUM(amount) AS amount FROM ...
+ * GROUP BY sellerId", of which each shard returns one row for each of its groups, the rows of the same group are combined into one.<br>
+ * rows must be {@link Map}s(resultType="map"), the groups are told by the values of the {@link #setGroupBy(String) group columns}, and the
+ * {@link #setAggregates(Map) aggregate columns} are combined as {@link AggregateFunction} tells, the other columns are taken from the first row
+ * of each group. groups are returned in the order they are first met.<br>
+ * rows are merged in one pass, groups are looked up in an open-addressing hash table with linear probing on the group columns of each row, so
+ * no key object is created for a row of a known group.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ * @see ScalarAggregateMerger
+ */
+public class GroupedAggregateMerger implements IMerger<List<Map<String, Object>>, List<Map<String, Object>>>, InitializingBean {
+
+    private String[] groupColumns;
+    private Map<String, String> aggregates;
+    private AggregateColumns aggregateColumns;
+
+    public List<Map<String, Object>> merge(List<List<Map<String, Object>>> entities) {
+        if (CollectionUtils.isEmpty(entities)) {
+            return new ArrayList<Map<String, Object>>();
+        }
+        int largest = 0;
+        for (List<Map<String, Object>> list : entities) {
+            if (list != null) {
+                largest = Math.max(largest, list.size());
+            }
+        }
+        GroupTable groups = new GroupTable(largest);
+        for (List<Map<String, Object>> list : entities) {
+            if (list == null) {
+                continue;
+            }
+            for (Map<String, Object> row : list) {
+                if (row != null) {
+                    aggregateColumns.accumulate(groups.slotsOf(row), row);
+                }
+            }
+        }
+        return groups.rows();
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        if (groupColumns == null || groupColumns.length == 0) {
+            throw new IllegalArgumentException("group columns must be given, see ScalarAggregateMerger for results without groups.");
+        }
+        if (aggregateColumns == null) {
+            throw new IllegalArgumentException("aggregate columns must be given.");
+        }
+    }
+
+    /**
+     * @param groupBy columns of "GROUP BY" separated by comma, like "sellerId,status".
+     */
+    public void setGroupBy(String groupBy) {
+        this.groupColumns = StringUtils.split(StringUtils.deleteWhitespace(StringUtils.trimToEmpty(groupBy)), ',');
+    }
+
+    public String getGroupBy() {
+        return groupColumns == null ? null : StringUtils.join(groupColumns, ',');
+    }
+
+    /**
+     * @param aggregates result column to its aggregate function, like {"orders": "COUNT", "amount": "SUM", "lowest": "MIN(price)", "average":
+     *        "AVG(amountSum,amountCount)"}, a column is aggregated itself if the function doesn't name its source column, and AVG names the sum
+     *        and the count columns.
+     */
+    public void setAggregates(Map<String, String> aggregates) {
+        this.aggregateColumns = (aggregates == null ? null : new AggregateColumns(aggregates));
+        this.aggregates = aggregates;
+    }
+
+    public Map<String, String> getAggregates() {
+        return aggregates;
+    }
+
+    /**
+     * groups of one merge, table[i] is 1 + the index of the group in its slot, 0 for an empty slot, and the table is kept at most half full.
+     */
+    private class GroupTable {
+
+        private final int width = aggregateColumns.width();
+        private int[] table;
+        private int[] hashes;
+        private final List<Object[]> keys;
+        private final List<Object[]> slots;
+        private final List<Map<String, Object>> firstRows;
+
+        GroupTable(int expectedGroups) {
+            int capacity = 16;
+            while (capacity < expectedGroups * 2) {
+                capacity <<= 1;
+            }
+            table = new int[capacity];
+            hashes = new int[capacity];
+            keys = new ArrayList<Object[]>(expectedGroups);
+            slots = new ArrayList<Object[]>(expectedGroups);
+            firstRows = new ArrayList<Map<String, Object>>(expectedGroups);
+        }
+
+        /**
+         * @return partial results of the group of the row, the group is added if it's not met before.
+         */
+        Object[] slotsOf(Map<String, Object> row) {
+            int hash = hashOf(row);
+            int mask = table.length - 1;
+            int i = hash & mask;
+            while (table[i] != 0) {
+                if (hashes[i] == hash && matches(keys.get(table[i] - 1), row)) {
+                    return slots.get(table[i] - 1);
+                }
+                i = (i + 1) & mask;
+            }
+            Object[] key = new Object[groupColumns.length];
+            for (int c = 0; c < key.length; c++) {
+                key[c] = row.get(groupColumns[c]);
+            }
+            Object[] groupSlots = new Object[width];
+            keys.add(key);
+            slots.add(groupSlots);
+            firstRows.add(row);
+            table[i] = keys.size();
+            hashes[i] = hash;
+            if (keys.size() * 2 > table.length) {
+                resize();
+            }
+            return groupSlots;
+        }
+
+        List<Map<String, Object>> rows() {
+            List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(firstRows.size());
+            for (int g = 0; g < firstRows.size(); g++) {
+                Map<Object, Object> row = new LinkedHashMap<Object, Object>(firstRows.get(g));
+                aggregateColumns.writeTo(slots.get(g), row);
+                @SuppressWarnings({"unchecked", "rawtypes"})
+                Map<String, Object> result = (Map) row;
+                rows.add(result);
+            }
+            return rows;
+        }
+
+        private int hashOf(Map<String, Object> row) {
+            int h = 1;
+            for (String column : groupColumns) {
+                Object value = row.get(column);
+                h = 31 * h + (value == null ? 0 : value.hashCode());
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private boolean matches(Object[] key, Map<String, Object> row) {
+            for (int c = 0; c < key.length; c++) {
+                Object value = row.get(groupColumns[c]);
+                if (key[c] == null ? value != null : !key[c].equals(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void resize() {
+            int[] oldTable = table;
+            int[] oldHashes = hashes;
+            table = new int[oldTable.length << 1];
+            hashes = new int[oldTable.length << 1];
+            int mask = table.length - 1;
+            for (int j = 0; j < oldTable.length; j++) {
+                if (oldTable[j] != 0) {
+                    int i = oldHashes[j] & mask;
+                    while (table[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    table[i] = oldTable[j];
+                    hashes[i] = oldHashes[j];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.merger;
+
+import com.gimc.mybatis.db.shard.support.utils.CollectionUtils;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * merger for sorted sub-result lists as {@link ConcurrentSortMerger}, which merges all of them in one pass with a loser tree instead of in pairs
+ * level by level.<br>
+ * each element is copied once, into a result list sized for all of them, with about log2(k) comparisons for k lists, and the merge runs in the
+ * caller thread, no executor is involved. elements that compare equal keep the order of their lists, as they do with
+ * {@link ConcurrentSortMerger}.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ * @param <E>
+ */
+public class KWaySortMerger<E> implements IMerger<List<E>, List<E>>, InitializingBean {
+
+    /**
+     * head of a list that has no more elements, since elements may be null.
+     */
+    private static final Object EXHAUSTED = new Object();
+
+    private Comparator<E> comparator;
+
+    public List<E> merge(List<List<E>> entities) {
+        if (CollectionUtils.isEmpty(entities)) {
+            return new ArrayList<E>();
+        }
+        int size = 0;
+        List<List<E>> lists = new ArrayList<List<E>>(entities.size());
+        for (List<E> list : entities) {
+            if (CollectionUtils.isNotEmpty(list)) {
+                size += list.size();
+                lists.add(list);
+            }
+        }
+        List<E> resultList = new ArrayList<E>(size);
+        if (lists.size() == 1) {
+            resultList.addAll(lists.get(0));
+        } else if (lists.size() > 1) {
+            new LoserTree(lists).drainTo(resultList);
+        }
+        return resultList;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        if (getComparator() == null) {
+            throw new IllegalArgumentException("you must provide a comparator for us to compare the element for merge.");
+        }
+    }
+
+    public void setComparator(Comparator<E> comparator) {
+        this.comparator = comparator;
+    }
+
+    public Comparator<E> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * tree[1..k-1] keeps the list that lost at each inner node, and tree[0] the overall winner, the leaves are the lists themselves.<br>
+     * index k stands for a virtual list that beats any other, which fills the tree before the lists are played in.
+     */
+    private class LoserTree {
+
+        private final int k;
+        private final int[] tree;
+        private final List<?>[] lists;
+        private final int[] positions;
+        private final Object[] heads;
+        private final Comparator<E> comparator = getComparator();
+
+        LoserTree(List<List<E>> lists) {
+            this.k = lists.size();
+            this.tree = new int[k];
+            this.lists = new List<?>[k];
+            this.positions = new int[k];
+            this.heads = new Object[k];
+            for (int i = 0; i < k; i++) {
+                List<E> list = lists.get(i);
+                // sub-result lists from MyBatis are array lists
+                this.lists[i] = list instanceof RandomAccess ? list : new ArrayList<E>(list);
+                heads[i] = list.get(0);
+            }
+            for (int i = 0; i < k; i++) {
+                tree[i] = k;
+            }
+            for (int i = k - 1; i >= 0; i--) {
+                replay(i);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void drainTo(List<E> resultList) {
+            int winner = tree[0];
+            while (heads[winner] != EXHAUSTED) {
+                resultList.add((E) heads[winner]);
+                int next = ++positions[winner];
+                heads[winner] = next < lists[winner].size() ? lists[winner].get(next) : EXHAUSTED;
+                replay(winner);
+                winner = tree[0];
+            }
+        }
+
+        /**
+         * plays the new head of the list up from its leaf, the winner of each match goes on.
+         */
+        private void replay(int list) {
+            int winner = list;
+            for (int node = (list + k) >> 1; node > 0; node >>= 1) {
+                if (beats(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean beats(int a, int b) {
+            if (a == k) {
+                return true;
+            }
+            if (b == k) {
+                return false;
+            }
+            Object headOfA = heads[a];
+            Object headOfB = heads[b];
+            if (headOfA == EXHAUSTED) {
+                return false;
+            }
+            if (headOfB == EXHAUSTED) {
+                return true;
+            }
+            int result = comparator.compare((E) headOfA, (E) headOfB);
+            return result < 0 || (result == 0 && a < b);
+        }
+    }
+}
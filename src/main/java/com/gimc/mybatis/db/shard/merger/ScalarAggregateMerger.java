@@ -0,0 +1,110 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.merger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.InitializingBean;
+
+import com.gimc.mybatis.db.shard.support.utils.CollectionUtils;
+
+/**
+ * merger for the results of an aggregate sql action without "GROUP BY", e.g. "SELECT COUNT(*) FROM ...", of which each shard returns one row,
+ * the rows of shards are combined into one.<br>
+ * rows of a single column are combined by {@link #function}, and {@link Map} rows(resultType="map") by their {@link #aggregates}, see
+ * {@link AggregateFunction} for how partial results are combined. the other columns of map rows are taken from the first row.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ * @see GroupedAggregateMerger
+ */
+public class ScalarAggregateMerger implements IMerger<List<Object>, List<Object>>, InitializingBean {
+
+    private AggregateFunction function;
+    private Map<String, String> aggregates;
+    private AggregateColumns aggregateColumns;
+
+    /**
+     * @return list of the combined row, or an empty list if none of the shards returns any rows.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object> merge(List<List<Object>> entities) {
+        List<Object> resultList = new ArrayList<Object>(1);
+        if (CollectionUtils.isEmpty(entities)) {
+            return resultList;
+        }
+        boolean found = false;
+        Object result = null;
+        Object[] slots = (aggregateColumns == null ? null : new Object[aggregateColumns.width()]);
+        Map<Object, Object> row = null;
+        for (List<Object> list : entities) {
+            if (list == null) {
+                continue;
+            }
+            for (Object item : list) {
+                if (aggregateColumns == null) {
+                    found = true;
+                    result = function.combine(result, item);
+                } else if (item != null) {
+                    // null map rows don't count, the merged row would be null otherwise
+                    found = true;
+                    if (row == null) {
+                        row = new LinkedHashMap<Object, Object>((Map<Object, Object>) item);
+                    }
+                    aggregateColumns.accumulate(slots, (Map<?, ?>) item);
+                }
+            }
+        }
+        if (!found) {
+            return resultList;
+        }
+        if (aggregateColumns != null) {
+            aggregateColumns.writeTo(slots, row);
+            result = row;
+        }
+        resultList.add(result);
+        return resultList;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        if ((function == null) == (aggregateColumns == null)) {
+            throw new IllegalArgumentException("either the function of single column rows or the aggregates of map rows must be given.");
+        }
+    }
+
+    /**
+     * @param function function of single column rows, averages are computed from sums and counts of map rows, see {@link #setAggregates(Map)}.
+     */
+    public void setFunction(AggregateFunction function) {
+        this.function = function;
+    }
+
+    public AggregateFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * @param aggregates aggregate columns of map rows, see {@link GroupedAggregateMerger#setAggregates(Map)}.
+     */
+    public void setAggregates(Map<String, String> aggregates) {
+        this.aggregateColumns = (aggregates == null ? null : new AggregateColumns(aggregates));
+        this.aggregates = aggregates;
+    }
+
+    public Map<String, String> getAggregates() {
+        return aggregates;
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+
+import com.gimc.mybatis.db.shard.router.support.BatchRoutingResult;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.router.support.RoutingCacheKey;
+import com.gimc.mybatis.db.shard.router.support.StatementRoutingPlan;
+
+/**
+ * batch routing shared by the routers that plan their sql actions.<br>
+ * facts of the same sql action with the same shard keys are routed only once per batch, the rules are searched again only for the facts whose
+ * routing can't be told by shard keys, see {@link StatementRoutingPlan#cacheKeyOf(MyBatisRoutingFact)}.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+final class BatchRouting {
+
+    private BatchRouting() {
+    }
+
+    static BatchRoutingResult<MyBatisRoutingFact> routeAll(IShardRouter<MyBatisRoutingFact> router, IRoutingPlanProvider planProvider,
+                                                          List<MyBatisRoutingFact> routingFacts) {
+        Validate.notNull(routingFacts);
+        BatchRoutingResult<MyBatisRoutingFact> result = new BatchRoutingResult<MyBatisRoutingFact>();
+        Map<RoutingCacheKey, List<String>> routed = new HashMap<RoutingCacheKey, List<String>>();
+        StatementRoutingPlan plan = null;
+        for (MyBatisRoutingFact routingFact : routingFacts) {
+            Validate.notNull(routingFact);
+            Validate.notEmpty(routingFact.getAction());
+            // facts of a batch are of one sql action in general, the plan is looked up again only if the sql action changes
+            if (plan == null || !plan.getAction().equals(routingFact.getAction())) {
+                plan = planProvider.planFor(routingFact.getAction());
+            }
+            RoutingCacheKey key = plan.cacheKeyOf(routingFact);
+            List<String> shards = key == null ? null : routed.get(key);
+            if (shards == null) {
+                shards = router.doRoute(routingFact).getResourceIdentities();
+                if (key != null) {
+                    routed.put(key, shards);
+                }
+            }
+            result.add(shards, routingFact);
+        }
+        return result;
+    }
+
+}
@@ -12,16 +12,24 @@
  */
 package com.gimc.mybatis.db.shard.router;
 
+import com.gimc.mybatis.db.shard.merger.IMerger;
 import com.gimc.mybatis.db.shard.router.config.DefaultShardClientInternalRouterXmlFactoryBean;
+import com.gimc.mybatis.db.shard.router.rules.ICompositeRoutingRule;
 import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
 import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.router.support.BatchRoutingResult;
 import com.gimc.mybatis.db.shard.router.support.RoutingResult;
-import com.gimc.mybatis.db.shard.support.utils.CollectionUtils;
+import com.gimc.mybatis.db.shard.router.support.RoutingRuleSnapshots;
+import com.gimc.mybatis.db.shard.router.support.RoutingTargets;
+import com.gimc.mybatis.db.shard.router.support.StatementRoutingPlan;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
@@ -36,66 +44,150 @@ import org.slf4j.LoggerFactory;
  * usually, the users don't need to care about these internal details, to use
  * {@link DefaultShardInternalRouter}, just turn to
  * {@link DefaultShardClientInternalRouterXmlFactoryBean} for instantiation.<br>
+ * rules set with {@link #setRulesGroupByNamespaces(Map)} are published as an
+ * immutable snapshot together with the routing plans worked out of them, so
+ * that rules can be reloaded while routing goes on without any lock.<br>
  *
  * @author fujohnwang
  * @since 1.0
  * @see DefaultShardClientInternalRouterXmlFactoryBean
  */
-public class DefaultShardInternalRouter implements IShardRouter<MyBatisRoutingFact> {
+public class DefaultShardInternalRouter implements IShardRouter<MyBatisRoutingFact>, IRoutingPlanProvider {
 
     private transient final Logger logger = LoggerFactory.getLogger(DefaultShardInternalRouter.class);
 
-    private Map<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces = new HashMap<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>>();
+    /**
+     * rules are always held as immutable snapshots, they can only be changed by publishing new ones, which drops the plans worked out of the old
+     * ones too.
+     */
+    private volatile RuleTable ruleTable = new RuleTable(
+        Collections.<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> emptyMap(), Collections.<String, IMerger<?, ?>> emptyMap());
 
+    /**
+     * routing results of the rules shipped with routers are shared by the facts routed to the same shards, callers must not change them.<br>
+     * results carry the merger of the sql action if one is bound to it, see {@link #setRulesGroupByNamespaces(Map, Map)}.
+     */
     public RoutingResult doRoute(MyBatisRoutingFact routingFact) throws RoutingException {
         Validate.notNull(routingFact);
         String action = routingFact.getAction();
         Validate.notEmpty(action);
-        String namespace = StringUtils.substringBeforeLast(action, ".");
-        List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> rules = getRulesGroupByNamespaces().get(namespace);
-
-        RoutingResult result = new RoutingResult();
-        result.setResourceIdentities(new ArrayList<String>());
-
-        if (!CollectionUtils.isEmpty(rules)) {
-            IRoutingRule<MyBatisRoutingFact, List<String>> ruleToUse = null;
-            for (Set<IRoutingRule<MyBatisRoutingFact, List<String>>> ruleSet : rules) {
-                ruleToUse = searchMatchedRuleAgainst(ruleSet, routingFact);
-                if (ruleToUse != null) {
-                    break;
-                }
-            }
+        StatementRoutingPlan plan = planFor(action);
+        List<List<IRoutingRule<MyBatisRoutingFact, List<String>>>> rules = plan.getRuleSequence();
 
-            if (ruleToUse != null) {
-                logger.info("matched with rule:{} with fact:{}", ruleToUse, routingFact);
-                result.getResourceIdentities().addAll(ruleToUse.action());
-            } else {
+        List<String> destinations = null;
+        for (int i = 0; i < rules.size() && destinations == null; i++) {
+            destinations = searchMatchedRuleAgainst(rules.get(i), routingFact);
+        }
+        RoutingResult result;
+        if (destinations instanceof RoutingTargets) {
+            result = ((RoutingTargets) destinations).getRoutingResult();
+        } else {
+            result = new RoutingResult();
+            result.setResourceIdentities(new ArrayList<String>());
+            if (destinations != null) {
+                result.getResourceIdentities().addAll(destinations);
+            } else if (!rules.isEmpty()) {
                 logger.info("No matched rule found for routing fact:{}", routingFact);
             }
         }
+        return plan.getMerger() == null ? result : result.withMerger(plan.getMerger());
+    }
 
-        return result;
+    /**
+     * facts with the same shard keys are routed once, see {@link BatchRouting}.
+     */
+    public BatchRoutingResult<MyBatisRoutingFact> doRouteAll(List<MyBatisRoutingFact> routingFacts) throws RoutingException {
+        return BatchRouting.routeAll(this, this, routingFacts);
     }
 
-    private IRoutingRule<MyBatisRoutingFact, List<String>> searchMatchedRuleAgainst(Set<IRoutingRule<MyBatisRoutingFact, List<String>>> rules,
-        MyBatisRoutingFact routingFact) {
-        if (CollectionUtils.isEmpty(rules)) {
-            return null;
-        }
-        for (IRoutingRule<MyBatisRoutingFact, List<String>> rule : rules) {
-            if (rule.isDefinedAt(routingFact)) {
-                return rule;
+    private List<String> searchMatchedRuleAgainst(List<IRoutingRule<MyBatisRoutingFact, List<String>>> rules, MyBatisRoutingFact routingFact) {
+        // indexed loop, no iterator created on each routing request
+        for (int i = 0; i < rules.size(); i++) {
+            IRoutingRule<MyBatisRoutingFact, List<String>> rule = rules.get(i);
+            List<String> destinations = null;
+            if (rule instanceof ICompositeRoutingRule) {
+                destinations = ((ICompositeRoutingRule<MyBatisRoutingFact, List<String>>) rule).actionFor(routingFact);
+            } else if (rule.isDefinedAt(routingFact)) {
+                destinations = rule.action();
+            }
+            if (destinations != null) {
+                logger.debug("matched with rule:{} with fact:{}", rule, routingFact);
+                return destinations;
             }
         }
         return null;
     }
 
+    /**
+     * plans are worked out on first request of each sql action, with the rules of its namespace at that time.
+     */
+    public StatementRoutingPlan planFor(String action) {
+        RuleTable table = ruleTable;
+        StatementRoutingPlan plan = table.plans.get(action);
+        if (plan == null) {
+            plan = new StatementRoutingPlan(action, table.rulesGroupByNamespaces.get(StringUtils.substringBeforeLast(action, ".")), table.mergerOf(
+                action));
+            StatementRoutingPlan existing = table.plans.putIfAbsent(action, plan);
+            if (existing != null) {
+                plan = existing;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * the rules are copied into an immutable snapshot and published with one volatile write, routing requests in progress finish with the
+     * rules they started with.
+     */
     public void setRulesGroupByNamespaces(Map<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces) {
-        this.rulesGroupByNamespaces = rulesGroupByNamespaces;
+        this.ruleTable = new RuleTable(RoutingRuleSnapshots.copyOf(rulesGroupByNamespaces), ruleTable.mergers);
+    }
+
+    /**
+     * publish the rules together with the mergers bound to sql actions, see {@link #setRulesGroupByNamespaces(Map)}.
+     *
+     * @param mergers mergers by sql actions, or by namespaces for all of their sql actions.
+     */
+    public void setRulesGroupByNamespaces(Map<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces,
+                                          Map<String, ? extends IMerger<?, ?>> mergers) {
+        this.ruleTable = new RuleTable(RoutingRuleSnapshots.copyOf(rulesGroupByNamespaces), Collections
+            .unmodifiableMap(new HashMap<String, IMerger<?, ?>>(mergers)));
     }
 
+    /**
+     * @return the immutable snapshot of current rules, to change the rules, publish a changed copy with
+     *         {@link #setRulesGroupByNamespaces(Map)}.
+     */
     public Map<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> getRulesGroupByNamespaces() {
-        return rulesGroupByNamespaces;
+        return ruleTable.rulesGroupByNamespaces;
+    }
+
+    public Map<String, IMerger<?, ?>> getMergers() {
+        return ruleTable.mergers;
+    }
+
+    /**
+     * the rules, the mergers and the plans worked out of them, they are always replaced together.
+     */
+    private static final class RuleTable {
+
+        private final Map<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces;
+        private final Map<String, IMerger<?, ?>> mergers;
+        private final ConcurrentMap<String, StatementRoutingPlan> plans = new ConcurrentHashMap<String, StatementRoutingPlan>();
+
+        RuleTable(Map<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces,
+                  Map<String, IMerger<?, ?>> mergers) {
+            this.rulesGroupByNamespaces = rulesGroupByNamespaces;
+            this.mergers = mergers;
+        }
+
+        IMerger<?, ?> mergerOf(String action) {
+            if (mergers.isEmpty()) {
+                return null;
+            }
+            IMerger<?, ?> merger = mergers.get(action);
+            return merger != null ? merger : mergers.get(StringUtils.substringBeforeLast(action, "."));
+        }
     }
 
 }
@@ -12,6 +12,9 @@
  */
 package com.gimc.mybatis.db.shard.router;
 
+import java.util.List;
+
+import com.gimc.mybatis.db.shard.router.support.BatchRoutingResult;
 import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
 import com.gimc.mybatis.db.shard.router.support.RoutingResult;
 
@@ -28,4 +31,9 @@ public class DroolsBasedShardRouter implements IShardRouter<MyBatisRoutingFact>
         return null;
     }
 
+    public BatchRoutingResult<MyBatisRoutingFact> doRouteAll(List<MyBatisRoutingFact> routingFacts) throws RoutingException {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
 }
@@ -0,0 +1,32 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router;
+
+import com.gimc.mybatis.db.shard.router.support.StatementRoutingPlan;
+
+/**
+ * routers that can tell what the routing of a sql action depends on, so that routing results can be cached by shard keys instead of whole
+ * routing facts.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ * @see StatementRoutingPlan
+ */
+public interface IRoutingPlanProvider {
+
+    /**
+     * @param action the sql action
+     * @return the plan of the sql action, plans are kept by routers, so the same plan is returned until the rules change.
+     */
+    StatementRoutingPlan planFor(String action);
+}
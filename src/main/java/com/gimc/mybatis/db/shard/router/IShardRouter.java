@@ -12,6 +12,9 @@
  */
 package com.gimc.mybatis.db.shard.router;
 
+import java.util.List;
+
+import com.gimc.mybatis.db.shard.router.support.BatchRoutingResult;
 import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
 import com.gimc.mybatis.db.shard.router.support.RoutingResult;
 
@@ -27,4 +30,12 @@ import com.gimc.mybatis.db.shard.router.support.RoutingResult;
 public interface IShardRouter<T> {
 
     RoutingResult doRoute(T routingFact) throws RoutingException;
+
+    /**
+     * route a batch of facts in one go, e.g. the entities of a batch insert.<br>
+     * routers are expected to route the facts that can't be told apart by rules only once, instead of once per fact.
+     *
+     * @return the facts grouped by the shards they are routed to.
+     */
+    BatchRoutingResult<T> doRouteAll(List<T> routingFacts) throws RoutingException;
 }
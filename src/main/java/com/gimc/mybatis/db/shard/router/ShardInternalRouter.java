@@ -16,14 +16,22 @@ import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.gimc.mybatis.db.shard.router.rules.ICompositeRoutingRule;
 import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
+import com.gimc.mybatis.db.shard.router.support.BatchRoutingResult;
 import com.gimc.mybatis.db.shard.router.support.RoutingResult;
-import com.gimc.mybatis.db.shard.support.LRUMap;
-import com.gimc.mybatis.db.shard.support.utils.CollectionUtils;
+import com.gimc.mybatis.db.shard.router.support.RoutingRuleSnapshots;
+import com.gimc.mybatis.db.shard.router.support.RoutingTargets;
+import com.gimc.mybatis.db.shard.router.support.StatementRoutingPlan;
+import com.gimc.mybatis.db.shard.support.ConcurrentLfuCache;
 
 /**
  * CobarInternalRouter is the default router that will be used in cobar client,
@@ -46,19 +54,28 @@ import com.gimc.mybatis.db.shard.support.utils.CollectionUtils;
  * just match against the "namespace" part in the sql action id; we will match
  * these rules in sequence against the routing fact, each later rule will be
  * used as fall-back rule if former match fails.<br>
- * To enhance the rule matching performance, we add a LRU cache, you can decide
+ * To enhance the rule matching performance, we add a cache, you can decide
  * whether to use this cache by set the {@link #enableCache} property's value to
  * true or false.<br>
+ * with {@link #cacheByShardKey}, routing results are cached by the sql action and
+ * the shard keys the rules decide on, instead of the whole routing fact, and the
+ * routing result of a sql action whose rules don't look at the argument at all is
+ * kept in its {@link StatementRoutingPlan}.<br>
+ * rule sequences are published as immutable snapshots together with their
+ * plans and an empty cache, so rules can be reloaded while routing goes on
+ * without any lock.<br>
  *
  * @author fujohnwang
  * @since 1.0
  */
-public class ShardInternalRouter implements IShardRouter<MyBatisRoutingFact> {
+public class ShardInternalRouter implements IShardRouter<MyBatisRoutingFact>, IRoutingPlanProvider {
 
     private transient final Logger logger = LoggerFactory.getLogger(ShardInternalRouter.class);
 
-    private LRUMap localCache;
     private boolean enableCache = false;
+    private boolean cacheByShardKey = false;
+    private final int cacheSize;
+    private final long cacheTimeToLive;
 
     public ShardInternalRouter(boolean enableCache) {
         this(enableCache, 10000);
@@ -69,85 +86,172 @@ public class ShardInternalRouter implements IShardRouter<MyBatisRoutingFact> {
     }
 
     public ShardInternalRouter(boolean enableCache, int cacheSize) {
+        this(enableCache, cacheSize, 0L);
+    }
+
+    /**
+     * @param cacheTimeToLive milliseconds the routing results stay in cache, 0 means they never expire.
+     */
+    public ShardInternalRouter(boolean enableCache, int cacheSize, long cacheTimeToLive) {
         this.enableCache = enableCache;
-        if (this.enableCache) {
-            localCache = new LRUMap(cacheSize);
-        }
+        this.cacheSize = cacheSize;
+        this.cacheTimeToLive = cacheTimeToLive;
+        this.ruleTable = new RuleTable(new ArrayList<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>(), newLocalCache());
     }
 
-    private List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequences = new ArrayList<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>();
+    /**
+     * rule sequences, the plans and the routing results of them are published together, see {@link #setRuleSequences(List)}.
+     */
+    private volatile RuleTable ruleTable;
 
+    /**
+     * routing results of the rules shipped with routers are shared by the facts routed to the same shards, callers must not change them.
+     */
     public RoutingResult doRoute(MyBatisRoutingFact routingFact) throws RoutingException {
+        Validate.notNull(routingFact);
+        Validate.notEmpty(routingFact.getAction());
+        RuleTable table = ruleTable;
+        StatementRoutingPlan plan = table.planFor(routingFact.getAction());
+        ConcurrentLfuCache<Object, RoutingResult> localCache = table.localCache;
+        Object cacheKey = null;
         if (enableCache) {
-            synchronized (localCache) {
-                if (localCache.containsKey(routingFact)) {
-                    RoutingResult result = (RoutingResult) localCache.get(routingFact);
-                    logger.info("return routing result:{} from cache for fact:{}", result, routingFact);
-                    return result;
+            if (cacheByShardKey) {
+                if (plan.isConstant() && plan.getMemo() != null) {
+                    return plan.getMemo();
                 }
+                cacheKey = plan.cacheKeyOf(routingFact);
+            }
+            if (cacheKey == null) {
+                cacheKey = routingFact;
+            }
+            RoutingResult result = localCache.get(cacheKey);
+            if (result != null) {
+                logger.debug("return routing result:{} from cache for fact:{}", result, routingFact);
+                return result;
             }
         }
 
-        RoutingResult result = new RoutingResult();
-        result.setResourceIdentities(new ArrayList<String>());
-
-        IRoutingRule<MyBatisRoutingFact, List<String>> ruleToUse = null;
-        if (!CollectionUtils.isEmpty(getRuleSequences())) {
-            for (Set<IRoutingRule<MyBatisRoutingFact, List<String>>> ruleSet : getRuleSequences()) {
-                ruleToUse = searchMatchedRuleAgainst(ruleSet, routingFact);
-                if (ruleToUse != null) {
-                    break;
-                }
-            }
+        List<List<IRoutingRule<MyBatisRoutingFact, List<String>>>> rules = plan.getRuleSequence();
+        List<String> destinations = null;
+        for (int i = 0; i < rules.size() && destinations == null; i++) {
+            destinations = searchMatchedRuleAgainst(rules.get(i), routingFact);
         }
 
-        if (ruleToUse != null) {
-            logger.info("matched with rule:{} with fact:{}", ruleToUse, routingFact);
-            result.getResourceIdentities().addAll(ruleToUse.action());
+        RoutingResult result;
+        if (destinations instanceof RoutingTargets) {
+            result = ((RoutingTargets) destinations).getRoutingResult();
         } else {
-            logger.info("No matched rule found for routing fact:{}", routingFact);
+            result = new RoutingResult();
+            result.setResourceIdentities(new ArrayList<String>());
+            if (destinations != null) {
+                result.getResourceIdentities().addAll(destinations);
+            } else {
+                logger.info("No matched rule found for routing fact:{}", routingFact);
+            }
         }
 
         if (enableCache) {
-            synchronized (localCache) {
-                localCache.put(routingFact, result);
+            if (cacheByShardKey && plan.isConstant()) {
+                plan.setMemo(result);
+            } else {
+                localCache.put(cacheKey, result);
             }
         }
 
         return result;
     }
 
-    private IRoutingRule<MyBatisRoutingFact, List<String>> searchMatchedRuleAgainst(Set<IRoutingRule<MyBatisRoutingFact, List<String>>> rules,
-        MyBatisRoutingFact routingFact) {
-        if (CollectionUtils.isEmpty(rules)) {
-            return null;
-        }
-        for (IRoutingRule<MyBatisRoutingFact, List<String>> rule : rules) {
-            if (rule.isDefinedAt(routingFact)) {
-                return rule;
+    /**
+     * facts with the same shard keys are routed once, see {@link BatchRouting}.
+     */
+    public BatchRoutingResult<MyBatisRoutingFact> doRouteAll(List<MyBatisRoutingFact> routingFacts) throws RoutingException {
+        return BatchRouting.routeAll(this, this, routingFacts);
+    }
+
+    private List<String> searchMatchedRuleAgainst(List<IRoutingRule<MyBatisRoutingFact, List<String>>> rules, MyBatisRoutingFact routingFact) {
+        // indexed loop, no iterator created on each routing request
+        for (int i = 0; i < rules.size(); i++) {
+            IRoutingRule<MyBatisRoutingFact, List<String>> rule = rules.get(i);
+            List<String> destinations = null;
+            if (rule instanceof ICompositeRoutingRule) {
+                destinations = ((ICompositeRoutingRule<MyBatisRoutingFact, List<String>>) rule).actionFor(routingFact);
+            } else if (rule.isDefinedAt(routingFact)) {
+                destinations = rule.action();
+            }
+            if (destinations != null) {
+                logger.debug("matched with rule:{} with fact:{}", rule, routingFact);
+                return destinations;
             }
         }
         return null;
     }
 
-    public LRUMap getLocalCache() {
-        return localCache;
+    /**
+     * plans are worked out on first request of each sql action, with the rule sequences at that time.
+     */
+    public StatementRoutingPlan planFor(String action) {
+        return ruleTable.planFor(action);
+    }
+
+    public ConcurrentLfuCache<Object, RoutingResult> getLocalCache() {
+        return ruleTable.localCache;
     }
 
-    public synchronized void clearLocalCache() {
-        this.localCache.clear();
+    public void clearLocalCache() {
+        RuleTable table = ruleTable;
+        this.ruleTable = new RuleTable(table.ruleSequences, newLocalCache());
+    }
+
+    private ConcurrentLfuCache<Object, RoutingResult> newLocalCache() {
+        return enableCache ? new ConcurrentLfuCache<Object, RoutingResult>(cacheSize, cacheTimeToLive, TimeUnit.MILLISECONDS) : null;
     }
 
     public boolean isEnableCache() {
         return enableCache;
     }
 
+    public void setCacheByShardKey(boolean cacheByShardKey) {
+        this.cacheByShardKey = cacheByShardKey;
+    }
+
+    public boolean isCacheByShardKey() {
+        return cacheByShardKey;
+    }
+
+    /**
+     * the rules are copied into an immutable snapshot and published with one volatile write, along with an empty routing result cache, so
+     * that no routing result of the former rules is returned once it's done.
+     */
     public void setRuleSequences(List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequences) {
-        this.ruleSequences = ruleSequences;
+        this.ruleTable = new RuleTable(RoutingRuleSnapshots.copyOf(ruleSequences), newLocalCache());
     }
 
     public List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> getRuleSequences() {
-        return ruleSequences;
+        return ruleTable.ruleSequences;
+    }
+
+    private static final class RuleTable {
+
+        private final List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequences;
+        private final ConcurrentMap<String, StatementRoutingPlan> plans = new ConcurrentHashMap<String, StatementRoutingPlan>();
+        private final ConcurrentLfuCache<Object, RoutingResult> localCache;
+
+        RuleTable(List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequences, ConcurrentLfuCache<Object, RoutingResult> localCache) {
+            this.ruleSequences = ruleSequences;
+            this.localCache = localCache;
+        }
+
+        StatementRoutingPlan planFor(String action) {
+            StatementRoutingPlan plan = plans.get(action);
+            if (plan == null) {
+                plan = new StatementRoutingPlan(action, ruleSequences);
+                StatementRoutingPlan existing = plans.putIfAbsent(action, plan);
+                if (existing != null) {
+                    plan = existing;
+                }
+            }
+            return plan;
+        }
     }
 
 }
@@ -15,17 +15,30 @@ package com.gimc.mybatis.db.shard.router.aspects;
 import com.gimc.mybatis.db.shard.router.config.AbstractShardClientInternalRouterFactoryBean;
 import com.gimc.mybatis.db.shard.router.config.StaticShardClientInternalRouterFactoryBean;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.gimc.mybatis.db.shard.router.DefaultShardInternalRouter;
+import com.gimc.mybatis.db.shard.router.IRoutingPlanProvider;
 import com.gimc.mybatis.db.shard.router.IShardRouter;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.router.support.RoutingResult;
+import com.gimc.mybatis.db.shard.router.support.StatementRoutingPlan;
+import com.gimc.mybatis.db.shard.support.ConcurrentLfuCache;
 import com.gimc.mybatis.db.shard.support.LRUMap;
 
 /**
  * An advice that will provide cache service for {@link IShardRouter} to improve
  * the routing performance if necessary.<br>
+ * routing results are kept in a {@link ConcurrentLfuCache}, so cache hits don't serialize on any lock.<br>
+ * if {@link #cacheByShardKey} is set and the target router is an {@link IRoutingPlanProvider}, routing results are cached by the sql action and
+ * shard keys of the routing fact instead of the whole fact, see {@link StatementRoutingPlan}.<br>
+ * batch routing with {@link IShardRouter#doRouteAll(java.util.List)} goes to the router directly, without the cache.<br>
  *
  * @author fujohnwang
  * @since 1.0
@@ -36,41 +49,104 @@ import com.gimc.mybatis.db.shard.support.LRUMap;
  */
 public class RoutingResultCacheAspect implements MethodInterceptor {
 
-    private LRUMap internalCache = new LRUMap(1000);
+    private transient final Logger logger = LoggerFactory.getLogger(RoutingResultCacheAspect.class);
+
+    private volatile ConcurrentLfuCache<Object, Object> internalCache = new ConcurrentLfuCache<Object, Object>(1000);
+    private boolean cacheByShardKey;
 
     public Object invoke(MethodInvocation invocation) throws Throwable {
         Object[] args = invocation.getArguments();
         if (args.length != 1) {
             throw new IllegalArgumentException("unexpected argument status on method:" + invocation.getMethod() + ", args:" + Arrays.toString(args));
         }
+        if (invocation.getMethod() != null && "doRouteAll".equals(invocation.getMethod().getName())) {
+            // batches are deduplicated by routers themselves, and a batch is hardly routed twice
+            return invocation.proceed();
+        }
+        if (invocation.getMethod() != null && "planFor".equals(invocation.getMethod().getName())) {
+            // plans are kept by routers
+            return invocation.proceed();
+        }
 
-        synchronized (internalCache) {
-            if (internalCache.containsKey(args[0])) {
-                return internalCache.get(args[0]);
+        // the cache is read before the router, so results of former rules never go to a cache replaced by invalidate()
+        ConcurrentLfuCache<Object, Object> cache = internalCache;
+        StatementRoutingPlan plan = null;
+        Object cacheKey = null;
+        if (cacheByShardKey && args[0] instanceof MyBatisRoutingFact && invocation.getThis() instanceof IRoutingPlanProvider) {
+            plan = ((IRoutingPlanProvider) invocation.getThis()).planFor(((MyBatisRoutingFact) args[0]).getAction());
+            if (plan.isConstant() && plan.getMemo() != null) {
+                return plan.getMemo();
             }
+            cacheKey = plan.cacheKeyOf((MyBatisRoutingFact) args[0]);
+        }
+        if (cacheKey == null) {
+            cacheKey = args[0];
         }
 
-        Object result = null;
-        try {
-            result = invocation.proceed();
-        } finally {
-            synchronized (internalCache) {
-                internalCache.put(args[0], result);
-            }
+        Object result = cache.get(cacheKey);
+        if (result != null) {
+            return result;
         }
 
+        result = invocation.proceed();
+        if (plan != null && plan.isConstant() && result instanceof RoutingResult) {
+            plan.setMemo((RoutingResult) result);
+        } else {
+            cache.put(cacheKey, result);
+        }
         return result;
     }
 
-    public void setInternalCache(LRUMap internalCache) {
+    public void setInternalCache(ConcurrentLfuCache<Object, Object> internalCache) {
         if (internalCache == null) {
             throw new IllegalArgumentException("Null Cache Map is not allowed.");
         }
         this.internalCache = internalCache;
     }
 
-    public LRUMap getInternalCache() {
+    /**
+     * the cache used to be a synchronized {@link LRUMap}, it's adapted to a {@link ConcurrentLfuCache} of the same size now, with the entries of
+     * the map copied in.<br>
+     * the map itself is no longer used, so entries put into it afterwards are never seen by the aspect.
+     *
+     * @deprecated use {@link #setInternalCache(ConcurrentLfuCache)} instead.
+     */
+    @Deprecated
+    public void setInternalCache(LRUMap<Object, Object> internalCache) {
+        if (internalCache == null) {
+            throw new IllegalArgumentException("Null Cache Map is not allowed.");
+        }
+        logger.warn("LRUMap is deprecated as the routing result cache, it's adapted to a ConcurrentLfuCache of size {}.",
+            internalCache.getCoreSize());
+        ConcurrentLfuCache<Object, Object> cache = new ConcurrentLfuCache<Object, Object>(internalCache.getCoreSize());
+        synchronized (internalCache) {
+            for (Map.Entry<Object, Object> entry : internalCache.entrySet()) {
+                cache.put(entry.getKey(), entry.getValue());
+            }
+        }
+        this.internalCache = cache;
+    }
+
+    public ConcurrentLfuCache<Object, Object> getInternalCache() {
         return internalCache;
     }
 
+    /**
+     * drop all of the cached routing results by replacing the cache with an empty one of the same size and time to live.<br>
+     * it's supposed to be called right after the rules of router are replaced.
+     */
+    public void invalidate() {
+        ConcurrentLfuCache<Object, Object> cache = internalCache;
+        this.internalCache = new ConcurrentLfuCache<Object, Object>(cache.getMaximumSize(), cache.getTimeToLive(TimeUnit.NANOSECONDS),
+            TimeUnit.NANOSECONDS);
+    }
+
+    public void setCacheByShardKey(boolean cacheByShardKey) {
+        this.cacheByShardKey = cacheByShardKey;
+    }
+
+    public boolean isCacheByShardKey() {
+        return cacheByShardKey;
+    }
+
 }
@@ -17,28 +17,53 @@ import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang.StringUtils;
 import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.Resource;
 
+import com.gimc.mybatis.db.shard.merger.IMerger;
+import com.gimc.mybatis.db.shard.router.IRoutingPlanProvider;
 import com.gimc.mybatis.db.shard.router.IShardRouter;
 import com.gimc.mybatis.db.shard.router.aspects.RoutingResultCacheAspect;
 import com.gimc.mybatis.db.shard.router.config.support.InternalRuleLoader4DefaultInternalRouter;
+import com.gimc.mybatis.db.shard.router.config.support.RoutingRuleReloader;
 import com.gimc.mybatis.db.shard.router.config.vo.InternalRule;
-import com.gimc.mybatis.db.shard.support.LRUMap;
+import com.gimc.mybatis.db.shard.support.ConcurrentLfuCache;
 
 /**
  * Top super class used to configure DefaultShardInternalRouter instances.<br>
+ * rules can be reloaded with {@link #reload()}, over JMX if {@link #mbeanName} is set, or whenever the watched resources change if
+ * {@link #reloadInterval} is set.<br>
+ * the "merger" attribute of a rule names the {@link IMerger} bean in the container that merges the results of its sql action, or of all of the
+ * sql actions of its namespace, across shards, the routing results of the sql actions carry it.<br>
  *
  * @author fujohnwang
  * @see DefaultShardInternalRouter
  * @see DefaultShardClientInternalRouterXmlFactoryBean
  * @see StaticShardClientInternalRouterFactoryBean
  */
-public abstract class AbstractShardClientInternalRouterFactoryBean implements FactoryBean, InitializingBean {
+public abstract class AbstractShardClientInternalRouterFactoryBean implements FactoryBean, InitializingBean, DisposableBean, BeanFactoryAware {
 
     private IShardRouter<MyBatisRoutingFact> router;
+    private DefaultShardInternalRouter internalRouter;
+    private RoutingResultCacheAspect cacheAdvice;
+    private BeanFactory beanFactory;
+
+    private final RoutingRuleReloader reloader = new RoutingRuleReloader(new Callable<Object>() {
+        public Object call() throws Exception {
+            publishReloadedRules();
+            return null;
+        }
+    });
 
     private Map<String, Object> functionsMap = new HashMap<String, Object>();
 
@@ -46,6 +71,22 @@ public abstract class AbstractShardClientInternalRouterFactoryBean implements Fa
 
     private boolean enableCache;
     private int cacheSize = -1;
+    /**
+     * milliseconds the routing results stay in cache, 0 means they never expire.
+     */
+    private long cacheTimeToLive;
+    /**
+     * cache routing results by sql action and shard keys instead of the whole routing fact.
+     */
+    private boolean cacheByShardKey;
+    /**
+     * milliseconds between two checks of the watched resources, the rules are reloaded once any of them changes, 0 means no watching.
+     */
+    private long reloadInterval;
+    /**
+     * the object name to register the {@link RoutingRuleReloader} to platform MBean server with, so that rules can be reloaded over JMX.
+     */
+    private String mbeanName;
 
     public Object getObject() throws Exception {
         return router;
@@ -64,27 +105,94 @@ public abstract class AbstractShardClientInternalRouterFactoryBean implements Fa
     public void afterPropertiesSet() throws Exception {
 
         DefaultShardInternalRouter routerToUse = new DefaultShardInternalRouter();
-
-        List<InternalRule> rules = loadRulesFromExternal();
-
-        getRuleLoader().loadRulesAndEquipRouter(rules, routerToUse, getFunctionsMap());
+        DefaultShardInternalRouter staging = assembleRules();
+        routerToUse.setRulesGroupByNamespaces(staging.getRulesGroupByNamespaces(), staging.getMergers());
+        this.internalRouter = routerToUse;
 
         if (isEnableCache()) {
             ProxyFactory proxyFactory = new ProxyFactory(routerToUse);
-            proxyFactory.setInterfaces(new Class[]{IShardRouter.class});
+            proxyFactory.setInterfaces(new Class[]{IShardRouter.class, IRoutingPlanProvider.class});
             RoutingResultCacheAspect advice = new RoutingResultCacheAspect();
-            if (cacheSize > 0) {
-                advice.setInternalCache(new LRUMap(cacheSize));
+            if (cacheSize > 0 || cacheTimeToLive > 0) {
+                advice.setInternalCache(new ConcurrentLfuCache<Object, Object>(cacheSize > 0 ? cacheSize : 1000, cacheTimeToLive,
+                    TimeUnit.MILLISECONDS));
             }
+            advice.setCacheByShardKey(cacheByShardKey);
             proxyFactory.addAdvice(advice);
+            this.cacheAdvice = advice;
             this.router = (IShardRouter<MyBatisRoutingFact>) proxyFactory.getProxy();
         } else {
             this.router = routerToUse;
         }
+
+        if (reloadInterval > 0) {
+            getReloader().watch(getWatchedResources(), reloadInterval);
+        }
+        if (StringUtils.isNotEmpty(mbeanName)) {
+            getReloader().register(mbeanName);
+        }
+    }
+
+    /**
+     * load the rules again and publish them to the router, the routing result cache is invalidated right after.<br>
+     * the new rules are built aside, the router keeps routing with its current rules until they are published, and keeps them if the new ones
+     * fail to load.
+     */
+    public void reload() throws Exception {
+        getReloader().reload();
+    }
+
+    private void publishReloadedRules() throws Exception {
+        DefaultShardInternalRouter staging = assembleRules();
+        internalRouter.setRulesGroupByNamespaces(staging.getRulesGroupByNamespaces(), staging.getMergers());
+        if (cacheAdvice != null) {
+            cacheAdvice.invalidate();
+        }
+    }
+
+    /**
+     * @return a router with the rules and the mergers loaded, to publish them from.
+     */
+    private DefaultShardInternalRouter assembleRules() throws Exception {
+        List<InternalRule> rules = loadRulesFromExternal();
+        DefaultShardInternalRouter staging = new DefaultShardInternalRouter();
+        getRuleLoader().loadRulesAndEquipRouter(rules, staging, getFunctionsMap());
+        staging.setRulesGroupByNamespaces(staging.getRulesGroupByNamespaces(), resolveMergers(getRuleLoader().mergersOf(rules)));
+        return staging;
+    }
+
+    private Map<String, IMerger<?, ?>> resolveMergers(Map<String, String> mergerNames) {
+        Map<String, IMerger<?, ?>> mergers = new HashMap<String, IMerger<?, ?>>();
+        for (Map.Entry<String, String> entry : mergerNames.entrySet()) {
+            if (beanFactory == null) {
+                throw new IllegalStateException("merger:" + entry.getValue() + " of " + entry.getKey() + " can't be looked up out of a container.");
+            }
+            mergers.put(entry.getKey(), beanFactory.getBean(entry.getValue(), IMerger.class));
+        }
+        return mergers;
+    }
+
+    public void destroy() throws Exception {
+        getReloader().shutdown();
+    }
+
+    /**
+     * resources to watch for changes if {@link #reloadInterval} is set, none by default.
+     */
+    protected Resource[] getWatchedResources() {
+        return new Resource[0];
+    }
+
+    public RoutingRuleReloader getReloader() {
+        return reloader;
     }
 
     protected abstract List<InternalRule> loadRulesFromExternal() throws Exception;
 
+    public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory;
+    }
+
     public IShardRouter<MyBatisRoutingFact> getRouter() {
         return router;
     }
@@ -125,4 +233,36 @@ public abstract class AbstractShardClientInternalRouterFactoryBean implements Fa
         return cacheSize;
     }
 
+    public void setCacheTimeToLive(long cacheTimeToLive) {
+        this.cacheTimeToLive = cacheTimeToLive;
+    }
+
+    public long getCacheTimeToLive() {
+        return cacheTimeToLive;
+    }
+
+    public void setCacheByShardKey(boolean cacheByShardKey) {
+        this.cacheByShardKey = cacheByShardKey;
+    }
+
+    public boolean isCacheByShardKey() {
+        return cacheByShardKey;
+    }
+
+    public void setReloadInterval(long reloadInterval) {
+        this.reloadInterval = reloadInterval;
+    }
+
+    public long getReloadInterval() {
+        return reloadInterval;
+    }
+
+    public void setMbeanName(String mbeanName) {
+        this.mbeanName = mbeanName;
+    }
+
+    public String getMbeanName() {
+        return mbeanName;
+    }
+
 }
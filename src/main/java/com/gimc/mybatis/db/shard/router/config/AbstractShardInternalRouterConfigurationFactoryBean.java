@@ -13,15 +13,21 @@
 package com.gimc.mybatis.db.shard.router.config;
 
 import com.gimc.mybatis.db.shard.router.ShardInternalRouter;
+import com.gimc.mybatis.db.shard.router.config.support.RoutingRuleReloader;
+import com.gimc.mybatis.db.shard.router.config.support.ShardingFunctionRuleFolder;
 import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.core.io.Resource;
@@ -29,18 +35,51 @@ import org.springframework.util.ObjectUtils;
 
 import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
 
-public abstract class AbstractShardInternalRouterConfigurationFactoryBean implements FactoryBean, InitializingBean {
+/**
+ * super class of the factory beans that configure {@link ShardInternalRouter} instances from configuration resources.<br>
+ * rules can be reloaded with {@link #reload()}, over JMX if {@link #mbeanName} is set, or whenever the configuration resources change if
+ * {@link #reloadInterval} is set.<br>
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public abstract class AbstractShardInternalRouterConfigurationFactoryBean implements FactoryBean, InitializingBean, DisposableBean {
 
     private ShardInternalRouter router;
 
+    private final RoutingRuleReloader reloader = new RoutingRuleReloader(new Callable<Object>() {
+        public Object call() throws Exception {
+            router.setRuleSequences(assembleRuleSequences());
+            return null;
+        }
+    });
+
     private boolean enableCache;
     private int cacheSize;
+    /**
+     * milliseconds the routing results stay in cache, 0 means they never expire.
+     */
+    private long cacheTimeToLive;
+    /**
+     * cache routing results by sql action and shard keys instead of the whole routing fact.
+     */
+    private boolean cacheByShardKey;
+    /**
+     * milliseconds between two checks of the configuration resources, the rules are reloaded once any of them changes, 0 means no watching.
+     */
+    private long reloadInterval;
+    /**
+     * the object name to register the {@link RoutingRuleReloader} to platform MBean server with, so that rules can be reloaded over JMX.
+     */
+    private String mbeanName;
 
     private Resource configLocation;
     private Resource[] configLocations;
 
     private Map<String, Object> functionsMap = new HashMap<String, Object>();
 
+    private ShardingFunctionRuleFolder ruleFolder = new ShardingFunctionRuleFolder();
+
     public Object getObject() throws Exception {
         return this.router;
     }
@@ -60,35 +99,70 @@ public abstract class AbstractShardInternalRouterConfigurationFactoryBean implem
                 setCacheSize(10000);
             }
         }
-        this.router = new ShardInternalRouter(enableCache, cacheSize);
+        this.router = new ShardInternalRouter(enableCache, cacheSize, cacheTimeToLive);
+        this.router.setCacheByShardKey(cacheByShardKey);
+        this.router.setRuleSequences(assembleRuleSequences());
 
+        if (reloadInterval > 0) {
+            getReloader().watch(getWatchedResources(), reloadInterval);
+        }
+        if (StringUtils.isNotEmpty(mbeanName)) {
+            getReloader().register(mbeanName);
+        }
+    }
+
+    /**
+     * read the configurations again and publish the rules to the router, together with an empty routing result cache.<br>
+     * the new rules are built aside, the router keeps routing with its current rules until they are published, and keeps them if the new ones
+     * fail to load.
+     */
+    public void reload() throws Exception {
+        getReloader().reload();
+    }
+
+    private List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> assembleRuleSequences() throws IOException {
         final Set<IRoutingRule<MyBatisRoutingFact, List<String>>> sqlActionShardingRules = new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>();
         final Set<IRoutingRule<MyBatisRoutingFact, List<String>>> sqlActionRules = new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>();
         final Set<IRoutingRule<MyBatisRoutingFact, List<String>>> namespaceShardingRules = new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>();
         final Set<IRoutingRule<MyBatisRoutingFact, List<String>>> namespaceRules = new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>();
 
-        if (getConfigLocation() != null) {
-            assembleRulesForRouter(this.router, getConfigLocation(), sqlActionShardingRules, sqlActionRules, namespaceShardingRules, namespaceRules);
+        for (Resource res : getWatchedResources()) {
+            assembleRulesForRouter(this.router, res, sqlActionShardingRules, sqlActionRules, namespaceShardingRules, namespaceRules);
         }
 
-        if (!ObjectUtils.isEmpty(getConfigLocations())) {
-            for (Resource res : getConfigLocations()) {
-                assembleRulesForRouter(this.router, res, sqlActionShardingRules, sqlActionRules, namespaceShardingRules, namespaceRules);
-            }
+        if (getRuleFolder() != null) {
+            getRuleFolder().fold(sqlActionShardingRules);
+            getRuleFolder().fold(namespaceShardingRules);
         }
 
-        List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequences = new ArrayList<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>() {
-            private static final long serialVersionUID = 1493353938640646578L;
+        List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequences = new ArrayList<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>();
+        ruleSequences.add(sqlActionShardingRules);
+        ruleSequences.add(sqlActionRules);
+        ruleSequences.add(namespaceShardingRules);
+        ruleSequences.add(namespaceRules);
+        return ruleSequences;
+    }
 
-            {
-                add(sqlActionShardingRules);
-                add(sqlActionRules);
-                add(namespaceShardingRules);
-                add(namespaceRules);
-            }
-        };
+    /**
+     * the configuration resources, {@link #configLocation} first.
+     */
+    protected Resource[] getWatchedResources() {
+        List<Resource> resources = new ArrayList<Resource>();
+        if (getConfigLocation() != null) {
+            resources.add(getConfigLocation());
+        }
+        if (!ObjectUtils.isEmpty(getConfigLocations())) {
+            resources.addAll(Arrays.asList(getConfigLocations()));
+        }
+        return resources.toArray(new Resource[resources.size()]);
+    }
+
+    public void destroy() throws Exception {
+        getReloader().shutdown();
+    }
 
-        router.setRuleSequences(ruleSequences);
+    public RoutingRuleReloader getReloader() {
+        return reloader;
     }
 
     /**
@@ -138,6 +212,38 @@ public abstract class AbstractShardInternalRouterConfigurationFactoryBean implem
         return cacheSize;
     }
 
+    public void setCacheTimeToLive(long cacheTimeToLive) {
+        this.cacheTimeToLive = cacheTimeToLive;
+    }
+
+    public long getCacheTimeToLive() {
+        return cacheTimeToLive;
+    }
+
+    public void setCacheByShardKey(boolean cacheByShardKey) {
+        this.cacheByShardKey = cacheByShardKey;
+    }
+
+    public boolean isCacheByShardKey() {
+        return cacheByShardKey;
+    }
+
+    public void setReloadInterval(long reloadInterval) {
+        this.reloadInterval = reloadInterval;
+    }
+
+    public long getReloadInterval() {
+        return reloadInterval;
+    }
+
+    public void setMbeanName(String mbeanName) {
+        this.mbeanName = mbeanName;
+    }
+
+    public String getMbeanName() {
+        return mbeanName;
+    }
+
     public void setFunctionsMap(Map<String, Object> functionMaps) {
         if (functionMaps == null) {
             return;
@@ -149,4 +255,15 @@ public abstract class AbstractShardInternalRouterConfigurationFactoryBean implem
         return functionsMap;
     }
 
+    public ShardingFunctionRuleFolder getRuleFolder() {
+        return ruleFolder;
+    }
+
+    /**
+     * set to null to keep function-based sharding rules from being folded.
+     */
+    public void setRuleFolder(ShardingFunctionRuleFolder ruleFolder) {
+        this.ruleFolder = ruleFolder;
+    }
+
 }
@@ -14,6 +14,7 @@ package com.gimc.mybatis.db.shard.router.config;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.springframework.core.io.Resource;
@@ -51,6 +52,18 @@ public class DefaultShardClientInternalRouterXmlFactoryBean extends AbstractShar
         this.configLocations = configLocations;
     }
 
+    @Override
+    protected Resource[] getWatchedResources() {
+        List<Resource> resources = new ArrayList<Resource>();
+        if (getConfigLocation() != null) {
+            resources.add(getConfigLocation());
+        }
+        if (getConfigLocations() != null) {
+            resources.addAll(Arrays.asList(getConfigLocations()));
+        }
+        return resources.toArray(new Resource[resources.size()]);
+    }
+
     @Override
     protected List<InternalRule> loadRulesFromExternal() throws IOException {
         XStream xstream = new XStream();
@@ -13,11 +13,15 @@
 package com.gimc.mybatis.db.shard.router.config;
 
 import com.gimc.mybatis.db.shard.router.ShardInternalRouter;
+import com.gimc.mybatis.db.shard.router.config.support.ConsistentHashRuleAssembler;
+import com.gimc.mybatis.db.shard.router.config.support.RangeShardingRuleAssembler;
 import com.gimc.mybatis.db.shard.router.config.vo.InternalRules;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisConsistentHashRule;
 import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceRule;
 import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisSqlActionRule;
 import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisSqlActionShardingRule;
 import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceShardingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisRangeShardingRule;
 import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
 import com.gimc.mybatis.db.shard.support.utils.MapUtils;
 import java.io.IOException;
@@ -52,6 +56,8 @@ public class ShardInteralRouterXmlFactoryBean extends AbstractShardInternalRoute
             return;
         }
 
+        RangeShardingRuleAssembler rangeRules = new RangeShardingRuleAssembler();
+        ConsistentHashRuleAssembler hashRules = new ConsistentHashRuleAssembler();
         for (InternalRule rule : rules) {
             String namespace = StringUtils.trimToEmpty(rule.getNamespace());
             String sqlAction = StringUtils.trimToEmpty(rule.getSqlmap());
@@ -66,6 +72,18 @@ public class ShardInteralRouterXmlFactoryBean extends AbstractShardInternalRoute
             if (StringUtils.isNotEmpty(namespace) && StringUtils.isNotEmpty(sqlAction)) {
                 throw new IllegalArgumentException("'namespace' and 'sqlAction' are alternatives, can't guess which one to use if both of them are provided.");
             }
+            if (rangeRules.collect(rule)) {
+                continue;
+            }
+            MyBatisConsistentHashRule hashRule = hashRules.assemble(rule, getFunctionsMap());
+            if (hashRule != null) {
+                if (hashRule.isNamespaceRule()) {
+                    namespaceShardingRules.add(hashRule);
+                } else {
+                    sqlActionShardingRules.add(hashRule);
+                }
+                continue;
+            }
 
             if (StringUtils.isNotEmpty(namespace)) {
                 if (StringUtils.isEmpty(shardingExpression)) {
@@ -75,6 +93,7 @@ public class ShardInteralRouterXmlFactoryBean extends AbstractShardInternalRoute
                     if (MapUtils.isNotEmpty(getFunctionsMap())) {
                         insr.setFunctionMap(getFunctionsMap());
                     }
+                    insr.compileAttributePattern();
                     namespaceShardingRules.add(insr);
                 }
             }
@@ -86,11 +105,19 @@ public class ShardInteralRouterXmlFactoryBean extends AbstractShardInternalRoute
                     if (MapUtils.isNotEmpty(getFunctionsMap())) {
                         issr.setFunctionMap(getFunctionsMap());
                     }
+                    issr.compileAttributePattern();
                     sqlActionShardingRules.add(issr);
                 }
             }
         }
 
+        for (MyBatisRangeShardingRule rangeRule : rangeRules.assemble(getFunctionsMap())) {
+            if (rangeRule.isNamespaceRule()) {
+                namespaceShardingRules.add(rangeRule);
+            } else {
+                sqlActionShardingRules.add(rangeRule);
+            }
+        }
     }
 
 }
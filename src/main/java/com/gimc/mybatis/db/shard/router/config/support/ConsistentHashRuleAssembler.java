@@ -0,0 +1,85 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.config.support;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.gimc.mybatis.db.shard.router.config.vo.InternalRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.AbstractIBatisOrientedRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisConsistentHashRule;
+import com.gimc.mybatis.db.shard.support.utils.MapUtils;
+
+/**
+ * assembles consistent hashing rules, i.e. rules with both "shardingAttribute" and "virtualNodes".<br>
+ * shards of such a rule can carry weights as "shard:weight", i.e. "p1:2, p2, p3", a shard without weight is of weight 1.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class ConsistentHashRuleAssembler {
+
+    public static final String WEIGHT_SEPARATOR = ":";
+
+    /**
+     * @param functionsMap functions that can be referred to by sharding attribute, can be null.
+     * @return null if the rule is not a consistent hashing rule.
+     * @throws IllegalArgumentException if the rule is not a valid consistent hashing rule.
+     */
+    public MyBatisConsistentHashRule assemble(InternalRule rule, Map<String, Object> functionsMap) {
+        String shardingAttribute = StringUtils.trimToEmpty(rule.getShardingAttribute());
+        String virtualNodes = StringUtils.trimToEmpty(rule.getVirtualNodes());
+        if (StringUtils.isEmpty(virtualNodes)) {
+            return null;
+        }
+        if (StringUtils.isEmpty(shardingAttribute)) {
+            throw new IllegalArgumentException("'shardingAttribute' must be given along with 'virtualNodes'.");
+        }
+        if (StringUtils.isNotEmpty(StringUtils.trimToEmpty(rule.getShardingExpression()))) {
+            throw new IllegalArgumentException("'shardingExpression' and 'shardingAttribute' are alternatives, can't guess which one to use if both of them are provided.");
+        }
+        if (!StringUtils.isNumeric(virtualNodes)) {
+            throw new IllegalArgumentException("'virtualNodes' must be a positive number, but was:" + virtualNodes);
+        }
+
+        String namespace = StringUtils.trimToEmpty(rule.getNamespace());
+        boolean namespaceRule = StringUtils.isNotEmpty(namespace);
+        MyBatisConsistentHashRule hashRule = new MyBatisConsistentHashRule(namespaceRule ? namespace : StringUtils.trimToEmpty(rule.getSqlmap()),
+            namespaceRule, shardingAttribute, parseWeights(rule.getShards()), Integer.parseInt(virtualNodes));
+        if (MapUtils.isNotEmpty(functionsMap)) {
+            hashRule.setFunctionMap(functionsMap);
+        }
+        hashRule.compileAttributePattern();
+        return hashRule;
+    }
+
+    public static Map<String, Integer> parseWeights(String shards) {
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        for (String shard : StringUtils.split(StringUtils.trimToEmpty(shards), AbstractIBatisOrientedRule.DEFAULT_DATASOURCE_IDENTITY_SEPARATOR)) {
+            String name = StringUtils.trimToEmpty(StringUtils.substringBefore(shard, WEIGHT_SEPARATOR));
+            String weight = StringUtils.trimToEmpty(StringUtils.substringAfter(shard, WEIGHT_SEPARATOR));
+            if (StringUtils.isEmpty(weight)) {
+                weight = "1";
+            }
+            if (!StringUtils.isNumeric(weight) || Integer.parseInt(weight) <= 0) {
+                throw new IllegalArgumentException("weight of shard:" + name + " must be a positive number, but was:" + weight);
+            }
+            if (weights.put(name, Integer.valueOf(weight)) != null) {
+                throw new IllegalArgumentException("shard:" + name + " is given more than once.");
+            }
+        }
+        return weights;
+    }
+}
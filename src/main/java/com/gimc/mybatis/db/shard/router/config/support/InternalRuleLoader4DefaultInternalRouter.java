@@ -14,14 +14,17 @@ package com.gimc.mybatis.db.shard.router.config.support;
 
 import com.gimc.mybatis.db.shard.router.DefaultShardInternalRouter;
 import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisConsistentHashRule;
 import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceRule;
 import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceShardingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisRangeShardingRule;
 import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisSqlActionRule;
 import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisSqlActionShardingRule;
 import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
 import com.gimc.mybatis.db.shard.support.utils.CollectionUtils;
 import com.gimc.mybatis.db.shard.support.utils.MapUtils;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -34,11 +37,17 @@ import com.gimc.mybatis.db.shard.router.config.vo.InternalRule;
 
 public class InternalRuleLoader4DefaultInternalRouter {
 
+    private ShardingFunctionRuleFolder ruleFolder = new ShardingFunctionRuleFolder();
+
     public void loadRulesAndEquipRouter(List<InternalRule> rules, DefaultShardInternalRouter router, Map<String, Object> functionsMap) {
         if (CollectionUtils.isEmpty(rules)) {
             return;
         }
 
+        // rules of the router are immutable snapshots, so they are copied to be added to, and published as a whole at last
+        Map<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces = copyRulesOf(router);
+        RangeShardingRuleAssembler rangeRules = new RangeShardingRuleAssembler();
+        ConsistentHashRuleAssembler hashRules = new ConsistentHashRuleAssembler();
         for (InternalRule rule : rules) {
             String namespace = StringUtils.trimToEmpty(rule.getNamespace());
             String sqlAction = StringUtils.trimToEmpty(rule.getSqlmap());
@@ -53,9 +62,21 @@ public class InternalRuleLoader4DefaultInternalRouter {
             if (StringUtils.isNotEmpty(namespace) && StringUtils.isNotEmpty(sqlAction)) {
                 throw new IllegalArgumentException("'namespace' and 'sqlAction' are alternatives, can't guess which one to use if both of them are provided.");
             }
+            if (rangeRules.collect(rule)) {
+                continue;
+            }
+            MyBatisConsistentHashRule hashRule = hashRules.assemble(rule, functionsMap);
+            if (hashRule != null) {
+                if (hashRule.isNamespaceRule()) {
+                    setUpRuleSequenceContainerIfNecessary(rulesGroupByNamespaces, namespace).get(2).add(hashRule);
+                } else {
+                    setUpRuleSequenceContainerIfNecessary(rulesGroupByNamespaces, StringUtils.substringBeforeLast(sqlAction, ".")).get(0).add(hashRule);
+                }
+                continue;
+            }
 
             if (StringUtils.isNotEmpty(namespace)) {
-                List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence = setUpRuleSequenceContainerIfNecessary(router, namespace);
+                List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence = setUpRuleSequenceContainerIfNecessary(rulesGroupByNamespaces, namespace);
 
                 if (StringUtils.isEmpty(shardingExpression)) {
 
@@ -65,11 +86,12 @@ public class InternalRuleLoader4DefaultInternalRouter {
                     if (MapUtils.isNotEmpty(functionsMap)) {
                         insr.setFunctionMap(functionsMap);
                     }
+                    insr.compileAttributePattern();
                     ruleSequence.get(2).add(insr);
                 }
             }
             if (StringUtils.isNotEmpty(sqlAction)) {
-                List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence = setUpRuleSequenceContainerIfNecessary(router, StringUtils
+                List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence = setUpRuleSequenceContainerIfNecessary(rulesGroupByNamespaces, StringUtils
                     .substringBeforeLast(sqlAction, "."));
 
                 if (StringUtils.isEmpty(shardingExpression)) {
@@ -79,15 +101,69 @@ public class InternalRuleLoader4DefaultInternalRouter {
                     if (MapUtils.isNotEmpty(functionsMap)) {
                         issr.setFunctionMap(functionsMap);
                     }
+                    issr.compileAttributePattern();
                     ruleSequence.get(0).add(issr);
                 }
             }
         }
+
+        for (MyBatisRangeShardingRule rangeRule : rangeRules.assemble(functionsMap)) {
+            if (rangeRule.isNamespaceRule()) {
+                setUpRuleSequenceContainerIfNecessary(rulesGroupByNamespaces, rangeRule.getTypePattern()).get(2).add(rangeRule);
+            } else {
+                setUpRuleSequenceContainerIfNecessary(rulesGroupByNamespaces, StringUtils.substringBeforeLast(rangeRule.getTypePattern(), ".")).get(0).add(rangeRule);
+            }
+        }
+
+        if (getRuleFolder() != null) {
+            for (List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence : rulesGroupByNamespaces.values()) {
+                getRuleFolder().fold(ruleSequence.get(0));
+                getRuleFolder().fold(ruleSequence.get(2));
+            }
+        }
+        router.setRulesGroupByNamespaces(rulesGroupByNamespaces, router.getMergers());
+    }
+
+    private Map<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> copyRulesOf(DefaultShardInternalRouter router) {
+        Map<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces =
+            new HashMap<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>>();
+        for (Map.Entry<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> entry : router.getRulesGroupByNamespaces().entrySet()) {
+            List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence = new ArrayList<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>();
+            for (Set<IRoutingRule<MyBatisRoutingFact, List<String>>> rules : entry.getValue()) {
+                ruleSequence.add(new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>(rules));
+            }
+            rulesGroupByNamespaces.put(entry.getKey(), ruleSequence);
+        }
+        return rulesGroupByNamespaces;
+    }
+
+    /**
+     * @return bean names of the mergers bound by the "merger" attribute of the rules, by the sql actions or namespaces of the rules.
+     * @throws IllegalArgumentException if different mergers are bound to the same sql action or namespace.
+     */
+    public Map<String, String> mergersOf(List<InternalRule> rules) {
+        Map<String, String> mergers = new HashMap<String, String>();
+        if (CollectionUtils.isEmpty(rules)) {
+            return mergers;
+        }
+        for (InternalRule rule : rules) {
+            String merger = StringUtils.trimToEmpty(rule.getMerger());
+            if (StringUtils.isEmpty(merger)) {
+                continue;
+            }
+            String target = StringUtils.isNotEmpty(StringUtils.trimToEmpty(rule.getSqlmap())) ? StringUtils.trim(rule.getSqlmap()) : StringUtils
+                .trimToEmpty(rule.getNamespace());
+            String existing = mergers.put(target, merger);
+            if (existing != null && !existing.equals(merger)) {
+                throw new IllegalArgumentException("different mergers are bound to:" + target + ", " + existing + " and " + merger);
+            }
+        }
+        return mergers;
     }
 
     private List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> setUpRuleSequenceContainerIfNecessary(
-        DefaultShardInternalRouter routerToUse, String namespace) {
-        List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence = routerToUse.getRulesGroupByNamespaces().get(namespace);
+        Map<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces, String namespace) {
+        List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence = rulesGroupByNamespaces.get(namespace);
         if (CollectionUtils.isEmpty(ruleSequence)) {
             ruleSequence = new ArrayList<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>();
             Set<IRoutingRule<MyBatisRoutingFact, List<String>>> sqlActionShardingRules = new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>();
@@ -98,8 +174,19 @@ public class InternalRuleLoader4DefaultInternalRouter {
             ruleSequence.add(sqlActionRules);
             ruleSequence.add(namespaceShardingRules);
             ruleSequence.add(namespaceRules);
-            routerToUse.getRulesGroupByNamespaces().put(namespace, ruleSequence);
+            rulesGroupByNamespaces.put(namespace, ruleSequence);
         }
         return ruleSequence;
     }
+
+    public ShardingFunctionRuleFolder getRuleFolder() {
+        return ruleFolder;
+    }
+
+    /**
+     * set to null to keep function-based sharding rules from being folded.
+     */
+    public void setRuleFolder(ShardingFunctionRuleFolder ruleFolder) {
+        this.ruleFolder = ruleFolder;
+    }
 }
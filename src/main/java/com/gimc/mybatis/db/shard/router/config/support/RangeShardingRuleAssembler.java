@@ -0,0 +1,141 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.config.support;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.gimc.mybatis.db.shard.router.config.vo.InternalRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisRangeShardingRule;
+import com.gimc.mybatis.db.shard.router.support.RangeIndex;
+import com.gimc.mybatis.db.shard.router.support.ShardKeyRange;
+import com.gimc.mybatis.db.shard.support.utils.MapUtils;
+
+/**
+ * collects range rules, i.e. rules with "shardingAttribute" instead of "shardingExpression", and assembles all of the ranges on one attribute of
+ * the same namespace or sql action into one {@link MyBatisRangeShardingRule}.<br>
+ * bounds are parsed as the "boundType" of their rules, see {@link RangeIndex#parseBound(String, String)}, and ranges whose bounds can't be
+ * compared with each other fail the assembly.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class RangeShardingRuleAssembler {
+
+    private final Map<RangeRuleKey, Map<ShardKeyRange, String>> rangesByKey = new LinkedHashMap<RangeRuleKey, Map<ShardKeyRange, String>>();
+
+    /**
+     * @return false if the rule is not a range rule, and nothing is collected.
+     * @throws IllegalArgumentException if the rule is not a valid range rule.
+     */
+    public boolean collect(InternalRule rule) {
+        String shardingAttribute = StringUtils.trimToEmpty(rule.getShardingAttribute());
+        if (StringUtils.isEmpty(shardingAttribute)) {
+            if (StringUtils.isNotEmpty(StringUtils.trimToEmpty(rule.getLowerBound()))
+                || StringUtils.isNotEmpty(StringUtils.trimToEmpty(rule.getUpperBound()))) {
+                throw new IllegalArgumentException("'shardingAttribute' must be given along with 'lowerBound' or 'upperBound'.");
+            }
+            return false;
+        }
+        if (StringUtils.isNotEmpty(StringUtils.trimToEmpty(rule.getVirtualNodes()))) {
+            if (StringUtils.isNotEmpty(StringUtils.trimToEmpty(rule.getLowerBound()))
+                || StringUtils.isNotEmpty(StringUtils.trimToEmpty(rule.getUpperBound()))) {
+                throw new IllegalArgumentException("'virtualNodes' and range bounds are alternatives, can't guess which one to use if both of them are provided.");
+            }
+            return false; // consistent hashing rule
+        }
+        if (StringUtils.isNotEmpty(StringUtils.trimToEmpty(rule.getShardingExpression()))) {
+            throw new IllegalArgumentException("'shardingExpression' and 'shardingAttribute' are alternatives, can't guess which one to use if both of them are provided.");
+        }
+
+        String namespace = StringUtils.trimToEmpty(rule.getNamespace());
+        boolean namespaceRule = StringUtils.isNotEmpty(namespace);
+        RangeRuleKey key = new RangeRuleKey(namespaceRule, namespaceRule ? namespace : StringUtils.trimToEmpty(rule.getSqlmap()), shardingAttribute);
+        Map<ShardKeyRange, String> ranges = rangesByKey.get(key);
+        if (ranges == null) {
+            ranges = new LinkedHashMap<ShardKeyRange, String>();
+            rangesByKey.put(key, ranges);
+        }
+
+        Object lower = RangeIndex.parseBound(rule.getLowerBound(), rule.getBoundType());
+        Object upper = RangeIndex.parseBound(rule.getUpperBound(), rule.getBoundType());
+        ShardKeyRange range;
+        try {
+            range = new ShardKeyRange(lower, upper, false);
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException("bounds:'" + lower + "' and '" + upper + "' of attribute:'" + shardingAttribute
+                + "' can't be compared with each other.", e);
+        }
+        String destinations = StringUtils.trimToEmpty(rule.getShards());
+        String existing = ranges.put(range, destinations);
+        if (existing != null && !StringUtils.equals(existing, destinations)) {
+            throw new IllegalArgumentException("range:" + range + " of attribute:'" + shardingAttribute + "' is mapped to both '" + existing
+                + "' and '" + destinations + "'.");
+        }
+        return true;
+    }
+
+    /**
+     * @param functionsMap functions that can be referred to by sharding attribute, can be null.
+     */
+    public List<MyBatisRangeShardingRule> assemble(Map<String, Object> functionsMap) {
+        List<MyBatisRangeShardingRule> rules = new ArrayList<MyBatisRangeShardingRule>();
+        for (Map.Entry<RangeRuleKey, Map<ShardKeyRange, String>> entry : rangesByKey.entrySet()) {
+            RangeRuleKey key = entry.getKey();
+            MyBatisRangeShardingRule rule;
+            try {
+                rule = new MyBatisRangeShardingRule(key.pattern, key.namespaceRule, key.shardingAttribute, entry.getValue());
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("bounds of the ranges on attribute:'" + key.shardingAttribute + "' of '" + key.pattern
+                    + "' can't be compared with each other, give them the same 'boundType'.", e);
+            }
+            if (MapUtils.isNotEmpty(functionsMap)) {
+                rule.setFunctionMap(functionsMap);
+            }
+            rule.compileAttributePattern();
+            rules.add(rule);
+        }
+        return rules;
+    }
+
+    private static final class RangeRuleKey {
+
+        private final boolean namespaceRule;
+        private final String  pattern;
+        private final String  shardingAttribute;
+
+        RangeRuleKey(boolean namespaceRule, String pattern, String shardingAttribute) {
+            this.namespaceRule = namespaceRule;
+            this.pattern = pattern;
+            this.shardingAttribute = shardingAttribute;
+        }
+
+        @Override
+        public int hashCode() {
+            return (namespaceRule ? 1231 : 1237) ^ (31 * pattern.hashCode()) ^ shardingAttribute.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RangeRuleKey)) {
+                return false;
+            }
+            RangeRuleKey other = (RangeRuleKey) obj;
+            return namespaceRule == other.namespaceRule && pattern.equals(other.pattern) && shardingAttribute.equals(other.shardingAttribute);
+        }
+    }
+}
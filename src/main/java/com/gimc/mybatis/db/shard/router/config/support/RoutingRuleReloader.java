@@ -0,0 +1,183 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.config.support;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+/**
+ * reloads the routing rules of a router, on demand or once the configuration resources change.<br>
+ * the reloading task builds the new rules aside and publishes them to the router in one go, reloads are serialized with each other, while
+ * routing requests are not blocked by them at all.<br>
+ * resources are checked by their last modified time, the ones that can't tell it(e.g. resources in jar files) are not watched.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class RoutingRuleReloader implements RoutingRuleReloaderMXBean {
+
+    private transient final Logger logger = LoggerFactory.getLogger(RoutingRuleReloader.class);
+
+    private final Callable<?> reloadingTask;
+
+    private final AtomicLong reloadCount = new AtomicLong();
+    private volatile long lastReloadTime;
+    private volatile String lastReloadFailure;
+
+    private Resource[] watchedResources = new Resource[0];
+    private final Map<Resource, Long> lastModifiedTimes = new HashMap<Resource, Long>();
+    private ScheduledExecutorService watcher;
+    private ObjectName objectName;
+
+    /**
+     * @param reloadingTask builds the rules again and publishes them to the router, it should leave the router untouched if it fails.
+     */
+    public RoutingRuleReloader(Callable<?> reloadingTask) {
+        Validate.notNull(reloadingTask);
+        this.reloadingTask = reloadingTask;
+    }
+
+    public synchronized void reload() throws Exception {
+        Map<Resource, Long> modifiedTimes = lastModifiedTimesOf(watchedResources);
+        // a failed reload is not retried until the resources change again
+        lastModifiedTimes.putAll(modifiedTimes);
+        try {
+            reloadingTask.call();
+        } catch (Exception e) {
+            lastReloadFailure = e.toString();
+            logger.error("failed to reload routing rules, the router keeps its current rules.", e);
+            throw e;
+        }
+        lastReloadFailure = null;
+        lastReloadTime = System.currentTimeMillis();
+        reloadCount.incrementAndGet();
+        logger.info("routing rules are reloaded.");
+    }
+
+    /**
+     * reload the rules if any of the watched resources is modified since last load.
+     *
+     * @return true if the rules are reloaded.
+     */
+    public synchronized boolean reloadIfModified() throws Exception {
+        if (lastModifiedTimes.equals(lastModifiedTimesOf(watchedResources))) {
+            return false;
+        }
+        reload();
+        return true;
+    }
+
+    /**
+     * watch the resources for changes, the rules are supposed to be loaded from them already.
+     *
+     * @param interval milliseconds between two checks
+     */
+    public synchronized void watch(Resource[] resources, long interval) {
+        Validate.notNull(resources);
+        Validate.isTrue(interval > 0, "interval to check resources must be positive.");
+        Validate.isTrue(watcher == null, "resources are watched already.");
+        this.watchedResources = resources.clone();
+        this.lastModifiedTimes.putAll(lastModifiedTimesOf(watchedResources));
+        this.watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RoutingRuleReloader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.watcher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    reloadIfModified();
+                } catch (Throwable t) {
+                    // logged already, the resources will be checked again on next round
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * register to the platform MBean server with the given name.
+     */
+    public synchronized void register(String name) throws Exception {
+        Validate.notEmpty(name);
+        Validate.isTrue(objectName == null, "registered already as:" + objectName);
+        ObjectName nameToUse = new ObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, nameToUse);
+        this.objectName = nameToUse;
+    }
+
+    /**
+     * stop watching resources and unregister from MBean server, if ever.
+     */
+    public synchronized void shutdown() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (Exception e) {
+                logger.warn("failed to unregister routing rule reloader:" + objectName, e);
+            }
+            objectName = null;
+        }
+    }
+
+    private Map<Resource, Long> lastModifiedTimesOf(Resource[] resources) {
+        Map<Resource, Long> modifiedTimes = new HashMap<Resource, Long>();
+        for (Resource resource : resources) {
+            if (resource == null) {
+                continue;
+            }
+            try {
+                modifiedTimes.put(resource, resource.lastModified());
+            } catch (Exception e) {
+                // can't tell, it's not watched
+            }
+        }
+        return modifiedTimes;
+    }
+
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    public long getLastReloadTime() {
+        return lastReloadTime;
+    }
+
+    public String getLastReloadFailure() {
+        return lastReloadFailure;
+    }
+
+}
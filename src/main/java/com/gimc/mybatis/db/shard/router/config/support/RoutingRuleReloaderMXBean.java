@@ -0,0 +1,39 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.config.support;
+
+/**
+ * management interface to reload the routing rules of a router over JMX.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public interface RoutingRuleReloaderMXBean {
+
+    /**
+     * read the rules again and publish them to the router, the router keeps its current rules if they fail to load.
+     */
+    void reload() throws Exception;
+
+    long getReloadCount();
+
+    /**
+     * @return milliseconds since epoch of last successful reload, 0 if the rules are never reloaded.
+     */
+    long getLastReloadTime();
+
+    /**
+     * @return the error of last reload if it failed, null otherwise.
+     */
+    String getLastReloadFailure();
+}
@@ -0,0 +1,203 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.config.support;
+
+import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.AbstractIBatisOrientedRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceShardingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisShardingFunctionRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisSqlActionShardingRule;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.support.utils.CollectionUtils;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * recognizes families of sharding rules in the form of "function.apply(attribute) == constant" and folds each family into one
+ * {@link MyBatisShardingFunctionRule}, so that the function is evaluated once per routing fact instead of once per rule.<br>
+ * rules in other forms are left as they are.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class ShardingFunctionRuleFolder {
+
+    private transient final Logger logger = LoggerFactory.getLogger(ShardingFunctionRuleFolder.class);
+
+    private static final String IDENTIFIER = "[A-Za-z_$][\\w$]*";
+    private static final String FUNCTION_CALL = "(" + IDENTIFIER + ")\\s*\\.\\s*apply\\s*\\(\\s*(" + IDENTIFIER + "(?:\\s*\\.\\s*" + IDENTIFIER
+        + ")*)\\s*\\)";
+    private static final String CONSTANT = "(-?\\d+[lL]?|'[^']*'|\"[^\"]*\")";
+
+    private static final Pattern FUNCTION_EQUALS_CONSTANT = Pattern.compile("^\\s*" + FUNCTION_CALL + "\\s*==\\s*" + CONSTANT + "\\s*$");
+    private static final Pattern CONSTANT_EQUALS_FUNCTION = Pattern.compile("^\\s*" + CONSTANT + "\\s*==\\s*" + FUNCTION_CALL + "\\s*$");
+
+    /**
+     * the minimal number of rules for a family to be folded.
+     */
+    private int threshold = 2;
+
+    /**
+     * folds rule families in the given set in place.
+     *
+     * @param rules a set of sharding rules of the same precedence, i.e. all of the namespace sharding rules.
+     */
+    public void fold(Set<IRoutingRule<MyBatisRoutingFact, List<String>>> rules) {
+        if (CollectionUtils.isEmpty(rules)) {
+            return;
+        }
+
+        Map<String, List<FamilyMember>> families = new LinkedHashMap<String, List<FamilyMember>>();
+        for (IRoutingRule<MyBatisRoutingFact, List<String>> rule : rules) {
+            FamilyMember member = recognize(rule);
+            if (member == null) {
+                continue;
+            }
+            List<FamilyMember> family = families.get(member.familyKey());
+            if (family == null) {
+                family = new ArrayList<FamilyMember>();
+                families.put(member.familyKey(), family);
+            }
+            family.add(member);
+        }
+
+        for (List<FamilyMember> family : families.values()) {
+            if (family.size() < getThreshold()) {
+                continue;
+            }
+            Map<Object, String> destinationsByValue = new HashMap<Object, String>();
+            boolean conflicting = false;
+            for (FamilyMember member : family) {
+                Object value = MyBatisShardingFunctionRule.normalizeValue(member.constant);
+                String destinations = StringUtils.join(member.rule.action(), AbstractIBatisOrientedRule.DEFAULT_DATASOURCE_IDENTITY_SEPARATOR);
+                if (destinationsByValue.containsKey(value) && !StringUtils.equals(destinationsByValue.get(value), destinations)) {
+                    conflicting = true;
+                    break;
+                }
+                destinationsByValue.put(value, destinations);
+            }
+            FamilyMember head = family.get(0);
+            if (conflicting) {
+                logger.warn("rules on '{}' with expression '{}' map the same value to different shards, leave them as they are.", head.rule
+                    .getTypePattern(), head.functionExpression());
+                continue;
+            }
+
+            MyBatisShardingFunctionRule folded = new MyBatisShardingFunctionRule(head.rule.getTypePattern(), head.namespaceRule, head
+                .functionExpression(), destinationsByValue);
+            folded.setFunctionMap(head.rule.getFunctionMap());
+            folded.compileAttributePattern();
+
+            for (FamilyMember member : family) {
+                rules.remove(member.rule);
+            }
+            rules.add(folded);
+            logger.info("folded {} rules into {}", family.size(), folded);
+        }
+    }
+
+    private FamilyMember recognize(IRoutingRule<MyBatisRoutingFact, List<String>> rule) {
+        boolean namespaceRule;
+        if (rule instanceof MyBatisNamespaceShardingRule) {
+            namespaceRule = true;
+        } else if (rule instanceof MyBatisSqlActionShardingRule) {
+            namespaceRule = false;
+        } else {
+            return null;
+        }
+
+        AbstractIBatisOrientedRule shardingRule = (AbstractIBatisOrientedRule) rule;
+        String expression = shardingRule.getAttributePattern();
+        if (expression == null) {
+            return null;
+        }
+
+        String function;
+        String attribute;
+        String constant;
+        Matcher matcher = FUNCTION_EQUALS_CONSTANT.matcher(expression);
+        if (matcher.matches()) {
+            function = matcher.group(1);
+            attribute = matcher.group(2);
+            constant = matcher.group(3);
+        } else {
+            matcher = CONSTANT_EQUALS_FUNCTION.matcher(expression);
+            if (!matcher.matches()) {
+                return null;
+            }
+            constant = matcher.group(1);
+            function = matcher.group(2);
+            attribute = matcher.group(3);
+        }
+
+        if (shardingRule.getFunctionMap() == null || !shardingRule.getFunctionMap().containsKey(function)) {
+            return null;
+        }
+
+        FamilyMember member = new FamilyMember();
+        member.rule = shardingRule;
+        member.namespaceRule = namespaceRule;
+        member.function = function;
+        member.attribute = StringUtils.deleteWhitespace(attribute);
+        member.constant = parseConstant(constant);
+        return member;
+    }
+
+    private Object parseConstant(String constant) {
+        if (constant.startsWith("'") || constant.startsWith("\"")) {
+            return constant.substring(1, constant.length() - 1);
+        }
+        if (StringUtils.endsWithIgnoreCase(constant, "l")) {
+            constant = constant.substring(0, constant.length() - 1);
+        }
+        return Long.valueOf(constant);
+    }
+
+    public void setThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold must be positive.");
+        }
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    private static class FamilyMember {
+
+        private AbstractIBatisOrientedRule rule;
+        private boolean namespaceRule;
+        private String function;
+        private String attribute;
+        private Object constant;
+
+        String functionExpression() {
+            return function + ".apply(" + attribute + ")";
+        }
+
+        String familyKey() {
+            return namespaceRule + "|" + rule.getTypePattern() + "|" + functionExpression() + "|" + System.identityHashCode(rule.getFunctionMap());
+        }
+    }
+}
@@ -19,8 +19,29 @@ public class InternalRule {
     private String shardingExpression;
     private String shards;
     /**
-     * this field is not used for now, because it's still in leverage whether
-     * it's proper to bind merging information into a routing concern.
+     * attribute of parameter object to partition by range, it's an alternative to {@link #shardingExpression}.
+     */
+    private String shardingAttribute;
+    /**
+     * inclusive lower bound of the range, unbounded if not given.
+     */
+    private String lowerBound;
+    /**
+     * exclusive upper bound of the range, unbounded if not given.
+     */
+    private String upperBound;
+    /**
+     * type of {@link #lowerBound} and {@link #upperBound}, one of "auto", "number", "string" and "date", "auto" if not given, see
+     * {@link com.gimc.mybatis.db.shard.router.support.RangeIndex#parseBound(String, String)}.
+     */
+    private String boundType;
+    /**
+     * number of virtual nodes per unit of shard weight, distributes by consistent hashing over {@link #shardingAttribute} if given.
+     */
+    private String virtualNodes;
+    /**
+     * bean name of the merger of the results of the sql action, or of all of the sql actions of the namespace, across shards. it's bound by
+     * the factory beans of {@link com.gimc.mybatis.db.shard.router.DefaultShardInternalRouter} only, and is attached to the routing results.
      */
     private String merger;
 
@@ -56,6 +77,46 @@ public class InternalRule {
         this.shards = shards;
     }
 
+    public String getShardingAttribute() {
+        return shardingAttribute;
+    }
+
+    public void setShardingAttribute(String shardingAttribute) {
+        this.shardingAttribute = shardingAttribute;
+    }
+
+    public String getLowerBound() {
+        return lowerBound;
+    }
+
+    public void setLowerBound(String lowerBound) {
+        this.lowerBound = lowerBound;
+    }
+
+    public String getUpperBound() {
+        return upperBound;
+    }
+
+    public void setUpperBound(String upperBound) {
+        this.upperBound = upperBound;
+    }
+
+    public String getBoundType() {
+        return boundType;
+    }
+
+    public void setBoundType(String boundType) {
+        this.boundType = boundType;
+    }
+
+    public String getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public void setVirtualNodes(String virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
     /**
      * set the bean name of merger to use.
      *
@@ -76,10 +137,15 @@ public class InternalRule {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
+        result = prime * result + ((boundType == null) ? 0 : boundType.hashCode());
+        result = prime * result + ((lowerBound == null) ? 0 : lowerBound.hashCode());
         result = prime * result + ((namespace == null) ? 0 : namespace.hashCode());
+        result = prime * result + ((shardingAttribute == null) ? 0 : shardingAttribute.hashCode());
         result = prime * result + ((shardingExpression == null) ? 0 : shardingExpression.hashCode());
         result = prime * result + ((shards == null) ? 0 : shards.hashCode());
         result = prime * result + ((sqlmap == null) ? 0 : sqlmap.hashCode());
+        result = prime * result + ((upperBound == null) ? 0 : upperBound.hashCode());
+        result = prime * result + ((virtualNodes == null) ? 0 : virtualNodes.hashCode());
         return result;
     }
 
@@ -95,6 +161,20 @@ public class InternalRule {
             return false;
         }
         InternalRule other = (InternalRule) obj;
+        if (boundType == null) {
+            if (other.boundType != null) {
+                return false;
+            }
+        } else if (!boundType.equals(other.boundType)) {
+            return false;
+        }
+        if (lowerBound == null) {
+            if (other.lowerBound != null) {
+                return false;
+            }
+        } else if (!lowerBound.equals(other.lowerBound)) {
+            return false;
+        }
         if (namespace == null) {
             if (other.namespace != null) {
                 return false;
@@ -102,6 +182,13 @@ public class InternalRule {
         } else if (!namespace.equals(other.namespace)) {
             return false;
         }
+        if (shardingAttribute == null) {
+            if (other.shardingAttribute != null) {
+                return false;
+            }
+        } else if (!shardingAttribute.equals(other.shardingAttribute)) {
+            return false;
+        }
         if (shardingExpression == null) {
             if (other.shardingExpression != null) {
                 return false;
@@ -123,12 +210,27 @@ public class InternalRule {
         } else if (!sqlmap.equals(other.sqlmap)) {
             return false;
         }
+        if (upperBound == null) {
+            if (other.upperBound != null) {
+                return false;
+            }
+        } else if (!upperBound.equals(other.upperBound)) {
+            return false;
+        }
+        if (virtualNodes == null) {
+            if (other.virtualNodes != null) {
+                return false;
+            }
+        } else if (!virtualNodes.equals(other.virtualNodes)) {
+            return false;
+        }
         return true;
     }
 
     @Override
     public String toString() {
-        return "InternalRule [namespace=" + namespace + ", shardingExpression=" + shardingExpression + ", shards=" + shards + ", sqlmap=" + sqlmap
-            + "]";
+        return "InternalRule [namespace=" + namespace + ", shardingExpression=" + shardingExpression + ", shardingAttribute=" + shardingAttribute
+            + ", lowerBound=" + lowerBound + ", upperBound=" + upperBound + ", boundType=" + boundType + ", virtualNodes=" + virtualNodes
+            + ", shards=" + shards + ", sqlmap=" + sqlmap + "]";
     }
 }
@@ -0,0 +1,31 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.rules;
+
+/**
+ * a rule that stands for a group of "when-then" rules, so the action result depends on the fact it matches.<br>
+ * routers should ask such a rule for {@link #actionFor(Object)} instead of {@link #isDefinedAt(Object)} and {@link #action()}, so that the fact
+ * will only be evaluated once.<br>
+ * {@link #action()} of such a rule returns all of the action results it may return.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public interface ICompositeRoutingRule<F, T> extends IRoutingRule<F, T> {
+
+    /**
+     * @param routingFact, the fact to check against
+     * @return the action result for the fact, or null if the fact doesn't match any rule in this group.
+     */
+    T actionFor(F routingFact);
+}
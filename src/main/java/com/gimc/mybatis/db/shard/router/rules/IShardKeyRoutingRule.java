@@ -0,0 +1,31 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.rules;
+
+/**
+ * a routing rule whose decision depends on nothing but the sql action of the routing fact and one value extracted from its argument, the shard
+ * key.<br>
+ * routers cache routing results with the shard keys of such rules, instead of the whole argument.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public interface IShardKeyRoutingRule<F, T> extends IRoutingRule<F, T> {
+
+    /**
+     * @param routingFact the fact whose sql action the rule applies to
+     * @return the shard key of the fact, normalized so that keys that lead to the same decision are equal, null if there's no shard key to
+     *         match against.
+     */
+    Object shardKeyOf(F routingFact);
+}
@@ -12,17 +12,26 @@
  */
 package com.gimc.mybatis.db.shard.router.rules.mybatis;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
+import org.mvel2.integration.VariableResolverFactory;
+import org.mvel2.integration.impl.MapVariableResolverFactory;
 
 import com.gimc.mybatis.db.shard.router.rules.AbstractEntityAttributeRule;
 import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
 import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.router.support.RoutingTargets;
+import com.gimc.mybatis.db.shard.router.support.ShardKeyAccessor;
+import com.gimc.mybatis.db.shard.router.support.ShardKeyAccessors;
+import com.gimc.mybatis.db.shard.router.support.ShardingExpressions;
 import com.gimc.mybatis.db.shard.support.utils.CollectionUtils;
 
 /**
@@ -35,33 +44,184 @@ public abstract class AbstractIBatisOrientedRule extends AbstractEntityAttribute
 
     public static final String DEFAULT_DATASOURCE_IDENTITY_SEPARATOR = ",";
 
+    private static final Pattern FUNCTION_APPLYING = Pattern.compile("([A-Za-z_$][\\w$]*)\\s*\\.\\s*apply\\s*\\(\\s*([A-Za-z_$][\\w$.\\s]*)\\)");
+
     private Map<String, Object> functionMap = new HashMap<String, Object>();
 
     private String actionPatternSeparator = DEFAULT_DATASOURCE_IDENTITY_SEPARATOR;
 
-    private List<String> dataSourceIds = new ArrayList<String>();
+    /**
+     * shard identities of the action, split once when the action or its separator is set, so that {@link #action()} takes no lock.
+     */
+    private volatile RoutingTargets dataSourceIds;
+
+    /**
+     * the attribute pattern compiled by {@link ShardingExpressions}, rule loaders compile it once when rules are loaded, so that the expression
+     * will not be interpreted again and again on each routing request.
+     */
+    private volatile Serializable compiledAttributePattern;
+
+    /**
+     * each thread keeps its own variables for expression evaluation, the function map is copied in only once per thread, and only the "$ROOT"
+     * variable is changed on each evaluation.
+     */
+    private final ThreadLocal<ExpressionContext> expressionContexts = new ThreadLocal<ExpressionContext>();
+
+    /**
+     * reads the value of attribute pattern directly if it's a property path like "memberId", or a function applied on a property path like
+     * "mod.apply(memberId)", null if it's any other expression.
+     */
+    private volatile ShardKeyAccessor attributeAccessor;
+    private volatile boolean attributeAccessorResolved;
 
     public AbstractIBatisOrientedRule(String pattern, String action) {
         super(pattern, action);
+        splitAction();
     }
 
     public AbstractIBatisOrientedRule(String pattern, String action, String attributePattern) {
         super(pattern, action, attributePattern);
+        splitAction();
     }
 
-    public synchronized List<String> action() {
-        if (CollectionUtils.isEmpty(dataSourceIds)) {
-            List<String> ids = new ArrayList<String>();
+    public List<String> action() {
+        return dataSourceIds;
+    }
+
+    private void splitAction() {
+        List<String> ids = new ArrayList<String>();
+        if (getAction() != null) {
             for (String id : StringUtils.split(getAction(), getActionPatternSeparator())) {
                 ids.add(StringUtils.trimToEmpty(id));
             }
-            setDataSourceIds(ids);
         }
-        return dataSourceIds;
+        this.dataSourceIds = new RoutingTargets(ids);
+    }
+
+    /**
+     * same as StringUtils.equals(StringUtils.substringBeforeLast(action, "."), namespace), without creating the substring on each routing
+     * request.
+     */
+    protected static boolean isNamespaceOf(String namespace, String action) {
+        if (action == null) {
+            return namespace == null;
+        }
+        int separator = action.lastIndexOf('.');
+        if (separator < 0) {
+            return action.equals(namespace);
+        }
+        return namespace != null && namespace.length() == separator && action.startsWith(namespace);
+    }
+
+    /**
+     * whether the rule may match facts of the given sql action, no matter what the argument is.<br>
+     * it's true if the type pattern is either the sql action or its namespace, subclasses that know which one they match against tell it exactly.
+     */
+    public boolean isApplicableTo(String action) {
+        return StringUtils.equals(getTypePattern(), action) || isNamespaceOf(getTypePattern(), action);
+    }
+
+    /**
+     * compile the attribute pattern of current rule, if any.<br>
+     * it's supposed to be called by rule loaders after the rule is configured, and it will fail fast if the pattern is not a valid expression.
+     */
+    public void compileAttributePattern() {
+        if (StringUtils.isNotEmpty(StringUtils.trimToEmpty(getAttributePattern()))) {
+            compiledAttributePattern = ShardingExpressions.compile(getAttributePattern());
+        }
+        attributeAccessor = resolveAttributeAccessor();
+        attributeAccessorResolved = true;
+    }
+
+    private ShardKeyAccessor resolveAttributeAccessor() {
+        String pattern = StringUtils.trimToEmpty(getAttributePattern());
+        Matcher matcher = FUNCTION_APPLYING.matcher(pattern);
+        if (matcher.matches()) {
+            if (getFunctionMap() == null || !getFunctionMap().containsKey(matcher.group(1)) || isFunctionVariable(matcher.group(2))) {
+                return null;
+            }
+            return ShardKeyAccessors.applying(getFunctionMap().get(matcher.group(1)), ShardKeyAccessors.forPath(matcher.group(2)));
+        }
+        return isFunctionVariable(pattern) ? null : ShardKeyAccessors.forPath(pattern);
+    }
+
+    /**
+     * variables of function map shadow the properties of argument in expressions.
+     */
+    private boolean isFunctionVariable(String path) {
+        String head = StringUtils.trimToEmpty(StringUtils.substringBefore(path, "."));
+        return getFunctionMap() != null && getFunctionMap().containsKey(head);
+    }
+
+    /**
+     * evaluate the attribute pattern against the argument of routing fact with the compiled expression.<br>
+     * if the pattern is not compiled yet, it will be compiled on first use.
+     *
+     * @param argument the argument of routing fact, it will be used as context object and "$ROOT" variable of the expression.
+     */
+    protected boolean evaluateAttributePattern(Object argument) {
+        return Boolean.TRUE.equals(evaluateAttributeExpression(argument, Boolean.class));
+    }
+
+    /**
+     * get the value of attribute pattern from the argument of routing fact.<br>
+     * property paths and functions applied on property paths are read through {@link ShardKeyAccessor}s without reflection, other expressions
+     * are evaluated by MVEL as {@link #evaluateAttributeExpression(Object, Class)} does.
+     */
+    protected Object extractAttributeValue(Object argument) {
+        if (!attributeAccessorResolved) {
+            compileAttributePattern();
+        }
+        ShardKeyAccessor accessor = attributeAccessor;
+        if (accessor != null) {
+            return accessor.get(argument);
+        }
+        return evaluateAttributeExpression(argument, Object.class);
+    }
+
+    /**
+     * same as {@link #evaluateAttributePattern(Object)}, but the expression value is returned as it is, coerced to the given type.
+     */
+    protected <V> V evaluateAttributeExpression(Object argument, Class<V> type) {
+        Serializable expression = compiledAttributePattern;
+        if (expression == null) {
+            compileAttributePattern();
+            expression = compiledAttributePattern;
+        }
+
+        ExpressionContext context = expressionContexts.get();
+        if (context == null || context.functions != getFunctionMap()) {
+            context = new ExpressionContext(getFunctionMap());
+            expressionContexts.set(context);
+        }
+
+        context.variables.put("$ROOT", argument); // add top object reference for expression
+        try {
+            return ShardingExpressions.execute(expression, argument, context.factory, type);
+        } finally {
+            context.variables.put("$ROOT", null);
+        }
+    }
+
+    @Override
+    public void setAttributePattern(String attributePattern) {
+        super.setAttributePattern(attributePattern);
+        this.compiledAttributePattern = null;
+        this.attributeAccessorResolved = false;
+    }
+
+    @Override
+    public void setAction(String action) {
+        super.setAction(action);
+        splitAction();
     }
 
     public void setDataSourceIds(List<String> dataSourceIds) {
-        this.dataSourceIds = dataSourceIds;
+        if (CollectionUtils.isEmpty(dataSourceIds)) {
+            splitAction();
+        } else {
+            this.dataSourceIds = RoutingTargets.of(dataSourceIds);
+        }
     }
 
     public List<String> getDataSourceIds() {
@@ -71,6 +231,7 @@ public abstract class AbstractIBatisOrientedRule extends AbstractEntityAttribute
     public void setActionPatternSeparator(String actionPatternSeparator) {
         Validate.notNull(actionPatternSeparator);
         this.actionPatternSeparator = actionPatternSeparator;
+        splitAction();
     }
 
     public String getActionPatternSeparator() {
@@ -79,10 +240,27 @@ public abstract class AbstractIBatisOrientedRule extends AbstractEntityAttribute
 
     public void setFunctionMap(Map<String, Object> functionMap) {
         this.functionMap = functionMap;
+        this.attributeAccessorResolved = false;
     }
 
     public Map<String, Object> getFunctionMap() {
         return functionMap;
     }
 
+    private static final class ExpressionContext {
+
+        private final Map<String, Object> functions;
+        private final Map<String, Object> variables;
+        private final VariableResolverFactory factory;
+
+        ExpressionContext(Map<String, Object> functions) {
+            this.functions = functions;
+            this.variables = new HashMap<String, Object>();
+            if (functions != null) {
+                this.variables.putAll(functions);
+            }
+            this.factory = new MapVariableResolverFactory(variables);
+        }
+    }
+
 }
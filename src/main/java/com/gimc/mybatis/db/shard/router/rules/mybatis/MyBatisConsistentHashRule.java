@@ -0,0 +1,166 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.rules.mybatis;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gimc.mybatis.db.shard.router.rules.ICompositeRoutingRule;
+import com.gimc.mybatis.db.shard.router.rules.IShardKeyRoutingRule;
+import com.gimc.mybatis.db.shard.router.support.ConsistentHashRing;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.router.support.RoutingTargets;
+import com.gimc.mybatis.db.shard.support.utils.MapUtils;
+
+/**
+ * distributes sql actions of a namespace or a single sql action among shards with a {@link ConsistentHashRing} over the value of sharding
+ * attribute.<br>
+ * compared with "mod.apply(attribute)==K" rules, adding a shard only moves about 1/N of the keys, and routing costs one hash and one binary
+ * search no matter how many shards there are.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class MyBatisConsistentHashRule extends AbstractIBatisOrientedRule implements ICompositeRoutingRule<MyBatisRoutingFact, List<String>>,
+    IShardKeyRoutingRule<MyBatisRoutingFact, List<String>> {
+
+    private transient final Logger logger = LoggerFactory.getLogger(MyBatisConsistentHashRule.class);
+
+    /**
+     * match against the namespace of sql action if true, otherwise against the whole sql action.
+     */
+    private final boolean namespaceRule;
+    private final Map<String, Integer> weights;
+    private final int virtualNodes;
+    private final ConsistentHashRing ring;
+    /**
+     * destinations per shard index of the ring, built once, so that routing doesn't create any list.
+     */
+    private final RoutingTargets[] destinations;
+
+    /**
+     * @param pattern the namespace or sql action to match against
+     * @param namespaceRule whether the pattern is a namespace or a sql action
+     * @param shardingAttribute the attribute(or expression) of parameter object whose value is hashed
+     * @param weights shard to weight mapping, a shard with weight 2 gets about twice as many keys as the one with weight 1
+     * @param virtualNodes number of points on the ring per unit of weight
+     */
+    public MyBatisConsistentHashRule(String pattern, boolean namespaceRule, String shardingAttribute, Map<String, Integer> weights, int virtualNodes) {
+        super(pattern, joinShards(weights), shardingAttribute);
+        this.namespaceRule = namespaceRule;
+        this.weights = Collections.unmodifiableMap(new LinkedHashMap<String, Integer>(weights));
+        this.virtualNodes = virtualNodes;
+        this.ring = new ConsistentHashRing(this.weights, virtualNodes);
+        this.destinations = new RoutingTargets[this.weights.size()];
+        for (int i = 0; i < destinations.length; i++) {
+            destinations[i] = new RoutingTargets(Collections.singletonList(ring.getShard(i)));
+        }
+    }
+
+    public List<String> actionFor(MyBatisRoutingFact routingFact) {
+        Validate.notNull(routingFact);
+        if (!isApplicableTo(routingFact.getAction())) {
+            return null;
+        }
+        try {
+            Object value = extractAttributeValue(routingFact.getArgument());
+            if (value != null) {
+                return destinations[ring.locate(value)];
+            }
+        } catch (Throwable t) {
+            logger.info("failed to hash attribute:'{}' of context object:'{}'\n{}", new Object[]{getAttributePattern(), routingFact.getArgument(), t});
+        }
+        return null;
+    }
+
+    /**
+     * the hash of sharding attribute, since it's all the ring looks at.
+     */
+    public Object shardKeyOf(MyBatisRoutingFact routingFact) {
+        try {
+            Object value = extractAttributeValue(routingFact.getArgument());
+            return value == null ? null : Long.valueOf(ConsistentHashRing.hash(value));
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    public boolean isDefinedAt(MyBatisRoutingFact routingFact) {
+        return actionFor(routingFact) != null;
+    }
+
+    @Override
+    public boolean isApplicableTo(String action) {
+        return namespaceRule ? isNamespaceOf(getTypePattern(), action) : StringUtils.equals(action, getTypePattern());
+    }
+
+    public boolean isNamespaceRule() {
+        return namespaceRule;
+    }
+
+    public Map<String, Integer> getWeights() {
+        return weights;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    private static String joinShards(Map<String, Integer> weights) {
+        Validate.isTrue(MapUtils.isNotEmpty(weights), "at least one shard must be given.");
+        return StringUtils.join(weights.keySet(), DEFAULT_DATASOURCE_IDENTITY_SEPARATOR);
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = super.hashCode();
+        result = prime * result + (namespaceRule ? 1231 : 1237);
+        result = prime * result + weights.hashCode();
+        result = prime * result + virtualNodes;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!super.equals(obj)) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        MyBatisConsistentHashRule other = (MyBatisConsistentHashRule) obj;
+        return namespaceRule == other.namespaceRule && virtualNodes == other.virtualNodes && weights.equals(other.weights);
+    }
+
+    @Override
+    public String toString() {
+        return "MyBatisConsistentHashRule [getAttributePattern()=" + getAttributePattern() + ", getTypePattern()=" + getTypePattern()
+            + ", namespaceRule=" + namespaceRule + ", weights=" + weights + ", virtualNodes=" + virtualNodes + "]";
+    }
+
+}
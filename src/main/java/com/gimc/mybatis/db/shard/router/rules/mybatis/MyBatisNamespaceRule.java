@@ -31,8 +31,12 @@ public class MyBatisNamespaceRule extends AbstractIBatisOrientedRule {
 
     public boolean isDefinedAt(MyBatisRoutingFact routingFact) {
         Validate.notNull(routingFact);
-        String namespace = StringUtils.substringBeforeLast(routingFact.getAction(), ".");
-        return StringUtils.equals(namespace, getTypePattern());
+        return isNamespaceOf(getTypePattern(), routingFact.getAction());
+    }
+
+    @Override
+    public boolean isApplicableTo(String action) {
+        return isNamespaceOf(getTypePattern(), action);
     }
 
     @Override
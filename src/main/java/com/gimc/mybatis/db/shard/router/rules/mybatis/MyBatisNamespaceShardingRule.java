@@ -12,14 +12,8 @@
  */
 package com.gimc.mybatis.db.shard.router.rules.mybatis;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
-import org.mvel2.MVEL;
-import org.mvel2.integration.VariableResolverFactory;
-import org.mvel2.integration.impl.MapVariableResolverFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,15 +29,10 @@ public class MyBatisNamespaceShardingRule extends AbstractIBatisOrientedRule {
 
     public boolean isDefinedAt(MyBatisRoutingFact routingFact) {
         Validate.notNull(routingFact);
-        String namespace = StringUtils.substringBeforeLast(routingFact.getAction(), ".");
-        boolean matches = StringUtils.equals(namespace, getTypePattern());
+        boolean matches = isNamespaceOf(getTypePattern(), routingFact.getAction());
         if (matches) {
             try {
-                Map<String, Object> vrs = new HashMap<String, Object>();
-                vrs.putAll(getFunctionMap());
-                vrs.put("$ROOT", routingFact.getArgument()); // add top object reference for expression
-                VariableResolverFactory vrfactory = new MapVariableResolverFactory(vrs);
-                if (MVEL.evalToBoolean(getAttributePattern(), routingFact.getArgument(), vrfactory)) {
+                if (evaluateAttributePattern(routingFact.getArgument())) {
                     return true;
                 }
             } catch (Throwable t) {
@@ -54,6 +43,11 @@ public class MyBatisNamespaceShardingRule extends AbstractIBatisOrientedRule {
         return false;
     }
 
+    @Override
+    public boolean isApplicableTo(String action) {
+        return isNamespaceOf(getTypePattern(), action);
+    }
+
     @Override
     public String toString() {
         return "MyBatisNamespaceShardingRule [getAttributePattern()=" + getAttributePattern() + ", getAction()=" + getAction() + ", getTypePattern()="
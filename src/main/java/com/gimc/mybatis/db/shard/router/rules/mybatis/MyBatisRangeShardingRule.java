@@ -0,0 +1,250 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.rules.mybatis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gimc.mybatis.db.shard.router.rules.ICompositeRoutingRule;
+import com.gimc.mybatis.db.shard.router.rules.IShardKeyRoutingRule;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.router.support.RangeIndex;
+import com.gimc.mybatis.db.shard.router.support.RoutingResult;
+import com.gimc.mybatis.db.shard.router.support.RoutingTargets;
+import com.gimc.mybatis.db.shard.router.support.ShardKeyRange;
+import com.gimc.mybatis.db.shard.support.utils.MapUtils;
+
+/**
+ * range partitioning rule, all of the ranges of one sharding attribute under a namespace or sql action are kept in one {@link RangeIndex}, so
+ * that the destination shards are located by the value of sharding attribute in O(log n), without any expression evaluated per range.<br>
+ * if the value of sharding attribute is a {@link ShardKeyRange}, or the routing fact declares one, all of the shards whose ranges overlap with it
+ * are returned, together with its bounds clipped to the ranges of each shard.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class MyBatisRangeShardingRule extends AbstractIBatisOrientedRule implements ICompositeRoutingRule<MyBatisRoutingFact, List<String>>,
+    IShardKeyRoutingRule<MyBatisRoutingFact, List<String>> {
+
+    private transient final Logger logger = LoggerFactory.getLogger(MyBatisRangeShardingRule.class);
+
+    /**
+     * match against the namespace of sql action if true, otherwise against the whole sql action.
+     */
+    private final boolean namespaceRule;
+    private final Map<ShardKeyRange, List<String>> destinationsByRange = new LinkedHashMap<ShardKeyRange, List<String>>();
+    private final RangeIndex<List<String>> rangeIndex;
+    /**
+     * ranges indexed by themselves, to clip the bounds of range queries to each shard.
+     */
+    private final RangeIndex<ShardKeyRange> boundsIndex;
+
+    /**
+     * @param pattern the namespace or sql action to match against
+     * @param namespaceRule whether the pattern is a namespace or a sql action
+     * @param shardingAttribute the attribute(or expression) of parameter object whose value is used to locate the range
+     * @param destinationsByRange range to destination shards mapping, ranges are all upper bound exclusive, and shards are separated by
+     *            {@link AbstractIBatisOrientedRule#DEFAULT_DATASOURCE_IDENTITY_SEPARATOR}
+     */
+    public MyBatisRangeShardingRule(String pattern, boolean namespaceRule, String shardingAttribute, Map<ShardKeyRange, String> destinationsByRange) {
+        super(pattern, joinDestinations(destinationsByRange), shardingAttribute);
+        this.namespaceRule = namespaceRule;
+        for (Map.Entry<ShardKeyRange, String> entry : destinationsByRange.entrySet()) {
+            this.destinationsByRange.put(entry.getKey(), new RoutingTargets(splitDestinations(entry.getValue())));
+        }
+        this.rangeIndex = new RangeIndex<List<String>>(this.destinationsByRange);
+        Map<ShardKeyRange, ShardKeyRange> ranges = new LinkedHashMap<ShardKeyRange, ShardKeyRange>();
+        for (ShardKeyRange range : this.destinationsByRange.keySet()) {
+            ranges.put(range, range);
+        }
+        this.boundsIndex = new RangeIndex<ShardKeyRange>(ranges);
+    }
+
+    public List<String> actionFor(MyBatisRoutingFact routingFact) {
+        Validate.notNull(routingFact);
+        if (!isApplicableTo(routingFact.getAction())) {
+            return null;
+        }
+        try {
+            Object value = routingFact.getShardKeyRange();
+            if (value == null) {
+                value = extractAttributeValue(routingFact.getArgument());
+            }
+            if (value == null) {
+                return null;
+            }
+            if (value instanceof ShardKeyRange) {
+                return routeRange((ShardKeyRange) value);
+            }
+            if (rangeIndex.isDisjoint()) {
+                return rangeIndex.findFirst(value);
+            }
+            List<List<String>> matched = new ArrayList<List<String>>(2);
+            rangeIndex.find(value, matched);
+            return mergeDestinations(matched);
+        } catch (ClassCastException e) {
+            // the shard key is of a type other than the bounds, the rule never matches it, which is most likely a mistake of configuration
+            logger.warn("attribute:'{}' of context object:'{}' can't be compared with the range bounds, check 'boundType' of the rule.\n{}",
+                new Object[]{getAttributePattern(), routingFact.getArgument(), e});
+        } catch (Throwable t) {
+            logger.info("failed to locate range with attribute:'{}' of context object:'{}'\n{}", new Object[]{getAttributePattern(),
+                routingFact.getArgument(), t});
+        }
+        return null;
+    }
+
+    /**
+     * the value of sharding attribute, numbers that compare equal to each other are normalized to the same key.<br>
+     * strings are left as they are, since ranges never take a string for the number it stands for.
+     */
+    public Object shardKeyOf(MyBatisRoutingFact routingFact) {
+        if (routingFact.getShardKeyRange() != null) {
+            return routingFact.getShardKeyRange();
+        }
+        try {
+            return MyBatisShardingFunctionRule.normalizeNumber(extractAttributeValue(routingFact.getArgument()));
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    public boolean isDefinedAt(MyBatisRoutingFact routingFact) {
+        return actionFor(routingFact) != null;
+    }
+
+    @Override
+    public boolean isApplicableTo(String action) {
+        return namespaceRule ? isNamespaceOf(getTypePattern(), action) : StringUtils.equals(action, getTypePattern());
+    }
+
+    public boolean isNamespaceRule() {
+        return namespaceRule;
+    }
+
+    public Map<ShardKeyRange, List<String>> getDestinationsByRange() {
+        return Collections.unmodifiableMap(destinationsByRange);
+    }
+
+    /**
+     * route to the shards whose ranges overlap with the given one, with its bounds clipped to the ranges of each shard, see
+     * {@link RoutingResult#getShardKeyRanges()}.
+     */
+    private List<String> routeRange(ShardKeyRange range) {
+        List<ShardKeyRange> overlapping = new ArrayList<ShardKeyRange>(2);
+        boundsIndex.findOverlapping(range, overlapping);
+        Map<String, ShardKeyRange> clipped = new LinkedHashMap<String, ShardKeyRange>();
+        for (ShardKeyRange owned : overlapping) {
+            ShardKeyRange part = owned.intersect(range);
+            if (part == null) {
+                continue;
+            }
+            for (String shard : destinationsByRange.get(owned)) {
+                ShardKeyRange previous = clipped.get(shard);
+                clipped.put(shard, previous == null ? part : span(previous, part));
+            }
+        }
+        return clipped.isEmpty() ? null : new RoutingTargets(clipped.keySet(), clipped);
+    }
+
+    /**
+     * the smallest range that covers both of the given ranges, for shards that own several ranges.
+     */
+    private static ShardKeyRange span(ShardKeyRange r1, ShardKeyRange r2) {
+        Object lower = null;
+        if (r1.getLower() != null && r2.getLower() != null) {
+            lower = RangeIndex.compareKeys(r1.getLower(), r2.getLower()) <= 0 ? r1.getLower() : r2.getLower();
+        }
+        if (r1.getUpper() == null || r2.getUpper() == null) {
+            return new ShardKeyRange(lower, null);
+        }
+        int c = RangeIndex.compareKeys(r1.getUpper(), r2.getUpper());
+        if (c == 0) {
+            return new ShardKeyRange(lower, r1.getUpper(), r1.isUpperInclusive() || r2.isUpperInclusive());
+        }
+        ShardKeyRange higher = c > 0 ? r1 : r2;
+        return new ShardKeyRange(lower, higher.getUpper(), higher.isUpperInclusive());
+    }
+
+    private static List<String> mergeDestinations(List<List<String>> matched) {
+        if (matched.isEmpty()) {
+            return null;
+        }
+        if (matched.size() == 1) {
+            return matched.get(0);
+        }
+        Set<String> destinations = new LinkedHashSet<String>();
+        for (List<String> ids : matched) {
+            destinations.addAll(ids);
+        }
+        return new RoutingTargets(destinations);
+    }
+
+    private static String joinDestinations(Map<ShardKeyRange, String> destinationsByRange) {
+        Validate.isTrue(MapUtils.isNotEmpty(destinationsByRange), "at least one range to destination mapping must be given.");
+        Set<String> destinations = new LinkedHashSet<String>();
+        for (String value : destinationsByRange.values()) {
+            destinations.addAll(splitDestinations(value));
+        }
+        return StringUtils.join(destinations, DEFAULT_DATASOURCE_IDENTITY_SEPARATOR);
+    }
+
+    private static List<String> splitDestinations(String destinations) {
+        Validate.notEmpty(StringUtils.trimToEmpty(destinations));
+        List<String> ids = new ArrayList<String>();
+        for (String id : StringUtils.split(destinations, DEFAULT_DATASOURCE_IDENTITY_SEPARATOR)) {
+            ids.add(StringUtils.trimToEmpty(id));
+        }
+        return ids;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = super.hashCode();
+        result = prime * result + (namespaceRule ? 1231 : 1237);
+        result = prime * result + destinationsByRange.hashCode();
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!super.equals(obj)) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        MyBatisRangeShardingRule other = (MyBatisRangeShardingRule) obj;
+        return namespaceRule == other.namespaceRule && destinationsByRange.equals(other.destinationsByRange);
+    }
+
+    @Override
+    public String toString() {
+        return "MyBatisRangeShardingRule [getAttributePattern()=" + getAttributePattern() + ", getAction()=" + getAction() + ", getTypePattern()="
+            + getTypePattern() + ", namespaceRule=" + namespaceRule + ", ranges=" + destinationsByRange.keySet() + "]";
+    }
+
+}
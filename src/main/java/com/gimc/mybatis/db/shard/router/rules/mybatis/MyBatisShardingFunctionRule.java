@@ -0,0 +1,185 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.rules.mybatis;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.gimc.mybatis.db.shard.router.rules.ICompositeRoutingRule;
+import com.gimc.mybatis.db.shard.router.rules.IShardKeyRoutingRule;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.router.support.RoutingTargets;
+import com.gimc.mybatis.db.shard.support.utils.MapUtils;
+
+/**
+ * stands for a family of sharding rules like "mod.apply(memberId)==K" which differ only by the constant K.<br>
+ * instead of evaluating the same function once per rule, the function is evaluated only once per routing fact, and the result is used to look up
+ * the destination shards in a table built when rules are loaded, so the routing cost doesn't grow with the number of shards.<br>
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class MyBatisShardingFunctionRule extends AbstractIBatisOrientedRule implements ICompositeRoutingRule<MyBatisRoutingFact, List<String>>,
+    IShardKeyRoutingRule<MyBatisRoutingFact, List<String>> {
+
+    private static final Pattern DECIMAL = Pattern.compile("-?\\d+(\\.\\d+)?");
+    private static final BigDecimal LONG_MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal LONG_MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+
+    private transient final Logger logger = LoggerFactory.getLogger(MyBatisShardingFunctionRule.class);
+
+    /**
+     * match against the namespace of sql action if true, otherwise against the whole sql action.
+     */
+    private final boolean namespaceRule;
+    private final Map<Object, List<String>> destinationsByValue = new HashMap<Object, List<String>>();
+
+    /**
+     * @param pattern the namespace or sql action to match against
+     * @param namespaceRule whether the pattern is a namespace or a sql action
+     * @param functionExpression the expression whose value will be looked up, i.e. "mod.apply(memberId)"
+     * @param destinationsByValue expression value to destination shards mapping, shards are separated by
+     *            {@link AbstractIBatisOrientedRule#DEFAULT_DATASOURCE_IDENTITY_SEPARATOR}
+     */
+    public MyBatisShardingFunctionRule(String pattern, boolean namespaceRule, String functionExpression, Map<Object, String> destinationsByValue) {
+        super(pattern, joinDestinations(destinationsByValue), functionExpression);
+        this.namespaceRule = namespaceRule;
+        for (Map.Entry<Object, String> entry : destinationsByValue.entrySet()) {
+            this.destinationsByValue.put(normalizeValue(entry.getKey()), new RoutingTargets(splitDestinations(entry.getValue())));
+        }
+    }
+
+    public List<String> actionFor(MyBatisRoutingFact routingFact) {
+        Validate.notNull(routingFact);
+        if (!isApplicableTo(routingFact.getAction())) {
+            return null;
+        }
+        try {
+            Object value = extractAttributeValue(routingFact.getArgument());
+            return destinationsByValue.get(normalizeValue(value));
+        } catch (Throwable t) {
+            logger.info("failed to evaluate attribute expression:'{}' with context object:'{}'\n{}", new Object[]{getAttributePattern(),
+                routingFact.getArgument(), t});
+        }
+        return null;
+    }
+
+    /**
+     * the value of function expression, failures to evaluate it are taken as no value, as {@link #actionFor(MyBatisRoutingFact)} does.
+     */
+    public Object shardKeyOf(MyBatisRoutingFact routingFact) {
+        try {
+            return normalizeValue(extractAttributeValue(routingFact.getArgument()));
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    public boolean isDefinedAt(MyBatisRoutingFact routingFact) {
+        return actionFor(routingFact) != null;
+    }
+
+    @Override
+    public boolean isApplicableTo(String action) {
+        return namespaceRule ? isNamespaceOf(getTypePattern(), action) : StringUtils.equals(action, getTypePattern());
+    }
+
+    public boolean isNamespaceRule() {
+        return namespaceRule;
+    }
+
+    public Map<Object, List<String>> getDestinationsByValue() {
+        return Collections.unmodifiableMap(destinationsByValue);
+    }
+
+    /**
+     * values are normalized the way MVEL compares them with "==", so that "mod.apply(memberId)==1" matches no matter whether the function
+     * returns an Integer, a Long, a Double of 1.0 or a String of "1".<br>
+     * numbers are normalized by {@link #normalizeNumber(Object)}, and strings of decimal numbers are taken as the numbers they stand for.<br>
+     * the limits: MVEL compares two strings as they are, while "1.0" and "1" are normalized to the same key here, and strings of other number
+     * forms, e.g. "1e3" or " 1", are left as they are.
+     */
+    public static Object normalizeValue(Object value) {
+        if (value instanceof String && DECIMAL.matcher((String) value).matches()) {
+            return normalizeNumber(new BigDecimal((String) value));
+        }
+        return normalizeNumber(value);
+    }
+
+    /**
+     * numbers that are equal in value are normalized to the same key, no matter what types they are of: a Long if the number is integral and
+     * fits in a long, otherwise a BigDecimal without trailing zeros. NaN, infinities and values other than numbers are left as they are.
+     */
+    public static Object normalizeNumber(Object value) {
+        if (value instanceof Long) {
+            return value;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return Long.valueOf(((Number) value).longValue());
+        }
+        BigDecimal decimal;
+        if (value instanceof BigDecimal) {
+            decimal = (BigDecimal) value;
+        } else if (value instanceof BigInteger) {
+            decimal = new BigDecimal((BigInteger) value);
+        } else if ((value instanceof Double || value instanceof Float) && !Double.isNaN(((Number) value).doubleValue())
+            && !Double.isInfinite(((Number) value).doubleValue())) {
+            decimal = BigDecimal.valueOf(((Number) value).doubleValue());
+        } else {
+            return value;
+        }
+        decimal = decimal.stripTrailingZeros();
+        if (decimal.scale() <= 0 && decimal.compareTo(LONG_MIN) >= 0 && decimal.compareTo(LONG_MAX) <= 0) {
+            return Long.valueOf(decimal.longValue());
+        }
+        return decimal;
+    }
+
+    private static String joinDestinations(Map<Object, String> destinationsByValue) {
+        Validate.isTrue(MapUtils.isNotEmpty(destinationsByValue), "at least one value to destination mapping must be given.");
+        Set<String> destinations = new LinkedHashSet<String>();
+        for (String value : destinationsByValue.values()) {
+            destinations.addAll(splitDestinations(value));
+        }
+        return StringUtils.join(destinations, DEFAULT_DATASOURCE_IDENTITY_SEPARATOR);
+    }
+
+    private static List<String> splitDestinations(String destinations) {
+        Validate.notEmpty(StringUtils.trimToEmpty(destinations));
+        List<String> ids = new ArrayList<String>();
+        for (String id : StringUtils.split(destinations, DEFAULT_DATASOURCE_IDENTITY_SEPARATOR)) {
+            ids.add(StringUtils.trimToEmpty(id));
+        }
+        return ids;
+    }
+
+    @Override
+    public String toString() {
+        return "MyBatisShardingFunctionRule [getAttributePattern()=" + getAttributePattern() + ", getAction()=" + getAction() + ", getTypePattern()="
+            + getTypePattern() + ", namespaceRule=" + namespaceRule + "]";
+    }
+
+}
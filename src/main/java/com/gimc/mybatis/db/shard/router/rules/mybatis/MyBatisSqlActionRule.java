@@ -34,6 +34,11 @@ public class MyBatisSqlActionRule extends AbstractIBatisOrientedRule {
         return StringUtils.equals(getTypePattern(), routeFact.getAction());
     }
 
+    @Override
+    public boolean isApplicableTo(String action) {
+        return StringUtils.equals(getTypePattern(), action);
+    }
+
     @Override
     public String toString() {
         return "MyBatisSqlActionRule [getAction()=" + getAction() + ", getTypePattern()=" + getTypePattern() + "]";
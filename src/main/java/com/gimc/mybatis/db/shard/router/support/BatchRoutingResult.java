@@ -0,0 +1,79 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.support;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.gimc.mybatis.db.shard.router.IShardRouter;
+
+/**
+ * routing result of a batch of routing facts, the facts are grouped by the shards they are routed to.<br>
+ * shards come in the order they are first routed to, and facts of each shard keep the order they are given in. a fact routed to several shards
+ * is in the group of each of them, facts no rule matches are kept apart.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ * @see IShardRouter#doRouteAll(List)
+ */
+public class BatchRoutingResult<T> {
+
+    private final Map<String, List<T>> factsByShard = new LinkedHashMap<String, List<T>>();
+    private final List<T> unroutedFacts = new ArrayList<T>();
+    private boolean partitioned = true;
+
+    /**
+     * @param shards identities of the shards the fact is routed to, the fact is taken as unrouted if it's empty.
+     */
+    public void add(List<String> shards, T routingFact) {
+        if (shards == null || shards.isEmpty()) {
+            unroutedFacts.add(routingFact);
+            return;
+        }
+        if (shards.size() > 1) {
+            partitioned = false;
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            List<T> facts = factsByShard.get(shards.get(i));
+            if (facts == null) {
+                facts = new ArrayList<T>();
+                factsByShard.put(shards.get(i), facts);
+            }
+            facts.add(routingFact);
+        }
+    }
+
+    public Map<String, List<T>> getFactsByShard() {
+        return factsByShard;
+    }
+
+    public List<T> getUnroutedFacts() {
+        return unroutedFacts;
+    }
+
+    /**
+     * @return true if no fact is routed to more than one shard, that's, the groups of shards don't share any fact.
+     */
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchRoutingResult [shards=" + factsByShard.keySet() + ", unroutedFacts=" + unroutedFacts.size() + ", partitioned=" + partitioned
+            + "]";
+    }
+
+}
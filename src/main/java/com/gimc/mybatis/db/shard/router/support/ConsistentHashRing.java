@@ -0,0 +1,173 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.support;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import com.gimc.mybatis.db.shard.support.utils.MapUtils;
+
+/**
+ * a consistent hash ring with virtual nodes.<br>
+ * each shard is placed on the ring at "virtualNodes * weight" points, and a key belongs to the shard owning the first point at or after the hash
+ * of the key. the points are kept in a sorted primitive array with their owners in a parallel array, so a lookup is a binary search without any
+ * boxing or allocation.<br>
+ * hashes only depend on the shard names and the keys, so rings built with the same shards always agree with each other, and adding a shard only
+ * moves the keys that fall onto the points of the new shard.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String[] shards;
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * @param weights shard to weight mapping, each weight must be positive.
+     * @param virtualNodes number of points per unit of weight.
+     */
+    public ConsistentHashRing(Map<String, Integer> weights, int virtualNodes) {
+        Validate.isTrue(MapUtils.isNotEmpty(weights), "at least one shard must be given.");
+        Validate.isTrue(virtualNodes > 0, "number of virtual nodes must be positive.");
+
+        shards = weights.keySet().toArray(new String[weights.size()]);
+        int total = 0;
+        for (String shard : shards) {
+            Validate.isTrue(StringUtils.isNotEmpty(shard), "shard name can't be empty.");
+            Integer weight = weights.get(shard);
+            Validate.isTrue(weight != null && weight.intValue() > 0, "weight of shard:" + shard + " must be positive.");
+            total += weight.intValue() * virtualNodes;
+        }
+
+        final long[] unsortedPoints = new long[total];
+        int[] unsortedOwners = new int[total];
+        int n = 0;
+        for (int s = 0; s < shards.length; s++) {
+            int count = weights.get(shards[s]).intValue() * virtualNodes;
+            for (int v = 0; v < count; v++) {
+                unsortedPoints[n] = hash(shards[s] + "#" + v);
+                unsortedOwners[n] = s;
+                n++;
+            }
+        }
+
+        Integer[] order = new Integer[total];
+        for (int i = 0; i < total; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                long p1 = unsortedPoints[i1];
+                long p2 = unsortedPoints[i2];
+                return p1 < p2 ? -1 : (p1 == p2 ? i1.compareTo(i2) : 1);
+            }
+        });
+        points = new long[total];
+        owners = new int[total];
+        for (int i = 0; i < total; i++) {
+            points[i] = unsortedPoints[order[i]];
+            owners[i] = unsortedOwners[order[i]];
+        }
+    }
+
+    public ConsistentHashRing(Map<String, Integer> weights) {
+        this(weights, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @return index of the shard that owns the key, the name of shard can be got by {@link #getShard(int)}.
+     */
+    public int locate(Object key) {
+        return locateHash(hash(key));
+    }
+
+    public int locateHash(long hash) {
+        int i = Arrays.binarySearch(points, hash);
+        if (i < 0) {
+            i = -i - 1;
+            if (i == points.length) {
+                i = 0;
+            }
+        }
+        return owners[i];
+    }
+
+    public String getShard(int index) {
+        return shards[index];
+    }
+
+    public List<String> getShards() {
+        return Collections.unmodifiableList(Arrays.asList(shards));
+    }
+
+    /**
+     * hash of shard key which is stable across JVMs for integral numbers, dates and strings.<br>
+     * integral numbers are hashed by their values no matter what types they are of, so Integer 1 and Long 1 go to the same shard.
+     */
+    public static long hash(Object key) {
+        Validate.notNull(key, "shard key can't be null.");
+        if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            return mix(((Number) key).longValue());
+        }
+        if (key instanceof CharSequence) {
+            return hash((CharSequence) key);
+        }
+        if (key instanceof Date) {
+            return mix(((Date) key).getTime());
+        }
+        if (key instanceof BigInteger && ((BigInteger) key).bitLength() < 64) {
+            return mix(((BigInteger) key).longValue());
+        }
+        return mix(key.hashCode());
+    }
+
+    /**
+     * FNV-1a over the chars followed by {@link #mix(long)}, since FNV alone spreads short keys poorly.
+     */
+    public static long hash(CharSequence key) {
+        long h = FNV_OFFSET_BASIS;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    /**
+     * the finalizer of MurmurHash3, every bit of input affects every bit of output.
+     */
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -24,6 +24,11 @@ public class MyBatisRoutingFact {
     private String action;
     // the argument of SQL action
     private Object argument;
+    /**
+     * lower/upper bounds of the sharding attribute declared for range queries such as "BETWEEN ? AND ?", range-aware rules route by it instead
+     * of the argument if given.
+     */
+    private ShardKeyRange shardKeyRange;
 
     public MyBatisRoutingFact() {}
 
@@ -32,6 +37,11 @@ public class MyBatisRoutingFact {
         this.argument = arg;
     }
 
+    public MyBatisRoutingFact(String sql, Object arg, ShardKeyRange shardKeyRange) {
+        this(sql, arg);
+        this.shardKeyRange = shardKeyRange;
+    }
+
     public String getAction() {
         return action;
     }
@@ -48,12 +58,21 @@ public class MyBatisRoutingFact {
         this.argument = argument;
     }
 
+    public ShardKeyRange getShardKeyRange() {
+        return shardKeyRange;
+    }
+
+    public void setShardKeyRange(ShardKeyRange shardKeyRange) {
+        this.shardKeyRange = shardKeyRange;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
         result = prime * result + ((action == null) ? 0 : action.hashCode());
         result = prime * result + ((argument == null) ? 0 : argument.hashCode());
+        result = prime * result + ((shardKeyRange == null) ? 0 : shardKeyRange.hashCode());
         return result;
     }
 
@@ -83,12 +102,19 @@ public class MyBatisRoutingFact {
         } else if (!argument.equals(other.argument)) {
             return false;
         }
+        if (shardKeyRange == null) {
+            if (other.shardKeyRange != null) {
+                return false;
+            }
+        } else if (!shardKeyRange.equals(other.shardKeyRange)) {
+            return false;
+        }
         return true;
     }
 
     @Override
     public String toString() {
-        return "MyBatisRoutingFact [action=" + action + ", argument=" + argument + "]";
+        return "MyBatisRoutingFact [action=" + action + ", argument=" + argument + (shardKeyRange == null ? "" : ", shardKeyRange=" + shardKeyRange) + "]";
     }
 
 }
@@ -0,0 +1,285 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.support;
+
+import java.math.BigDecimal;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import com.gimc.mybatis.db.shard.support.utils.MapUtils;
+import com.gimc.mybatis.db.shard.support.utils.ValueUtils;
+
+/**
+ * a static interval tree over half-open ranges [lower, upper).<br>
+ * ranges are sorted by lower bound into arrays, and the sorted arrays are treated as an implicit balanced binary search tree whose nodes are
+ * augmented with the max upper bound of their subtrees, so that both point lookup and range overlapping lookup cost O(log n + k), where k is the
+ * number of ranges reported.<br>
+ * the index is immutable after construction, so it's safe to be shared among threads.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class RangeIndex<V> {
+
+    private static final Pattern INTEGRAL_PATTERN = Pattern.compile("[+-]?\\d{1,18}");
+    private static final Pattern DECIMAL_PATTERN  = Pattern.compile("[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+    private static final String[] DATE_PATTERNS   = {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm", "yyyy-MM-dd"};
+
+    private final Object[] lowers;
+    private final Object[] uppers;
+    /**
+     * max upper bound of the subtree rooted at each index, null stands for unbounded.
+     */
+    private final Object[] maxUppers;
+    private final Object[] values;
+    /**
+     * true if no ranges overlap with each other, then a key falls in one range at most.
+     */
+    private final boolean disjoint;
+
+    /**
+     * @param ranges ranges to index, all of them must have exclusive upper bound, ranges can overlap with each other.
+     */
+    public RangeIndex(Map<ShardKeyRange, V> ranges) {
+        Validate.isTrue(MapUtils.isNotEmpty(ranges), "at least one range must be given.");
+        List<Map.Entry<ShardKeyRange, V>> entries = new ArrayList<Map.Entry<ShardKeyRange, V>>(ranges.entrySet());
+        for (Map.Entry<ShardKeyRange, V> entry : entries) {
+            Validate.isTrue(!entry.getKey().isUpperInclusive() || entry.getKey().getUpper() == null, "upper bound of range:" + entry.getKey()
+                + " must be exclusive.");
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<ShardKeyRange, V>>() {
+            public int compare(Map.Entry<ShardKeyRange, V> e1, Map.Entry<ShardKeyRange, V> e2) {
+                return compareLowers(e1.getKey().getLower(), e2.getKey().getLower());
+            }
+        });
+
+        int size = entries.size();
+        lowers = new Object[size];
+        uppers = new Object[size];
+        maxUppers = new Object[size];
+        values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            lowers[i] = entries.get(i).getKey().getLower();
+            uppers[i] = entries.get(i).getKey().getUpper();
+            values[i] = entries.get(i).getValue();
+        }
+        augment(0, size);
+
+        boolean overlapping = false;
+        for (int i = 1; i < size && !overlapping; i++) {
+            overlapping = uppers[i - 1] == null || lowers[i] == null || compareKeys(uppers[i - 1], lowers[i]) > 0;
+        }
+        disjoint = !overlapping;
+    }
+
+    /**
+     * collect values of the ranges that contain the given key, in the order of their lower bounds.
+     */
+    public void find(Object key, Collection<V> result) {
+        Validate.notNull(key);
+        search(0, values.length, key, key, true, result);
+    }
+
+    /**
+     * @return value of the first range that contains the given key, in the order of lower bounds, or null if there's no such range.<br>
+     *         ranges are binary searched without any collection created if they don't overlap with each other.
+     */
+    @SuppressWarnings("unchecked")
+    public V findFirst(Object key) {
+        Validate.notNull(key);
+        if (!disjoint) {
+            List<V> result = new ArrayList<V>(2);
+            find(key, result);
+            return result.isEmpty() ? null : result.get(0);
+        }
+        int from = 0;
+        int to = values.length - 1;
+        int found = -1;
+        while (from <= to) {
+            int mid = (from + to) >>> 1;
+            if (compareLowers(lowers[mid], key) <= 0) {
+                found = mid;
+                from = mid + 1;
+            } else {
+                to = mid - 1;
+            }
+        }
+        if (found < 0 || (uppers[found] != null && compareKeys(key, uppers[found]) >= 0)) {
+            return null;
+        }
+        return (V) values[found];
+    }
+
+    public boolean isDisjoint() {
+        return disjoint;
+    }
+
+    /**
+     * collect values of the ranges that overlap with the given range, in the order of their lower bounds.
+     */
+    public void findOverlapping(ShardKeyRange range, Collection<V> result) {
+        Validate.notNull(range);
+        search(0, values.length, range.getLower(), range.getUpper(), range.isUpperInclusive(), result);
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void search(int from, int to, Object lower, Object upper, boolean upperInclusive, Collection<V> result) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            // every range of current subtree ends before the lower bound of query
+            if (lower != null && maxUppers[mid] != null && compareKeys(maxUppers[mid], lower) <= 0) {
+                return;
+            }
+            search(from, mid, lower, upper, upperInclusive, result);
+            // current range and the ones of the right subtree start after the upper bound of query
+            if (lowers[mid] != null && upper != null) {
+                int c = compareKeys(lowers[mid], upper);
+                if (upperInclusive ? c > 0 : c >= 0) {
+                    return;
+                }
+            }
+            if (lower == null || uppers[mid] == null || compareKeys(lower, uppers[mid]) < 0) {
+                result.add((V) values[mid]);
+            }
+            from = mid + 1;
+        }
+    }
+
+    private Object augment(int from, int to) {
+        if (from >= to) {
+            return Boolean.FALSE; // marks an empty subtree, since null stands for unbounded
+        }
+        int mid = (from + to) >>> 1;
+        Object max = uppers[mid];
+        Object left = augment(from, mid);
+        Object right = augment(mid + 1, to);
+        max = maxOfUppers(maxOfUppers(max, left), right);
+        maxUppers[mid] = max;
+        return max;
+    }
+
+    private static Object maxOfUppers(Object u1, Object u2) {
+        if (u1 == Boolean.FALSE) {
+            return u2;
+        }
+        if (u2 == Boolean.FALSE) {
+            return u1;
+        }
+        if (u1 == null || u2 == null) {
+            return null;
+        }
+        return compareKeys(u1, u2) >= 0 ? u1 : u2;
+    }
+
+    private static int compareLowers(Object l1, Object l2) {
+        if (l1 == null) {
+            return l2 == null ? 0 : -1;
+        }
+        if (l2 == null) {
+            return 1;
+        }
+        return compareKeys(l1, l2);
+    }
+
+    /**
+     * compare two shard key values, see {@link ValueUtils#compare(Object, Object)}.
+     *
+     * @throws ClassCastException if the two values are not comparable.
+     */
+    public static int compareKeys(Object k1, Object k2) {
+        Validate.isTrue(k1 != null && k2 != null, "shard key to compare can't be null.");
+        return ValueUtils.compare(k1, k2);
+    }
+
+    /**
+     * parse bound value from rule configuration, integral numbers are parsed as Long, decimals are parsed as BigDecimal, and others are kept as
+     * String.
+     *
+     * @return null if the bound is empty, which means unbounded.
+     */
+    public static Object parseBound(String bound) {
+        String value = StringUtils.trimToEmpty(bound);
+        if (StringUtils.isEmpty(value)) {
+            return null;
+        }
+        if (INTEGRAL_PATTERN.matcher(value).matches()) {
+            return Long.valueOf(value.startsWith("+") ? value.substring(1) : value);
+        }
+        if (DECIMAL_PATTERN.matcher(value).matches()) {
+            return new BigDecimal(value);
+        }
+        return value;
+    }
+
+    /**
+     * parse bound value from rule configuration as the given type, so that the bounds are comparable with the shard keys they are for.<br>
+     * <ul>
+     * <li>"auto" or empty: as {@link #parseBound(String)} does;
+     * <li>"number": as {@link #parseBound(String)} does, but the bound must be a number;
+     * <li>"string": kept as String, even if it looks like a number;
+     * <li>"date": parsed as {@link Date} in one of the patterns "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm" and "yyyy-MM-dd", of the default
+     * time zone.
+     * </ul>
+     *
+     * @return null if the bound is empty, which means unbounded.
+     * @throws IllegalArgumentException if the type is unknown, or the bound is not a value of the type.
+     */
+    public static Object parseBound(String bound, String type) {
+        String boundType = StringUtils.trimToEmpty(type);
+        String value = StringUtils.trimToEmpty(bound);
+        if (StringUtils.isEmpty(boundType) || "auto".equals(boundType)) {
+            return parseBound(value);
+        }
+        if (!"number".equals(boundType) && !"string".equals(boundType) && !"date".equals(boundType)) {
+            throw new IllegalArgumentException("unknown bound type:'" + type + "', it should be one of 'auto', 'number', 'string' and 'date'.");
+        }
+        if (StringUtils.isEmpty(value)) {
+            return null;
+        }
+        if ("string".equals(boundType)) {
+            return value;
+        }
+        if ("number".equals(boundType)) {
+            Object number = parseBound(value);
+            Validate.isTrue(number instanceof Number, "bound:'" + value + "' is not a number.");
+            return number;
+        }
+        for (String pattern : DATE_PATTERNS) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern);
+            format.setLenient(false);
+            ParsePosition position = new ParsePosition(0);
+            Date date = format.parse(value, position);
+            if (date != null && position.getIndex() == value.length()) {
+                return date;
+            }
+        }
+        throw new IllegalArgumentException("bound:'" + value + "' is not a date of pattern 'yyyy-MM-dd HH:mm:ss', 'yyyy-MM-dd HH:mm' or "
+            + "'yyyy-MM-dd'.");
+    }
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.support;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * cache key of routing results made of the sql action and the shard keys the matching rules decide on.<br>
+ * different arguments with the same shard keys share one key, and since only immutable values(or copies of them) are kept, the argument can be
+ * changed after routing without affecting the cached results.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public final class RoutingCacheKey {
+
+    private final String action;
+    private final Object[] shardKeys;
+    private final int hash;
+
+    private RoutingCacheKey(String action, Object[] shardKeys) {
+        this.action = action;
+        this.shardKeys = shardKeys;
+        this.hash = 31 * action.hashCode() + Arrays.hashCode(shardKeys);
+    }
+
+    /**
+     * @param action the sql action
+     * @param shardKeys shard keys extracted from the argument, the array is taken over by the key
+     * @return the key, or null if any of the shard keys is of a type which can't be kept safely.
+     */
+    public static RoutingCacheKey of(String action, Object[] shardKeys) {
+        Validate.notNull(action);
+        for (int i = 0; i < shardKeys.length; i++) {
+            if (!isImmutable(shardKeys[i])) {
+                if (!(shardKeys[i] instanceof Date)) {
+                    return null;
+                }
+                shardKeys[i] = ((Date) shardKeys[i]).clone();
+            }
+        }
+        return new RoutingCacheKey(action, shardKeys);
+    }
+
+    private static boolean isImmutable(Object value) {
+        if (value == null || value instanceof String || value instanceof Long || value instanceof Integer || value instanceof Short
+            || value instanceof Byte || value instanceof Boolean || value instanceof Character || value instanceof Double || value instanceof Float
+            || value instanceof BigDecimal || value instanceof BigInteger || value instanceof Enum<?>) {
+            return true;
+        }
+        if (value instanceof ShardKeyRange) {
+            ShardKeyRange range = (ShardKeyRange) value;
+            return isImmutable(range.getLower()) && isImmutable(range.getUpper());
+        }
+        return false;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof RoutingCacheKey)) {
+            return false;
+        }
+        RoutingCacheKey other = (RoutingCacheKey) obj;
+        return hash == other.hash && action.equals(other.action) && Arrays.equals(shardKeys, other.shardKeys);
+    }
+
+    @Override
+    public String toString() {
+        return "RoutingCacheKey [action=" + action + ", shardKeys=" + Arrays.toString(shardKeys) + "]";
+    }
+
+}
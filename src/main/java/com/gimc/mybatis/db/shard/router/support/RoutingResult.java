@@ -13,6 +13,7 @@
 package com.gimc.mybatis.db.shard.router.support;
 
 import java.util.List;
+import java.util.Map;
 
 import com.gimc.mybatis.db.shard.merger.IMerger;
 
@@ -24,6 +25,11 @@ public class RoutingResult {
 
     private List<String> resourceIdentities;
     private IMerger<?, ?> merger;
+    /**
+     * bounds of shard key on each shard, clipped to the ranges the shard owns.<br>
+     * only given if the routing fact is of a shard key range and a range-aware rule matches, null otherwise.
+     */
+    private Map<String, ShardKeyRange> shardKeyRanges;
 
     public List<String> getResourceIdentities() {
         return resourceIdentities;
@@ -41,4 +47,23 @@ public class RoutingResult {
         return merger;
     }
 
+    /**
+     * @return a copy of the result with the merger of the sql action, since results may be shared by the routing facts to the same shards.
+     */
+    public RoutingResult withMerger(IMerger<?, ?> merger) {
+        RoutingResult result = new RoutingResult();
+        result.setResourceIdentities(resourceIdentities);
+        result.setShardKeyRanges(shardKeyRanges);
+        result.setMerger(merger);
+        return result;
+    }
+
+    public Map<String, ShardKeyRange> getShardKeyRanges() {
+        return shardKeyRanges;
+    }
+
+    public void setShardKeyRanges(Map<String, ShardKeyRange> shardKeyRanges) {
+        this.shardKeyRanges = shardKeyRanges;
+    }
+
 }
@@ -0,0 +1,66 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
+
+/**
+ * immutable copies of the rule sets routers are equipped with.<br>
+ * routers publish the copies as snapshots, once published, a snapshot is never changed, so that it can be read without any lock while a new
+ * one is being built.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public final class RoutingRuleSnapshots {
+
+    private RoutingRuleSnapshots() {
+    }
+
+    public static List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> copyOf(List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence) {
+        if (ruleSequence == null) {
+            return Collections.emptyList();
+        }
+        List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> copy = new ArrayList<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>(ruleSequence
+            .size());
+        for (Set<IRoutingRule<MyBatisRoutingFact, List<String>>> rules : ruleSequence) {
+            Set<IRoutingRule<MyBatisRoutingFact, List<String>>> rulesCopy = new LinkedHashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>();
+            if (rules != null) {
+                rulesCopy.addAll(rules);
+            }
+            copy.add(Collections.unmodifiableSet(rulesCopy));
+        }
+        return Collections.unmodifiableList(copy);
+    }
+
+    public static Map<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> copyOf(
+        Map<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces) {
+        if (rulesGroupByNamespaces == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> copy = new LinkedHashMap<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>>();
+        for (Map.Entry<String, List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>> entry : rulesGroupByNamespaces.entrySet()) {
+            copy.put(entry.getKey(), copyOf(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+}
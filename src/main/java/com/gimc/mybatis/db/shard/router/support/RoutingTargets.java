@@ -0,0 +1,111 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.support;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * immutable list of the shard identities a rule routes to, worked out once when the rule is loaded.<br>
+ * it carries the {@link RoutingResult} routers return for it, so routing facts to the same shards share one result instead of building a new
+ * one for each fact. since the result is shared, it must not be changed by callers.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public final class RoutingTargets extends AbstractList<String> implements RandomAccess {
+
+    private final String[] identities;
+    private final int hash;
+    private final RoutingResult routingResult;
+
+    public RoutingTargets(Collection<String> identities) {
+        this(identities, null);
+    }
+
+    /**
+     * @param shardKeyRanges clipped bounds of shard key on each shard, see {@link RoutingResult#getShardKeyRanges()}.
+     */
+    public RoutingTargets(Collection<String> identities, Map<String, ShardKeyRange> shardKeyRanges) {
+        Validate.notNull(identities);
+        this.identities = identities.toArray(new String[identities.size()]);
+        int h = 1;
+        for (String identity : this.identities) {
+            Validate.notNull(identity, "null shard identity is not allowed.");
+            h = 31 * h + identity.hashCode();
+        }
+        this.hash = h;
+        this.routingResult = new RoutingResult();
+        this.routingResult.setResourceIdentities(this);
+        if (shardKeyRanges != null) {
+            this.routingResult.setShardKeyRanges(Collections.unmodifiableMap(new LinkedHashMap<String, ShardKeyRange>(shardKeyRanges)));
+        }
+    }
+
+    /**
+     * @return the given list if it's a {@link RoutingTargets} already, otherwise a copy of it.
+     */
+    public static RoutingTargets of(List<String> identities) {
+        return identities instanceof RoutingTargets ? (RoutingTargets) identities : new RoutingTargets(identities);
+    }
+
+    @Override
+    public String get(int index) {
+        return identities[index];
+    }
+
+    @Override
+    public int size() {
+        return identities.length;
+    }
+
+    /**
+     * @return the shared routing result whose resource identities are current targets.
+     */
+    public RoutingResult getRoutingResult() {
+        return routingResult;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof RoutingTargets) {
+            RoutingTargets other = (RoutingTargets) obj;
+            if (hash != other.hash || identities.length != other.identities.length) {
+                return false;
+            }
+            for (int i = 0; i < identities.length; i++) {
+                if (!identities[i].equals(other.identities[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return super.equals(obj);
+    }
+
+}
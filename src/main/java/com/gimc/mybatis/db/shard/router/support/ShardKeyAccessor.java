@@ -0,0 +1,29 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.support;
+
+/**
+ * reads the shard key out of the parameter object of a sql action.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ * @see ShardKeyAccessors
+ */
+public interface ShardKeyAccessor {
+
+    /**
+     * @param argument parameter object of sql action, can be null.
+     * @return the shard key, or null if the argument doesn't carry it.
+     */
+    Object get(Object argument);
+}
@@ -0,0 +1,343 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.support;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * factory of {@link ShardKeyAccessor}s that replace MVEL's reflective property resolution for simple sharding attributes like "memberId" or
+ * "offer.memberId".<br>
+ * the getter(or public field) of each property is resolved only once per class and cached in a {@link ClassValue} as a {@link Function} spun
+ * by {@link LambdaMetafactory}, so routing doesn't look up or invoke methods reflectively any more. {@link Map} arguments, including the ParamMap of MyBatis mapper methods, are
+ * read by key.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public abstract class ShardKeyAccessors {
+
+    public static final String ROOT = "$ROOT";
+
+    private static final Pattern PROPERTY_PATH = Pattern.compile("[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)*");
+
+    private static final MethodType READER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * reader of the classes without the property.
+     */
+    private static final Function<Object, Object> MISSING = new MissingProperty();
+
+    /**
+     * @param path property path, "$ROOT" stands for the argument itself.
+     * @return null if the path is not a simple property path, i.e. it's a complicated expression.
+     */
+    public static ShardKeyAccessor forPath(String path) {
+        String trimmed = StringUtils.deleteWhitespace(StringUtils.trimToEmpty(path));
+        if (!PROPERTY_PATH.matcher(trimmed).matches()) {
+            return null;
+        }
+        String[] segments = StringUtils.split(trimmed, '.');
+        int start = ROOT.equals(segments[0]) ? 1 : 0;
+        for (int i = start; i < segments.length; i++) {
+            if (segments[i].indexOf('$') >= 0) {
+                return null; // variables of MVEL
+            }
+        }
+        PropertyReader[] readers = new PropertyReader[segments.length - start];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new PropertyReader(segments[start + i]);
+        }
+        return new PropertyPathAccessor(readers);
+    }
+
+    /**
+     * accessor that applies the function on the value of another accessor, as "function.apply(path)" does.
+     *
+     * @return null if the function doesn't have a public "apply" method with a single parameter.
+     */
+    public static ShardKeyAccessor applying(Object function, ShardKeyAccessor argumentAccessor) {
+        if (function == null || argumentAccessor == null) {
+            return null;
+        }
+        Method apply = null;
+        Method bridge = null;
+        for (Method method : function.getClass().getMethods()) {
+            if ("apply".equals(method.getName()) && method.getParameterTypes().length == 1 && !Modifier.isStatic(method.getModifiers())) {
+                if (method.isBridge()) {
+                    bridge = method;
+                } else if (apply == null) {
+                    apply = method;
+                } else {
+                    return null; // overloaded, leave it to MVEL to pick one
+                }
+            }
+        }
+        if (apply == null) {
+            apply = bridge;
+        }
+        if (apply == null) {
+            return null;
+        }
+        MethodHandle handle = unreflect(apply);
+        if (handle == null) {
+            return null;
+        }
+        return new FunctionApplyingAccessor(handle.bindTo(function).asType(READER_TYPE), apply.getParameterTypes()[0], argumentAccessor);
+    }
+
+    private static MethodHandle unreflect(Method method) {
+        try {
+            return MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            // public method of non-public class
+        }
+        try {
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle unreflectGetter(Field field) {
+        try {
+            return MethodHandles.publicLookup().unreflectGetter(field);
+        } catch (IllegalAccessException e) {
+            // public field of non-public class
+        }
+        try {
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(field);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * convert numbers to the parameter type of function, as MVEL does for "mod.apply(memberId)" when memberId is an Integer.
+     */
+    static Object coerce(Object value, Class<?> type) {
+        if (value == null || type.isInstance(value) || type == Object.class) {
+            return value;
+        }
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (type == Long.class || type == long.class) {
+                return Long.valueOf(number.longValue());
+            }
+            if (type == Integer.class || type == int.class) {
+                return Integer.valueOf(number.intValue());
+            }
+            if (type == Short.class || type == short.class) {
+                return Short.valueOf(number.shortValue());
+            }
+            if (type == Byte.class || type == byte.class) {
+                return Byte.valueOf(number.byteValue());
+            }
+            if (type == Double.class || type == double.class) {
+                return Double.valueOf(number.doubleValue());
+            }
+            if (type == Float.class || type == float.class) {
+                return Float.valueOf(number.floatValue());
+            }
+            if (type == BigDecimal.class) {
+                return new BigDecimal(number.toString());
+            }
+            if (type == BigInteger.class) {
+                return BigInteger.valueOf(number.longValue());
+            }
+        }
+        if (type == String.class) {
+            return value.toString();
+        }
+        throw new IllegalArgumentException("can't convert:" + value + " to type:" + type.getName());
+    }
+
+    /**
+     * reads one property, resolves the getter once per class.<br>
+     * getters are turned into {@link Function}s by {@link LambdaMetafactory} so that they can be inlined by JIT like hand written code, method
+     * handles are used instead if the class is not visible to current class loader.
+     */
+    private static final class PropertyReader extends ClassValue<Function<Object, Object>> {
+
+        private final String name;
+
+        PropertyReader(String name) {
+            this.name = name;
+        }
+
+        Object read(Object target) {
+            return get(target.getClass()).apply(target);
+        }
+
+        @Override
+        protected Function<Object, Object> computeValue(Class<?> type) {
+            if (Map.class.isAssignableFrom(type)) {
+                return new MapEntryReader(name);
+            }
+            String suffix = StringUtils.capitalize(name);
+            for (String getter : new String[]{"get" + suffix, "is" + suffix}) {
+                try {
+                    Method method = type.getMethod(getter);
+                    if (!Modifier.isStatic(method.getModifiers()) && method.getReturnType() != void.class) {
+                        MethodHandle handle = unreflect(method);
+                        if (handle != null) {
+                            return toFunction(handle, method.getDeclaringClass(), method.getReturnType());
+                        }
+                    }
+                } catch (NoSuchMethodException e) {
+                    // try next
+                }
+            }
+            try {
+                Field field = type.getField(name);
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    MethodHandle handle = unreflectGetter(field);
+                    if (handle != null) {
+                        return new MethodHandleFunction(handle.asType(READER_TYPE));
+                    }
+                }
+            } catch (NoSuchFieldException e) {
+                // missing
+            }
+            return MISSING;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> toFunction(MethodHandle getter, Class<?> declaringClass, Class<?> returnType) {
+        if (Modifier.isPublic(declaringClass.getModifiers()) && isVisible(declaringClass) && (returnType.isPrimitive() || isVisible(returnType))) {
+            try {
+                CallSite site = LambdaMetafactory.metafactory(MethodHandles.lookup(), "apply", MethodType.methodType(Function.class), READER_TYPE,
+                    getter, getter.type().wrap());
+                return (Function<Object, Object>) site.getTarget().invoke();
+            } catch (Throwable t) {
+                // fall back to method handle
+            }
+        }
+        return new MethodHandleFunction(getter.asType(READER_TYPE));
+    }
+
+    /**
+     * the spun lambda classes live in the class loader of current class, they can only link to the classes visible to it.
+     */
+    private static boolean isVisible(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive()) {
+            return true;
+        }
+        try {
+            return Class.forName(type.getName(), false, ShardKeyAccessors.class.getClassLoader()) == type;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    private static final class MethodHandleFunction implements Function<Object, Object> {
+
+        private final MethodHandle handle;
+
+        MethodHandleFunction(MethodHandle handle) {
+            this.handle = handle;
+        }
+
+        public Object apply(Object target) {
+            try {
+                return (Object) handle.invokeExact(target);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    private static final class MapEntryReader implements Function<Object, Object> {
+
+        private final String key;
+
+        MapEntryReader(String key) {
+            this.key = key;
+        }
+
+        public Object apply(Object target) {
+            Map<?, ?> map = (Map<?, ?>) target;
+            // ParamMap of MyBatis throws on missing keys
+            return map.containsKey(key) ? map.get(key) : null;
+        }
+    }
+
+    private static final class MissingProperty implements Function<Object, Object> {
+
+        public Object apply(Object target) {
+            return null;
+        }
+    }
+
+    private static final class PropertyPathAccessor implements ShardKeyAccessor {
+
+        private final PropertyReader[] readers;
+
+        PropertyPathAccessor(PropertyReader[] readers) {
+            this.readers = readers;
+        }
+
+        public Object get(Object argument) {
+            Object value = argument;
+            for (int i = 0; i < readers.length && value != null; i++) {
+                value = readers[i].read(value);
+            }
+            return value;
+        }
+    }
+
+    private static final class FunctionApplyingAccessor implements ShardKeyAccessor {
+
+        private final MethodHandle function;
+        private final Class<?> parameterType;
+        private final ShardKeyAccessor argumentAccessor;
+
+        FunctionApplyingAccessor(MethodHandle function, Class<?> parameterType, ShardKeyAccessor argumentAccessor) {
+            this.function = function;
+            this.parameterType = parameterType;
+            this.argumentAccessor = argumentAccessor;
+        }
+
+        public Object get(Object argument) {
+            Object value = coerce(argumentAccessor.get(argument), parameterType);
+            try {
+                return (Object) function.invokeExact(value);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+
+import com.gimc.mybatis.db.shard.router.IShardRouter;
+
+/**
+ * splits a parameter that holds a collection of shard keys, e.g. the ids of "WHERE memberId IN (...)", into one parameter per shard, each
+ * with only the keys the shard owns.<br>
+ * the parameter must be a {@link Map}, as the parameters of mapper methods with several arguments are. each key of the collection is routed
+ * as if the parameter held that key alone under the same property, so the rules see a single value as they do for "WHERE memberId = ?". a key
+ * routed to several shards goes to each of them.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public final class ShardKeyCollectionSplitter {
+
+    private ShardKeyCollectionSplitter() {
+    }
+
+    /**
+     * @param router the router to route the keys with
+     * @param action the sql action
+     * @param parameter the parameter of sql action
+     * @param property the property of parameter that holds the collection(or array) of shard keys
+     * @return sub-parameters by shard identities, or null if the parameter can't be split, that's, it's not a map with a non-empty collection
+     *         under the property, or some key is not routed to any shard.
+     */
+    public static Map<String, Object> split(IShardRouter<MyBatisRoutingFact> router, String action, Object parameter, String property) {
+        Validate.notNull(router);
+        Validate.notEmpty(property);
+        if (!(parameter instanceof Map)) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> parameterMap = (Map<Object, Object>) parameter;
+        Collection<?> keys = asCollection(parameterMap.get(property));
+        if (keys == null || keys.isEmpty()) {
+            return null;
+        }
+
+        List<MyBatisRoutingFact> facts = new ArrayList<MyBatisRoutingFact>(keys.size());
+        for (Object key : keys) {
+            Map<Object, Object> keyParameter = new HashMap<Object, Object>(parameterMap);
+            keyParameter.put(property, key);
+            facts.add(new MyBatisRoutingFact(action, keyParameter));
+        }
+        BatchRoutingResult<MyBatisRoutingFact> routing = router.doRouteAll(facts);
+        if (routing == null || !routing.getUnroutedFacts().isEmpty()) {
+            return null;
+        }
+
+        Map<String, Object> parametersByShard = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, List<MyBatisRoutingFact>> entry : routing.getFactsByShard().entrySet()) {
+            List<Object> ownedKeys = new ArrayList<Object>(entry.getValue().size());
+            for (MyBatisRoutingFact fact : entry.getValue()) {
+                ownedKeys.add(((Map<?, ?>) fact.getArgument()).get(property));
+            }
+            Map<Object, Object> shardParameter = new HashMap<Object, Object>(parameterMap);
+            shardParameter.put(property, ownedKeys);
+            parametersByShard.put(entry.getKey(), shardParameter);
+        }
+        return parametersByShard;
+    }
+
+    private static Collection<?> asCollection(Object value) {
+        if (value instanceof Collection) {
+            return (Collection<?>) value;
+        }
+        if (value instanceof Object[]) {
+            return Arrays.asList((Object[]) value);
+        }
+        return null;
+    }
+
+}
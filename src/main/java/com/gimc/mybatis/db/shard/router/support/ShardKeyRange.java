@@ -0,0 +1,148 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.support;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * a range of shard key values, the lower bound is always inclusive, while the upper bound can be inclusive(as BETWEEN in SQL) or exclusive.<br>
+ * a null bound means the range is unbounded on that side.<br>
+ * if the value of the sharding attribute is a {@link ShardKeyRange}, or the routing fact declares one(see
+ * {@link MyBatisRoutingFact#getShardKeyRange()}), range-aware rules will route to all of the shards whose ranges overlap with it.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class ShardKeyRange {
+
+    private final Object lower;
+    private final Object upper;
+    private final boolean upperInclusive;
+
+    /**
+     * create a closed range like "BETWEEN lower AND upper".
+     */
+    public ShardKeyRange(Object lower, Object upper) {
+        this(lower, upper, true);
+    }
+
+    public ShardKeyRange(Object lower, Object upper, boolean upperInclusive) {
+        if (lower != null && upper != null && RangeIndex.compareKeys(lower, upper) > 0) {
+            throw new IllegalArgumentException("lower bound:" + lower + " is greater than upper bound:" + upper);
+        }
+        this.lower = lower;
+        this.upper = upper;
+        this.upperInclusive = upperInclusive;
+    }
+
+    public Object getLower() {
+        return lower;
+    }
+
+    public Object getUpper() {
+        return upper;
+    }
+
+    public boolean isUpperInclusive() {
+        return upperInclusive;
+    }
+
+    /**
+     * @return true if the given key falls in current range.
+     */
+    public boolean contains(Object key) {
+        if (lower != null && RangeIndex.compareKeys(key, lower) < 0) {
+            return false;
+        }
+        if (upper != null) {
+            int c = RangeIndex.compareKeys(key, upper);
+            return upperInclusive ? c <= 0 : c < 0;
+        }
+        return true;
+    }
+
+    /**
+     * @return the range of keys that fall in both current range and the given one, or null if there's no such key.
+     */
+    public ShardKeyRange intersect(ShardKeyRange other) {
+        Validate.notNull(other);
+        Object l = lower;
+        if (l == null || (other.lower != null && RangeIndex.compareKeys(other.lower, l) > 0)) {
+            l = other.lower;
+        }
+        Object u = upper;
+        boolean inclusive = upperInclusive;
+        if (u == null) {
+            u = other.upper;
+            inclusive = other.upperInclusive;
+        } else if (other.upper != null) {
+            int c = RangeIndex.compareKeys(other.upper, u);
+            if (c < 0 || (c == 0 && !other.upperInclusive)) {
+                u = other.upper;
+                inclusive = other.upperInclusive;
+            }
+        }
+        if (l != null && u != null) {
+            int c = RangeIndex.compareKeys(l, u);
+            if (c > 0 || (c == 0 && !inclusive)) {
+                return null;
+            }
+        }
+        return new ShardKeyRange(l, u, inclusive);
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((lower == null) ? 0 : lower.hashCode());
+        result = prime * result + ((upper == null) ? 0 : upper.hashCode());
+        result = prime * result + (upperInclusive ? 1231 : 1237);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        ShardKeyRange other = (ShardKeyRange) obj;
+        if (lower == null) {
+            if (other.lower != null) {
+                return false;
+            }
+        } else if (!lower.equals(other.lower)) {
+            return false;
+        }
+        if (upper == null) {
+            if (other.upper != null) {
+                return false;
+            }
+        } else if (!upper.equals(other.upper)) {
+            return false;
+        }
+        return upperInclusive == other.upperInclusive;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardKeyRange [" + lower + ", " + upper + (upperInclusive ? "]" : ")");
+    }
+
+}
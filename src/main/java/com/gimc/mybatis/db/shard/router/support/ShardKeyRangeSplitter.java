@@ -0,0 +1,89 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.support;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+
+import com.gimc.mybatis.db.shard.router.IShardRouter;
+
+/**
+ * splits a parameter that holds the bounds of a range query on shard key, e.g. "WHERE gmtModified BETWEEN #{from} AND #{to}", into one parameter
+ * per shard whose ranges overlap with the query, each with the bounds clipped to the ranges of the shard.<br>
+ * the parameter must be a {@link Map}. the bounds are routed as a {@link ShardKeyRange} declared by the routing fact, so only range-aware rules
+ * can tell the shards apart. a clipped upper bound may be the exclusive upper bound of a shard range, which is still right for "BETWEEN", since
+ * the shard doesn't hold the key. a bound is kept as it's given if it's not given at all, or the clipped one is of another type, e.g. epoch
+ * milliseconds of a date.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public final class ShardKeyRangeSplitter {
+
+    private ShardKeyRangeSplitter() {
+    }
+
+    /**
+     * @param router the router to route the range with
+     * @param action the sql action
+     * @param parameter the parameter of sql action
+     * @param lowerProperty the property of parameter that holds the lower bound(inclusive)
+     * @param upperProperty the property of parameter that holds the upper bound(inclusive)
+     * @return sub-parameters by shard identities, or null if the parameter can't be split, that's, it's not a map with any of the bounds, or no
+     *         range-aware rule matches the range.
+     */
+    public static Map<String, Object> split(IShardRouter<MyBatisRoutingFact> router, String action, Object parameter, String lowerProperty,
+                                            String upperProperty) {
+        Validate.notNull(router);
+        Validate.notEmpty(lowerProperty);
+        Validate.notEmpty(upperProperty);
+        if (!(parameter instanceof Map)) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> parameterMap = (Map<Object, Object>) parameter;
+        Object lower = parameterMap.get(lowerProperty);
+        Object upper = parameterMap.get(upperProperty);
+        if (lower == null && upper == null) {
+            return null;
+        }
+        if (lower != null && upper != null && RangeIndex.compareKeys(lower, upper) > 0) {
+            // an empty range, left to the database as it is
+            return null;
+        }
+
+        RoutingResult routing = router.doRoute(new MyBatisRoutingFact(action, parameter, new ShardKeyRange(lower, upper)));
+        if (routing == null || routing.getShardKeyRanges() == null) {
+            return null;
+        }
+        Map<String, Object> parametersByShard = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, ShardKeyRange> entry : routing.getShardKeyRanges().entrySet()) {
+            Map<Object, Object> shardParameter = new HashMap<Object, Object>(parameterMap);
+            shardParameter.put(lowerProperty, clip(lower, entry.getValue().getLower()));
+            shardParameter.put(upperProperty, clip(upper, entry.getValue().getUpper()));
+            parametersByShard.put(entry.getKey(), shardParameter);
+        }
+        return parametersByShard;
+    }
+
+    private static Object clip(Object given, Object clipped) {
+        if (given == null || clipped == null || given.getClass() != clipped.getClass()) {
+            return given;
+        }
+        return clipped;
+    }
+
+}
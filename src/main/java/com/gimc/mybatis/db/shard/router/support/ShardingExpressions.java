@@ -0,0 +1,51 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.support;
+
+import java.io.Serializable;
+
+import org.mvel2.MVEL;
+import org.mvel2.integration.VariableResolverFactory;
+import org.mvel2.optimizers.OptimizerFactory;
+
+/**
+ * compiles and evaluates sharding expressions with MVEL, keeping them away from the ASM optimizer of MVEL.<br>
+ * the dynamic optimizer, which is the default one, switches a node of compiled expression to an accessor class generated by ASM after about
+ * 50 evaluations, and MVEL 2.0 defines such classes with sun.misc.Unsafe#defineClass(String, byte[], int, int), which the JDKs we run on
+ * don't have, so the evaluation fails with {@link NoSuchMethodError} from then on.<br>
+ * nodes of compiled expressions always take the default optimizer of MVEL, so the reflective one is made the default with
+ * {@link OptimizerFactory#setDefaultOptimizer(String)} before any sharding expression is compiled, as MVEL itself does when ASM is not
+ * available. it's JVM-wide, but the ASM optimizer fails for every MVEL user on such JDKs anyway.<br>
+ * expressions are compiled once by their rules and the compiled ones are kept by the rules, evaluations are never retried.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public abstract class ShardingExpressions {
+
+    static {
+        OptimizerFactory.setDefaultOptimizer(OptimizerFactory.SAFE_REFLECTIVE);
+    }
+
+    public static Serializable compile(String expression) {
+        return MVEL.compileExpression(expression);
+    }
+
+    /**
+     * same as {@link MVEL#executeExpression(Object, Object, VariableResolverFactory, Class)}.
+     */
+    public static <V> V execute(Serializable compiled, Object context, VariableResolverFactory factory, Class<V> type) {
+        return MVEL.executeExpression(compiled, context, factory, type);
+    }
+
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.router.support;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.Validate;
+
+import com.gimc.mybatis.db.shard.merger.IMerger;
+import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
+import com.gimc.mybatis.db.shard.router.rules.IShardKeyRoutingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.AbstractIBatisOrientedRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisSqlActionRule;
+
+/**
+ * the rules that apply to one sql action and what its routing depends on, worked out once from the rule sets of router:
+ * <ul>
+ * <li>constant: all of the rules match by sql action only, the routing result is the same for any argument, so it's kept in the plan itself;
+ * <li>keyed: the rules with sharding attributes are all {@link IShardKeyRoutingRule}s, routing results can be cached by the shard keys;
+ * <li>otherwise, some rule evaluates an arbitrary expression on the argument, and only the whole argument can tell the routing result.
+ * </ul>
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class StatementRoutingPlan {
+
+    private final String action;
+    private final List<List<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence;
+    private final IShardKeyRoutingRule<MyBatisRoutingFact, List<String>>[] keyRules;
+    private final boolean argumentDependent;
+    private final IMerger<?, ?> merger;
+
+    private volatile RoutingResult memo;
+
+    /**
+     * @param action the sql action to plan for
+     * @param ruleSequence rule sets in the order routers search them, rules that don't apply to the sql action are skipped.
+     */
+    public StatementRoutingPlan(String action, Collection<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence) {
+        this(action, ruleSequence, null);
+    }
+
+    /**
+     * @param merger merger of the results of the sql action across shards, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public StatementRoutingPlan(String action, Collection<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence, IMerger<?, ?> merger) {
+        Validate.notEmpty(action);
+        this.action = action;
+        this.merger = merger;
+        List<List<IRoutingRule<MyBatisRoutingFact, List<String>>>> applicableRules = new ArrayList<List<IRoutingRule<MyBatisRoutingFact, List<String>>>>();
+        List<IShardKeyRoutingRule<MyBatisRoutingFact, List<String>>> shardKeyRules = new ArrayList<IShardKeyRoutingRule<MyBatisRoutingFact, List<String>>>();
+        boolean dependent = false;
+        if (ruleSequence != null) {
+            for (Set<IRoutingRule<MyBatisRoutingFact, List<String>>> rules : ruleSequence) {
+                List<IRoutingRule<MyBatisRoutingFact, List<String>>> applicable = new ArrayList<IRoutingRule<MyBatisRoutingFact, List<String>>>();
+                applicableRules.add(Collections.unmodifiableList(applicable));
+                if (rules == null) {
+                    continue;
+                }
+                for (IRoutingRule<MyBatisRoutingFact, List<String>> rule : rules) {
+                    if (rule instanceof AbstractIBatisOrientedRule && !((AbstractIBatisOrientedRule) rule).isApplicableTo(action)) {
+                        continue;
+                    }
+                    applicable.add(rule);
+                    if (rule instanceof IShardKeyRoutingRule) {
+                        shardKeyRules.add((IShardKeyRoutingRule<MyBatisRoutingFact, List<String>>) rule);
+                    } else if (!(rule instanceof MyBatisNamespaceRule || rule instanceof MyBatisSqlActionRule)) {
+                        dependent = true;
+                    }
+                }
+            }
+        }
+        this.ruleSequence = Collections.unmodifiableList(applicableRules);
+        this.keyRules = shardKeyRules.toArray((IShardKeyRoutingRule<MyBatisRoutingFact, List<String>>[]) new IShardKeyRoutingRule<?, ?>[shardKeyRules
+            .size()]);
+        this.argumentDependent = dependent;
+    }
+
+    /**
+     * @return true if the routing result doesn't depend on the argument at all.
+     */
+    public boolean isConstant() {
+        return !argumentDependent && keyRules.length == 0;
+    }
+
+    /**
+     * @return true if routing results can be cached by {@link #cacheKeyOf(MyBatisRoutingFact)}.
+     */
+    public boolean isKeyed() {
+        return !argumentDependent;
+    }
+
+    /**
+     * @return the key made of the sql action and the shard keys of the fact, or null if the routing result can't be told by shard keys.
+     */
+    public RoutingCacheKey cacheKeyOf(MyBatisRoutingFact routingFact) {
+        if (argumentDependent) {
+            return null;
+        }
+        Object[] shardKeys = new Object[keyRules.length];
+        for (int i = 0; i < keyRules.length; i++) {
+            shardKeys[i] = keyRules[i].shardKeyOf(routingFact);
+        }
+        return RoutingCacheKey.of(action, shardKeys);
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * @return merger of the results of the sql action across shards, bound by the rules of it or of its namespace, null if there's none.
+     */
+    public IMerger<?, ?> getMerger() {
+        return merger;
+    }
+
+    /**
+     * @return the rules that apply to the sql action, grouped and ordered as the rule sets the plan is made from.
+     */
+    public List<List<IRoutingRule<MyBatisRoutingFact, List<String>>>> getRuleSequence() {
+        return ruleSequence;
+    }
+
+    /**
+     * @return the routing result of a constant plan once it's routed, null otherwise.
+     */
+    public RoutingResult getMemo() {
+        return memo;
+    }
+
+    public void setMemo(RoutingResult memo) {
+        Validate.isTrue(isConstant(), "only routing results of constant plans can be kept.");
+        this.memo = memo;
+    }
+
+    @Override
+    public String toString() {
+        return "StatementRoutingPlan [action=" + action + ", shardKeyRules=" + keyRules.length + ", argumentDependent=" + argumentDependent + "]";
+    }
+
+}
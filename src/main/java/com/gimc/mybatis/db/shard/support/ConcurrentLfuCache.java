@@ -0,0 +1,407 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * a bounded concurrent cache that replaces the synchronized {@link LRUMap} on the routing path.<br>
+ * <ul>
+ * <li>reads never lock: a read is a lookup in a {@link ConcurrentHashMap}, plus a lossy increment in a frequency sketch and a "referenced" mark
+ * on the entry, nothing is reordered on read as an access-ordered LinkedHashMap does;
+ * <li>writes only lock one of the stripes the entries are spread on, there's no global lock;
+ * <li>each stripe keeps a small admission window and a main region in insertion order, entries leaving the window have to be accessed more often
+ * than the victim of main region to be admitted(TinyLFU), while referenced victims of main region get a second chance(CLOCK), so one-off
+ * facts can't flush the hot ones out;
+ * <li>entries expire after the time to live if it's given.
+ * </ul>
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class ConcurrentLfuCache<K, V> {
+
+    private static final int MAX_STRIPES = 16;
+    /**
+     * percentage of each stripe for admission window.
+     */
+    private static final int WINDOW_PERCENTAGE = 1;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+    private final Stripe<K, V>[] stripes;
+    private final FrequencySketch sketch;
+    private final int maximumSize;
+    private final long timeToLiveNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public ConcurrentLfuCache(int maximumSize) {
+        this(maximumSize, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param maximumSize max number of entries.
+     * @param timeToLive time to live of entries since they are put, 0 means entries never expire.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLfuCache(int maximumSize, long timeToLive, TimeUnit unit) {
+        Validate.isTrue(maximumSize > 0, "maximum size of cache must be positive.");
+        Validate.isTrue(timeToLive >= 0, "time to live can't be negative.");
+        Validate.notNull(unit);
+        this.maximumSize = maximumSize;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.data = new ConcurrentHashMap<K, Node<K, V>>(Math.min(maximumSize, 1 << 16));
+        this.sketch = new FrequencySketch(maximumSize);
+
+        int stripeCount = 1;
+        while (stripeCount < MAX_STRIPES && stripeCount * 64 <= maximumSize) {
+            stripeCount <<= 1;
+        }
+        this.stripes = (Stripe<K, V>[]) new Stripe<?, ?>[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            int capacity = maximumSize / stripeCount + (i < maximumSize % stripeCount ? 1 : 0);
+            stripes[i] = new Stripe<K, V>(capacity);
+        }
+    }
+
+    /**
+     * @return the cached value, or null if there's no such entry or it has expired.
+     */
+    public V get(K key) {
+        int hash = spread(key.hashCode());
+        sketch.increment(hash);
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        if (node.isExpired(timeToLiveNanos)) {
+            if (data.remove(key, node)) {
+                node.removed = true;
+                expirations.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        node.referenced = true;
+        hits.increment();
+        return node.value;
+    }
+
+    /**
+     * put the value into cache, nulls are not cached.<br>
+     * a new entry may be rejected by the admission policy if the cache is full, and the entries that are more valuable are kept instead.
+     */
+    public void put(K key, V value) {
+        Validate.notNull(key, "null key is not allowed.");
+        if (value == null) {
+            return;
+        }
+        int hash = spread(key.hashCode());
+        Stripe<K, V> stripe = stripes[hash & (stripes.length - 1)];
+        long now = timeToLiveNanos > 0 ? System.nanoTime() : 0L;
+        Node<K, V> node = new Node<K, V>(key, value, hash, now);
+        synchronized (stripe) {
+            Node<K, V> existing = data.putIfAbsent(key, node);
+            if (existing != null) {
+                existing.value = value;
+                existing.writeTime = now;
+                return;
+            }
+            stripe.window.addLast(node);
+            stripe.size++;
+            stripe.windowSize++;
+            evictIfNecessary(stripe);
+        }
+        sketch.ageIfNecessary();
+    }
+
+    public void remove(K key) {
+        Node<K, V> node = data.remove(key);
+        if (node != null) {
+            node.removed = true;
+        }
+    }
+
+    /**
+     * remove all of the entries, stripe by stripe.
+     */
+    public void clear() {
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                for (Node<K, V> node : stripe.window) {
+                    discard(node);
+                }
+                for (Node<K, V> node : stripe.main) {
+                    discard(node);
+                }
+                stripe.window.clear();
+                stripe.main.clear();
+                stripe.size = 0;
+                stripe.windowSize = 0;
+            }
+        }
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return time to live of entries in the given unit, 0 if entries never expire.
+     */
+    public long getTimeToLive(TimeUnit unit) {
+        return unit.convert(timeToLiveNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of entries evicted or rejected because of size bound.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    private void evictIfNecessary(Stripe<K, V> stripe) {
+        while (stripe.windowSize > stripe.windowCapacity) {
+            Node<K, V> candidate = pollLive(stripe, stripe.window);
+            if (candidate == null) {
+                stripe.windowSize = 0;
+                break;
+            }
+            stripe.windowSize--;
+            if (stripe.mainCapacity == 0) {
+                evict(stripe, candidate);
+                continue;
+            }
+            if (stripe.size - stripe.windowSize > stripe.mainCapacity) {
+                Node<K, V> victim = selectVictim(stripe);
+                // size counts the removed and expired entries not polled yet, selectVictim may have just made room for the candidate
+                if (victim != null && stripe.size - stripe.windowSize > stripe.mainCapacity) {
+                    if (sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+                        evict(stripe, candidate);
+                        continue;
+                    }
+                    stripe.main.pollFirst();
+                    evict(stripe, victim);
+                }
+            }
+            stripe.main.addLast(candidate);
+        }
+    }
+
+    /**
+     * find the victim of main region from its head, with expired entries removed, and referenced ones moved to the tail once.
+     */
+    private Node<K, V> selectVictim(Stripe<K, V> stripe) {
+        for (int scanned = 0, limit = stripe.main.size(); scanned <= limit; scanned++) {
+            Node<K, V> head = stripe.main.peekFirst();
+            if (head == null) {
+                return null;
+            }
+            if (head.removed) {
+                stripe.main.pollFirst();
+                stripe.size--;
+                continue;
+            }
+            if (head.isExpired(timeToLiveNanos)) {
+                stripe.main.pollFirst();
+                if (discard(head)) {
+                    expirations.increment();
+                }
+                stripe.size--;
+                continue;
+            }
+            if (head.referenced) {
+                head.referenced = false;
+                stripe.main.addLast(stripe.main.pollFirst());
+                continue;
+            }
+            return head;
+        }
+        return stripe.main.peekFirst();
+    }
+
+    private Node<K, V> pollLive(Stripe<K, V> stripe, ArrayDeque<Node<K, V>> queue) {
+        Node<K, V> node;
+        while ((node = queue.pollFirst()) != null) {
+            if (!node.removed) {
+                return node;
+            }
+            stripe.size--;
+            stripe.windowSize--;
+        }
+        return null;
+    }
+
+    private void evict(Stripe<K, V> stripe, Node<K, V> node) {
+        if (discard(node)) {
+            evictions.increment();
+        }
+        stripe.size--;
+    }
+
+    private boolean discard(Node<K, V> node) {
+        node.removed = true;
+        return data.remove(node.key, node);
+    }
+
+    static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static final class Node<K, V> {
+
+        final K key;
+        final int hash;
+        volatile V value;
+        volatile long writeTime;
+        /**
+         * marks are racy on purpose, a lost mark costs at most a second chance or a queue slot, never a wrong value.
+         */
+        boolean referenced;
+        boolean removed;
+
+        Node(K key, V value, int hash, long writeTime) {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+            this.writeTime = writeTime;
+        }
+
+        boolean isExpired(long timeToLiveNanos) {
+            return timeToLiveNanos > 0 && System.nanoTime() - writeTime >= timeToLiveNanos;
+        }
+    }
+
+    /**
+     * entries of one stripe, guarded by the monitor of the stripe.
+     */
+    private static final class Stripe<K, V> {
+
+        final ArrayDeque<Node<K, V>> window = new ArrayDeque<Node<K, V>>();
+        final ArrayDeque<Node<K, V>> main = new ArrayDeque<Node<K, V>>();
+        final int windowCapacity;
+        final int mainCapacity;
+        /**
+         * entries in both queues, including the removed ones not polled yet.
+         */
+        int size;
+        int windowSize;
+
+        Stripe(int capacity) {
+            this.windowCapacity = Math.max(1, capacity * WINDOW_PERCENTAGE / 100);
+            this.mainCapacity = Math.max(0, capacity - windowCapacity);
+        }
+    }
+
+    /**
+     * count-min sketch with 4-bit counters, 16 counters per long, updated without locks and halved periodically so that old popularity fades away.
+     */
+    static final class FrequencySketch {
+
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final AtomicLongArray table;
+        private final int tableMask;
+        private final long sampleSize;
+        private final LongAdder additions = new LongAdder();
+        private final AtomicBoolean aging = new AtomicBoolean();
+
+        FrequencySketch(int maximumSize) {
+            int length = 16;
+            while (length < maximumSize && length < (1 << 24)) {
+                length <<= 1;
+            }
+            this.table = new AtomicLongArray(length);
+            this.tableMask = length - 1;
+            this.sampleSize = 10L * Math.max(maximumSize, 16);
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                long h = (hash + SEEDS[i]) * SEEDS[i];
+                int index = (int) (h >>> 40) & tableMask;
+                int offset = (int) ((h >>> 2) & 15L) << 2;
+                frequency = Math.min(frequency, (int) ((table.get(index) >>> offset) & 0xfL));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                long h = (hash + SEEDS[i]) * SEEDS[i];
+                int index = (int) (h >>> 40) & tableMask;
+                int offset = (int) ((h >>> 2) & 15L) << 2;
+                long current = table.get(index);
+                // lossy: a racing increment or halving may be overwritten, which is fine for a popularity estimate and cheaper than CAS on the
+                // read path
+                if (((current >>> offset) & 0xfL) != 0xfL) {
+                    table.lazySet(index, current + (1L << offset));
+                    added = true;
+                }
+            }
+            if (added) {
+                additions.increment();
+            }
+        }
+
+        void ageIfNecessary() {
+            if (additions.sum() < sampleSize || !aging.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                for (int i = 0; i < table.length(); i++) {
+                    long current;
+                    do {
+                        current = table.get(i);
+                    } while (!table.compareAndSet(i, current, (current >>> 1) & RESET_MASK));
+                }
+                additions.reset();
+            } finally {
+                aging.set(false);
+            }
+        }
+    }
+}
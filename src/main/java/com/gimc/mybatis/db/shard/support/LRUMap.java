@@ -25,6 +25,10 @@ public class LRUMap<K, V> extends LinkedHashMap<K, V> {
         this.coreSize = coreSize;
     }
 
+    public int getCoreSize() {
+        return coreSize;
+    }
+
     @Override
     protected boolean removeEldestEntry(java.util.Map.Entry<K, V> eldest) {
         return size() > coreSize;
@@ -0,0 +1,250 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+import com.gimc.mybatis.db.shard.router.support.ShardKeyAccessor;
+import com.gimc.mybatis.db.shard.router.support.ShardKeyAccessors;
+import com.gimc.mybatis.db.shard.support.utils.ValueUtils;
+
+/**
+ * sort key of keyset(seek) pagination, e.g. "gmtCreated desc, id desc", the properties of the rows a listing is ordered by, the last one of
+ * which breaks the ties, so the key of each row is unique.<br>
+ * it orders the rows of shards as the sql action does, and turns the key of the last row of a page into an opaque continuation token, from
+ * which the next page starts. the values of a key can't be null, and can only be strings, numbers, booleans or dates, so that a token can be
+ * decoded without deserializing any objects given by the callers.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class SeekKey implements Comparator<Object> {
+
+    private static final byte STRING = 'S';
+    private static final byte INTEGER = 'I';
+    private static final byte LONG = 'J';
+    private static final byte SHORT = 'H';
+    private static final byte BYTE = 'B';
+    private static final byte DOUBLE = 'D';
+    private static final byte FLOAT = 'F';
+    private static final byte BOOLEAN = 'Z';
+    private static final byte BIG_DECIMAL = 'M';
+    private static final byte BIG_INTEGER = 'N';
+    private static final byte TIMESTAMP = 'T';
+    private static final byte SQL_DATE = 'd';
+    private static final byte DATE = 'U';
+
+    private final String declaration;
+    private final String[] properties;
+    private final ShardKeyAccessor[] accessors;
+    private final boolean[] descending;
+
+    /**
+     * @param declaration properties separated by comma, each followed by "desc" if it's in descending order.
+     */
+    public SeekKey(String declaration) {
+        Validate.isTrue(StringUtils.isNotBlank(declaration), "properties of seek key can't be empty.");
+        String[] parts = StringUtils.split(declaration, ',');
+        this.properties = new String[parts.length];
+        this.accessors = new ShardKeyAccessor[parts.length];
+        this.descending = new boolean[parts.length];
+        StringBuilder normalized = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            String[] words = StringUtils.split(StringUtils.trim(parts[i]));
+            Validate.isTrue(words.length == 1 || (words.length == 2 && ("asc".equalsIgnoreCase(words[1]) || "desc".equalsIgnoreCase(words[1]))),
+                "illegal property of seek key:" + parts[i]);
+            properties[i] = words[0];
+            accessors[i] = ShardKeyAccessors.forPath(words[0]);
+            Validate.isTrue(accessors[i] != null, "property of seek key must be a property path:" + words[0]);
+            descending[i] = words.length == 2 && "desc".equalsIgnoreCase(words[1]);
+            normalized.append(i == 0 ? "" : ",").append(properties[i]).append(descending[i] ? " desc" : "");
+        }
+        this.declaration = normalized.toString();
+    }
+
+    public int compare(Object row1, Object row2) {
+        for (int i = 0; i < accessors.length; i++) {
+            int result = ValueUtils.compare(valueOf(row1, i), valueOf(row2, i));
+            if (result != 0) {
+                return descending[i] ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return continuation token of the key of the row.
+     */
+    public String encode(Object row) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(declaration.hashCode());
+            for (int i = 0; i < accessors.length; i++) {
+                write(out, valueOf(row, i));
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * @return values of the key by their properties, a property path like "offer.id" is put as nested maps, so that it's still "offer.id" for
+     *         the sql action.
+     * @throws IllegalArgumentException if the token is not one of this key.
+     */
+    public Map<String, Object> decode(String token) {
+        Validate.notEmpty(token, "continuation token can't be empty.");
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(token)));
+            Validate.isTrue(in.readInt() == declaration.hashCode(), "continuation token is not one of seek key:" + declaration);
+            Map<String, Object> values = new LinkedHashMap<String, Object>();
+            for (String property : properties) {
+                put(values, property, read(in));
+            }
+            Validate.isTrue(in.available() == 0, "continuation token is not one of seek key:" + declaration);
+            return values;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("illegal continuation token:" + token, e);
+        }
+    }
+
+    public String getDeclaration() {
+        return declaration;
+    }
+
+    private Object valueOf(Object row, int i) {
+        Object value = accessors[i].get(row);
+        Validate.isTrue(value != null, "value of seek key can't be null:" + properties[i]);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(Map<String, Object> values, String property, Object value) {
+        String[] segments = StringUtils.split(property, '.');
+        Map<String, Object> map = values;
+        for (int i = 0; i < segments.length - 1; i++) {
+            Object nested = map.get(segments[i]);
+            if (!(nested instanceof Map)) {
+                nested = new LinkedHashMap<String, Object>();
+                map.put(segments[i], nested);
+            }
+            map = (Map<String, Object>) nested;
+        }
+        map.put(segments[segments.length - 1], value);
+    }
+
+    private static void write(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof String) {
+            out.writeByte(STRING);
+            out.writeUTF((String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            out.writeUTF(value.toString());
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            out.writeUTF(value.toString());
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(SQL_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value.getClass() == Date.class) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else {
+            throw new IllegalArgumentException("unsupported type of seek key value:" + value.getClass().getName());
+        }
+    }
+
+    private static Object read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case STRING:
+                return in.readUTF();
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case BOOLEAN:
+                return in.readBoolean();
+            case BIG_DECIMAL:
+                return new BigDecimal(in.readUTF());
+            case BIG_INTEGER:
+                return new BigInteger(in.readUTF());
+            case TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case SQL_DATE:
+                return new java.sql.Date(in.readLong());
+            case DATE:
+                return new Date(in.readLong());
+            default:
+                throw new IllegalArgumentException("unknown type of seek key value:" + (char) type);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SeekKey [" + declaration + "]";
+    }
+}
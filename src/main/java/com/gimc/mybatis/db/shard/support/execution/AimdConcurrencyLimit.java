@@ -0,0 +1,109 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * additive-increase/multiplicative-decrease limit.<br>
+ * the limit grows by 1 for each request completed within {@link Factory#setTimeoutMillis(long)} while at least half of the limit is in use, and
+ * is cut by {@link Factory#setBackoffRatio(double)} for each one that is dropped or takes longer.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class AimdConcurrencyLimit implements IConcurrencyLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long timeoutNanos;
+    private volatile int limit;
+
+    public AimdConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double backoffRatio, long timeoutMillis) {
+        Validate.isTrue(minLimit > 0 && minLimit <= maxLimit, "limits should be positive and min limit should not exceed max limit.");
+        Validate.isTrue(backoffRatio > 0 && backoffRatio < 1, "backoff ratio should be between 0 and 1.");
+        Validate.isTrue(timeoutMillis > 0, "timeout must be positive.");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        if (dropped || rttNanos > timeoutNanos) {
+            limit = Math.max(minLimit, (int) (limit * backoffRatio));
+        } else if (inFlight * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AimdConcurrencyLimit [limit=" + limit + "]";
+    }
+
+    public static class Factory implements IConcurrencyLimitFactory {
+
+        private int initialLimit = 10;
+        private int minLimit = 1;
+        private double backoffRatio = 0.9;
+        private long timeoutMillis = 1000;
+
+        public IConcurrencyLimit create(int maxLimit) {
+            return new AimdConcurrencyLimit(initialLimit, Math.min(minLimit, maxLimit), maxLimit, backoffRatio, timeoutMillis);
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public double getBackoffRatio() {
+            return backoffRatio;
+        }
+
+        public void setBackoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+        }
+
+        public long getTimeoutMillis() {
+            return timeoutMillis;
+        }
+
+        /**
+         * @param timeoutMillis round trip time beyond which a request counts as dropped.
+         */
+        public void setTimeoutMillis(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+    }
+}
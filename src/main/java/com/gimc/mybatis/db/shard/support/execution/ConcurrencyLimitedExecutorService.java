@@ -0,0 +1,248 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * executor of one data source in front of its original executor, which lets at most {@link IConcurrencyLimit#getLimit()} requests run on the
+ * data source at a time.<br>
+ * the limit is learned from the round trip time of each request, so that a data source slowing down gets fewer requests instead of the same
+ * number of requests queueing up in it. requests beyond the limit wait in a queue of {@link #getMaxQueueSize()} at most, and the others are shed
+ * with {@link RejectedExecutionException}.<br>
+ * the original executor is not shut down with this one, and running tasks are not interrupted by {@link #shutdownNow()}.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class ConcurrencyLimitedExecutorService extends AbstractExecutorService implements IPermitBoundExecutor {
+
+    private final Executor delegate;
+    private final IConcurrencyLimit limit;
+    private final int maxQueueSize;
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder shed = new LongAdder();
+    private volatile boolean shutdown;
+
+    public ConcurrencyLimitedExecutorService(Executor delegate, IConcurrencyLimit limit, int maxQueueSize) {
+        Validate.notNull(delegate);
+        Validate.notNull(limit);
+        Validate.isTrue(maxQueueSize >= 0, "max queue size can't be negative.");
+        this.delegate = delegate;
+        this.limit = limit;
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    public void execute(Runnable task) {
+        Validate.notNull(task);
+        if (shutdown) {
+            throw new RejectedExecutionException("executor is shut down.");
+        }
+        if (pending.isEmpty() && tryAcquire()) {
+            dispatch(task);
+            return;
+        }
+        if (queued.incrementAndGet() > maxQueueSize) {
+            queued.decrementAndGet();
+            shed.increment();
+            throw new RejectedExecutionException("request is shed, " + inFlight.get() + " requests are running on the data source with limit "
+                + limit.getLimit() + ", and " + maxQueueSize + " are waiting.");
+        }
+        pending.offer(task);
+        dispatchPending();
+    }
+
+    /**
+     * the task takes one of the limit like the others, and its round trip time is sampled the same way. it runs under a permit of the original
+     * executor as well if that one bounds its tasks by permits.
+     */
+    public boolean tryRunInline(final Runnable task) {
+        Validate.notNull(task);
+        if (shutdown || !pending.isEmpty() || !tryAcquire()) {
+            return false;
+        }
+        final long start = System.nanoTime();
+        boolean ran = InlineExecutorService.runInline(delegate, new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    complete(task, start);
+                }
+            }
+        });
+        if (!ran) {
+            inFlight.decrementAndGet();
+            dispatchPending();
+        }
+        return ran;
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit.getLimit()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * called whenever a task is queued or one completes, so that no queued task is left behind within the limit.
+     */
+    private void dispatchPending() {
+        while (!pending.isEmpty() && tryAcquire()) {
+            Runnable task = pending.poll();
+            if (task == null) {
+                inFlight.decrementAndGet();
+                continue;
+            }
+            queued.decrementAndGet();
+            dispatch(task);
+        }
+    }
+
+    private void dispatch(final Runnable task) {
+        final long start = System.nanoTime();
+        try {
+            delegate.execute(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        complete(task, start);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void complete(Runnable task, long start) {
+        // tasks submitted by the request processors are futures, which are cancelled once their deadlines pass
+        boolean dropped = task instanceof Future && ((Future<?>) task).isCancelled();
+        limit.onSample(System.nanoTime() - start, inFlight.get(), dropped);
+        inFlight.decrementAndGet();
+        dispatchPending();
+        if (isTerminated()) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        if (isTerminated()) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the tasks that have not been handed to the original executor yet, the running ones go on.
+     */
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        Runnable task;
+        while ((task = pending.poll()) != null) {
+            queued.decrementAndGet();
+            tasks.add(task);
+        }
+        shutdown();
+        return tasks;
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public boolean isTerminated() {
+        return shutdown && pending.isEmpty() && inFlight.get() == 0;
+    }
+
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * @return the current limit of the data source.
+     */
+    public int getLimit() {
+        return limit.getLimit();
+    }
+
+    public IConcurrencyLimit getConcurrencyLimit() {
+        return limit;
+    }
+
+    /**
+     * @return number of requests running on the data source.
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return number of requests waiting for the limit.
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * @return number of requests shed so far.
+     */
+    public long getShedCount() {
+        return shed.sum();
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrencyLimitedExecutorService [limit=" + getLimit() + ", inFlight=" + getInFlightCount() + ", queued=" + getQueuedCount()
+            + ", shed=" + getShedCount() + "]";
+    }
+}
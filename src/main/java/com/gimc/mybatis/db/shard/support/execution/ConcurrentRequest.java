@@ -26,9 +26,29 @@ import javax.sql.DataSource;
  */
 public class ConcurrentRequest {
 
+    /**
+     * identity of the shard, only for statistics.
+     */
+    private String identity;
     private SqlSessionCallBack action;
     private DataSource dataSource;
     private ExecutorService executor;
+    /**
+     * the request is cancelled if it's not done by then, null means it can run as long as it takes.
+     */
+    private Deadline deadline;
+    /**
+     * standby of {@link #dataSource} the request can be hedged to, it's only given for reads.
+     */
+    private DataSource standbyDataSource;
+
+    public String getIdentity() {
+        return identity;
+    }
+
+    public void setIdentity(String identity) {
+        this.identity = identity;
+    }
 
     public SqlSessionCallBack getAction() {
         return action;
@@ -54,4 +74,20 @@ public class ConcurrentRequest {
         this.executor = executor;
     }
 
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    public DataSource getStandbyDataSource() {
+        return standbyDataSource;
+    }
+
+    public void setStandbyDataSource(DataSource standbyDataSource) {
+        this.standbyDataSource = standbyDataSource;
+    }
+
 }
@@ -0,0 +1,75 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * point of time by which the requests of a sql action should be done, it's computed once for each call of the template and shared by all of the
+ * requests of the call.<br>
+ * it's based on {@link System#nanoTime()}, so it's not affected by changes of the wall clock.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public final class Deadline {
+
+    private final long timeoutMillis;
+    private final long deadlineNanos;
+
+    private Deadline(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * @param timeoutMillis time from now on, in milliseconds.
+     */
+    public static Deadline after(long timeoutMillis) {
+        Validate.isTrue(timeoutMillis > 0, "timeout must be positive.");
+        return new Deadline(timeoutMillis);
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * @return remaining time in seconds as {@link java.sql.Statement#setQueryTimeout(int)} expects, rounded up and at least 1, since 0 means no
+     *         timeout there.
+     */
+    public int remainingSeconds() {
+        long remaining = remainingNanos();
+        if (remaining <= 0) {
+            return 1;
+        }
+        long seconds = (remaining + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+        return (int) Math.min(seconds, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline [timeoutMillis=" + timeoutMillis + ", remainingNanos=" + remainingNanos() + "]";
+    }
+
+}
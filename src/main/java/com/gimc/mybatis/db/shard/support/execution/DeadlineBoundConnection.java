@@ -0,0 +1,176 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * connection of one request bound to the deadline of its sql action.<br>
+ * each statement created on the connection gets the remaining time as its query timeout, the query timeouts set by MyBatis afterwards(timeout of
+ * the mapped statement or the default statement timeout) can only shorten it. once the deadline passes, {@link #cancel()} cancels the statements
+ * still running, and no statement can be created any more.<br>
+ * the deadline can be null for a request that is only to be cancelled, e.g. the loser of a hedged read, its query timeouts are left as they are.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class DeadlineBoundConnection {
+
+    private transient final Logger logger = LoggerFactory.getLogger(DeadlineBoundConnection.class);
+
+    private final Connection target;
+    private final Deadline deadline;
+    private final Connection proxy;
+    private final List<Statement> statements = new ArrayList<Statement>();
+    private volatile boolean cancelled;
+
+    public DeadlineBoundConnection(Connection target, Deadline deadline) {
+        Validate.notNull(target);
+        this.target = target;
+        this.deadline = deadline;
+        this.proxy = (Connection) Proxy.newProxyInstance(DeadlineBoundConnection.class.getClassLoader(), new Class<?>[]{Connection.class},
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    return invokeOnConnection(proxy, method, args);
+                }
+            });
+    }
+
+    /**
+     * @return connection to hand to the sql session of the request.
+     */
+    public Connection getConnection() {
+        return proxy;
+    }
+
+    public Connection getTargetConnection() {
+        return target;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * cancels the statements created so far, which is safe to be called from a thread other than the one executing them.
+     */
+    public void cancel() {
+        List<Statement> statementsToCancel;
+        synchronized (statements) {
+            cancelled = true;
+            statementsToCancel = new ArrayList<Statement>(statements);
+        }
+        for (Statement statement : statementsToCancel) {
+            try {
+                statement.cancel();
+            } catch (Throwable t) {
+                logger.info("failed to cancel statement after deadline passed", t);
+            }
+        }
+    }
+
+    private Object invokeOnConnection(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("equals".equals(name) && args != null && args.length == 1) {
+            return proxy == args[0];
+        }
+        if ("hashCode".equals(name) && args == null) {
+            return System.identityHashCode(proxy);
+        }
+        if (("createStatement".equals(name) || "prepareStatement".equals(name) || "prepareCall".equals(name)) && cancelled) {
+            throw cancelledException();
+        }
+        Object result = invoke(target, method, args);
+        if (result instanceof Statement) {
+            Statement statement = (Statement) result;
+            synchronized (statements) {
+                if (cancelled) {
+                    statement.close();
+                    throw cancelledException();
+                }
+                statements.add(statement);
+            }
+            if (deadline != null) {
+                statement.setQueryTimeout(deadline.remainingSeconds());
+            }
+            return Proxy.newProxyInstance(DeadlineBoundConnection.class.getClassLoader(), new Class<?>[]{method.getReturnType()},
+                new StatementHandler(statement));
+        }
+        return result;
+    }
+
+    private SQLTimeoutException cancelledException() {
+        if (deadline == null) {
+            return new SQLTimeoutException("request is cancelled");
+        }
+        return new SQLTimeoutException("deadline of " + deadline.getTimeoutMillis() + " milliseconds passed");
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * keeps the query timeout within the deadline.
+     */
+    private class StatementHandler implements InvocationHandler {
+
+        private final Statement target;
+
+        StatementHandler(Statement target) {
+            this.target = target;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("equals".equals(name) && args != null && args.length == 1) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name) && args == null) {
+                return System.identityHashCode(proxy);
+            }
+            if ("setQueryTimeout".equals(name) && deadline != null) {
+                int seconds = (Integer) args[0];
+                int remaining = deadline.remainingSeconds();
+                target.setQueryTimeout(seconds <= 0 ? remaining : Math.min(seconds, remaining));
+                return null;
+            }
+            if ("close".equals(name)) {
+                synchronized (statements) {
+                    statements.remove(target);
+                }
+            }
+            return DeadlineBoundConnection.invoke(target, method, args);
+        }
+    }
+}
@@ -7,26 +7,49 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import javax.sql.DataSource;
 import org.apache.commons.lang.Validate;
-import org.apache.ibatis.jdbc.SQL;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.dao.TransientDataAccessResourceException;
 import org.springframework.jdbc.CannotGetJdbcConnectionException;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProcessor {
+public class DefaultConcurrentRequestProcessor implements IAsyncConcurrentRequestProcessor {
 
     private transient final Logger logger = LoggerFactory.getLogger(DefaultConcurrentRequestProcessor.class);
 
     private SqlSessionFactory sessionFactory;
+    /**
+     * read requests with a standby data source are hedged to it by the policy, null means no hedging.
+     */
+    private HedgingPolicy hedgingPolicy;
+    /**
+     * whether connections are acquired by the workers in their own tasks, instead of one by one in the caller thread before any request is
+     * dispatched, so that the checkout latency of the shards doesn't add up, and an exhausted pool doesn't hold the requests on the other
+     * shards back.<br>
+     * connections bound to the transaction of the caller are still resolved in the caller thread, since spring binds them to the thread.
+     */
+    private boolean deferredConnectionAcquisition = false;
+    private final RequestStatistics requestStatistics = new RequestStatistics();
 
     public DefaultConcurrentRequestProcessor() {
     }
@@ -35,6 +58,15 @@ public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProc
         this.sessionFactory = sessionFactory;
     }
 
+    /**
+     * the caller waits until all of the requests are done, or until their deadline passes if they have one, the statements of the stragglers are
+     * cancelled then, and a {@link QueryTimeoutException} is thrown.<br>
+     * if any request is rejected by its executor, the ones submitted already are cancelled the same way, and a
+     * {@link TransientDataAccessResourceException} is thrown.<br>
+     * a request that has started releases its connection in its worker once its statement returns, since a cancelled statement may still be
+     * running on the connection for a while, only the connections of the requests that never started are released by the caller, except that the
+     * connections bound to the transaction of the caller are always released by the caller.
+     */
     public List<Object> process(List<ConcurrentRequest> requests) {
         List<Object> resultList = new ArrayList<Object>();
 
@@ -47,45 +79,256 @@ public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProc
         List<Future<Object>> futures = new ArrayList<Future<Object>>();
         try {
 
-            for (RequestDepository rdepo : requestsDepo) {
-                ConcurrentRequest request = rdepo.getOriginalRequest();
-                final SqlSessionCallBack action = request.getAction();
-                final Connection connection = rdepo.getConnectionToUse();
-                futures.add(request.getExecutor().submit(new Callable<Object>() {
-                    public Object call() throws Exception {
-                        try {
-                            return executeWith(connection, action);
-                        } finally {
-                            latch.countDown();
-                        }
-                    }
-                }));
+            try {
+                submit(requestsDepo, latch, futures);
+            } catch (RejectedExecutionException e) {
+                // the requests submitted already are given up like stragglers
+                cancelStragglers(requestsDepo, futures);
+                throw shed(e);
             }
+            Deadline deadline = earliestDeadlineOf(requests);
             try {
-                latch.await();
+                if (deadline == null) {
+                    latch.await();
+                } else if (!latch.await(deadline.remainingNanos(), TimeUnit.NANOSECONDS)) {
+                    int cancelled = cancelStragglers(requestsDepo, futures);
+                    throw new QueryTimeoutException(timeoutMessageOf(deadline, cancelled, futures.size()));
+                }
             } catch (InterruptedException e) {
                 throw new ConcurrencyFailureException("interrupted when processing data access request in concurrency", e);
             }
 
         } finally {
             for (RequestDepository depo : requestsDepo) {
-                Connection springCon = depo.getConnectionToUse();
-                DataSource dataSource = depo.getOriginalRequest().getDataSource();
+                // requests that have started release their own connections once their statements return
+                if (depo.isBoundToTransaction() || depo.giveUp()) {
+                    releaseConnection(depo);
+                }
+            }
+        }
+        fillResultListWithFutureResults(futures, resultList);
+        return resultList;
+    }
+
+    private void submit(List<RequestDepository> requestsDepo, final CountDownLatch latch, List<Future<Object>> futures) {
+        for (RequestDepository rdepo : requestsDepo) {
+            if (rdepo.isHedgeable()) {
+                CompletableFuture<Object> future = new HedgedRequest(this, rdepo, getHedgingPolicy()).start();
+                future.whenComplete(new BiConsumer<Object, Throwable>() {
+                    public void accept(Object result, Throwable t) {
+                        latch.countDown();
+                    }
+                });
+                futures.add(future);
+                continue;
+            }
+            final RequestDepository depo = rdepo;
+            futures.add(rdepo.getOriginalRequest().getExecutor().submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    try {
+                        if (!depo.start()) {
+                            // given up before it started, the caller has released its connection
+                            return null;
+                        }
+                        try {
+                            return execute(depo);
+                        } finally {
+                            if (!depo.isBoundToTransaction()) {
+                                releaseConnection(depo);
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }));
+        }
+    }
+
+    /**
+     * cancels the statements of the requests not done yet, and keeps the ones not started yet from starting, without interrupting the workers,
+     * since interrupting doesn't stop a running JDBC call anyway.
+     *
+     * @return number of the requests cancelled.
+     */
+    private int cancelStragglers(List<RequestDepository> requestsDepo, List<Future<Object>> futures) {
+        int cancelled = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            if (!futures.get(i).isDone()) {
+                requestsDepo.get(i).cancel();
+                futures.get(i).cancel(false);
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * each connection is released as soon as its own request completes, and the results are collected in a completion stage of all of the
+     * requests.<br>
+     * if the requests have a deadline, the future completes exceptionally with a {@link QueryTimeoutException} once it passes, the statements of
+     * the stragglers are cancelled then.<br>
+     * requests bound to the transaction of the caller are processed by {@link #process(List)} in the caller thread, a worker releasing their
+     * connections would close them under the transaction, and their statements must not run while the caller goes on with the transaction.
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<List<Object>> processAsync(List<ConcurrentRequest> requests) {
+        if (CollectionUtils.isEmpty(requests)) {
+            return CompletableFuture.completedFuture((List<Object>) new ArrayList<Object>());
+        }
+        for (ConcurrentRequest request : requests) {
+            if (isBoundToTransaction(request.getDataSource())) {
                 try {
-                    if (springCon != null) {
-                        if (depo.isTransactionAware()) {
-                            springCon.close();
-                        } else {
-                            DataSourceUtils.doReleaseConnection(springCon, dataSource);
+                    return CompletableFuture.completedFuture(process(requests));
+                } catch (RuntimeException e) {
+                    return failedFuture(e);
+                }
+            }
+        }
+
+        final List<RequestDepository> requestsDepo;
+        try {
+            requestsDepo = fetchConnectionsAndDepositForLaterUse(requests);
+        } catch (RuntimeException e) {
+            return failedFuture(e);
+        }
+        final CompletableFuture<Object>[] futures = (CompletableFuture<Object>[]) new CompletableFuture<?>[requestsDepo.size()];
+        for (int i = 0; i < requestsDepo.size(); i++) {
+            final RequestDepository rdepo = requestsDepo.get(i);
+            try {
+                if (rdepo.isHedgeable()) {
+                    futures[i] = new HedgedRequest(this, rdepo, getHedgingPolicy()).start();
+                } else {
+                    final CompletableFuture<Object> future = new CompletableFuture<Object>();
+                    rdepo.getOriginalRequest().getExecutor().execute(new Runnable() {
+                        public void run() {
+                            try {
+                                // a request that has timed out before it starts only releases its connection
+                                if (!future.isDone()) {
+                                    future.complete(execute(rdepo));
+                                }
+                            } catch (Throwable t) {
+                                future.completeExceptionally(t);
+                            } finally {
+                                releaseConnection(rdepo);
+                            }
+                        }
+                    });
+                    futures[i] = future;
+                }
+            } catch (RuntimeException e) {
+                // the requests submitted already release their own connections
+                for (int j = i; j < requestsDepo.size(); j++) {
+                    releaseConnection(requestsDepo.get(j));
+                }
+                for (int j = 0; j < i; j++) {
+                    requestsDepo.get(j).cancel();
+                    futures[j].cancel(false);
+                }
+                return failedFuture(e);
+            }
+        }
+        final CompletableFuture<List<Object>> results = CompletableFuture.allOf(futures).thenApply(new Function<Void, List<Object>>() {
+            public List<Object> apply(Void done) {
+                List<Object> resultList = new ArrayList<Object>(futures.length);
+                for (CompletableFuture<Object> future : futures) {
+                    resultList.add(future.join());
+                }
+                return resultList;
+            }
+        });
+        final Deadline deadline = earliestDeadlineOf(requests);
+        if (deadline != null && !results.isDone()) {
+            final ScheduledFuture<?> timeout = RequestTimer.INSTANCE.schedule(new Runnable() {
+                public void run() {
+                    // stragglers release their connections as soon as their cancelled statements return
+                    int cancelled = 0;
+                    for (int i = 0; i < futures.length; i++) {
+                        if (!futures[i].isDone()) {
+                            requestsDepo.get(i).cancel();
+                            cancelled++;
                         }
                     }
-                } catch (Throwable ex) {
-                    logger.info("Could not close JDBC Connection", ex);
+                    QueryTimeoutException e = new QueryTimeoutException(timeoutMessageOf(deadline, cancelled, futures.length));
+                    for (CompletableFuture<Object> future : futures) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            }, deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+            results.whenComplete(new BiConsumer<List<Object>, Throwable>() {
+                public void accept(List<Object> resultList, Throwable t) {
+                    timeout.cancel(false);
                 }
+            });
+        }
+        return results;
+    }
+
+    /**
+     * requests of a sql action share the same deadline, but they are not required to.
+     */
+    private static Deadline earliestDeadlineOf(List<ConcurrentRequest> requests) {
+        Deadline earliest = null;
+        for (ConcurrentRequest request : requests) {
+            Deadline deadline = request.getDeadline();
+            if (deadline != null && (earliest == null || deadline.remainingNanos() < earliest.remainingNanos())) {
+                earliest = deadline;
             }
         }
-        fillResultListWithFutureResults(futures, resultList);
-        return resultList;
+        return earliest;
+    }
+
+    private static String timeoutMessageOf(Deadline deadline, int cancelled, int total) {
+        return "data access requests didn't complete within " + deadline.getTimeoutMillis() + " milliseconds, " + cancelled + " of " + total
+            + " requests are cancelled";
+    }
+
+    /**
+     * requests are rejected by executors that shed load, e.g. {@link ConcurrencyLimitedExecutorService}.
+     */
+    private static TransientDataAccessResourceException shed(RejectedExecutionException e) {
+        return new TransientDataAccessResourceException("data access request is rejected by the executor of its data source", e);
+    }
+
+    private static CompletableFuture<List<Object>> failedFuture(Throwable t) {
+        CompletableFuture<List<Object>> future = new CompletableFuture<List<Object>>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    void releaseConnection(RequestDepository depo) {
+        Connection springCon = depo.getConnectionToUse();
+        DataSource dataSource = depo.getOriginalRequest().getDataSource();
+        try {
+            if (springCon != null) {
+                if (depo.isTransactionAware()) {
+                    springCon.close();
+                } else {
+                    DataSourceUtils.doReleaseConnection(springCon, dataSource);
+                }
+            }
+        } catch (Throwable ex) {
+            logger.info("Could not close JDBC Connection", ex);
+        }
+    }
+
+    /**
+     * acquires the connection of the request first if it's deferred, the time spent on both is recorded in {@link #getRequestStatistics()}.
+     */
+    Object execute(RequestDepository depo) {
+        ConcurrentRequest request = depo.getOriginalRequest();
+        if (depo.isDeferred()) {
+            acquireConnection(depo);
+            if (request.getDeadline() != null && request.getDeadline().isExpired()) {
+                throw new QueryTimeoutException(timeoutMessageOf(request.getDeadline(), 1, 1));
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            return executeWith(depo.getConnectionToExecuteWith(), request.getAction());
+        } finally {
+            requestStatistics.recordExecution(request, System.nanoTime() - start);
+        }
     }
 
     protected Object executeWith(Connection connection, SqlSessionCallBack action) {
@@ -114,26 +357,69 @@ public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProc
     private List<RequestDepository> fetchConnectionsAndDepositForLaterUse(List<ConcurrentRequest> requests) {
         List<RequestDepository> depos = new ArrayList<RequestDepository>();
         for (ConcurrentRequest request : requests) {
-            DataSource dataSource = request.getDataSource();
-
-            Connection springCon = null;
-            boolean transactionAware = (dataSource instanceof TransactionAwareDataSourceProxy);
-            try {
-                springCon = (transactionAware ? dataSource.getConnection() : DataSourceUtils.doGetConnection(dataSource));
-            } catch (SQLException ex) {
-                throw new CannotGetJdbcConnectionException("Could not get JDBC Connection", ex);
-            }
-
             RequestDepository depo = new RequestDepository();
             depo.setOriginalRequest(request);
-            depo.setConnectionToUse(springCon);
-            depo.setTransactionAware(transactionAware);
+            depo.setBoundToTransaction(isBoundToTransaction(request.getDataSource()));
+            if (isDeferredConnectionAcquisition() && !depo.isBoundToTransaction()) {
+                depo.setDeferred(true);
+                depo.setHedgeable(getHedgingPolicy() != null && request.getStandbyDataSource() != null);
+            } else {
+                try {
+                    acquireConnection(depo);
+                } catch (CannotGetJdbcConnectionException ex) {
+                    // connections fetched so far would never be released otherwise
+                    for (RequestDepository fetched : depos) {
+                        releaseConnection(fetched);
+                    }
+                    throw ex;
+                }
+            }
             depos.add(depo);
         }
 
         return depos;
     }
 
+    private void acquireConnection(RequestDepository depo) {
+        ConcurrentRequest request = depo.getOriginalRequest();
+        DataSource dataSource = request.getDataSource();
+
+        Connection springCon = null;
+        boolean transactionAware = (dataSource instanceof TransactionAwareDataSourceProxy);
+        long start = System.nanoTime();
+        try {
+            springCon = (transactionAware ? dataSource.getConnection() : DataSourceUtils.doGetConnection(dataSource));
+        } catch (SQLException ex) {
+            throw new CannotGetJdbcConnectionException("Could not get JDBC Connection", ex);
+        } finally {
+            requestStatistics.recordAcquisition(request, System.nanoTime() - start);
+        }
+
+        depo.setConnectionToUse(springCon);
+        depo.setTransactionAware(transactionAware);
+        if (!depo.isDeferred()) {
+            // reads in transactions have to see the writes of them, they can't be hedged to standby databases
+            depo.setHedgeable(getHedgingPolicy() != null && request.getStandbyDataSource() != null && !transactionAware
+                && !DataSourceUtils.isConnectionTransactional(springCon, dataSource));
+        }
+        if (request.getDeadline() != null || depo.isHedgeable()) {
+            depo.setDeadlineBoundConnection(new DeadlineBoundConnection(springCon, request.getDeadline()));
+        }
+    }
+
+    /**
+     * @return whether a connection of the data source would be bound to the transaction of the caller thread, or is bound already.
+     */
+    private static boolean isBoundToTransaction(DataSource dataSource) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            return true;
+        }
+        if (dataSource instanceof TransactionAwareDataSourceProxy) {
+            dataSource = ((TransactionAwareDataSourceProxy) dataSource).getTargetDataSource();
+        }
+        return TransactionSynchronizationManager.getResource(dataSource) != null;
+    }
+
     public SqlSessionFactory getSessionFactory() {
         return sessionFactory;
     }
@@ -142,4 +428,48 @@ public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProc
         Validate.notNull(sessionFactory);
         this.sessionFactory = sessionFactory;
     }
+
+    public boolean isDeferredConnectionAcquisition() {
+        return deferredConnectionAcquisition;
+    }
+
+    public void setDeferredConnectionAcquisition(boolean deferredConnectionAcquisition) {
+        this.deferredConnectionAcquisition = deferredConnectionAcquisition;
+    }
+
+    /**
+     * @return time spent on connection acquisition and on execution by shards.
+     */
+    public RequestStatistics getRequestStatistics() {
+        return requestStatistics;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    /**
+     * fires the deadlines of asynchronous requests and the hedges of reads, one daemon thread shared by all of the processors, created on first
+     * use.
+     */
+    static class RequestTimer {
+
+        static final ScheduledExecutorService INSTANCE = createTimer();
+
+        private static ScheduledExecutorService createTimer() {
+            ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ConcurrentRequestTimer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            timer.setRemoveOnCancelPolicy(true);
+            return timer;
+        }
+    }
 }
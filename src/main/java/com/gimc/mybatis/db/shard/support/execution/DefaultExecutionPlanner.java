@@ -0,0 +1,268 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import com.gimc.mybatis.db.shard.SqlSessionCallBack;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang.Validate;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.SqlSession;
+
+/**
+ * plans the requests of a sql action by the number of shards, the type of the sql action and the latencies measured on each shard:<br>
+ * <ul>
+ * <li>a request on one shard runs inline in the caller thread, unless it's a read expected to take longer than {@link #inlineLimitMillis} and
+ * has a deadline, it runs on the executor of its shard then, so that the caller can give up on it right when the deadline passes. a write on one
+ * shard always runs inline, since giving up on it doesn't undo it, its statement is bounded by the query timeout of its deadline instead, see
+ * {@link DeadlineBoundConnection}.</li>
+ * <li>reads on more than one shard, whose latencies are all known and below {@link #handoffThresholdMicros}, are cheaper than the thread
+ * handoffs. they run inline if they take less than one handoff altogether, or else in as many sub-batches as it takes to keep each one above the
+ * threshold, up to {@link #parallelism}. a sub-batch only takes the requests on the same executor, so that each shard keeps its own permits and
+ * concurrency limits, they fan out if no two of them share an executor.</li>
+ * <li>everything else fans out on the executors of the shards. writes on more than one shard always do, since they may wait on row locks, and
+ * their latencies don't tell whether they are cheap.</li>
+ * </ul>
+ * requests running inline still take the permits and concurrency limits of their shards, see {@link InlineExecutorService#of(ExecutorService)}.
+ * latencies are kept for each sql action on each shard as moving averages of the execution of the requests. the decisions are counted by mode.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class DefaultExecutionPlanner implements IExecutionPlanner {
+
+    private long handoffThresholdMicros = 200;
+    private long inlineLimitMillis = 10;
+    /**
+     * latencies of a sql action on a shard are only trusted once it has been executed so many times.
+     */
+    private int minimumSamples = 5;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private final ConcurrentMap<String, LatencyEstimate> latencies = new ConcurrentHashMap<String, LatencyEstimate>();
+    private final Map<ExecutionMode, LongAdder> decisions = new EnumMap<ExecutionMode, LongAdder>(ExecutionMode.class);
+
+    public DefaultExecutionPlanner() {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            decisions.put(mode, new LongAdder());
+        }
+    }
+
+    public List<ConcurrentRequest> plan(String statementName, SqlCommandType commandType, List<ConcurrentRequest> requests) {
+        if (requests.isEmpty()) {
+            return requests;
+        }
+        ExecutionMode mode = decide(statementName, commandType, requests);
+        decisions.get(mode).increment();
+        for (ConcurrentRequest request : requests) {
+            request.setAction(timed(statementName, request.getIdentity(), request.getAction()));
+        }
+        if (mode == ExecutionMode.INLINE) {
+            for (ConcurrentRequest request : requests) {
+                // permits and concurrency limits of the shard still apply
+                request.setExecutor(InlineExecutorService.of(request.getExecutor()));
+            }
+        } else if (mode == ExecutionMode.BATCHED) {
+            int batchSize = batchSizeOf(statementName, requests);
+            for (List<ConcurrentRequest> group : groupByExecutor(requests).values()) {
+                SubBatchExecutorService executor = null;
+                for (int i = 0; i < group.size(); i++) {
+                    if (i % batchSize == 0) {
+                        executor = new SubBatchExecutorService(group.get(i).getExecutor());
+                    }
+                    group.get(i).setExecutor(executor);
+                }
+            }
+        }
+        return requests;
+    }
+
+    protected ExecutionMode decide(String statementName, SqlCommandType commandType, List<ConcurrentRequest> requests) {
+        if (requests.size() == 1) {
+            if (commandType != SqlCommandType.SELECT) {
+                return ExecutionMode.INLINE;
+            }
+            long expected = expectedLatencyNanos(statementName, requests.get(0).getIdentity());
+            if (requests.get(0).getDeadline() != null && expected > TimeUnit.MILLISECONDS.toNanos(inlineLimitMillis)) {
+                return ExecutionMode.CONCURRENT;
+            }
+            return ExecutionMode.INLINE;
+        }
+        if (commandType != SqlCommandType.SELECT) {
+            return ExecutionMode.CONCURRENT;
+        }
+        long threshold = TimeUnit.MICROSECONDS.toNanos(handoffThresholdMicros);
+        long total = 0;
+        for (ConcurrentRequest request : requests) {
+            long expected = expectedLatencyNanos(statementName, request.getIdentity());
+            if (expected < 0 || expected >= threshold) {
+                return ExecutionMode.CONCURRENT;
+            }
+            total += expected;
+        }
+        if (total < threshold) {
+            return ExecutionMode.INLINE;
+        }
+        if (batchSizeOf(statementName, requests) > 1) {
+            for (List<ConcurrentRequest> group : groupByExecutor(requests).values()) {
+                if (group.size() > 1) {
+                    return ExecutionMode.BATCHED;
+                }
+            }
+        }
+        return ExecutionMode.CONCURRENT;
+    }
+
+    private int batchSizeOf(String statementName, List<ConcurrentRequest> requests) {
+        int batches = subBatchesOf(statementName, requests);
+        return (requests.size() + batches - 1) / batches;
+    }
+
+    /**
+     * executors are told apart by identity, the requests keep their order in each group.
+     */
+    private static Map<ExecutorService, List<ConcurrentRequest>> groupByExecutor(List<ConcurrentRequest> requests) {
+        Map<ExecutorService, List<ConcurrentRequest>> groups = new IdentityHashMap<ExecutorService, List<ConcurrentRequest>>();
+        for (ConcurrentRequest request : requests) {
+            List<ConcurrentRequest> group = groups.get(request.getExecutor());
+            if (group == null) {
+                group = new ArrayList<ConcurrentRequest>();
+                groups.put(request.getExecutor(), group);
+            }
+            group.add(request);
+        }
+        return groups;
+    }
+
+    private int subBatchesOf(String statementName, List<ConcurrentRequest> requests) {
+        long total = 0;
+        for (ConcurrentRequest request : requests) {
+            total += Math.max(0, expectedLatencyNanos(statementName, request.getIdentity()));
+        }
+        long batches = total / TimeUnit.MICROSECONDS.toNanos(handoffThresholdMicros);
+        return (int) Math.max(1, Math.min(Math.min(batches, parallelism), requests.size()));
+    }
+
+    /**
+     * @return moving average of the latencies of the sql action on the shard, or -1 if it's not known yet.
+     */
+    public long expectedLatencyNanos(String statementName, String identity) {
+        LatencyEstimate estimate = latencies.get(keyOf(statementName, identity));
+        return estimate == null ? -1 : estimate.average(minimumSamples);
+    }
+
+    /**
+     * @return number of the decisions made so far by modes.
+     */
+    public Map<ExecutionMode, Long> getDecisions() {
+        Map<ExecutionMode, Long> counts = new EnumMap<ExecutionMode, Long>(ExecutionMode.class);
+        for (Map.Entry<ExecutionMode, LongAdder> entry : decisions.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    private SqlSessionCallBack timed(final String statementName, final String identity, final SqlSessionCallBack action) {
+        return new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                long start = System.nanoTime();
+                try {
+                    return action.execute(session);
+                } finally {
+                    recordLatency(statementName, identity, System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    public void recordLatency(String statementName, String identity, long nanos) {
+        String key = keyOf(statementName, identity);
+        LatencyEstimate estimate = latencies.get(key);
+        if (estimate == null) {
+            estimate = new LatencyEstimate();
+            LatencyEstimate existing = latencies.putIfAbsent(key, estimate);
+            if (existing != null) {
+                estimate = existing;
+            }
+        }
+        estimate.record(nanos);
+    }
+
+    private static String keyOf(String statementName, String identity) {
+        return statementName + "@" + identity;
+    }
+
+    public long getHandoffThresholdMicros() {
+        return handoffThresholdMicros;
+    }
+
+    public void setHandoffThresholdMicros(long handoffThresholdMicros) {
+        Validate.isTrue(handoffThresholdMicros > 0, "handoff threshold must be positive.");
+        this.handoffThresholdMicros = handoffThresholdMicros;
+    }
+
+    public long getInlineLimitMillis() {
+        return inlineLimitMillis;
+    }
+
+    public void setInlineLimitMillis(long inlineLimitMillis) {
+        this.inlineLimitMillis = inlineLimitMillis;
+    }
+
+    public int getMinimumSamples() {
+        return minimumSamples;
+    }
+
+    public void setMinimumSamples(int minimumSamples) {
+        Validate.isTrue(minimumSamples > 0, "minimum samples must be positive.");
+        this.minimumSamples = minimumSamples;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        Validate.isTrue(parallelism > 0, "parallelism must be positive.");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * exponentially weighted moving average, recent latencies weigh a fifth.
+     */
+    private static class LatencyEstimate {
+
+        private long samples;
+        private double average;
+
+        synchronized void record(long nanos) {
+            average = samples == 0 ? nanos : average * 0.8 + nanos * 0.2;
+            samples++;
+        }
+
+        synchronized long average(int minimumSamples) {
+            return samples < minimumSamples ? -1 : (long) average;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+/**
+ * how the requests of a sql action are executed, as decided by {@link IExecutionPlanner}.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public enum ExecutionMode {
+    /**
+     * one after another in the caller thread, without any thread handoff.
+     */
+    INLINE,
+    /**
+     * each on the executor of its data source.
+     */
+    CONCURRENT,
+    /**
+     * in a few sub-batches, the requests of each sub-batch one after another in one worker.
+     */
+    BATCHED
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * limit following the gradient of the round trip times of a data source.<br>
+ * a long-term average of the round trip times stands for the data source at its usual pace, when recent requests take longer than that(times
+ * {@link Factory#setTolerance(double)}), the limit shrinks in proportion, down to half of it for each sample at most. otherwise it grows by
+ * {@link Factory#setQueueSize(int)} requests, as long as at least half of the limit is in use. dropped requests halve the limit.<br>
+ * the long-term average is pulled down as well when the data source gets much faster, so that a slow spell doesn't become the new normal.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class GradientConcurrencyLimit implements IConcurrencyLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final int queueSize;
+    private final double smoothing;
+    private final double longWindowAlpha;
+    private double estimatedLimit;
+    private double longRtt = -1;
+    private volatile int limit;
+
+    public GradientConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance, int queueSize, double smoothing, int longWindow) {
+        Validate.isTrue(minLimit > 0 && minLimit <= maxLimit, "limits should be positive and min limit should not exceed max limit.");
+        Validate.isTrue(tolerance >= 1, "tolerance can't be less than 1.");
+        Validate.isTrue(queueSize >= 0, "queue size can't be negative.");
+        Validate.isTrue(smoothing > 0 && smoothing <= 1, "smoothing should be between 0 and 1.");
+        Validate.isTrue(longWindow > 0, "long window must be positive.");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.queueSize = queueSize;
+        this.smoothing = smoothing;
+        this.longWindowAlpha = 2.0 / (longWindow + 1);
+        this.estimatedLimit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+        this.limit = (int) estimatedLimit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        double gradient;
+        if (dropped) {
+            gradient = 0.5;
+        } else {
+            double rtt = Math.max(1, rttNanos);
+            longRtt = longRtt < 0 ? rtt : longRtt + (rtt - longRtt) * longWindowAlpha;
+            if (longRtt / rtt > 2) {
+                longRtt = longRtt * 0.95;
+            }
+            if (inFlight * 2 < estimatedLimit) {
+                // too few requests to tell anything about the limit
+                return;
+            }
+            gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / rtt));
+        }
+        double newLimit = estimatedLimit * gradient + (gradient < 1.0 ? 0 : queueSize);
+        newLimit = estimatedLimit * (1 - smoothing) + newLimit * smoothing;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+    @Override
+    public String toString() {
+        return "GradientConcurrencyLimit [limit=" + limit + ", longRttNanos=" + (long) longRtt + "]";
+    }
+
+    public static class Factory implements IConcurrencyLimitFactory {
+
+        private int initialLimit = 10;
+        private int minLimit = 1;
+        private double tolerance = 1.5;
+        private int queueSize = 4;
+        private double smoothing = 0.2;
+        private int longWindow = 600;
+
+        public IConcurrencyLimit create(int maxLimit) {
+            return new GradientConcurrencyLimit(initialLimit, Math.min(minLimit, maxLimit), maxLimit, tolerance, queueSize, smoothing, longWindow);
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public double getTolerance() {
+            return tolerance;
+        }
+
+        /**
+         * @param tolerance how many times of the long-term round trip time is still taken as the usual pace.
+         */
+        public void setTolerance(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        /**
+         * @param queueSize requests the limit grows by while the data source keeps its pace.
+         */
+        public void setQueueSize(int queueSize) {
+            this.queueSize = queueSize;
+        }
+
+        public double getSmoothing() {
+            return smoothing;
+        }
+
+        public void setSmoothing(double smoothing) {
+            this.smoothing = smoothing;
+        }
+
+        public int getLongWindow() {
+            return longWindow;
+        }
+
+        /**
+         * @param longWindow number of samples the long-term round trip time is averaged over.
+         */
+        public void setLongWindow(int longWindow) {
+            this.longWindow = longWindow;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.sql.Connection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * read request that is sent to the standby data source of its shard too if it hasn't answered within the threshold of {@link HedgingPolicy},
+ * whichever answers first wins, and the statements of the other one are cancelled.<br>
+ * a failure only fails the request once no other attempt is running, since hedging is for tail latency, not for failover.<br>
+ * the connection of the request is released by the worker of the primary attempt once its statement returns, or by whoever gives the primary
+ * attempt up before it starts, see {@link RequestDepository#giveUp()}.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+class HedgedRequest {
+
+    private transient final Logger logger = LoggerFactory.getLogger(HedgedRequest.class);
+
+    private final DefaultConcurrentRequestProcessor processor;
+    private final RequestDepository depo;
+    private final HedgingPolicy policy;
+    private final CompletableFuture<Object> result = new CompletableFuture<Object>();
+    /**
+     * attempts that have started but not failed yet, no attempt can start once it drops to 0.
+     */
+    private final AtomicInteger attempts = new AtomicInteger(1);
+    private volatile Future<?> primary;
+    private volatile Future<?> hedge;
+    private long startNanos;
+
+    HedgedRequest(DefaultConcurrentRequestProcessor processor, RequestDepository depo, HedgingPolicy policy) {
+        this.processor = processor;
+        this.depo = depo;
+        this.policy = policy;
+    }
+
+    /**
+     * submits the request to the executor of its data source, and schedules the hedge if the threshold of the data source is known.
+     */
+    CompletableFuture<Object> start() {
+        final DataSource dataSource = depo.getOriginalRequest().getDataSource();
+        startNanos = System.nanoTime();
+        primary = depo.getOriginalRequest().getExecutor().submit(new Runnable() {
+            public void run() {
+                if (!depo.start()) {
+                    // given up before it started, whoever gave it up has released its connection
+                    return;
+                }
+                try {
+                    if (!result.isDone()) {
+                        Object value = processor.execute(depo);
+                        if (result.complete(value)) {
+                            policy.recordLatency(dataSource, System.nanoTime() - startNanos);
+                            cancelHedge();
+                        }
+                    }
+                } catch (Throwable t) {
+                    fail(t);
+                } finally {
+                    // hedged requests are never bound to transactions
+                    processor.releaseConnection(depo);
+                }
+            }
+        });
+
+        long delay = policy.hedgeDelayNanos(dataSource);
+        if (delay >= 0 && !result.isDone()) {
+            final ScheduledFuture<?> timer = DefaultConcurrentRequestProcessor.RequestTimer.INSTANCE.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        hedge = policy.getExecutor().submit(new Runnable() {
+                            public void run() {
+                                runHedge();
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        logger.info("failed to hedge the request on standby data source", e);
+                    }
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+            result.whenComplete(new BiConsumer<Object, Throwable>() {
+                public void accept(Object value, Throwable t) {
+                    timer.cancel(false);
+                }
+            });
+        }
+        return result;
+    }
+
+    private void runHedge() {
+        if (result.isDone() || !startAttempt()) {
+            return;
+        }
+        ConcurrentRequest request = depo.getOriginalRequest();
+        Connection connection = null;
+        try {
+            // standby data sources take no part in transactions, the connection is simply closed once done
+            connection = request.getStandbyDataSource().getConnection();
+            DeadlineBoundConnection hedgeConnection = new DeadlineBoundConnection(connection, request.getDeadline());
+            depo.setHedgeConnection(hedgeConnection);
+            if (result.isDone()) {
+                return;
+            }
+            Object value = processor.executeWith(hedgeConnection.getConnection(), request.getAction());
+            if (result.complete(value)) {
+                // the latency of the primary is at least this long
+                policy.recordLatency(request.getDataSource(), System.nanoTime() - startNanos);
+                cancelPrimary();
+            }
+        } catch (Throwable t) {
+            fail(t);
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (Throwable ex) {
+                    logger.info("Could not close JDBC Connection", ex);
+                }
+            }
+        }
+    }
+
+    private boolean startAttempt() {
+        while (true) {
+            int current = attempts.get();
+            if (current == 0) {
+                return false;
+            }
+            if (attempts.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void fail(Throwable t) {
+        if (attempts.decrementAndGet() == 0) {
+            result.completeExceptionally(t);
+        }
+    }
+
+    private void cancelHedge() {
+        Future<?> hedgeToCancel = hedge;
+        if (hedgeToCancel != null) {
+            hedgeToCancel.cancel(false);
+        }
+        if (depo.getHedgeConnection() != null) {
+            depo.getHedgeConnection().cancel();
+        }
+    }
+
+    private void cancelPrimary() {
+        Future<?> primaryToCancel = primary;
+        if (primaryToCancel != null) {
+            primaryToCancel.cancel(false);
+        }
+        if (depo.giveUp()) {
+            // the primary attempt never runs now, nobody else releases its connection
+            processor.releaseConnection(depo);
+        } else if (depo.getDeadlineBoundConnection() != null) {
+            // the worker releases the connection once the cancelled statement returns
+            depo.getDeadlineBoundConnection().cancel();
+        }
+    }
+}
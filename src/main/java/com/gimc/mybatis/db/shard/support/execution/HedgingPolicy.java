@@ -0,0 +1,180 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * tells when a read request that hasn't answered yet should be hedged, that is, sent to the standby data source of its shard too.<br>
+ * the threshold of each data source is a percentile(95th by default) of its recent latencies, so that only the slowest requests are hedged and the
+ * standby databases take a few percent more of reads. no request is hedged until a data source has {@link #minimumSamples} latencies.<br>
+ * the threshold is worked out again only every {@link #recomputeInterval} latencies, routed requests just read the last one without any lock.<br>
+ * hedges run on an executor of their own, since the executors of data sources run tasks in the caller thread once they are saturated.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class HedgingPolicy {
+
+    private double percentile = 0.95;
+    /**
+     * number of recent latencies kept for each data source.
+     */
+    private int sampleSize = 256;
+    private int minimumSamples = 32;
+    /**
+     * number of latencies recorded between two computations of the threshold of a data source.
+     */
+    private int recomputeInterval = 16;
+    /**
+     * lower bound of the threshold, so that fast data sources are not hedged on jitter.
+     */
+    private long minimumDelayMillis = 5;
+    private ExecutorService executor;
+
+    private final ConcurrentMap<DataSource, LatencyWindow> windows = new ConcurrentHashMap<DataSource, LatencyWindow>();
+
+    /**
+     * @return nanoseconds to wait for the data source before a request on it is hedged, or -1 if it's not known yet.
+     */
+    public long hedgeDelayNanos(DataSource dataSource) {
+        LatencyWindow window = windows.get(dataSource);
+        if (window == null) {
+            return -1;
+        }
+        long latency = window.threshold();
+        if (latency < 0) {
+            return -1;
+        }
+        return Math.max(latency, TimeUnit.MILLISECONDS.toNanos(minimumDelayMillis));
+    }
+
+    public void recordLatency(DataSource dataSource, long latencyNanos) {
+        LatencyWindow window = windows.get(dataSource);
+        if (window == null) {
+            window = new LatencyWindow(sampleSize);
+            LatencyWindow existing = windows.putIfAbsent(dataSource, window);
+            if (existing != null) {
+                window = existing;
+            }
+        }
+        window.record(latencyNanos, percentile, minimumSamples, recomputeInterval);
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public void setPercentile(double percentile) {
+        Validate.isTrue(percentile > 0 && percentile < 1, "percentile should be between 0 and 1.");
+        this.percentile = percentile;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public void setSampleSize(int sampleSize) {
+        Validate.isTrue(sampleSize > 0, "sample size must be positive.");
+        this.sampleSize = sampleSize;
+    }
+
+    public int getMinimumSamples() {
+        return minimumSamples;
+    }
+
+    public void setMinimumSamples(int minimumSamples) {
+        Validate.isTrue(minimumSamples > 0, "minimum samples must be positive.");
+        this.minimumSamples = minimumSamples;
+    }
+
+    public int getRecomputeInterval() {
+        return recomputeInterval;
+    }
+
+    public void setRecomputeInterval(int recomputeInterval) {
+        Validate.isTrue(recomputeInterval > 0, "recompute interval must be positive.");
+        this.recomputeInterval = recomputeInterval;
+    }
+
+    public long getMinimumDelayMillis() {
+        return minimumDelayMillis;
+    }
+
+    public void setMinimumDelayMillis(long minimumDelayMillis) {
+        Validate.isTrue(minimumDelayMillis >= 0, "minimum delay can't be negative.");
+        this.minimumDelayMillis = minimumDelayMillis;
+    }
+
+    /**
+     * @return executor of hedges, one that runs each hedge on a thread of its own is created on first use if it's not given.
+     */
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = VirtualThreads.newThreadPerTaskExecutor("HedgedRead-");
+        }
+        return executor;
+    }
+
+    public synchronized void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * ring of the recent latencies of a data source, with the percentile of them worked out when they were last sorted.
+     */
+    private static class LatencyWindow {
+
+        private final long[] samples;
+        private final long[] sorted;
+        private int next;
+        private int count;
+        private int sinceComputed;
+        private volatile long threshold = -1;
+
+        LatencyWindow(int size) {
+            this.samples = new long[size];
+            this.sorted = new long[size];
+        }
+
+        synchronized void record(long latency, double percentile, int minimumSamples, int recomputeInterval) {
+            samples[next] = latency;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) {
+                count++;
+            }
+            sinceComputed++;
+            if (count >= Math.min(minimumSamples, samples.length) && (threshold < 0 || sinceComputed >= recomputeInterval)) {
+                System.arraycopy(samples, 0, sorted, 0, count);
+                Arrays.sort(sorted, 0, count);
+                threshold = sorted[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)];
+                sinceComputed = 0;
+            }
+        }
+
+        /**
+         * @return the percentile last worked out, or -1 if there are not enough latencies yet.
+         */
+        long threshold() {
+            return threshold;
+        }
+    }
+}
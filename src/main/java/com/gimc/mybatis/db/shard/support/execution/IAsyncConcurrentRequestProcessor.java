@@ -0,0 +1,33 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * request processor that doesn't block the caller until the requests are done.<br>
+ * connections are still fetched in the caller thread, but the results are collected once each request completes on its executor. requests that
+ * take part in the transaction of the caller are processed in the caller thread by {@link IConcurrentRequestProcessor#process(List)} instead,
+ * since the connections of the transaction can only be used and released by its thread, and a completed future is returned then.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public interface IAsyncConcurrentRequestProcessor extends IConcurrentRequestProcessor {
+
+    /**
+     * @return future of the results, in the order of the given requests, it completes exceptionally if any of the requests fails.
+     */
+    CompletableFuture<List<Object>> processAsync(List<ConcurrentRequest> requests);
+}
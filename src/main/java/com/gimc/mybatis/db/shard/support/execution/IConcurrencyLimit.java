@@ -0,0 +1,32 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+/**
+ * number of requests allowed to run on a data source at a time, which is learned from the round trip times of the requests completed on it.<br>
+ * implementations are called by {@link ConcurrencyLimitedExecutorService} from the threads completing the requests, and should be thread safe.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public interface IConcurrencyLimit {
+
+    int getLimit();
+
+    /**
+     * @param rttNanos time the request took, from the moment it was handed to the executor of the data source.
+     * @param inFlight number of requests running when it completed, itself included.
+     * @param dropped whether the request was cancelled instead of completing, e.g. its deadline passed.
+     */
+    void onSample(long rttNanos, int inFlight, boolean dropped);
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.util.List;
+
+import org.apache.ibatis.mapping.SqlCommandType;
+
+/**
+ * stage between routing and {@link IConcurrentRequestProcessor}, which decides how the requests of a sql action are executed.<br>
+ * the plan is carried out by the executors of the requests, so that any processor can execute it.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public interface IExecutionPlanner {
+
+    /**
+     * @param statementName the sql action
+     * @param commandType type of the sql action, {@link SqlCommandType#UNKNOWN} if it's not a mapped statement.
+     * @param requests requests of the sql action on the shards it's routed to.
+     * @return the requests to process, whose executors and actions may be replaced as per the plan.
+     */
+    List<ConcurrentRequest> plan(String statementName, SqlCommandType commandType, List<ConcurrentRequest> requests);
+}
@@ -0,0 +1,30 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+/**
+ * executor of a data source that bounds the requests running on it by permits, e.g. {@link ConcurrencyLimitedExecutorService}.<br>
+ * requests planned to run inline in the caller thread still take one of its permits, see {@link InlineExecutorService}.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public interface IPermitBoundExecutor {
+
+    /**
+     * runs the task in the caller thread under one of the permits, if one is free right away and no task is waiting for it.
+     *
+     * @return whether the task has run, false if it has to be executed by the executor instead, e.g. no permit is free or it's shut down.
+     */
+    boolean tryRunInline(Runnable task);
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * executor that runs each task in the thread that submits it, it owns no thread, so shutting it down does nothing.<br>
+ * the one of a data source whose executor bounds its requests by permits runs the tasks under its permits, so that they are limited and
+ * measured like the others on the data source, and hands them to it if no permit is free, see {@link #of(ExecutorService)}.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public final class InlineExecutorService extends AbstractExecutorService {
+
+    public static final InlineExecutorService INSTANCE = new InlineExecutorService(null);
+
+    private final ExecutorService executor;
+
+    private InlineExecutorService(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param executor the executor of the data source the tasks run on, or null.
+     * @return executor running the tasks in the caller thread under the permits of the executor if it's an {@link IPermitBoundExecutor}, or
+     *         {@link #INSTANCE} otherwise.
+     */
+    public static InlineExecutorService of(ExecutorService executor) {
+        return executor instanceof IPermitBoundExecutor ? new InlineExecutorService(executor) : INSTANCE;
+    }
+
+    public void execute(Runnable task) {
+        if (executor == null) {
+            task.run();
+        } else if (!runInline(executor, task)) {
+            // it waits for a permit like the other requests on the data source
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * @return whether the task has run in the caller thread, false if the executor bounds its tasks by permits and none is free.
+     */
+    static boolean runInline(Executor executor, Runnable task) {
+        if (executor instanceof IPermitBoundExecutor) {
+            return ((IPermitBoundExecutor) executor).tryRunInline(task);
+        }
+        task.run();
+        return true;
+    }
+
+    public void shutdown() {
+    }
+
+    public List<Runnable> shutdownNow() {
+        return Collections.emptyList();
+    }
+
+    public boolean isShutdown() {
+        return false;
+    }
+
+    public boolean isTerminated() {
+        return false;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return false;
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * executor of one data source on top of an executor shared by all of the data sources, at most "permits" tasks of the data source run at a
+ * time.<br>
+ * tasks beyond the permits wait in a queue without holding any thread, and are handed to the shared executor as running ones complete, so that
+ * neither the caller nor the shared threads are blocked. with a thread-per-task shared executor(see
+ * {@link VirtualThreads#newThreadPerTaskExecutor(String)}), concurrency on each data source is bounded by its permits instead of by threads
+ * created for it.<br>
+ * the shared executor is not shut down with this one, and running tasks are not interrupted by {@link #shutdownNow()}.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class PermitBoundedExecutorService extends AbstractExecutorService implements IPermitBoundExecutor {
+
+    private final Executor sharedExecutor;
+    private final int permits;
+    private final Semaphore semaphore;
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    public PermitBoundedExecutorService(Executor sharedExecutor, int permits) {
+        Validate.notNull(sharedExecutor);
+        Validate.isTrue(permits > 0, "permits must be positive.");
+        this.sharedExecutor = sharedExecutor;
+        this.permits = permits;
+        this.semaphore = new Semaphore(permits);
+    }
+
+    public void execute(Runnable task) {
+        Validate.notNull(task);
+        if (shutdown) {
+            throw new RejectedExecutionException("executor is shut down.");
+        }
+        pending.offer(task);
+        dispatchPending();
+    }
+
+    /**
+     * the task takes a permit like the others, but no thread of the shared executor.
+     */
+    public boolean tryRunInline(Runnable task) {
+        Validate.notNull(task);
+        if (shutdown || !pending.isEmpty() || !semaphore.tryAcquire()) {
+            return false;
+        }
+        running.incrementAndGet();
+        try {
+            task.run();
+        } finally {
+            complete();
+        }
+        return true;
+    }
+
+    /**
+     * called whenever a task is queued or a permit is released, so that no queued task is left behind with permits available.
+     */
+    private void dispatchPending() {
+        while (!pending.isEmpty() && semaphore.tryAcquire()) {
+            final Runnable task = pending.poll();
+            if (task == null) {
+                semaphore.release();
+                continue;
+            }
+            running.incrementAndGet();
+            try {
+                sharedExecutor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            complete();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                // the shared executor refuses tasks once it's shut down, the others are left in queue
+                running.decrementAndGet();
+                semaphore.release();
+                throw e;
+            }
+        }
+    }
+
+    private void complete() {
+        running.decrementAndGet();
+        semaphore.release();
+        dispatchPending();
+        if (isTerminated()) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        if (isTerminated()) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the tasks that have not been handed to the shared executor yet, the running ones go on.
+     */
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        Runnable task;
+        while ((task = pending.poll()) != null) {
+            tasks.add(task);
+        }
+        shutdown();
+        return tasks;
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public boolean isTerminated() {
+        return shutdown && pending.isEmpty() && running.get() == 0;
+    }
+
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    /**
+     * @return number of tasks running on the shared executor.
+     */
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    /**
+     * @return number of tasks waiting for permits.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+}
@@ -13,6 +13,7 @@
 package com.gimc.mybatis.db.shard.support.execution;
 
 import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * temporary status depository for request processing.<br>
@@ -23,8 +24,24 @@ import java.sql.Connection;
 public class RequestDepository {
 
     private ConcurrentRequest originalRequest;
-    private Connection connectionToUse;
+    private volatile Connection connectionToUse;
     private boolean transactionAware;
+    private volatile DeadlineBoundConnection deadlineBoundConnection;
+    private boolean hedgeable;
+    /**
+     * whether the connection is acquired and released by the worker instead of the caller.
+     */
+    private boolean deferred;
+    private volatile DeadlineBoundConnection hedgeConnection;
+    /**
+     * whether the connection is bound to the transaction of the caller, such a connection can only be released in the caller thread, and it
+     * doesn't go back to the pool until the transaction ends anyway.
+     */
+    private boolean boundToTransaction;
+    /**
+     * set once either the worker starts the request, or the caller gives it up before it starts, whichever comes first.
+     */
+    private final AtomicBoolean started = new AtomicBoolean();
 
     public ConcurrentRequest getOriginalRequest() {
         return originalRequest;
@@ -50,4 +67,85 @@ public class RequestDepository {
         this.transactionAware = transactionAware;
     }
 
+    public DeadlineBoundConnection getDeadlineBoundConnection() {
+        return deadlineBoundConnection;
+    }
+
+    public void setDeadlineBoundConnection(DeadlineBoundConnection deadlineBoundConnection) {
+        this.deadlineBoundConnection = deadlineBoundConnection;
+    }
+
+    public boolean isDeferred() {
+        return deferred;
+    }
+
+    public void setDeferred(boolean deferred) {
+        this.deferred = deferred;
+    }
+
+    public boolean isHedgeable() {
+        return hedgeable;
+    }
+
+    public void setHedgeable(boolean hedgeable) {
+        this.hedgeable = hedgeable;
+    }
+
+    /**
+     * @return connection to the standby data source if the request is hedged, see {@link HedgedRequest}.
+     */
+    public DeadlineBoundConnection getHedgeConnection() {
+        return hedgeConnection;
+    }
+
+    public void setHedgeConnection(DeadlineBoundConnection hedgeConnection) {
+        this.hedgeConnection = hedgeConnection;
+    }
+
+    public boolean isBoundToTransaction() {
+        return boundToTransaction;
+    }
+
+    public void setBoundToTransaction(boolean boundToTransaction) {
+        this.boundToTransaction = boundToTransaction;
+    }
+
+    /**
+     * called by the worker before it executes the request, the worker owns the connection from then on and releases it once done.
+     *
+     * @return false if the request has been given up by the caller, it must not be executed then.
+     */
+    public boolean start() {
+        return started.compareAndSet(false, true);
+    }
+
+    /**
+     * called by the caller that doesn't wait for the request any more.
+     *
+     * @return true if the request has not started, it will never start then, and the caller releases the connection.
+     */
+    public boolean giveUp() {
+        return started.compareAndSet(false, true);
+    }
+
+    /**
+     * @return the connection to execute the request with, which is bound to the deadline of the request if there's one.
+     */
+    public Connection getConnectionToExecuteWith() {
+        return deadlineBoundConnection == null ? connectionToUse : deadlineBoundConnection.getConnection();
+    }
+
+    /**
+     * cancels the statements of the request if it's bound to a deadline, and the ones of its hedge if it's hedged.
+     */
+    public void cancel() {
+        if (deadlineBoundConnection != null) {
+            deadlineBoundConnection.cancel();
+        }
+        DeadlineBoundConnection hedge = hedgeConnection;
+        if (hedge != null) {
+            hedge.cancel();
+        }
+    }
+
 }
@@ -0,0 +1,130 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * time spent on the requests of each shard, connection acquisition and execution apart, so that an exhausted connection pool can be told from a
+ * slow database.<br>
+ * shards are named by {@link ConcurrentRequest#getIdentity()}, or by their data sources if it's not given.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class RequestStatistics {
+
+    private final ConcurrentMap<String, ShardStatistics> shards = new ConcurrentHashMap<String, ShardStatistics>();
+
+    public void recordAcquisition(ConcurrentRequest request, long nanos) {
+        statisticsOf(request).acquisition.record(nanos);
+    }
+
+    public void recordExecution(ConcurrentRequest request, long nanos) {
+        statisticsOf(request).execution.record(nanos);
+    }
+
+    /**
+     * @return statistics by shards, sorted by their names.
+     */
+    public Map<String, ShardStatistics> getShardStatistics() {
+        return Collections.unmodifiableMap(new TreeMap<String, ShardStatistics>(shards));
+    }
+
+    public void clear() {
+        shards.clear();
+    }
+
+    private ShardStatistics statisticsOf(ConcurrentRequest request) {
+        String shard = request.getIdentity() != null ? request.getIdentity() : String.valueOf(request.getDataSource());
+        ShardStatistics statistics = shards.get(shard);
+        if (statistics == null) {
+            statistics = new ShardStatistics();
+            ShardStatistics existing = shards.putIfAbsent(shard, statistics);
+            if (existing != null) {
+                statistics = existing;
+            }
+        }
+        return statistics;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestStatistics " + getShardStatistics();
+    }
+
+    public static class ShardStatistics {
+
+        private final Timing acquisition = new Timing();
+        private final Timing execution = new Timing();
+
+        public Timing getAcquisition() {
+            return acquisition;
+        }
+
+        public Timing getExecution() {
+            return execution;
+        }
+
+        @Override
+        public String toString() {
+            return "[acquisition=" + acquisition + ", execution=" + execution + "]";
+        }
+    }
+
+    public static class Timing {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public double getAverageMillis() {
+            long n = getCount();
+            return n == 0 ? 0 : (double) getTotalNanos() / n / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return "[count=" + getCount() + ", averageMillis=" + String.format("%.3f", getAverageMillis()) + ", maxMillis=" + String.format("%.3f",
+                (double) getMaxNanos() / TimeUnit.MILLISECONDS.toNanos(1)) + "]";
+        }
+    }
+}
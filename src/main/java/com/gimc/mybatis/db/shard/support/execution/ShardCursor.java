@@ -0,0 +1,236 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.lang.Validate;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.springframework.dao.ConcurrencyFailureException;
+
+/**
+ * forward-only cursor over the rows of a sql action on several shards, which are read as the cursor moves instead of being loaded into lists
+ * first.<br>
+ * rows of the shards are merged by the comparator as they come if it's given, the rows of each shard should be sorted by it then. otherwise
+ * the rows of one shard follow those of the previous one. only one row of each shard is kept in memory at a time besides the current one, the
+ * jdbc driver may still fetch rows ahead, e.g. MySQL reads whole result sets unless the fetch size of the mapped statement is
+ * Integer.MIN_VALUE.<br>
+ * the connection of each shard is released once its rows run out, close the cursor to release the rest if it's not read through.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ * @param <E>
+ */
+public class ShardCursor<E> implements Iterator<E>, Closeable {
+
+    private final SqlSessionFactory sessionFactory;
+    private final Executor executor;
+    private final Comparator<? super E> comparator;
+    private final List<ShardRowStream> streams = new ArrayList<ShardRowStream>();
+    private PriorityQueue<Head> heads;
+    private int current;
+    private Object lookahead;
+    private volatile boolean closed;
+
+    /**
+     * @param executor runs the worker of each shard, which waits for the cursor while it's read. executors that run tasks in the caller thread
+     *        can't be used.
+     * @param comparator null if the rows are not to be merged.
+     */
+    public ShardCursor(SqlSessionFactory sessionFactory, Executor executor, Comparator<? super E> comparator) {
+        Validate.notNull(sessionFactory);
+        Validate.notNull(executor);
+        this.sessionFactory = sessionFactory;
+        this.executor = executor;
+        this.comparator = comparator;
+    }
+
+    /**
+     * starts reading the rows of a shard, shards are read in the order they are opened.
+     */
+    public ShardCursor<E> open(String identity, DataSource dataSource, String statementName, Object parameter) {
+        return open(identity, dataSource, statementName, parameter, RowBounds.DEFAULT);
+    }
+
+    /**
+     * @param rowBounds rows of the shard to read.
+     */
+    public ShardCursor<E> open(String identity, DataSource dataSource, String statementName, Object parameter, RowBounds rowBounds) {
+        Validate.isTrue(heads == null && lookahead == null, "can't open shards once the cursor is read.");
+        ShardRowStream stream = new ShardRowStream(sessionFactory, identity, dataSource, statementName, parameter, rowBounds);
+        try {
+            executor.execute(stream);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        streams.add(stream);
+        return this;
+    }
+
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (comparator != null) {
+            return !headsOfShards().isEmpty();
+        }
+        while (lookahead == null && current < streams.size()) {
+            Object row = take(streams.get(current));
+            if (row == ShardRowStream.END) {
+                current++;
+            } else {
+                lookahead = row;
+            }
+        }
+        return lookahead != null;
+    }
+
+    public E next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (comparator == null) {
+            Object row = lookahead;
+            lookahead = null;
+            return valueOf(row);
+        }
+        Head head = heads.poll();
+        Object row = head.row;
+        Object nextRow = take(head.stream);
+        if (nextRow != ShardRowStream.END) {
+            head.row = nextRow;
+            heads.offer(head);
+        }
+        return valueOf(row);
+    }
+
+    /**
+     * reads a page of the rows, and closes the cursor, so that the rows after the page are not read from the shards.
+     *
+     * @param offset rows to skip.
+     * @param limit most rows to read after the skipped ones.
+     */
+    public List<E> page(int offset, int limit) {
+        Validate.isTrue(offset >= 0 && limit >= 0, "offset and limit can't be negative.");
+        List<E> rows = new ArrayList<E>(Math.min(limit, 1024));
+        try {
+            for (int i = 0; i < offset && hasNext(); i++) {
+                next();
+            }
+            while (rows.size() < limit && hasNext()) {
+                rows.add(next());
+            }
+        } finally {
+            close();
+        }
+        return rows;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("rows of a cursor can't be removed.");
+    }
+
+    /**
+     * @return a sequential stream of the rows, which closes the cursor once it's closed.
+     */
+    public Stream<E> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false).onClose(new Runnable() {
+            public void run() {
+                close();
+            }
+        });
+    }
+
+    /**
+     * releases the connections of the shards whose rows have not run out, it can be called more than once.<br>
+     * the statements still running on the shards are cancelled, and the workers waiting for the cursor are woken up, so the connections are
+     * released right away instead of once the shards answer.
+     */
+    public void close() {
+        closed = true;
+        for (ShardRowStream stream : streams) {
+            stream.close();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private PriorityQueue<Head> headsOfShards() {
+        if (heads == null) {
+            heads = new PriorityQueue<Head>(Math.max(1, streams.size()), new Comparator<Head>() {
+                public int compare(Head h1, Head h2) {
+                    int result = comparator.compare(valueOf(h1.row), valueOf(h2.row));
+                    return result != 0 ? result : h1.index - h2.index;
+                }
+            });
+            for (int i = 0; i < streams.size(); i++) {
+                Object row = take(streams.get(i));
+                if (row != ShardRowStream.END) {
+                    heads.offer(new Head(i, streams.get(i), row));
+                }
+            }
+        }
+        return heads;
+    }
+
+    private Object take(ShardRowStream stream) {
+        Object row;
+        try {
+            row = stream.take();
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new ConcurrencyFailureException("interrupted when reading rows of shard " + stream.getIdentity(), e);
+        }
+        if (row instanceof ShardRowStream.Failure) {
+            close();
+            throw new ConcurrencyFailureException("failed to read rows of shard " + stream.getIdentity(), ((ShardRowStream.Failure) row).getCause());
+        }
+        return row;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E valueOf(Object row) {
+        return row == ShardRowStream.NULL ? null : (E) row;
+    }
+
+    private class Head {
+
+        private final int index;
+        private final ShardRowStream stream;
+        private Object row;
+
+        Head(int index, ShardRowStream stream, Object row) {
+            this.index = index;
+            this.stream = stream;
+            this.row = row;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.sql.Connection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * rows of a sql action on one shard, read by a worker of its own and handed to {@link ShardCursor} one at a time.<br>
+ * the worker waits until the cursor takes the row it holds before it reads the next one, so that at most one row of the shard is kept in
+ * memory besides the one in the cursor. the connection is closed as soon as the rows run out, or once the cursor is closed.<br>
+ * closing the stream cancels the statement of the shard if it's still running, and wakes up the worker if it's waiting for the cursor.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+class ShardRowStream implements Runnable {
+
+    static final Object END = new Object();
+    static final Object NULL = new Object();
+
+    private transient final Logger logger = LoggerFactory.getLogger(ShardRowStream.class);
+
+    private final SqlSessionFactory sessionFactory;
+    private final String identity;
+    private final DataSource dataSource;
+    private final String statementName;
+    private final Object parameter;
+    private final RowBounds rowBounds;
+    private final BlockingQueue<Object> rows = new ArrayBlockingQueue<Object>(1);
+    private volatile DeadlineBoundConnection cancellableConnection;
+    /**
+     * the worker while it waits for the cursor to take a row, it's only interrupted then. guarded by this, as is closed when it's set.
+     */
+    private Thread waiting;
+    private volatile boolean closed;
+
+    ShardRowStream(SqlSessionFactory sessionFactory, String identity, DataSource dataSource, String statementName, Object parameter,
+                   RowBounds rowBounds) {
+        this.sessionFactory = sessionFactory;
+        this.identity = identity;
+        this.dataSource = dataSource;
+        this.statementName = statementName;
+        this.parameter = parameter;
+        this.rowBounds = rowBounds;
+    }
+
+    public void run() {
+        Object last = END;
+        Connection connection = null;
+        try {
+            // the rows are read out of the transaction of the caller, since its connection is bound to the caller thread
+            connection = dataSource.getConnection();
+            // no deadline, the statements are only tracked to be cancelled once the stream is closed
+            DeadlineBoundConnection cancellable = new DeadlineBoundConnection(connection, null);
+            this.cancellableConnection = cancellable;
+            if (closed) {
+                cancellable.cancel();
+            }
+            SqlSession session = sessionFactory.openSession(cancellable.getConnection());
+            try {
+                session.select(statementName, parameter, rowBounds, new ResultHandler() {
+                    public void handleResult(ResultContext context) {
+                        Object row = context.getResultObject();
+                        if (!hand(row == null ? NULL : row)) {
+                            context.stop();
+                        }
+                    }
+                });
+            } finally {
+                session.close();
+            }
+        } catch (Throwable t) {
+            last = new Failure(t);
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (Throwable ex) {
+                    logger.info("Could not close JDBC Connection", ex);
+                }
+            }
+        }
+        hand(last);
+    }
+
+    /**
+     * waits until the cursor takes the row.
+     *
+     * @return false if the cursor is closed or the worker is interrupted before the row is taken.
+     */
+    private boolean hand(Object row) {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            waiting = Thread.currentThread();
+        }
+        try {
+            rows.put(row);
+            return true;
+        } catch (InterruptedException e) {
+            if (!closed) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        } finally {
+            synchronized (this) {
+                waiting = null;
+                if (closed) {
+                    // the interrupt of close() may come right after the row is taken
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the next row, {@link #NULL} for a null row, {@link #END} once the rows run out, or a {@link Failure}.
+     */
+    Object take() throws InterruptedException {
+        return rows.take();
+    }
+
+    void close() {
+        synchronized (this) {
+            closed = true;
+            if (waiting != null) {
+                waiting.interrupt();
+            }
+        }
+        DeadlineBoundConnection cancellable = cancellableConnection;
+        if (cancellable != null) {
+            cancellable.cancel();
+        }
+        rows.clear();
+    }
+
+    String getIdentity() {
+        return identity;
+    }
+
+    static class Failure {
+
+        private final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+
+        Throwable getCause() {
+            return cause;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * executor of one sub-batch of requests, the tasks are queued and run one after another by a single task on the underlying executor, so that the
+ * whole sub-batch costs one thread handoff instead of one for each task.<br>
+ * it's created for the requests of one sql action and owns no thread, so shutting it down does nothing.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class SubBatchExecutorService extends AbstractExecutorService {
+
+    private transient final Logger logger = LoggerFactory.getLogger(SubBatchExecutorService.class);
+
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    public SubBatchExecutorService(Executor executor) {
+        Validate.notNull(executor);
+        this.executor = executor;
+    }
+
+    public void execute(Runnable task) {
+        Validate.notNull(task);
+        tasks.offer(task);
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        drain();
+                    }
+                });
+            } catch (RuntimeException e) {
+                draining.set(false);
+                tasks.remove(task);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        do {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // the rest of the sub-batch still has to run
+                    logger.warn("task of sub-batch failed", e);
+                }
+            }
+            draining.set(false);
+            // a task queued after the last poll but before the flag is cleared would be left behind otherwise
+        } while (!tasks.isEmpty() && draining.compareAndSet(false, true));
+    }
+
+    public void shutdown() {
+    }
+
+    public List<Runnable> shutdownNow() {
+        return Collections.emptyList();
+    }
+
+    public boolean isShutdown() {
+        return false;
+    }
+
+    public boolean isTerminated() {
+        return false;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return false;
+    }
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.execution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * one work-stealing pool shared by all of the data sources, instead of a thread pool for each of them, so that the number of threads follows
+ * the number of processors rather than the number of shards, and idle shards hold no threads while busy ones can use them.<br>
+ * requests of each data source are bounded by the permits of its executor, see {@link #executorFor(int)}. requests wait in the queue of their
+ * data source until a worker is free, and the data sources with waiting requests take turns to hand one to the pool, so that a busy shard gets
+ * all of the free workers when the others are idle, but can't starve them once they have requests too.<br>
+ * no lock is taken on the way, a request is only handed to the pool once both a worker and a permit of its data source are claimed by CAS, and
+ * whoever frees either of them, or queues a request, hands over the next one. a request run inline in the caller thread takes a permit of its data
+ * source but no worker, see {@link DataSourceExecutorService#tryRunInline(Runnable)}.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class WorkStealingScheduler {
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    /**
+     * data sources with waiting requests and permits left, in turns. a data source is in it at most once, see
+     * {@link DataSourceExecutorService#ready}.
+     */
+    private final Queue<DataSourceExecutorService> ready = new ConcurrentLinkedQueue<DataSourceExecutorService>();
+    /**
+     * workers claimed, it never goes beyond the parallelism.
+     */
+    private final AtomicInteger running = new AtomicInteger();
+
+    /**
+     * @param parallelism number of workers, which is the number of requests running at a time as well.
+     * @param namePrefix prefix of the names of workers, followed by their indexes.
+     */
+    public WorkStealingScheduler(int parallelism, final String namePrefix) {
+        Validate.isTrue(parallelism > 0, "parallelism must be positive.");
+        this.parallelism = parallelism;
+        this.pool = new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName(namePrefix + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, null, true);
+    }
+
+    /**
+     * @param permits requests of the data source allowed to run at a time, e.g. its pool size.
+     * @return executor of the data source, which is not shut down with the pool, and whose running tasks are not interrupted by
+     *         {@link ExecutorService#shutdownNow()}.
+     */
+    public DataSourceExecutorService executorFor(int permits) {
+        return new DataSourceExecutorService(permits);
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return number of requests running on the pool.
+     */
+    public int getRunningCount() {
+        return running.get();
+    }
+
+    private void enqueue(DataSourceExecutorService executor, Runnable task) {
+        executor.pending.offer(task);
+        markReadyIfNecessary(executor);
+        dispatch();
+    }
+
+    /**
+     * the queue is checked after the permits are, and the other way around by the ones that free permits, so that either of them sees the other's
+     * change, no request is left behind.
+     */
+    private void markReadyIfNecessary(DataSourceExecutorService executor) {
+        if (executor.running.get() < executor.permits && !executor.pending.isEmpty() && executor.ready.compareAndSet(false, true)) {
+            ready.offer(executor);
+        }
+    }
+
+    /**
+     * hands waiting requests to the pool while there are free workers, one data source after another.
+     */
+    private void dispatch() {
+        while (tryAcquire(running, parallelism)) {
+            final DataSourceExecutorService executor = ready.poll();
+            if (executor == null) {
+                running.decrementAndGet();
+                // a data source that turned ready while the worker was claimed may have given up on it
+                if (ready.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            executor.ready.set(false);
+            if (!tryAcquire(executor.running, executor.permits)) {
+                // it's ready again once one of its requests completes
+                running.decrementAndGet();
+                continue;
+            }
+            final Runnable task = executor.pending.poll();
+            if (task == null) {
+                release(executor);
+                continue;
+            }
+            // to the end of the line, if it has more to run
+            markReadyIfNecessary(executor);
+            try {
+                pool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            task.run();
+                        } finally {
+                            complete(executor);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                // the pool refuses tasks once it's shut down, the others are left in queue
+                executor.running.decrementAndGet();
+                running.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    private static boolean tryAcquire(AtomicInteger counter, int limit) {
+        while (true) {
+            int current = counter.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void release(DataSourceExecutorService executor) {
+        running.decrementAndGet();
+        executor.running.decrementAndGet();
+        markReadyIfNecessary(executor);
+    }
+
+    private void complete(DataSourceExecutorService executor) {
+        release(executor);
+        dispatch();
+        if (executor.isTerminated()) {
+            synchronized (executor) {
+                executor.notifyAll();
+            }
+        }
+    }
+
+    private void completeInline(DataSourceExecutorService executor) {
+        executor.running.decrementAndGet();
+        markReadyIfNecessary(executor);
+        dispatch();
+        if (executor.isTerminated()) {
+            synchronized (executor) {
+                executor.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WorkStealingScheduler [parallelism=" + parallelism + ", running=" + getRunningCount() + ", steals=" + pool.getStealCount() + "]";
+    }
+
+    /**
+     * executor of one data source on the shared pool.
+     */
+    public class DataSourceExecutorService extends AbstractExecutorService implements IPermitBoundExecutor {
+
+        private final int permits;
+        private final Queue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicInteger running = new AtomicInteger();
+        /**
+         * whether it's in the ready queue of the scheduler.
+         */
+        private final AtomicBoolean ready = new AtomicBoolean();
+        private volatile boolean shutdown;
+
+        DataSourceExecutorService(int permits) {
+            Validate.isTrue(permits > 0, "permits must be positive.");
+            this.permits = permits;
+        }
+
+        public void execute(Runnable task) {
+            Validate.notNull(task);
+            if (shutdown) {
+                throw new RejectedExecutionException("executor is shut down.");
+            }
+            enqueue(this, task);
+        }
+
+        /**
+         * the task takes a permit of the data source, but no worker of the pool.
+         */
+        public boolean tryRunInline(Runnable task) {
+            Validate.notNull(task);
+            if (shutdown || !pending.isEmpty() || !tryAcquire(running, permits)) {
+                return false;
+            }
+            try {
+                task.run();
+            } finally {
+                completeInline(this);
+            }
+            return true;
+        }
+
+        public void shutdown() {
+            shutdown = true;
+            if (isTerminated()) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * @return the tasks that have not been handed to the pool yet, the running ones go on.
+         */
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            List<Runnable> tasks = new ArrayList<Runnable>();
+            Runnable task;
+            while ((task = pending.poll()) != null) {
+                tasks.add(task);
+            }
+            shutdown();
+            return tasks;
+        }
+
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        /**
+         * permits are claimed before tasks are taken from the queue, so a task being handed over is counted by the permits once it's gone from the
+         * queue, the queue is checked first then.
+         */
+        public boolean isTerminated() {
+            return shutdown && pending.isEmpty() && running.get() == 0;
+        }
+
+        public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!isTerminated()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        }
+
+        public int getPermits() {
+            return permits;
+        }
+
+        /**
+         * @return number of tasks of the data source running on the pool.
+         */
+        public int getRunningCount() {
+            return running.get();
+        }
+
+        /**
+         * @return number of tasks of the data source waiting for a worker or for permits.
+         */
+        public int getPendingCount() {
+            return pending.size();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.utils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * comparison of values of mixed types, e.g. shard keys, seek keys and the partial results of MIN and MAX of shards.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public abstract class ValueUtils {
+
+    /**
+     * numbers are compared by their values no matter what types they are of, dates can be compared with numbers as epoch milliseconds, other
+     * values must be {@link Comparable} to each other.
+     *
+     * @throws ClassCastException if the two values are not comparable.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static int compare(Object v1, Object v2) {
+        Validate.isTrue(v1 != null && v2 != null, "values to compare can't be null.");
+        if (v1 instanceof Date && !(v2 instanceof Date)) {
+            v1 = Long.valueOf(((Date) v1).getTime());
+        }
+        if (v2 instanceof Date && !(v1 instanceof Date)) {
+            v2 = Long.valueOf(((Date) v2).getTime());
+        }
+        if (v1 instanceof Number && v2 instanceof Number) {
+            if (isIntegral(v1) && isIntegral(v2)) {
+                long l1 = ((Number) v1).longValue();
+                long l2 = ((Number) v2).longValue();
+                return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+            return toBigDecimal((Number) v1).compareTo(toBigDecimal((Number) v2));
+        }
+        return ((Comparable) v1).compareTo(v2);
+    }
+
+    private static boolean isIntegral(Object number) {
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte
+            || (number instanceof BigInteger && ((BigInteger) number).bitLength() < 64);
+    }
+
+    /**
+     * the exact value of the number as a BigDecimal, floating numbers are taken by their decimal strings, so a Float of 0.1 is 0.1 rather than
+     * the binary fraction of it, numbers of other types are taken by their decimal strings too.
+     *
+     * @throws NumberFormatException if the number is NaN or infinite.
+     */
+    public static BigDecimal toBigDecimal(Number number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        }
+        if (number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        }
+        if (isIntegral(number)) {
+            return BigDecimal.valueOf(number.longValue());
+        }
+        if (number instanceof Double) {
+            return BigDecimal.valueOf(number.doubleValue());
+        }
+        return new BigDecimal(number.toString());
+    }
+}
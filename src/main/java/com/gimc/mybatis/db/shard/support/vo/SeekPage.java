@@ -0,0 +1,47 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.gimc.mybatis.db.shard.support.vo;
+
+import java.util.List;
+
+/**
+ * page of a keyset(seek) pagination, the rows of the page, and the continuation token the next page starts from.
+ *
+ * @author fujohnwang
+ * @since 1.0
+ */
+public class SeekPage<E> {
+
+    private final List<E> rows;
+    private final String continuationToken;
+
+    public SeekPage(List<E> rows, String continuationToken) {
+        this.rows = rows;
+        this.continuationToken = continuationToken;
+    }
+
+    public List<E> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return token of the key of the last row, or null if it's the last page.
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public boolean hasNext() {
+        return continuationToken != null;
+    }
+}
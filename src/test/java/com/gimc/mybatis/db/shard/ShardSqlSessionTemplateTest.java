@@ -0,0 +1,364 @@
+package com.gimc.mybatis.db.shard;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.scripting.xmltags.XMLLanguageDriver;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.gimc.mybatis.db.shard.datasources.IShardDataSourceService;
+import com.gimc.mybatis.db.shard.datasources.ShardDataSourceDescriptor;
+import com.gimc.mybatis.db.shard.merger.IMerger;
+import com.gimc.mybatis.db.shard.merger.KWaySortMerger;
+import com.gimc.mybatis.db.shard.router.IShardRouter;
+import com.gimc.mybatis.db.shard.router.RoutingException;
+import com.gimc.mybatis.db.shard.router.support.BatchRoutingResult;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.router.support.RoutingResult;
+import com.gimc.mybatis.db.shard.support.vo.SeekPage;
+import com.gimc.mybatis.db.shard.support.execution.DefaultExecutionPlanner;
+import com.gimc.mybatis.db.shard.support.execution.ExecutionMode;
+import com.gimc.mybatis.db.shard.support.execution.IConcurrencyLimit;
+import com.gimc.mybatis.db.shard.support.execution.IConcurrencyLimitFactory;
+import com.gimc.mybatis.db.shard.support.execution.ShardCursor;
+
+/**
+ * the template on two in-memory shards, sql actions are routed to the shard given by the "shard" entry of their parameters, or else to both.
+ */
+@Test
+public class ShardSqlSessionTemplateTest {
+
+    private static final Comparator<Object> ASCENDING = new Comparator<Object>() {
+        public int compare(Object o1, Object o2) {
+            return ((Integer) o1).intValue() - ((Integer) o2).intValue();
+        }
+    };
+
+    private Map<String, DataSource> dataSources;
+    private ShardSqlSessionTemplate template;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        dataSources = new LinkedHashMap<String, DataSource>();
+        dataSources.put("shard1", shardOf("jdbc:h2:mem:template1;DB_CLOSE_DELAY=-1", 1, 4, 7, 10));
+        dataSources.put("shard2", shardOf("jdbc:h2:mem:template2;DB_CLOSE_DELAY=-1", 2, 3, 8));
+        template = new ShardSqlSessionTemplate(sessionFactoryOf(shardOf("jdbc:h2:mem:template0;DB_CLOSE_DELAY=-1", 0)));
+        template.setRouter(new IShardRouter<MyBatisRoutingFact>() {
+            public RoutingResult doRoute(MyBatisRoutingFact routingFact) throws RoutingException {
+                RoutingResult result = new RoutingResult();
+                result.setResourceIdentities(shardsOf(routingFact.getArgument()));
+                return result;
+            }
+
+            public BatchRoutingResult<MyBatisRoutingFact> doRouteAll(List<MyBatisRoutingFact> routingFacts) throws RoutingException {
+                BatchRoutingResult<MyBatisRoutingFact> result = new BatchRoutingResult<MyBatisRoutingFact>();
+                for (MyBatisRoutingFact fact : routingFacts) {
+                    result.add(shardsOf(fact.getArgument()), fact);
+                }
+                return result;
+            }
+        });
+        template.setShardDataSourceService(new IShardDataSourceService() {
+            public Map<String, DataSource> getDataSources() {
+                return dataSources;
+            }
+
+            public Set<ShardDataSourceDescriptor> getDataSourceDescriptors() {
+                Set<ShardDataSourceDescriptor> descriptors = new HashSet<ShardDataSourceDescriptor>();
+                for (Map.Entry<String, DataSource> entry : dataSources.entrySet()) {
+                    ShardDataSourceDescriptor descriptor = new ShardDataSourceDescriptor();
+                    descriptor.setIdentity(entry.getKey());
+                    descriptor.setTargetDataSource(entry.getValue());
+                    descriptor.setPoolSize(2);
+                    descriptors.add(descriptor);
+                }
+                return descriptors;
+            }
+        });
+    }
+
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        template.destroy();
+    }
+
+    public void testReadsMergedAcrossShards() throws Exception {
+        KWaySortMerger<Object> merger = new KWaySortMerger<Object>();
+        merger.setComparator(ASCENDING);
+        template.setMergers(Collections.<String, IMerger<Object, Object>> singletonMap("ids", (IMerger) merger));
+        template.afterPropertiesSet();
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 7, 8, 10), template.selectList("ids"));
+        assertEquals(Arrays.asList(1, 4, 7, 10), template.selectList("ids", shard("shard1")));
+
+        Map<ExecutionMode, Long> decisions = ((DefaultExecutionPlanner) template.getExecutionPlanner()).getDecisions();
+        assertEquals(Long.valueOf(1), decisions.get(ExecutionMode.CONCURRENT));
+        assertEquals(Long.valueOf(1), decisions.get(ExecutionMode.INLINE));
+    }
+
+    public void testReadsPagedAcrossShards() throws Exception {
+        KWaySortMerger<Object> merger = new KWaySortMerger<Object>();
+        merger.setComparator(ASCENDING);
+        template.setMergers(Collections.<String, IMerger<Object, Object>> singletonMap("ids", (IMerger) merger));
+        template.setShardedPagination(true);
+        template.afterPropertiesSet();
+
+        assertEquals(Arrays.asList(3, 4, 7), template.selectList("ids", null, new RowBounds(2, 3)));
+    }
+
+    public void testOneRowQueriedOnShards() throws Exception {
+        template.afterPropertiesSet();
+
+        assertEquals(7, template.queryForObject("idOf", shard(null, 7)));
+        assertNull(template.queryForObject("idOf", shard(null, 5)));
+        template.insert("insertRow", shard("shard2", 7));
+        try {
+            template.queryForObject("idOf", shard(null, 7));
+            fail();
+        } catch (IncorrectResultSizeDataAccessException e) {
+            // pass
+        }
+    }
+
+    public void testRowsStreamedByCursor() throws Exception {
+        template.afterPropertiesSet();
+
+        ShardCursor<Object> cursor = template.selectCursor("ids", null, ASCENDING);
+        List<Object> rows = new ArrayList<Object>();
+        while (cursor.hasNext()) {
+            rows.add(cursor.next());
+        }
+        assertEquals(Arrays.asList(1, 2, 3, 4, 7, 8, 10), rows);
+    }
+
+    public void testPagesSeekedAcrossShards() throws Exception {
+        template.setSeekKeys(Collections.singletonMap("seekIds", "id"));
+        template.afterPropertiesSet();
+
+        SeekPage<Map<String, Object>> page = template.selectPage("seekIds", null, null, 3);
+        assertEquals(Arrays.asList(1, 2, 3), idsOf(page.getRows()));
+        page = template.selectPage("seekIds", null, page.getContinuationToken(), 3);
+        assertEquals(Arrays.asList(4, 7, 8), idsOf(page.getRows()));
+        page = template.selectPage("seekIds", null, page.getContinuationToken(), 3);
+        assertEquals(Arrays.asList(10), idsOf(page.getRows()));
+        assertNull(page.getContinuationToken());
+    }
+
+    public void testAsynchronousExecutionOnShards() throws Exception {
+        template.afterPropertiesSet();
+
+        assertEquals(7, template.selectListAsync("ids", null).get(10, TimeUnit.SECONDS).size());
+        assertEquals(Integer.valueOf(1), template.insertAsync("insertRow", shard("shard2", 9)).get(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(2, 3, 8, 9), template.selectList("ids", shard("shard2")));
+        assertEquals(Integer.valueOf(1), template.deleteAsync("deleteRow", shard(null, 9)).get(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(2, 3, 8), template.selectList("ids", shard("shard2")));
+    }
+
+    public void testWritesRoutedToShards() throws Exception {
+        template.afterPropertiesSet();
+
+        assertEquals(1, template.insert("insertRow", shard("shard1", 11)));
+        assertEquals(Arrays.asList(1, 4, 7, 10, 11), template.selectList("ids", shard("shard1")));
+        assertEquals(1, template.update("updateRow", shard(null, 11)));
+        assertEquals(Arrays.asList(1, 4, 7, 10, 12), template.selectList("ids", shard("shard1")));
+        assertEquals(1, template.delete("deleteRow", shard(null, 12)));
+        assertEquals(Arrays.asList(1, 4, 7, 10), template.selectList("ids", shard("shard1")));
+    }
+
+    public void testSingleShardWriteBoundByQueryTimeout() throws Exception {
+        template.setQueryTimeouts(Collections.singletonMap("slowUpdate", 1000));
+        template.afterPropertiesSet();
+
+        long start = System.nanoTime();
+        try {
+            template.update("slowUpdate", shard("shard1"));
+            fail();
+        } catch (DataAccessException e) {
+            // pass
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(Long.valueOf(1), ((DefaultExecutionPlanner) template.getExecutionPlanner()).getDecisions().get(ExecutionMode.INLINE));
+    }
+
+    public void testSingleShardCallsLimited() throws Exception {
+        final AtomicInteger samples = new AtomicInteger();
+        template.setConcurrencyLimitFactory(new IConcurrencyLimitFactory() {
+            public IConcurrencyLimit create(int maxLimit) {
+                return new IConcurrencyLimit() {
+                    public int getLimit() {
+                        return 1;
+                    }
+
+                    public void onSample(long rttNanos, int inFlight, boolean dropped) {
+                        samples.incrementAndGet();
+                    }
+                };
+            }
+        });
+        template.setMaxQueuedRequests(0);
+        template.afterPropertiesSet();
+
+        assertEquals(Arrays.asList(1, 4, 7, 10), template.selectList("ids", shard("shard1")));
+        assertEquals(1, samples.get());
+
+        final CountDownLatch proceed = new CountDownLatch(1);
+        template.getConcurrencyLimitedExecutors().get("shard1").execute(new Runnable() {
+            public void run() {
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        try {
+            template.selectList("ids", shard("shard1"));
+            fail();
+        } catch (TransientDataAccessResourceException e) {
+            // shed, since the only permit of the shard is taken and none may wait
+        }
+        proceed.countDown();
+        assertEquals(Long.valueOf(2), ((DefaultExecutionPlanner) template.getExecutionPlanner()).getDecisions().get(ExecutionMode.INLINE));
+    }
+
+    public void testSingleShardCallsTakePermits() throws Exception {
+        template.setWorkStealingExecution(true);
+        template.afterPropertiesSet();
+
+        final CountDownLatch proceed = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            template.getDataSourceSpecificExecutors().get("shard1").execute(new Runnable() {
+                public void run() {
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        // both permits of the shard are taken, the call waits for one of them
+        FutureTask<List> call = new FutureTask<List>(new Callable<List>() {
+            public List call() throws Exception {
+                return template.selectList("ids", shard("shard1"));
+            }
+        });
+        new Thread(call).start();
+        try {
+            call.get(200, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException e) {
+            // pass
+        } finally {
+            proceed.countDown();
+        }
+        assertEquals(Arrays.asList(1, 4, 7, 10), call.get(10, TimeUnit.SECONDS));
+        assertEquals(Long.valueOf(1), ((DefaultExecutionPlanner) template.getExecutionPlanner()).getDecisions().get(ExecutionMode.INLINE));
+    }
+
+    private static List<String> shardsOf(Object argument) {
+        if (argument instanceof Map && ((Map<?, ?>) argument).get("shard") != null) {
+            return Arrays.asList((String) ((Map<?, ?>) argument).get("shard"));
+        }
+        return Arrays.asList("shard1", "shard2");
+    }
+
+    private static Map<String, Object> shard(String shard) {
+        return shard(shard, 0);
+    }
+
+    private static Map<String, Object> shard(String shard, int id) {
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("shard", shard);
+        parameter.put("id", id);
+        return parameter;
+    }
+
+    private static List<Object> idsOf(List<Map<String, Object>> rows) {
+        List<Object> ids = new ArrayList<Object>();
+        for (Map<String, Object> row : rows) {
+            ids.add(row.get("id"));
+        }
+        return ids;
+    }
+
+    private static SqlSessionFactory sessionFactoryOf(DataSource defaultDataSource) {
+        Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), defaultDataSource));
+        addStatement(configuration, "ids", "select id from template_rows order by id", SqlCommandType.SELECT, Integer.class);
+        addStatement(configuration, "idOf", "select id from template_rows where id = #{id}", SqlCommandType.SELECT, Integer.class);
+        addStatement(configuration, "seekIds", "<script>select id as \"id\" from template_rows <if test='seekKey != null'>where id &gt; "
+            + "#{seekKey.id}</if> order by id limit #{seekLimit}</script>", SqlCommandType.SELECT, HashMap.class);
+        addStatement(configuration, "insertRow", "insert into template_rows values (#{id})", SqlCommandType.INSERT, null);
+        addStatement(configuration, "updateRow", "update template_rows set id = id + 1 where id = #{id}", SqlCommandType.UPDATE, null);
+        addStatement(configuration, "slowUpdate", "update template_rows set id = id where id = (select cast(max(x) as int) from system_range(1, "
+            + "10000000000) where mod(x, 7) = 1)", SqlCommandType.UPDATE, null);
+        addStatement(configuration, "deleteRow", "delete from template_rows where id = #{id}", SqlCommandType.DELETE, null);
+        return new SqlSessionFactoryBuilder().build(configuration);
+    }
+
+    private static void addStatement(Configuration configuration, String id, String sql, SqlCommandType commandType, Class<?> resultType) {
+        MappedStatement.Builder builder = new MappedStatement.Builder(configuration, id, new XMLLanguageDriver().createSqlSource(configuration, sql,
+            Map.class), commandType);
+        if (resultType != null) {
+            builder.resultMaps(Arrays.asList(new ResultMap.Builder(configuration, id, resultType, new ArrayList<ResultMapping>()).build()));
+        }
+        configuration.addMappedStatement(builder.build());
+    }
+
+    private static DataSource shardOf(String url, int... ids) throws SQLException {
+        DataSource dataSource = new DriverManagerDataSource(url, "sa", "");
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("drop table if exists template_rows");
+            statement.execute("create table template_rows (id int)");
+            for (int id : ids) {
+                statement.execute("insert into template_rows values (" + id + ")");
+            }
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        return dataSource;
+    }
+}
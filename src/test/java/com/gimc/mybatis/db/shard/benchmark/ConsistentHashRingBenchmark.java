@@ -0,0 +1,166 @@
+package com.gimc.mybatis.db.shard.benchmark;
+
+import com.gimc.mybatis.db.shard.entities.Offer;
+import com.gimc.mybatis.db.shard.router.IShardRouter;
+import com.gimc.mybatis.db.shard.router.config.StaticShardClientInternalRouterFactoryBean;
+import com.gimc.mybatis.db.shard.router.config.vo.InternalRule;
+import com.gimc.mybatis.db.shard.router.rules.support.ModFunction;
+import com.gimc.mybatis.db.shard.router.support.ConsistentHashRing;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.router.support.RoutingResult;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * lookup cost of {@link ConsistentHashRing} against a ring kept in a {@link TreeMap}, and routing cost of a consistent hashing rule against the
+ * "mod.apply(memberId)==K" rules it's supposed to replace.<br>
+ * the main method prints how many keys move when a shard is added before running the benchmarks.
+ *
+ * @author fujohnwang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsistentHashRingBenchmark {
+
+    private static final String NAMESPACE = "com.gimc.mybatis.db.shard.entities.Offer";
+
+    @Param({"16", "256"})
+    private int shards;
+
+    private ConsistentHashRing ring;
+    private TreeMap<Long, String> treeRing;
+    private IShardRouter<MyBatisRoutingFact> hashRouter;
+    private IShardRouter<MyBatisRoutingFact> modRouter;
+    private Long[] keys;
+    private MyBatisRoutingFact[] facts;
+    private int cursor;
+
+    @Setup
+    public void setUp() throws Exception {
+        ring = new ConsistentHashRing(weights(shards));
+        treeRing = new TreeMap<Long, String>();
+        for (int s = 0; s < shards; s++) {
+            for (int v = 0; v < ConsistentHashRing.DEFAULT_VIRTUAL_NODES; v++) {
+                treeRing.put(ConsistentHashRing.hash("partition" + s + "#" + v), "partition" + s);
+            }
+        }
+
+        InternalRule hashRule = new InternalRule();
+        hashRule.setNamespace(NAMESPACE);
+        hashRule.setShardingAttribute("memberId");
+        hashRule.setVirtualNodes(String.valueOf(ConsistentHashRing.DEFAULT_VIRTUAL_NODES));
+        StringBuilder destinations = new StringBuilder();
+        List<InternalRule> modRules = new ArrayList<InternalRule>();
+        for (int i = 0; i < shards; i++) {
+            destinations.append(i == 0 ? "" : ",").append("partition").append(i);
+            InternalRule rule = new InternalRule();
+            rule.setNamespace(NAMESPACE);
+            rule.setShardingExpression("mod.apply(memberId)==" + i);
+            rule.setShards("partition" + i);
+            modRules.add(rule);
+        }
+        hashRule.setShards(destinations.toString());
+        List<InternalRule> hashRules = new ArrayList<InternalRule>();
+        hashRules.add(hashRule);
+
+        StaticShardClientInternalRouterFactoryBean factory = new StaticShardClientInternalRouterFactoryBean();
+        factory.setRules(hashRules);
+        factory.afterPropertiesSet();
+        hashRouter = factory.getRouter();
+
+        Map<String, Object> functions = new HashMap<String, Object>();
+        functions.put("mod", new ModFunction((long) shards));
+        factory = new StaticShardClientInternalRouterFactoryBean();
+        factory.setRules(modRules);
+        factory.setFunctionsMap(functions);
+        factory.afterPropertiesSet();
+        modRouter = factory.getRouter();
+
+        keys = new Long[1024];
+        facts = new MyBatisRoutingFact[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = Long.valueOf(i * 7919L);
+            Offer offer = new Offer();
+            offer.setMemberId(keys[i]);
+            facts[i] = new MyBatisRoutingFact(NAMESPACE + ".update", offer);
+        }
+    }
+
+    @Benchmark
+    public int ringLookup() {
+        return ring.locate(keys[(cursor++) & (keys.length - 1)]);
+    }
+
+    @Benchmark
+    public String treeMapLookup() {
+        Map.Entry<Long, String> entry = treeRing.ceilingEntry(ConsistentHashRing.hash(keys[(cursor++) & (keys.length - 1)]));
+        return entry == null ? treeRing.firstEntry().getValue() : entry.getValue();
+    }
+
+    @Benchmark
+    public RoutingResult hashRuleRouting() {
+        return hashRouter.doRoute(facts[(cursor++) & (facts.length - 1)]);
+    }
+
+    @Benchmark
+    public RoutingResult modRulesRouting() {
+        return modRouter.doRoute(facts[(cursor++) & (facts.length - 1)]);
+    }
+
+    /**
+     * fraction of keys that change their shards when the number of shards grows from "shards" to "shards + 1".
+     */
+    static void printKeyMovement(int shards, int keys) {
+        ConsistentHashRing before = new ConsistentHashRing(weights(shards));
+        ConsistentHashRing after = new ConsistentHashRing(weights(shards + 1));
+        int ringMoved = 0;
+        int modMoved = 0;
+        for (long key = 0; key < keys; key++) {
+            if (!before.getShard(before.locate(key)).equals(after.getShard(after.locate(key)))) {
+                ringMoved++;
+            }
+            if (key % shards != key % (shards + 1)) {
+                modMoved++;
+            }
+        }
+        System.out.printf("%d -> %d shards, keys moved: consistent hashing %.2f%%, mod %.2f%%%n", shards, shards + 1, ringMoved * 100.0 / keys,
+            modMoved * 100.0 / keys);
+    }
+
+    private static Map<String, Integer> weights(int shards) {
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < shards; i++) {
+            weights.put("partition" + i, 1);
+        }
+        return weights;
+    }
+
+    public static void main(String[] args) throws Exception {
+        printKeyMovement(16, 1000000);
+        printKeyMovement(256, 1000000);
+        new Runner(new OptionsBuilder().include(ConsistentHashRingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
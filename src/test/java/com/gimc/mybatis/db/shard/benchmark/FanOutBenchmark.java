@@ -0,0 +1,103 @@
+package com.gimc.mybatis.db.shard.benchmark;
+
+import com.gimc.mybatis.db.shard.support.execution.PermitBoundedExecutorService;
+import com.gimc.mybatis.db.shard.support.execution.VirtualThreads;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * fan-out of one request to each shard, every request parks for a while as if waiting on the database.<br>
+ * "pooled" gives each shard a thread pool as ShardSqlSessionTemplate does by default, "virtual" hands the requests of all of the shards to one
+ * thread-per-task executor bounded per shard by {@link PermitBoundedExecutorService}, on virtual threads if the JVM supports them. run it
+ * with "-prof gc" to see the allocation per fan-out too.
+ *
+ * @author fujohnwang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FanOutBenchmark {
+
+    private static final long SIMULATED_IO_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    @Param({"8", "64", "256"})
+    private int shards;
+
+    @Param({"pooled", "virtual"})
+    private String mode;
+
+    private List<ExecutorService> executors;
+    private ExecutorService sharedExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int poolSize = Runtime.getRuntime().availableProcessors() * 5;
+        executors = new ArrayList<ExecutorService>(shards);
+        if ("virtual".equals(mode)) {
+            sharedExecutor = VirtualThreads.newThreadPerTaskExecutor("fan-out-");
+        }
+        for (int i = 0; i < shards; i++) {
+            if (sharedExecutor != null) {
+                executors.add(new PermitBoundedExecutorService(sharedExecutor, poolSize));
+            } else {
+                // the same as the default executor of each data source
+                int coreSize = Math.min(Runtime.getRuntime().availableProcessors(), poolSize);
+                executors.add(new ThreadPoolExecutor(coreSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(coreSize),
+                    new ThreadPoolExecutor.CallerRunsPolicy()));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (ExecutorService executor : executors) {
+            executor.shutdownNow();
+        }
+        if (sharedExecutor != null) {
+            sharedExecutor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void fanOut() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(shards);
+        for (int i = 0; i < shards; i++) {
+            executors.get(i).execute(new Runnable() {
+                public void run() {
+                    LockSupport.parkNanos(SIMULATED_IO_NANOS);
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(FanOutBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,138 @@
+package com.gimc.mybatis.db.shard.benchmark;
+
+import com.gimc.mybatis.db.shard.datasources.IShardDataSourceService;
+import com.gimc.mybatis.db.shard.datasources.ShardDataSourceDescriptor;
+import com.gimc.mybatis.db.shard.datasources.ShardDataSourceLookup;
+import com.gimc.mybatis.db.shard.entities.Offer;
+import com.gimc.mybatis.db.shard.router.DefaultShardInternalRouter;
+import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisShardingFunctionRule;
+import com.gimc.mybatis.db.shard.router.rules.support.ModFunction;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.log4j.Level;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+
+/**
+ * the routing hot path of a single shard statement, from routing fact to the data sources to run it on.<br>
+ * "copying" turns the routing result into a fresh sorted data source map as the template used to do, "shared" looks the map up with
+ * {@link ShardDataSourceLookup}. run it with "-prof gc" to see the allocation rate per operation, the routing fact is the only allocation left.
+ *
+ * @author fujohnwang
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingHotPathBenchmark {
+
+    private static final String NAMESPACE = "com.gimc.mybatis.db.shard.entities.Offer";
+    private static final int PARTITIONS = 16;
+
+    private DefaultShardInternalRouter router;
+    private IShardDataSourceService dataSourceService;
+    private ShardDataSourceLookup lookup;
+    private Offer[] offers;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // log4j logs everything at debug level without configuration, which is not what the hot path runs like
+        org.apache.log4j.Logger.getRootLogger().setLevel(Level.INFO);
+
+        List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence = new ArrayList<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>();
+        for (int i = 0; i < 4; i++) {
+            ruleSequence.add(new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>());
+        }
+        Map<Object, String> destinations = new HashMap<Object, String>();
+        final Map<String, DataSource> dataSources = new HashMap<String, DataSource>();
+        for (int i = 0; i < PARTITIONS; i++) {
+            destinations.put(Long.valueOf(i), "partition" + i);
+            dataSources.put("partition" + i, new SimpleDriverDataSource());
+        }
+        MyBatisShardingFunctionRule rule = new MyBatisShardingFunctionRule(NAMESPACE + ".load", false, "mod.apply(memberId)", destinations);
+        Map<String, Object> functions = new HashMap<String, Object>();
+        functions.put("mod", new ModFunction(Long.valueOf(PARTITIONS)));
+        rule.setFunctionMap(functions);
+        rule.compileAttributePattern();
+        ruleSequence.get(0).add(rule);
+        ruleSequence.get(3).add(new MyBatisNamespaceRule(NAMESPACE, "partition0"));
+
+        router = new DefaultShardInternalRouter();
+        router.setRulesGroupByNamespaces(Collections.singletonMap(NAMESPACE, ruleSequence));
+        dataSourceService = new IShardDataSourceService() {
+
+            public Map<String, DataSource> getDataSources() {
+                return dataSources;
+            }
+
+            public Set<ShardDataSourceDescriptor> getDataSourceDescriptors() {
+                return Collections.emptySet();
+            }
+        };
+        lookup = new ShardDataSourceLookup(dataSourceService);
+
+        offers = new Offer[1024];
+        for (int i = 0; i < offers.length; i++) {
+            offers[i] = new Offer();
+            offers[i].setMemberId(Long.valueOf(i));
+        }
+    }
+
+    @Benchmark
+    public List<String> route() {
+        return router.doRoute(nextFact()).getResourceIdentities();
+    }
+
+    @Benchmark
+    public SortedMap<String, DataSource> copying() {
+        List<String> identities = new ArrayList<String>(router.doRoute(nextFact()).getResourceIdentities());
+        Collections.sort(identities);
+        SortedMap<String, DataSource> dataSources = new TreeMap<String, DataSource>();
+        for (String identity : identities) {
+            dataSources.put(identity, dataSourceService.getDataSources().get(identity));
+        }
+        return dataSources;
+    }
+
+    @Benchmark
+    public SortedMap<String, DataSource> shared() {
+        return lookup.lookup(router.doRoute(nextFact()).getResourceIdentities());
+    }
+
+    private MyBatisRoutingFact nextFact() {
+        next = (next + 1) & (offers.length - 1);
+        return new MyBatisRoutingFact(NAMESPACE + ".load", offers[next]);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(RoutingHotPathBenchmark.class.getSimpleName()).build()).run();
+    }
+}
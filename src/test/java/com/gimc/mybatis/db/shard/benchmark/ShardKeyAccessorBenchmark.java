@@ -0,0 +1,99 @@
+package com.gimc.mybatis.db.shard.benchmark;
+
+import com.gimc.mybatis.db.shard.entities.Offer;
+import com.gimc.mybatis.db.shard.router.rules.support.ModFunction;
+import com.gimc.mybatis.db.shard.router.support.ShardKeyAccessor;
+import com.gimc.mybatis.db.shard.router.support.ShardKeyAccessors;
+import com.gimc.mybatis.db.shard.router.support.ShardingExpressions;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.mvel2.integration.impl.MapVariableResolverFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * cost of reading the shard key "memberId" and "mod.apply(memberId)" from a bean and from a map with compiled MVEL expressions and with
+ * {@link ShardKeyAccessor}s.
+ *
+ * @author fujohnwang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardKeyAccessorBenchmark {
+
+    private Offer offer;
+    private Map<String, Object> parameter;
+    private Map<String, Object> variables;
+
+    private Serializable property;
+    private Serializable function;
+    private ShardKeyAccessor propertyAccessor;
+    private ShardKeyAccessor functionAccessor;
+
+    @Setup
+    public void setUp() {
+        offer = new Offer();
+        offer.setMemberId(1234567L);
+        parameter = new HashMap<String, Object>();
+        parameter.put("memberId", 1234567L);
+        ModFunction mod = new ModFunction(64L);
+        variables = new HashMap<String, Object>();
+        variables.put("mod", mod);
+
+        property = ShardingExpressions.compile("memberId");
+        function = ShardingExpressions.compile("mod.apply(memberId)");
+        propertyAccessor = ShardKeyAccessors.forPath("memberId");
+        functionAccessor = ShardKeyAccessors.applying(mod, propertyAccessor);
+    }
+
+    @Benchmark
+    public Object mvelBeanProperty() {
+        return ShardingExpressions.execute(property, offer, new MapVariableResolverFactory(variables), Object.class);
+    }
+
+    @Benchmark
+    public Object accessorBeanProperty() {
+        return propertyAccessor.get(offer);
+    }
+
+    @Benchmark
+    public Object mvelMapProperty() {
+        return ShardingExpressions.execute(property, parameter, new MapVariableResolverFactory(variables), Object.class);
+    }
+
+    @Benchmark
+    public Object accessorMapProperty() {
+        return propertyAccessor.get(parameter);
+    }
+
+    @Benchmark
+    public Object mvelFunction() {
+        return ShardingExpressions.execute(function, offer, new MapVariableResolverFactory(variables), Object.class);
+    }
+
+    @Benchmark
+    public Object accessorFunction() {
+        return functionAccessor.get(offer);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(ShardKeyAccessorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,146 @@
+package com.gimc.mybatis.db.shard.benchmark;
+
+import com.gimc.mybatis.db.shard.entities.Offer;
+import com.gimc.mybatis.db.shard.router.DefaultShardInternalRouter;
+import com.gimc.mybatis.db.shard.router.IShardRouter;
+import com.gimc.mybatis.db.shard.router.config.StaticShardClientInternalRouterFactoryBean;
+import com.gimc.mybatis.db.shard.router.config.vo.InternalRule;
+import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceShardingRule;
+import com.gimc.mybatis.db.shard.router.rules.support.ModFunction;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.router.support.RoutingResult;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.mvel2.MVEL;
+import org.mvel2.integration.impl.MapVariableResolverFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * compares routing throughput of sharding expressions which are interpreted on each call (the way rules did before) with the ones compiled once
+ * when rules are loaded.<br>
+ * run it with the main method, or with JMH's own launcher against the test classpath.
+ *
+ * @author fujohnwang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardingExpressionBenchmark {
+
+    private static final String NAMESPACE = "com.gimc.mybatis.db.shard.entities.Offer";
+
+    @Param({"16", "64", "256"})
+    private int shards;
+
+    private IShardRouter<MyBatisRoutingFact> interpretedRouter;
+    private IShardRouter<MyBatisRoutingFact> compiledRouter;
+    private MyBatisRoutingFact[] facts;
+    private int cursor;
+
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, Object> functions = new HashMap<String, Object>();
+        functions.put("mod", new ModFunction((long) shards));
+
+        List<InternalRule> rules = new ArrayList<InternalRule>();
+        Set<IRoutingRule<MyBatisRoutingFact, List<String>>> interpretedRules = new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>();
+        for (int i = 0; i < shards; i++) {
+            InternalRule rule = new InternalRule();
+            rule.setNamespace(NAMESPACE);
+            rule.setShardingExpression("mod.apply(memberId)==" + i);
+            rule.setShards("partition" + i);
+            rules.add(rule);
+
+            InterpretedNamespaceShardingRule interpreted = new InterpretedNamespaceShardingRule(NAMESPACE, "partition" + i, rule
+                .getShardingExpression());
+            interpreted.setFunctionMap(functions);
+            interpretedRules.add(interpreted);
+        }
+
+        StaticShardClientInternalRouterFactoryBean factory = new StaticShardClientInternalRouterFactoryBean();
+        factory.setRules(rules);
+        factory.setFunctionsMap(functions);
+        factory.afterPropertiesSet();
+        compiledRouter = factory.getRouter();
+
+        DefaultShardInternalRouter router = new DefaultShardInternalRouter();
+        List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence = new ArrayList<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>();
+        ruleSequence.add(new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>());
+        ruleSequence.add(new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>());
+        ruleSequence.add(interpretedRules);
+        ruleSequence.add(new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>());
+        router.setRulesGroupByNamespaces(Collections.singletonMap(NAMESPACE, ruleSequence));
+        interpretedRouter = router;
+
+        facts = new MyBatisRoutingFact[1024];
+        for (int i = 0; i < facts.length; i++) {
+            Offer offer = new Offer();
+            offer.setId((long) i);
+            offer.setMemberId((long) (i * 7919));
+            offer.setSubject("subject-" + i);
+            facts[i] = new MyBatisRoutingFact(NAMESPACE + ".update", offer);
+        }
+    }
+
+    @Benchmark
+    public RoutingResult interpreted() {
+        return interpretedRouter.doRoute(nextFact());
+    }
+
+    @Benchmark
+    public RoutingResult compiled() {
+        return compiledRouter.doRoute(nextFact());
+    }
+
+    private MyBatisRoutingFact nextFact() {
+        return facts[(cursor++) & (facts.length - 1)];
+    }
+
+    /**
+     * the evaluation strategy of namespace sharding rules before expressions were compiled at load time.
+     */
+    static class InterpretedNamespaceShardingRule extends MyBatisNamespaceShardingRule {
+
+        InterpretedNamespaceShardingRule(String pattern, String action, String attributePattern) {
+            super(pattern, action, attributePattern);
+        }
+
+        @Override
+        public boolean isDefinedAt(MyBatisRoutingFact routingFact) {
+            if (!NAMESPACE.equals(routingFact.getAction().substring(0, routingFact.getAction().lastIndexOf('.')))) {
+                return false;
+            }
+            Map<String, Object> vrs = new HashMap<String, Object>();
+            vrs.putAll(getFunctionMap());
+            vrs.put("$ROOT", routingFact.getArgument());
+            return MVEL.evalToBoolean(getAttributePattern(), routingFact.getArgument(), new MapVariableResolverFactory(vrs));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(ShardingExpressionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
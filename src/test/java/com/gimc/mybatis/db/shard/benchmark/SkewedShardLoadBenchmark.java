@@ -0,0 +1,112 @@
+package com.gimc.mybatis.db.shard.benchmark;
+
+import com.gimc.mybatis.db.shard.support.execution.WorkStealingScheduler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * throughput of batches of requests under skewed shard load, {@link #hotShare} of the requests of each batch go to one hot shard and the rest
+ * are spread over the others. each request burns some cpu, as if mapping its results, and parks for a while as if waiting on the database.<br>
+ * "pooled" gives each shard a thread pool as ShardSqlSessionTemplate does by default, "workStealing" hands the requests of all of the shards to
+ * one {@link WorkStealingScheduler}. run it with "-prof perfnorm" on Linux to see the context switches per batch too.
+ *
+ * @author fujohnwang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class SkewedShardLoadBenchmark {
+
+    private static final int BATCH_SIZE = 32;
+    private static final long SIMULATED_IO_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    @Param({"8", "64"})
+    private int shards;
+
+    @Param({"0.8"})
+    private double hotShare;
+
+    @Param({"pooled", "workStealing"})
+    private String mode;
+
+    private List<ExecutorService> executors;
+    private WorkStealingScheduler scheduler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int poolSize = Runtime.getRuntime().availableProcessors() * 5;
+        executors = new ArrayList<ExecutorService>(shards);
+        if ("workStealing".equals(mode)) {
+            scheduler = new WorkStealingScheduler(poolSize, "skewed-");
+        }
+        for (int i = 0; i < shards; i++) {
+            if (scheduler != null) {
+                executors.add(scheduler.executorFor(poolSize));
+            } else {
+                // the same as the default executor of each data source
+                int coreSize = Math.min(Runtime.getRuntime().availableProcessors(), poolSize);
+                executors.add(new ThreadPoolExecutor(coreSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(coreSize),
+                    new ThreadPoolExecutor.CallerRunsPolicy()));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (ExecutorService executor : executors) {
+            executor.shutdownNow();
+        }
+        if (scheduler != null) {
+            scheduler.getPool().shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void skewedBatch() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(BATCH_SIZE);
+        int hot = (int) (BATCH_SIZE * hotShare);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            int shard = i < hot ? 0 : 1 + (i % (shards - 1));
+            executors.get(shard).execute(new Runnable() {
+                public void run() {
+                    Blackhole.consumeCPU(2000);
+                    LockSupport.parkNanos(SIMULATED_IO_NANOS);
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(SkewedShardLoadBenchmark.class.getSimpleName()).build()).run();
+    }
+}
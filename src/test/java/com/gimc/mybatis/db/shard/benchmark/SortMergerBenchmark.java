@@ -0,0 +1,103 @@
+package com.gimc.mybatis.db.shard.benchmark;
+
+import com.gimc.mybatis.db.shard.merger.ConcurrentSortMerger;
+import com.gimc.mybatis.db.shard.merger.IMerger;
+import com.gimc.mybatis.db.shard.merger.KWaySortMerger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * merge of sorted sub-result lists of "shards" shards with "rows" rows each, with the pairwise {@link ConcurrentSortMerger} on its default
+ * executor and with the single-pass {@link KWaySortMerger}. run it with "-prof gc" to see the garbage per merge too.
+ *
+ * @author fujohnwang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@SuppressWarnings("deprecation")
+public class SortMergerBenchmark {
+
+    private static final Comparator<Long> ASCENDING = new Comparator<Long>() {
+        public int compare(Long o1, Long o2) {
+            return o1.compareTo(o2);
+        }
+    };
+
+    @Param({"8", "32"})
+    private int shards;
+
+    @Param({"10000"})
+    private int rows;
+
+    @Param({"pairwise", "kWay"})
+    private String merger;
+
+    private List<List<Long>> entities;
+    private IMerger<List<Long>, List<Long>> mergerToUse;
+    private ConcurrentSortMerger<Long> pairwise;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Random random = new Random(17);
+        entities = new ArrayList<List<Long>>(shards);
+        for (int i = 0; i < shards; i++) {
+            Long[] values = new Long[rows];
+            for (int j = 0; j < rows; j++) {
+                values[j] = random.nextLong();
+            }
+            Arrays.sort(values);
+            entities.add(Arrays.asList(values));
+        }
+        if ("pairwise".equals(merger)) {
+            pairwise = new ConcurrentSortMerger<Long>();
+            pairwise.setComparator(ASCENDING);
+            pairwise.afterPropertiesSet();
+            mergerToUse = pairwise;
+        } else {
+            KWaySortMerger<Long> kWay = new KWaySortMerger<Long>();
+            kWay.setComparator(ASCENDING);
+            kWay.afterPropertiesSet();
+            mergerToUse = kWay;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (pairwise != null) {
+            pairwise.destroy();
+        }
+    }
+
+    @Benchmark
+    public List<Long> merge() {
+        return mergerToUse.merge(entities);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(SortMergerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,141 @@
+package com.gimc.mybatis.db.shard.merger;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+@Test
+public class AggregateMergerTest {
+
+    public void testGroupedAggregates() throws Exception {
+        Map<String, String> aggregates = new LinkedHashMap<String, String>();
+        aggregates.put("orders", "COUNT");
+        aggregates.put("amount", "SUM");
+        aggregates.put("lowest", "MIN(price)");
+        aggregates.put("highest", "MAX(price)");
+        aggregates.put("average", "AVG(amount, orders)");
+        GroupedAggregateMerger merger = new GroupedAggregateMerger();
+        merger.setGroupBy("sellerId, status");
+        merger.setAggregates(aggregates);
+        merger.afterPropertiesSet();
+
+        List<Map<String, Object>> shard1 = Arrays.asList(row(1L, "paid", 2L, 30, 10), row(2L, "paid", 1L, 5, 5));
+        List<Map<String, Object>> shard2 = Arrays.asList(row(1L, "paid", 1L, 20, 20), row(1L, null, 1L, 7, 7));
+        List<Map<String, Object>> shard3 = new ArrayList<Map<String, Object>>();
+        // enough groups to grow the table
+        for (long seller = 100; seller < 200; seller++) {
+            shard3.add(row(seller, "paid", 1L, 1, 1));
+        }
+        shard3.add(row(2L, "paid", 3L, 15, 2));
+
+        List<Map<String, Object>> rows = merger.merge(Arrays.asList(shard1, shard2, shard3));
+        assertEquals(103, rows.size());
+        Map<String, Object> first = rows.get(0);
+        assertEquals(1L, first.get("sellerId"));
+        assertEquals(3L, first.get("orders"));
+        assertEquals(50L, first.get("amount"));
+        assertEquals(10, first.get("lowest"));
+        assertEquals(20, first.get("highest"));
+        assertEquals(0, new BigDecimal("16.66666666666667").compareTo((BigDecimal) first.get("average")));
+        Map<String, Object> second = rows.get(1);
+        assertEquals(2L, second.get("sellerId"));
+        assertEquals(4L, second.get("orders"));
+        assertEquals(2, second.get("lowest"));
+        Map<String, Object> withoutStatus = rows.get(2);
+        assertEquals(null, withoutStatus.get("status"));
+        assertEquals(1L, withoutStatus.get("orders"));
+        assertEquals(199L, rows.get(102).get("sellerId"));
+    }
+
+    public void testScalarAggregates() throws Exception {
+        ScalarAggregateMerger counts = new ScalarAggregateMerger();
+        counts.setFunction(AggregateFunction.COUNT);
+        counts.afterPropertiesSet();
+        // sums overflowing Long go on as BigDecimals
+        assertEquals(Arrays.<Object> asList(new BigDecimal(Long.MAX_VALUE).add(BigDecimal.ONE)), counts.merge(Arrays.asList(Arrays.<Object> asList(
+            Long.MAX_VALUE), Arrays.<Object> asList(1))));
+        assertEquals(Arrays.<Object> asList(5L), counts.merge(Arrays.asList(Arrays.<Object> asList(2L), Arrays.<Object> asList(3))));
+        assertTrue(counts.merge(Arrays.asList(new ArrayList<Object>(), new ArrayList<Object>())).isEmpty());
+
+        ScalarAggregateMerger sums = new ScalarAggregateMerger();
+        Map<String, String> aggregates = new HashMap<String, String>();
+        aggregates.put("amount", "SUM");
+        aggregates.put("average", "AVG(amount,orders)");
+        sums.setAggregates(aggregates);
+        sums.afterPropertiesSet();
+        Map<String, Object> partial1 = new HashMap<String, Object>();
+        partial1.put("amount", new BigDecimal("10.5"));
+        partial1.put("orders", 3L);
+        Map<String, Object> partial2 = new HashMap<String, Object>();
+        partial2.put("amount", null);
+        partial2.put("orders", 0L);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> total = (Map<String, Object>) sums.merge(Arrays.asList(Arrays.<Object> asList(partial1), Arrays.<Object> asList(
+            partial2))).get(0);
+        assertEquals(new BigDecimal("10.5"), total.get("amount"));
+        assertEquals(0, new BigDecimal("3.5").compareTo((BigDecimal) total.get("average")));
+
+        // shards returning only null rows return no row at all
+        assertTrue(sums.merge(Arrays.asList(Arrays.<Object> asList((Object) null), Arrays.<Object> asList((Object) null))).isEmpty());
+    }
+
+    public void testMinAndMaxAcrossNumberTypes() throws Exception {
+        ScalarAggregateMerger lowest = new ScalarAggregateMerger();
+        lowest.setFunction(AggregateFunction.MIN);
+        lowest.afterPropertiesSet();
+        assertEquals(Arrays.<Object> asList(new BigDecimal("2.5")), lowest.merge(Arrays.asList(Arrays.<Object> asList(3), Arrays.<Object> asList(
+            new BigDecimal("2.5")), Arrays.<Object> asList((Object) null))));
+
+        ScalarAggregateMerger highest = new ScalarAggregateMerger();
+        highest.setFunction(AggregateFunction.MAX);
+        highest.afterPropertiesSet();
+        assertEquals(Arrays.<Object> asList(7L), highest.merge(Arrays.asList(Arrays.<Object> asList(3), Arrays.<Object> asList(7L))));
+    }
+
+    public void testFloatsTakenByTheirDecimalStrings() throws Exception {
+        ScalarAggregateMerger sums = new ScalarAggregateMerger();
+        sums.setFunction(AggregateFunction.SUM);
+        sums.afterPropertiesSet();
+        assertEquals(Arrays.<Object> asList(new BigDecimal("0.3")), sums.merge(Arrays.asList(Arrays.<Object> asList(0.1f), Arrays.<Object> asList(
+            new BigDecimal("0.2")))));
+        assertEquals(Arrays.<Object> asList(new BigDecimal("0.3")), sums.merge(Arrays.asList(Arrays.<Object> asList(new BigDecimal("0.2")),
+            Arrays.<Object> asList(0.1d))));
+
+        ScalarAggregateMerger highest = new ScalarAggregateMerger();
+        highest.setFunction(AggregateFunction.MAX);
+        highest.afterPropertiesSet();
+        assertEquals(Arrays.<Object> asList(new BigDecimal("0.11")), highest.merge(Arrays.asList(Arrays.<Object> asList(0.1f), Arrays
+            .<Object> asList(new BigDecimal("0.11")))));
+    }
+
+    public void testUnknownAggregateFunction() throws Exception {
+        Map<String, String> aggregates = new HashMap<String, String>();
+        aggregates.put("median", "MEDIAN(amount)");
+        try {
+            new ScalarAggregateMerger().setAggregates(aggregates);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("median"));
+        }
+    }
+
+    private static Map<String, Object> row(long sellerId, String status, long orders, int amount, int price) {
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("sellerId", sellerId);
+        row.put("status", status);
+        row.put("orders", orders);
+        row.put("amount", amount);
+        row.put("price", price);
+        return row;
+    }
+}
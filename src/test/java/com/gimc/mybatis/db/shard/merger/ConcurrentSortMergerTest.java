@@ -11,6 +11,7 @@ import java.util.List;
 import org.testng.annotations.Test;
 
 @Test
+@SuppressWarnings("deprecation")
 public class ConcurrentSortMergerTest {
 
     public void testMerge() throws Exception {
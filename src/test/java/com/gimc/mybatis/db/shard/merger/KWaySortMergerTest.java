@@ -0,0 +1,72 @@
+package com.gimc.mybatis.db.shard.merger;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+@Test
+@SuppressWarnings("deprecation")
+public class KWaySortMergerTest {
+
+    private static final Comparator<Integer> ASCENDING = new Comparator<Integer>() {
+        public int compare(Integer o1, Integer o2) {
+            return o1.intValue() - o2.intValue();
+        }
+    };
+
+    public void testMerge() throws Exception {
+        KWaySortMerger<Integer> merger = new KWaySortMerger<Integer>();
+        merger.setComparator(ASCENDING);
+        merger.afterPropertiesSet();
+        List<List<Integer>> entities = new ArrayList<List<Integer>>();
+        entities.add(Arrays.asList(1, 2, 4));
+        entities.add(new ArrayList<Integer>());
+        entities.add(Arrays.asList(3, 5, 8, 10));
+        entities.add(Arrays.asList(0, 9));
+        List<Integer> result = merger.merge(entities);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 8, 9, 10), result);
+
+        assertTrue(merger.merge(new ArrayList<List<Integer>>()).isEmpty());
+        assertEquals(Arrays.asList(1, 2), merger.merge(Collections.singletonList(Arrays.asList(1, 2))));
+    }
+
+    public void testSameOrderAsPairwiseMerge() throws Exception {
+        // compared by tens only, so that equal elements can be told apart by their lists
+        Comparator<Integer> byTens = new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                return o1 / 10 - o2 / 10;
+            }
+        };
+        KWaySortMerger<Integer> merger = new KWaySortMerger<Integer>();
+        merger.setComparator(byTens);
+        ConcurrentSortMerger<Integer> pairwise = new ConcurrentSortMerger<Integer>();
+        pairwise.setComparator(byTens);
+        pairwise.afterPropertiesSet();
+        Random random = new Random(7);
+        try {
+            for (int shards = 1; shards <= 17; shards++) {
+                List<List<Integer>> entities = new ArrayList<List<Integer>>();
+                for (int i = 0; i < shards; i++) {
+                    List<Integer> list = new ArrayList<Integer>();
+                    int rows = random.nextInt(50);
+                    for (int j = 0; j < rows; j++) {
+                        list.add(random.nextInt(20) * 10 + i % 10);
+                    }
+                    Collections.sort(list, byTens);
+                    entities.add(list);
+                }
+                assertEquals(pairwise.merge(entities), merger.merge(entities));
+            }
+        } finally {
+            pairwise.destroy();
+        }
+    }
+}
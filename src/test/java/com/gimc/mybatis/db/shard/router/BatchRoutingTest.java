@@ -0,0 +1,135 @@
+package com.gimc.mybatis.db.shard.router;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import com.gimc.mybatis.db.shard.entities.Offer;
+import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceShardingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisShardingFunctionRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisSqlActionRule;
+import com.gimc.mybatis.db.shard.router.rules.support.ModFunction;
+import com.gimc.mybatis.db.shard.router.support.BatchRoutingResult;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.router.support.RoutingResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class BatchRoutingTest {
+
+    public static final String NAMESPACE = "com.gimc.mybatis.db.shard.entities.Offer";
+
+    private List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence;
+    private CountingRouter router;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        ruleSequence = new ArrayList<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>();
+        for (int i = 0; i < 4; i++) {
+            ruleSequence.add(new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>());
+        }
+        Map<Object, String> destinations = new HashMap<Object, String>();
+        for (int i = 0; i < 4; i++) {
+            destinations.put(Long.valueOf(i), "partition" + i);
+        }
+        MyBatisShardingFunctionRule rule = new MyBatisShardingFunctionRule(NAMESPACE + ".create", false, "mod.apply(memberId)", destinations);
+        Map<String, Object> functions = new HashMap<String, Object>();
+        functions.put("mod", new ModFunction(4L));
+        rule.setFunctionMap(functions);
+        ruleSequence.get(0).add(rule);
+        ruleSequence.get(1).add(new MyBatisSqlActionRule(NAMESPACE + ".count", "partition0,partition1"));
+
+        router = new CountingRouter();
+        router.setRulesGroupByNamespaces(Collections.singletonMap(NAMESPACE, ruleSequence));
+    }
+
+    public void testFactsWithSameShardKeysAreRoutedOnce() {
+        List<MyBatisRoutingFact> facts = facts(NAMESPACE + ".create", 100);
+        BatchRoutingResult<MyBatisRoutingFact> result = router.doRouteAll(facts);
+        assertEquals(4, router.routed);
+        assertTrue(result.isPartitioned());
+        assertTrue(result.getUnroutedFacts().isEmpty());
+        assertEquals(Arrays.asList("partition0", "partition1", "partition2", "partition3"), new ArrayList<String>(result.getFactsByShard()
+            .keySet()));
+        for (int i = 0; i < 4; i++) {
+            List<MyBatisRoutingFact> routed = result.getFactsByShard().get("partition" + i);
+            assertEquals(25, routed.size());
+            for (int j = 0; j < routed.size(); j++) {
+                assertSame(facts.get(j * 4 + i), routed.get(j));
+            }
+        }
+    }
+
+    public void testFactsRoutedToSeveralShardsOrNowhere() {
+        List<MyBatisRoutingFact> facts = facts(NAMESPACE + ".count", 10);
+        facts.addAll(facts("com.gimc.mybatis.db.shard.entities.Tweet.create", 3));
+        BatchRoutingResult<MyBatisRoutingFact> result = router.doRouteAll(facts);
+        assertFalse(result.isPartitioned());
+        assertEquals(facts.subList(0, 10), result.getFactsByShard().get("partition0"));
+        assertEquals(facts.subList(0, 10), result.getFactsByShard().get("partition1"));
+        assertEquals(facts.subList(10, 13), result.getUnroutedFacts());
+        assertEquals(2, router.routed);
+    }
+
+    public void testArgumentDependentFactsAreRoutedOneByOne() {
+        ruleSequence.get(0).clear();
+        ruleSequence.get(2).add(new MyBatisNamespaceShardingRule(NAMESPACE, "partition1", "memberId > 5"));
+        router.setRulesGroupByNamespaces(Collections.singletonMap(NAMESPACE, ruleSequence));
+        BatchRoutingResult<MyBatisRoutingFact> result = router.doRouteAll(facts(NAMESPACE + ".create", 10));
+        assertEquals(10, router.routed);
+        assertEquals(4, result.getFactsByShard().get("partition1").size());
+        assertEquals(6, result.getUnroutedFacts().size());
+    }
+
+    public void testBatchRoutingAbnormally() {
+        try {
+            router.doRouteAll(null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+
+        List<MyBatisRoutingFact> facts = facts(NAMESPACE + ".create", 2);
+        facts.add(null);
+        try {
+            router.doRouteAll(facts);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    private List<MyBatisRoutingFact> facts(String action, int count) {
+        List<MyBatisRoutingFact> facts = new ArrayList<MyBatisRoutingFact>();
+        for (int i = 0; i < count; i++) {
+            Offer offer = new Offer();
+            offer.setMemberId(Long.valueOf(i));
+            facts.add(new MyBatisRoutingFact(action, offer));
+        }
+        return facts;
+    }
+
+    private static class CountingRouter extends DefaultShardInternalRouter {
+
+        private int routed;
+
+        @Override
+        public RoutingResult doRoute(MyBatisRoutingFact routingFact) throws RoutingException {
+            routed++;
+            return super.doRoute(routingFact);
+        }
+    }
+}
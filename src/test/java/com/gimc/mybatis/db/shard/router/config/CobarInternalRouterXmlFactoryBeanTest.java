@@ -1,16 +1,23 @@
 package com.gimc.mybatis.db.shard.router.config;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
 import static org.testng.AssertJUnit.assertTrue;
 import static org.testng.AssertJUnit.fail;
 
+import com.gimc.mybatis.db.shard.entities.Offer;
 import com.gimc.mybatis.db.shard.router.ShardInternalRouter;
+import com.gimc.mybatis.db.shard.router.config.support.RangeShardingRuleAssembler;
+import com.gimc.mybatis.db.shard.router.config.vo.InternalRule;
 import com.gimc.mybatis.db.shard.router.rules.mybatis.AbstractIBatisOrientedRule;
 import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceShardingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisRangeShardingRule;
 import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisSqlActionShardingRule;
 import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
 import com.gimc.mybatis.db.shard.support.utils.MapUtils;
 import java.io.FileNotFoundException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -143,4 +150,99 @@ public class CobarInternalRouterXmlFactoryBeanTest {
         assertEquals(2, rules.get(2).size());
         assertEquals(1, rules.get(3).size());
     }
+
+    public void testAssemblingRangeRulesNormally() throws Exception {
+        factory.setConfigLocation(new ClassPathResource("com/gimc/mybatis/db/shard/router/config/range_rule_fixture.xml"));
+        factory.afterPropertiesSet();
+        ShardInternalRouter router = (ShardInternalRouter) factory.getObject();
+        List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> rules = router.getRuleSequences();
+        assertEquals(1, rules.get(0).size());
+        assertEquals(1, rules.get(2).size());
+        assertTrue(rules.get(2).iterator().next() instanceof MyBatisRangeShardingRule);
+
+        Offer offer = new Offer();
+        offer.setMemberId(15000L);
+        assertEquals(Arrays.asList("p2"), router.doRoute(new MyBatisRoutingFact("com.alibaba.cobar.client.entity.Offer.create", offer))
+            .getResourceIdentities());
+        offer.setMemberId(20000L);
+        assertEquals(Arrays.asList("p3"), router.doRoute(new MyBatisRoutingFact("com.alibaba.cobar.client.entity.Offer.create", offer))
+            .getResourceIdentities());
+        // sql action rules go first
+        offer.setMemberId(50L);
+        assertEquals(Arrays.asList("p4"), router.doRoute(new MyBatisRoutingFact("com.alibaba.cobar.client.entity.Offer.update", offer))
+            .getResourceIdentities());
+        offer.setMemberId(500L);
+        assertEquals(Arrays.asList("p1"), router.doRoute(new MyBatisRoutingFact("com.alibaba.cobar.client.entity.Offer.update", offer))
+            .getResourceIdentities());
+    }
+
+    public void testAssemblingRangeRulesWithShardingExpression() {
+        InternalRule rule = new InternalRule();
+        rule.setNamespace("com.alibaba.cobar.client.entity.Offer");
+        rule.setShardingAttribute("memberId");
+        rule.setShardingExpression("memberId > 100");
+        rule.setShards("p1");
+        try {
+            new RangeShardingRuleAssembler().collect(rule);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    public void testAssemblingRangeRulesOfDates() throws Exception {
+        RangeShardingRuleAssembler assembler = new RangeShardingRuleAssembler();
+        assembler.collect(rangeRuleOf("date", null, "2024-01-01", "p1"));
+        assembler.collect(rangeRuleOf("date", "2024-01-01", "2024-07-01 12:00", "p2"));
+        assembler.collect(rangeRuleOf("date", "2024-07-01 12:00", null, "p3"));
+        List<MyBatisRangeShardingRule> rules = assembler.assemble(null);
+        assertEquals(1, rules.size());
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        assertEquals(Arrays.asList("p1"), rules.get(0).actionFor(dateFactOf(format.parse("2023-12-31 23:59:59"))));
+        assertEquals(Arrays.asList("p2"), rules.get(0).actionFor(dateFactOf(format.parse("2024-01-01 00:00:00"))));
+        assertEquals(Arrays.asList("p3"), rules.get(0).actionFor(dateFactOf(format.parse("2024-07-01 12:00:00"))));
+        // dates are compared with numbers as epoch milliseconds
+        assertEquals(Arrays.asList("p2"), rules.get(0).actionFor(dateFactOf(format.parse("2024-03-01 00:00:00").getTime())));
+        assertNull(rules.get(0).actionFor(dateFactOf("2024-03-01")));
+    }
+
+    public void testAssemblingRangeRulesOfBadBounds() {
+        for (InternalRule rule : new InternalRule[]{rangeRuleOf("date", "2024-13-01", null, "p1"), rangeRuleOf("number", "one", null, "p1"),
+            rangeRuleOf("time", "2024-01-01", null, "p1"), rangeRuleOf("auto", "10", "ten", "p1")}) {
+            try {
+                new RangeShardingRuleAssembler().collect(rule);
+                fail(rule.toString());
+            } catch (IllegalArgumentException e) {
+                // pass
+            }
+        }
+
+        RangeShardingRuleAssembler assembler = new RangeShardingRuleAssembler();
+        assembler.collect(rangeRuleOf("string", null, "2024-01-01", "p1"));
+        assembler.collect(rangeRuleOf(null, "100", null, "p2"));
+        try {
+            assembler.assemble(null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    private InternalRule rangeRuleOf(String boundType, String lowerBound, String upperBound, String shards) {
+        InternalRule rule = new InternalRule();
+        rule.setNamespace("com.alibaba.cobar.client.entity.Offer");
+        rule.setShardingAttribute("gmtCreate");
+        rule.setBoundType(boundType);
+        rule.setLowerBound(lowerBound);
+        rule.setUpperBound(upperBound);
+        rule.setShards(shards);
+        return rule;
+    }
+
+    private MyBatisRoutingFact dateFactOf(Object gmtCreate) {
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("gmtCreate", gmtCreate);
+        return new MyBatisRoutingFact("com.alibaba.cobar.client.entity.Offer.create", parameter);
+    }
 }
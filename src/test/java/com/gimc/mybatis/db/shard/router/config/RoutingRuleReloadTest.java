@@ -0,0 +1,178 @@
+package com.gimc.mybatis.db.shard.router.config;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import com.gimc.mybatis.db.shard.merger.AggregateFunction;
+import com.gimc.mybatis.db.shard.merger.ScalarAggregateMerger;
+import com.gimc.mybatis.db.shard.router.IRoutingPlanProvider;
+import com.gimc.mybatis.db.shard.router.IShardRouter;
+import com.gimc.mybatis.db.shard.router.ShardInternalRouter;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class RoutingRuleReloadTest {
+
+    public static final String NAMESPACE = "com.alibaba.cobar.client.entity.Follower";
+
+    private File rulesFile;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        rulesFile = File.createTempFile("rules", ".xml");
+        writeRules("partition1");
+    }
+
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        rulesFile.delete();
+    }
+
+    public void testReloadingRulesOfDefaultRouter() throws Exception {
+        DefaultShardClientInternalRouterXmlFactoryBean factory = new DefaultShardClientInternalRouterXmlFactoryBean();
+        factory.setConfigLocation(new FileSystemResource(rulesFile));
+        factory.setEnableCache(true);
+        factory.afterPropertiesSet();
+        IShardRouter<MyBatisRoutingFact> router = factory.getRouter();
+        assertEquals(Arrays.asList("partition1"), route(router));
+
+        writeRules("partition2");
+        // the rules in use stay until reloaded
+        assertEquals(Arrays.asList("partition1"), route(router));
+        factory.reload();
+        // so do the cached routing results
+        assertEquals(Arrays.asList("partition2"), route(router));
+        assertEquals(1, factory.getReloader().getReloadCount());
+        assertTrue(factory.getReloader().getLastReloadTime() > 0);
+        factory.destroy();
+    }
+
+    public void testReloadingRulesOfInternalRouter() throws Exception {
+        ShardInteralRouterXmlFactoryBean factory = new ShardInteralRouterXmlFactoryBean();
+        factory.setConfigLocation(new FileSystemResource(rulesFile));
+        factory.setEnableCache(true);
+        factory.afterPropertiesSet();
+        ShardInternalRouter router = (ShardInternalRouter) factory.getObject();
+        assertEquals(Arrays.asList("partition1"), route(router));
+        assertEquals(1, router.getLocalCache().size());
+
+        writeRules("partition2, partition3");
+        factory.reload();
+        assertEquals(0, router.getLocalCache().size());
+        assertEquals(Arrays.asList("partition2", "partition3"), route(router));
+        try {
+            router.getRuleSequences().get(3).clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // pass
+        }
+        factory.destroy();
+    }
+
+    public void testReloadingOnResourceChanges() throws Exception {
+        DefaultShardClientInternalRouterXmlFactoryBean factory = new DefaultShardClientInternalRouterXmlFactoryBean();
+        factory.setConfigLocation(new FileSystemResource(rulesFile));
+        // checked by hand rather than waiting for the watcher
+        factory.setReloadInterval(60000L);
+        factory.afterPropertiesSet();
+        assertFalse(factory.getReloader().reloadIfModified());
+
+        writeRules("partition2");
+        assertTrue(rulesFile.setLastModified(rulesFile.lastModified() + 10000L));
+        assertTrue(factory.getReloader().reloadIfModified());
+        assertEquals(Arrays.asList("partition2"), route(factory.getRouter()));
+        assertFalse(factory.getReloader().reloadIfModified());
+        factory.destroy();
+    }
+
+    public void testFailedReloadKeepsCurrentRules() throws Exception {
+        DefaultShardClientInternalRouterXmlFactoryBean factory = new DefaultShardClientInternalRouterXmlFactoryBean();
+        factory.setConfigLocation(new FileSystemResource(rulesFile));
+        factory.afterPropertiesSet();
+
+        FileUtils.writeStringToFile(rulesFile, "<rules><rule><namespace>" + NAMESPACE + "</namespace></rule></rules>", "UTF-8");
+        try {
+            factory.reload();
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+        assertNotNull(factory.getReloader().getLastReloadFailure());
+        assertEquals(0, factory.getReloader().getReloadCount());
+        assertEquals(Arrays.asList("partition1"), route(factory.getRouter()));
+
+        writeRules("partition2");
+        factory.reload();
+        assertNull(factory.getReloader().getLastReloadFailure());
+        assertEquals(Arrays.asList("partition2"), route(factory.getRouter()));
+        factory.destroy();
+    }
+
+    public void testReloadingOverJmx() throws Exception {
+        String name = "com.gimc.mybatis.db.shard:type=RoutingRuleReloader,name=" + getClass().getSimpleName();
+        DefaultShardClientInternalRouterXmlFactoryBean factory = new DefaultShardClientInternalRouterXmlFactoryBean();
+        factory.setConfigLocation(new FileSystemResource(rulesFile));
+        factory.setMbeanName(name);
+        factory.afterPropertiesSet();
+
+        writeRules("partition2");
+        ManagementFactory.getPlatformMBeanServer().invoke(new ObjectName(name), "reload", null, null);
+        assertEquals(Arrays.asList("partition2"), route(factory.getRouter()));
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(name), "ReloadCount"));
+
+        factory.destroy();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(name)));
+    }
+
+    public void testMergersBoundByRules() throws Exception {
+        ScalarAggregateMerger merger = new ScalarAggregateMerger();
+        merger.setFunction(AggregateFunction.COUNT);
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        beanFactory.addBean("countMerger", merger);
+        FileUtils.writeStringToFile(rulesFile, "<rules><rule merger=\"countMerger\"><namespace>" + NAMESPACE
+            + "</namespace><shards>partition1, partition2</shards></rule></rules>", "UTF-8");
+
+        DefaultShardClientInternalRouterXmlFactoryBean factory = new DefaultShardClientInternalRouterXmlFactoryBean();
+        factory.setConfigLocation(new FileSystemResource(rulesFile));
+        factory.setEnableCache(true);
+        factory.setBeanFactory(beanFactory);
+        factory.afterPropertiesSet();
+        IShardRouter<MyBatisRoutingFact> router = factory.getRouter();
+        assertSame(merger, router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".count", null)).getMerger());
+        assertSame(merger, ((IRoutingPlanProvider) router).planFor(NAMESPACE + ".count").getMerger());
+
+        writeRules("partition2");
+        factory.reload();
+        assertNull(router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".count", null)).getMerger());
+        assertNull(((IRoutingPlanProvider) router).planFor(NAMESPACE + ".count").getMerger());
+        factory.destroy();
+    }
+
+    private List<String> route(IShardRouter<MyBatisRoutingFact> router) {
+        return router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".load", null)).getResourceIdentities();
+    }
+
+    private void writeRules(String shards) throws Exception {
+        FileUtils.writeStringToFile(rulesFile, "<rules><rule><namespace>" + NAMESPACE + "</namespace><shards>" + shards
+            + "</shards></rule></rules>", "UTF-8");
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.gimc.mybatis.db.shard.router.rules;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import com.gimc.mybatis.db.shard.entities.Offer;
+import com.gimc.mybatis.db.shard.router.IShardRouter;
+import com.gimc.mybatis.db.shard.router.config.StaticShardClientInternalRouterFactoryBean;
+import com.gimc.mybatis.db.shard.router.config.support.ConsistentHashRuleAssembler;
+import com.gimc.mybatis.db.shard.router.config.vo.InternalRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisConsistentHashRule;
+import com.gimc.mybatis.db.shard.router.support.ConsistentHashRing;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+@Test
+public class MyBatisConsistentHashRuleTest {
+
+    public static final String DEFAULT_TYPE_PATTEN = "com.alibaba.cobar.client.entity.Offer";
+    public static final int    KEYS                = 100000;
+
+    public void testKeysSpreadEvenlyAmongShards() {
+        ConsistentHashRing ring = new ConsistentHashRing(shards(8));
+        int[] counts = new int[8];
+        for (long key = 0; key < KEYS; key++) {
+            counts[ring.locate(key)]++;
+        }
+        for (int count : counts) {
+            // within 25% of the fair share with 160 virtual nodes per shard
+            assertTrue(Math.abs(count - KEYS / 8) < KEYS / 8 / 4);
+        }
+    }
+
+    public void testKeysSpreadByWeights() {
+        Map<String, Integer> weights = shards(4);
+        weights.put("shard0", 3);
+        ConsistentHashRing ring = new ConsistentHashRing(weights);
+        int[] counts = new int[4];
+        for (long key = 0; key < KEYS; key++) {
+            counts[ring.locate(key)]++;
+        }
+        double ratio = (double) counts[0] / ((counts[1] + counts[2] + counts[3]) / 3.0);
+        assertTrue(ratio > 2.5 && ratio < 3.5);
+    }
+
+    public void testOnlyKeysOfNewShardMoveWhenAddingShard() {
+        ConsistentHashRing before = new ConsistentHashRing(shards(8));
+        ConsistentHashRing after = new ConsistentHashRing(shards(9));
+        int moved = 0;
+        for (long key = 0; key < KEYS; key++) {
+            String from = before.getShard(before.locate(key));
+            String to = after.getShard(after.locate(key));
+            if (!from.equals(to)) {
+                assertEquals("shard8", to);
+                moved++;
+            }
+        }
+        // about 1/9 of the keys, while "mod" moves about 8/9 of them
+        assertTrue(moved > KEYS / 9 * 3 / 4 && moved < KEYS / 9 * 5 / 4);
+    }
+
+    public void testIntegralKeysOfDifferentTypesGoToSameShard() {
+        ConsistentHashRing ring = new ConsistentHashRing(shards(16));
+        for (int key = 0; key < 1000; key++) {
+            assertEquals(ring.locate(Long.valueOf(key)), ring.locate(Integer.valueOf(key)));
+        }
+        assertEquals(ring.locate("member-1"), ring.locate(new StringBuilder("member-1")));
+    }
+
+    public void testRuleRoutingNormally() {
+        MyBatisConsistentHashRule rule = new MyBatisConsistentHashRule(DEFAULT_TYPE_PATTEN, true, "memberId", shards(4), 100);
+        ConsistentHashRing ring = rule.getRing();
+        for (long memberId = 0; memberId < 1000; memberId++) {
+            List<String> shards = rule.actionFor(fact(DEFAULT_TYPE_PATTEN + ".update", memberId));
+            assertEquals(Collections.singletonList(ring.getShard(ring.locate(memberId))), shards);
+            // same list instance for the same shard
+            assertTrue(shards == rule.actionFor(fact(DEFAULT_TYPE_PATTEN + ".create", memberId)));
+        }
+        assertEquals(4, rule.action().size());
+
+        assertFalse(rule.isDefinedAt(fact(DEFAULT_TYPE_PATTEN + ".update", null)));
+        assertFalse(rule.isDefinedAt(fact("com.alibaba.cobar.client.entity.Tweet.update", 1L)));
+        assertFalse(rule.isDefinedAt(new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN + ".update", null)));
+
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("memberId", 3);
+        assertEquals(rule.actionFor(fact(DEFAULT_TYPE_PATTEN + ".update", 3L)), rule.actionFor(new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN
+            + ".update", parameter)));
+    }
+
+    public void testRuleLoadingWithWeights() throws Exception {
+        InternalRule rule = new InternalRule();
+        rule.setSqlmap(DEFAULT_TYPE_PATTEN + ".update");
+        rule.setShardingAttribute("memberId");
+        rule.setVirtualNodes("64");
+        rule.setShards("p1:2, p2, p3:1");
+        List<InternalRule> rules = new ArrayList<InternalRule>();
+        rules.add(rule);
+
+        StaticShardClientInternalRouterFactoryBean factory = new StaticShardClientInternalRouterFactoryBean();
+        factory.setRules(rules);
+        factory.afterPropertiesSet();
+        IShardRouter<MyBatisRoutingFact> router = factory.getRouter();
+
+        MyBatisConsistentHashRule expected = new MyBatisConsistentHashRule(DEFAULT_TYPE_PATTEN + ".update", false, "memberId",
+            ConsistentHashRuleAssembler.parseWeights("p1:2,p2,p3"), 64);
+        for (long memberId = 0; memberId < 100; memberId++) {
+            MyBatisRoutingFact f = fact(DEFAULT_TYPE_PATTEN + ".update", memberId);
+            assertEquals(expected.actionFor(f), router.doRoute(f).getResourceIdentities());
+        }
+    }
+
+    public void testRuleLoadingAbnormally() {
+        InternalRule rule = new InternalRule();
+        rule.setNamespace(DEFAULT_TYPE_PATTEN);
+        rule.setShardingAttribute("memberId");
+        rule.setVirtualNodes("64");
+        rule.setShards("p1:0, p2");
+        try {
+            new ConsistentHashRuleAssembler().assemble(rule, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+
+        rule.setShards("p1, p2");
+        rule.setVirtualNodes("many");
+        try {
+            new ConsistentHashRuleAssembler().assemble(rule, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+    }
+
+    private static Map<String, Integer> shards(int count) {
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < count; i++) {
+            weights.put("shard" + i, 1);
+        }
+        return weights;
+    }
+
+    private static MyBatisRoutingFact fact(String action, Long memberId) {
+        Offer offer = new Offer();
+        offer.setMemberId(memberId);
+        return new MyBatisRoutingFact(action, offer);
+    }
+}
@@ -0,0 +1,172 @@
+package com.gimc.mybatis.db.shard.router.rules;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import com.gimc.mybatis.db.shard.entities.Offer;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisRangeShardingRule;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import com.gimc.mybatis.db.shard.router.support.RoutingTargets;
+import com.gimc.mybatis.db.shard.router.support.ShardKeyRange;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class MyBatisRangeShardingRuleTest {
+
+    public static final String DEFAULT_TYPE_PATTEN = "com.alibaba.cobar.client.entity.Offer";
+
+    private MyBatisRangeShardingRule rule;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        Map<ShardKeyRange, String> ranges = new LinkedHashMap<ShardKeyRange, String>();
+        // deliberately out of order
+        ranges.put(new ShardKeyRange(2000L, null, false), "shard3");
+        ranges.put(new ShardKeyRange(null, 1000L, false), "shard1");
+        ranges.put(new ShardKeyRange(1000L, 2000L, false), "shard2");
+        rule = new MyBatisRangeShardingRule(DEFAULT_TYPE_PATTEN, true, "memberId", ranges);
+    }
+
+    public void testRangeLocatingNormally() {
+        assertEquals(Arrays.asList("shard1"), rule.actionFor(fact(-5L)));
+        assertEquals(Arrays.asList("shard1"), rule.actionFor(fact(999L)));
+        assertEquals(Arrays.asList("shard2"), rule.actionFor(fact(1000L)));
+        assertEquals(Arrays.asList("shard2"), rule.actionFor(fact(1999L)));
+        assertEquals(Arrays.asList("shard3"), rule.actionFor(fact(2000L)));
+        assertEquals(Arrays.asList("shard3"), rule.actionFor(fact(Long.MAX_VALUE)));
+
+        List<String> all = rule.action();
+        assertEquals(3, all.size());
+        assertTrue(all.containsAll(Arrays.asList("shard1", "shard2", "shard3")));
+    }
+
+    public void testRangeLocatingAbnormally() {
+        assertNull(rule.actionFor(fact(null)));
+        assertFalse(rule.isDefinedAt(new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN + ".create", null)));
+        assertFalse(rule.isDefinedAt(new MyBatisRoutingFact("com.alibaba.cobar.client.entity.Tweet.create", new Offer())));
+        // not comparable with the bounds
+        assertFalse(rule.isDefinedAt(new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN + ".create", "anything")));
+    }
+
+    public void testRangeLocatingWithMapParameterAndOtherNumberTypes() {
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("memberId", 1500);
+        assertEquals(Arrays.asList("shard2"), rule.actionFor(new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN + ".create", parameter)));
+        parameter.put("memberId", 999.5d);
+        assertEquals(Arrays.asList("shard1"), rule.actionFor(new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN + ".create", parameter)));
+    }
+
+    public void testRangeParameterRoutedToOverlappingShards() {
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("memberId", new ShardKeyRange(500L, 1500L));
+        MyBatisRoutingFact f = new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN + ".find", parameter);
+        assertEquals(Arrays.asList("shard1", "shard2"), rule.actionFor(f));
+
+        // BETWEEN 1000 AND 2000 touches the first value of shard3
+        parameter.put("memberId", new ShardKeyRange(1000L, 2000L));
+        assertEquals(Arrays.asList("shard2", "shard3"), rule.actionFor(f));
+
+        parameter.put("memberId", new ShardKeyRange(1000L, 2000L, false));
+        assertEquals(Arrays.asList("shard2"), rule.actionFor(f));
+
+        parameter.put("memberId", new ShardKeyRange(null, null));
+        assertEquals(Arrays.asList("shard1", "shard2", "shard3"), rule.actionFor(f));
+    }
+
+    public void testRangeLocatingAgainstManyRanges() {
+        Map<ShardKeyRange, String> ranges = new LinkedHashMap<ShardKeyRange, String>();
+        for (long i = 0; i < 1000; i++) {
+            ranges.put(new ShardKeyRange(i * 100, (i + 1) * 100, false), "shard" + i);
+        }
+        MyBatisRangeShardingRule r = new MyBatisRangeShardingRule(DEFAULT_TYPE_PATTEN + ".create", false, "memberId", ranges);
+        for (long key = 0; key < 100000; key += 37) {
+            assertEquals(Arrays.asList("shard" + (key / 100)), r.actionFor(new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN + ".create", offer(key))));
+        }
+        assertFalse(r.isDefinedAt(new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN + ".create", offer(100000L))));
+        assertFalse(r.isDefinedAt(new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN + ".update", offer(1L))));
+
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("memberId", new ShardKeyRange(250L, 549L));
+        List<String> expected = new ArrayList<String>(Arrays.asList("shard2", "shard3", "shard4", "shard5"));
+        assertEquals(expected, r.actionFor(new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN + ".create", parameter)));
+    }
+
+    public void testOverlappingRangesRoutedToAllOfTheirShards() {
+        Map<ShardKeyRange, String> ranges = new LinkedHashMap<ShardKeyRange, String>();
+        ranges.put(new ShardKeyRange(0L, 100L, false), "shard1");
+        ranges.put(new ShardKeyRange(50L, 150L, false), "shard2, shard1");
+        MyBatisRangeShardingRule r = new MyBatisRangeShardingRule(DEFAULT_TYPE_PATTEN, true, "memberId", ranges);
+        assertEquals(Arrays.asList("shard1"), r.actionFor(fact(10L)));
+        assertEquals(Arrays.asList("shard1", "shard2"), r.actionFor(fact(60L)));
+        assertTrue(r.isDefinedAt(fact(149L)));
+    }
+
+    public void testDisjointRangesWithGaps() {
+        Map<ShardKeyRange, String> ranges = new LinkedHashMap<ShardKeyRange, String>();
+        ranges.put(new ShardKeyRange(200L, 300L, false), "shard2");
+        ranges.put(new ShardKeyRange(0L, 100L, false), "shard1");
+        MyBatisRangeShardingRule r = new MyBatisRangeShardingRule(DEFAULT_TYPE_PATTEN, true, "memberId", ranges);
+        assertNull(r.actionFor(fact(-1L)));
+        assertEquals(Arrays.asList("shard1"), r.actionFor(fact(0L)));
+        assertNull(r.actionFor(fact(100L)));
+        assertNull(r.actionFor(fact(150L)));
+        assertEquals(Arrays.asList("shard2"), r.actionFor(fact(299L)));
+        assertNull(r.actionFor(fact(300L)));
+        // the same list is handed out for each fact of a range
+        assertTrue(r.actionFor(fact(1L)) == r.actionFor(fact(2L)));
+    }
+
+    public void testDeclaredRangeClippedToEachShard() {
+        // the declared range takes the place of the sharding attribute
+        MyBatisRoutingFact f = new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN + ".find", offer(1L), new ShardKeyRange(500L, 2500L));
+        List<String> shards = rule.actionFor(f);
+        assertEquals(Arrays.asList("shard1", "shard2", "shard3"), shards);
+        assertEquals(new ShardKeyRange(500L, 2500L), rule.shardKeyOf(f));
+
+        Map<String, ShardKeyRange> clipped = ((RoutingTargets) shards).getRoutingResult().getShardKeyRanges();
+        assertEquals(new ShardKeyRange(500L, 1000L, false), clipped.get("shard1"));
+        assertEquals(new ShardKeyRange(1000L, 2000L, false), clipped.get("shard2"));
+        assertEquals(new ShardKeyRange(2000L, 2500L), clipped.get("shard3"));
+
+        f.setShardKeyRange(new ShardKeyRange(1200L, 1300L));
+        clipped = ((RoutingTargets) rule.actionFor(f)).getRoutingResult().getShardKeyRanges();
+        assertEquals(1, clipped.size());
+        assertEquals(new ShardKeyRange(1200L, 1300L), clipped.get("shard2"));
+    }
+
+    public void testClippingRangesOfShardOwningSeveralRanges() {
+        Map<ShardKeyRange, String> ranges = new LinkedHashMap<ShardKeyRange, String>();
+        ranges.put(new ShardKeyRange(0L, 100L, false), "shard1");
+        ranges.put(new ShardKeyRange(100L, 200L, false), "shard2");
+        ranges.put(new ShardKeyRange(200L, 300L, false), "shard1");
+        MyBatisRangeShardingRule r = new MyBatisRangeShardingRule(DEFAULT_TYPE_PATTEN, true, "memberId", ranges);
+        MyBatisRoutingFact f = new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN + ".find", null, new ShardKeyRange(50L, 250L));
+        Map<String, ShardKeyRange> clipped = ((RoutingTargets) r.actionFor(f)).getRoutingResult().getShardKeyRanges();
+        assertEquals(Arrays.asList("shard1", "shard2"), new ArrayList<String>(clipped.keySet()));
+        assertEquals(new ShardKeyRange(50L, 250L), clipped.get("shard1"));
+        assertEquals(new ShardKeyRange(100L, 200L, false), clipped.get("shard2"));
+
+        f.setShardKeyRange(new ShardKeyRange(300L, 400L));
+        assertNull(r.actionFor(f));
+    }
+
+    private MyBatisRoutingFact fact(Long memberId) {
+        return new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN + ".create", offer(memberId));
+    }
+
+    private Offer offer(Long memberId) {
+        Offer offer = new Offer();
+        offer.setMemberId(memberId);
+        return offer;
+    }
+}
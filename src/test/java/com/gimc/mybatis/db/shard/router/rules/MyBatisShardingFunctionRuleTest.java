@@ -0,0 +1,160 @@
+package com.gimc.mybatis.db.shard.router.rules;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import com.gimc.mybatis.db.shard.entities.Offer;
+import com.gimc.mybatis.db.shard.router.config.support.ShardingFunctionRuleFolder;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceShardingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisShardingFunctionRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisSqlActionShardingRule;
+import com.gimc.mybatis.db.shard.router.support.MyBatisRoutingFact;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.gimc.mybatis.db.shard.router.rules.support.ModFunction;
+
+@Test
+public class MyBatisShardingFunctionRuleTest {
+
+    public static final String NAMESPACE = "com.gimc.mybatis.db.shard.entities.Offer";
+
+    private Map<String, Object> functions;
+    private Set<IRoutingRule<MyBatisRoutingFact, List<String>>> rules;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        functions = new HashMap<String, Object>();
+        functions.put("mod", new ModFunction(4L));
+        rules = new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>();
+        for (int i = 0; i < 4; i++) {
+            MyBatisNamespaceShardingRule rule = new MyBatisNamespaceShardingRule(NAMESPACE, "partition" + i, "mod.apply(memberId)==" + i);
+            rule.setFunctionMap(functions);
+            rules.add(rule);
+        }
+    }
+
+    public void testFoldingRuleFamilyIntoOneRule() {
+        new ShardingFunctionRuleFolder().fold(rules);
+        assertEquals(1, rules.size());
+
+        IRoutingRule<MyBatisRoutingFact, List<String>> rule = rules.iterator().next();
+        assertTrue(rule instanceof MyBatisShardingFunctionRule);
+        assertEquals(4, rule.action().size());
+
+        MyBatisShardingFunctionRule folded = (MyBatisShardingFunctionRule) rule;
+        for (long memberId = 0; memberId < 16; memberId++) {
+            MyBatisRoutingFact fact = new MyBatisRoutingFact(NAMESPACE + ".update", offerOf(memberId));
+            assertEquals(Arrays.asList("partition" + (memberId % 4)), folded.actionFor(fact));
+            assertTrue(folded.isDefinedAt(fact));
+        }
+
+        assertNull(folded.actionFor(new MyBatisRoutingFact("com.gimc.mybatis.db.shard.entities.Tweet.update", offerOf(1L))));
+        assertNull(folded.actionFor(new MyBatisRoutingFact(NAMESPACE + ".update", null)));
+        assertFalse(folded.isDefinedAt(new MyBatisRoutingFact(NAMESPACE + ".update", new Offer())));
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("memberId", 7);
+        assertEquals(Arrays.asList("partition3"), folded.actionFor(new MyBatisRoutingFact(NAMESPACE + ".update", parameters)));
+    }
+
+    public void testRulesOfOtherFormsAreLeftAsTheyAre() {
+        MyBatisNamespaceShardingRule range = new MyBatisNamespaceShardingRule(NAMESPACE, "partition9", "memberId > 10000");
+        range.setFunctionMap(functions);
+        rules.add(range);
+        MyBatisNamespaceShardingRule unknownFunction = new MyBatisNamespaceShardingRule(NAMESPACE, "partition8", "hash.apply(memberId)==1");
+        unknownFunction.setFunctionMap(functions);
+        rules.add(unknownFunction);
+
+        new ShardingFunctionRuleFolder().fold(rules);
+        assertEquals(3, rules.size());
+        assertTrue(rules.contains(range));
+        assertTrue(rules.contains(unknownFunction));
+    }
+
+    public void testConflictingRulesAreNotFolded() {
+        MyBatisNamespaceShardingRule conflicting = new MyBatisNamespaceShardingRule(NAMESPACE, "partition5", "mod.apply(memberId)==1");
+        conflicting.setFunctionMap(functions);
+        rules.add(conflicting);
+
+        new ShardingFunctionRuleFolder().fold(rules);
+        assertEquals(5, rules.size());
+    }
+
+    public void testSqlActionRulesAreFoldedSeparately() {
+        for (int i = 0; i < 2; i++) {
+            MyBatisSqlActionShardingRule rule = new MyBatisSqlActionShardingRule(NAMESPACE + ".create", "partition" + i, i + " == mod.apply( memberId )");
+            rule.setFunctionMap(functions);
+            rules.add(rule);
+        }
+
+        new ShardingFunctionRuleFolder().fold(rules);
+        assertEquals(2, rules.size());
+        for (IRoutingRule<MyBatisRoutingFact, List<String>> rule : rules) {
+            MyBatisShardingFunctionRule folded = (MyBatisShardingFunctionRule) rule;
+            if (folded.isNamespaceRule()) {
+                assertEquals(4, folded.getDestinationsByValue().size());
+            } else {
+                assertEquals(2, folded.getDestinationsByValue().size());
+                assertNull(folded.actionFor(new MyBatisRoutingFact(NAMESPACE + ".update", offerOf(1L))));
+                assertEquals(Arrays.asList("partition1"), folded.actionFor(new MyBatisRoutingFact(NAMESPACE + ".create", offerOf(5L))));
+            }
+        }
+    }
+
+    public void testValuesOfMixedTypesMatchAsInExpressions() {
+        Map<Object, String> destinationsByValue = new HashMap<Object, String>();
+        destinationsByValue.put(1L, "partition1");
+        destinationsByValue.put("2", "partition2");
+        destinationsByValue.put(new BigDecimal("3.50"), "partition3");
+        MyBatisShardingFunctionRule rule = new MyBatisShardingFunctionRule(NAMESPACE, true, "memberId", destinationsByValue);
+
+        for (Object memberId : new Object[]{1, 1L, (short) 1, 1.0d, 1.0f, "1", "1.00", BigInteger.ONE, new BigDecimal("1.000")}) {
+            assertEquals(String.valueOf(memberId), Arrays.asList("partition1"), rule.actionFor(factOf(memberId)));
+        }
+        for (Object memberId : new Object[]{2, 2.0d, "2", new BigDecimal("2E+0")}) {
+            assertEquals(String.valueOf(memberId), Arrays.asList("partition2"), rule.actionFor(factOf(memberId)));
+        }
+        for (Object memberId : new Object[]{3.5d, 3.5f, "3.5", new BigDecimal("3.5000")}) {
+            assertEquals(String.valueOf(memberId), Arrays.asList("partition3"), rule.actionFor(factOf(memberId)));
+        }
+        for (Object memberId : new Object[]{3, 1.5d, "one", " 1", Double.NaN}) {
+            assertNull(String.valueOf(memberId), rule.actionFor(factOf(memberId)));
+        }
+    }
+
+    public void testNumbersNormalizedByValue() {
+        assertEquals(Long.valueOf(0), MyBatisShardingFunctionRule.normalizeNumber(new BigDecimal("0.000")));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), MyBatisShardingFunctionRule.normalizeNumber(BigInteger.valueOf(Long.MAX_VALUE)));
+        assertEquals(new BigDecimal("9223372036854775808"), MyBatisShardingFunctionRule.normalizeNumber(BigInteger.valueOf(Long.MAX_VALUE)
+            .add(BigInteger.ONE)));
+        assertEquals(MyBatisShardingFunctionRule.normalizeNumber(1e20d),
+            MyBatisShardingFunctionRule.normalizeNumber(new BigInteger("100000000000000000000")));
+        // strings are compared as strings by ranges
+        assertEquals("1", MyBatisShardingFunctionRule.normalizeNumber("1"));
+        assertEquals(Long.valueOf(1), MyBatisShardingFunctionRule.normalizeValue("1"));
+    }
+
+    private MyBatisRoutingFact factOf(Object memberId) {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("memberId", memberId);
+        return new MyBatisRoutingFact(NAMESPACE + ".update", parameters);
+    }
+
+    private Offer offerOf(long memberId) {
+        Offer offer = new Offer();
+        offer.setMemberId(memberId);
+        return offer;
+    }
+}
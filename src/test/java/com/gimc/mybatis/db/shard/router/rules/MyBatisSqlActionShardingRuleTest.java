@@ -147,6 +147,22 @@ public class MyBatisSqlActionShardingRuleTest {
         assertTrue(r.isDefinedAt(fact));
     }
 
+    public void testSqlActionShardingRuleEvaluatedRepeatedly() {
+        MyBatisSqlActionShardingRule r = new MyBatisSqlActionShardingRule(DEFAULT_TYPE_PATTEN, "shard1,shard2", "mod.apply(id)==3 && id > 0");
+        Map<String, Object> functions = new HashMap<String, Object>();
+        functions.put("mod", new ModFunction(18L));
+        r.setFunctionMap(functions);
+        r.compileAttributePattern();
+
+        Tweet t = new Tweet();
+        t.setTweet("anything");
+        // MVEL's dynamic optimizer switches hot expressions to ASM accessors after about 50 evaluations
+        for (long id = 0; id < 1000; id++) {
+            t.setId(id);
+            assertEquals(id % 18 == 3, r.isDefinedAt(new MyBatisRoutingFact(DEFAULT_TYPE_PATTEN, t)));
+        }
+    }
+
     public void testSqlActionShardingRuleWithSimpleContextObjectType() {
         MyBatisSqlActionShardingRule r = new MyBatisSqlActionShardingRule(DEFAULT_TYPE_PATTEN, "shard1", "$ROOT.startsWith(\"J\")");
         MyBatisRoutingFact fact = new MyBatisRoutingFact("com.alibaba.cobar.client.entity.Tweet.create", "Jack");
@@ -0,0 +1,116 @@
+package com.gimc.mybatis.db.shard.router.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.fail;
+
+import com.gimc.mybatis.db.shard.entities.Offer;
+import com.gimc.mybatis.db.shard.router.rules.support.ModFunction;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ibatis.binding.MapperMethod.ParamMap;
+import org.testng.annotations.Test;
+
+@Test
+public class ShardKeyAccessorsTest {
+
+    public void testReadingPropertiesOfBeans() {
+        Offer offer = new Offer();
+        offer.setMemberId(123L);
+        offer.setSubject("subject");
+
+        assertEquals(123L, ShardKeyAccessors.forPath("memberId").get(offer));
+        assertEquals("subject", ShardKeyAccessors.forPath(" subject ").get(offer));
+        assertNull(ShardKeyAccessors.forPath("memberId").get(new Offer()));
+        assertNull(ShardKeyAccessors.forPath("noSuchProperty").get(offer));
+        assertNull(ShardKeyAccessors.forPath("memberId").get(null));
+        assertEquals(offer, ShardKeyAccessors.forPath("$ROOT").get(offer));
+
+        // same accessor against different classes
+        ShardKeyAccessor accessor = ShardKeyAccessors.forPath("memberId");
+        assertEquals(123L, accessor.get(offer));
+        assertEquals(7L, accessor.get(new Holder(7L)));
+    }
+
+    public void testReadingNestedAndNonPublicProperties() {
+        Holder holder = new Holder(5L);
+        holder.offer = new Offer();
+        holder.offer.setMemberId(9L);
+
+        assertEquals(9L, ShardKeyAccessors.forPath("offer.memberId").get(holder));
+        assertEquals(9L, ShardKeyAccessors.forPath("$ROOT.offer.memberId").get(holder));
+        assertEquals(Boolean.TRUE, ShardKeyAccessors.forPath("active").get(holder));
+        assertEquals("field", ShardKeyAccessors.forPath("name").get(holder));
+        assertNull(ShardKeyAccessors.forPath("offer.memberId").get(new Holder(1L)));
+    }
+
+    public void testReadingMaps() {
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("memberId", 3);
+        assertEquals(3, ShardKeyAccessors.forPath("memberId").get(parameter));
+        assertNull(ShardKeyAccessors.forPath("id").get(parameter));
+
+        ParamMap<Object> paramMap = new ParamMap<Object>();
+        Offer offer = new Offer();
+        offer.setMemberId(42L);
+        paramMap.put("offer", offer);
+        assertEquals(42L, ShardKeyAccessors.forPath("offer.memberId").get(paramMap));
+        // ParamMap throws on missing keys
+        assertNull(ShardKeyAccessors.forPath("memberId").get(paramMap));
+    }
+
+    public void testExpressionsAreNotPropertyPaths() {
+        assertNull(ShardKeyAccessors.forPath("id > 100"));
+        assertNull(ShardKeyAccessors.forPath("mod.apply(id)"));
+        assertNull(ShardKeyAccessors.forPath("$ROOT.startsWith(\"J\")"));
+        assertNull(ShardKeyAccessors.forPath("a.$b"));
+        assertNull(ShardKeyAccessors.forPath(""));
+    }
+
+    public void testApplyingFunctions() {
+        ShardKeyAccessor accessor = ShardKeyAccessors.applying(new ModFunction(16L), ShardKeyAccessors.forPath("memberId"));
+        assertNotNull(accessor);
+        Offer offer = new Offer();
+        offer.setMemberId(35L);
+        assertEquals(3L, accessor.get(offer));
+
+        // integers are converted to the parameter type of the function
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("memberId", 18);
+        assertEquals(2L, accessor.get(parameter));
+
+        parameter.put("memberId", new Object());
+        try {
+            accessor.get(parameter);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // pass
+        }
+        assertNull(ShardKeyAccessors.applying(new Object(), ShardKeyAccessors.forPath("memberId")));
+    }
+
+    static class Holder {
+
+        private final Long memberId;
+        private Offer offer;
+        public String name = "field";
+
+        Holder(Long memberId) {
+            this.memberId = memberId;
+        }
+
+        public Long getMemberId() {
+            return memberId;
+        }
+
+        public Offer getOffer() {
+            return offer;
+        }
+
+        public boolean isActive() {
+            return true;
+        }
+    }
+}
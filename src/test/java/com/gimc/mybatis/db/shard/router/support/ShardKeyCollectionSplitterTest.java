@@ -0,0 +1,96 @@
+package com.gimc.mybatis.db.shard.router.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+
+import com.gimc.mybatis.db.shard.router.DefaultShardInternalRouter;
+import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisShardingFunctionRule;
+import com.gimc.mybatis.db.shard.router.rules.support.ModFunction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class ShardKeyCollectionSplitterTest {
+
+    public static final String NAMESPACE = "com.gimc.mybatis.db.shard.entities.Offer";
+    public static final String ACTION = NAMESPACE + ".findByMemberIds";
+
+    private DefaultShardInternalRouter router;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence = new ArrayList<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>();
+        for (int i = 0; i < 4; i++) {
+            ruleSequence.add(new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>());
+        }
+        Map<Object, String> destinations = new HashMap<Object, String>();
+        for (int i = 0; i < 3; i++) {
+            destinations.put(Long.valueOf(i), "partition" + i);
+        }
+        MyBatisShardingFunctionRule rule = new MyBatisShardingFunctionRule(ACTION, false, "mod.apply(memberIds)", destinations);
+        Map<String, Object> functions = new HashMap<String, Object>();
+        functions.put("mod", new ModFunction(4L));
+        rule.setFunctionMap(functions);
+        ruleSequence.get(0).add(rule);
+
+        router = new DefaultShardInternalRouter();
+        router.setRulesGroupByNamespaces(Collections.singletonMap(NAMESPACE, ruleSequence));
+    }
+
+    public void testSplittingKeysByOwningShards() {
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("memberIds", Arrays.asList(1L, 2L, 5L, 8L, 9L));
+        parameter.put("status", "active");
+
+        Map<String, Object> parametersByShard = ShardKeyCollectionSplitter.split(router, ACTION, parameter, "memberIds");
+        assertEquals(Arrays.asList("partition1", "partition2", "partition0"), new ArrayList<String>(parametersByShard.keySet()));
+        assertEquals(Arrays.asList(1L, 5L, 9L), subParameter(parametersByShard, "partition1").get("memberIds"));
+        assertEquals(Arrays.asList(2L), subParameter(parametersByShard, "partition2").get("memberIds"));
+        assertEquals(Arrays.asList(8L), subParameter(parametersByShard, "partition0").get("memberIds"));
+        assertEquals("active", subParameter(parametersByShard, "partition0").get("status"));
+        // the parameter of caller is left as it is
+        assertEquals(Arrays.asList(1L, 2L, 5L, 8L, 9L), parameter.get("memberIds"));
+    }
+
+    public void testSplittingArrayOfKeys() {
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("memberIds", new Long[]{4L, 6L});
+        Map<String, Object> parametersByShard = ShardKeyCollectionSplitter.split(router, ACTION, parameter, "memberIds");
+        assertEquals(2, parametersByShard.size());
+        assertEquals(Arrays.asList(4L), subParameter(parametersByShard, "partition0").get("memberIds"));
+        assertEquals(Arrays.asList(6L), subParameter(parametersByShard, "partition2").get("memberIds"));
+    }
+
+    public void testParametersThatCanNotBeSplit() {
+        assertNull(ShardKeyCollectionSplitter.split(router, ACTION, Arrays.asList(1L, 2L), "memberIds"));
+
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        assertNull(ShardKeyCollectionSplitter.split(router, ACTION, parameter, "memberIds"));
+        parameter.put("memberIds", new ArrayList<Long>());
+        assertNull(ShardKeyCollectionSplitter.split(router, ACTION, parameter, "memberIds"));
+        parameter.put("memberIds", 1L);
+        assertNull(ShardKeyCollectionSplitter.split(router, ACTION, parameter, "memberIds"));
+
+        // 3 % 4 is not mapped to any shard, so the collection is routed as a whole
+        parameter.put("memberIds", Arrays.asList(1L, 3L));
+        assertNull(ShardKeyCollectionSplitter.split(router, ACTION, parameter, "memberIds"));
+    }
+
+    /**
+     * the parameter of the shard out of the parameters split by shard, it's shared by the tests of splitters.
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> subParameter(Map<String, Object> parametersByShard, String shard) {
+        return (Map<String, Object>) parametersByShard.get(shard);
+    }
+}
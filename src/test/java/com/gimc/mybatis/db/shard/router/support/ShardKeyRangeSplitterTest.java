@@ -0,0 +1,99 @@
+package com.gimc.mybatis.db.shard.router.support;
+
+import static com.gimc.mybatis.db.shard.router.support.ShardKeyCollectionSplitterTest.subParameter;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+
+import com.gimc.mybatis.db.shard.router.DefaultShardInternalRouter;
+import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisRangeShardingRule;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class ShardKeyRangeSplitterTest {
+
+    public static final String NAMESPACE = "com.gimc.mybatis.db.shard.entities.Offer";
+    public static final String ACTION = NAMESPACE + ".findByModifiedTime";
+
+    private List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence;
+    private DefaultShardInternalRouter router;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        ruleSequence = new ArrayList<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>();
+        for (int i = 0; i < 4; i++) {
+            ruleSequence.add(new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>());
+        }
+        Map<ShardKeyRange, String> ranges = new LinkedHashMap<ShardKeyRange, String>();
+        ranges.put(new ShardKeyRange(null, 1000L, false), "partition1");
+        ranges.put(new ShardKeyRange(1000L, 2000L, false), "partition2");
+        ranges.put(new ShardKeyRange(2000L, null, false), "partition3");
+        ruleSequence.get(2).add(new MyBatisRangeShardingRule(NAMESPACE, true, "gmtModified", ranges));
+        ruleSequence.get(3).add(new MyBatisNamespaceRule(NAMESPACE, "partition1, partition2, partition3"));
+
+        router = new DefaultShardInternalRouter();
+        router.setRulesGroupByNamespaces(Collections.singletonMap(NAMESPACE, ruleSequence));
+    }
+
+    public void testSplittingBoundsByOverlappingShards() {
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("from", 1500L);
+        parameter.put("to", 2500L);
+        parameter.put("status", "active");
+
+        Map<String, Object> parametersByShard = ShardKeyRangeSplitter.split(router, ACTION, parameter, "from", "to");
+        assertEquals(Arrays.asList("partition2", "partition3"), new ArrayList<String>(parametersByShard.keySet()));
+        assertEquals(1500L, subParameter(parametersByShard, "partition2").get("from"));
+        assertEquals(2000L, subParameter(parametersByShard, "partition2").get("to"));
+        assertEquals(2000L, subParameter(parametersByShard, "partition3").get("from"));
+        assertEquals(2500L, subParameter(parametersByShard, "partition3").get("to"));
+        assertEquals("active", subParameter(parametersByShard, "partition3").get("status"));
+        assertEquals(1500L, parameter.get("from"));
+    }
+
+    public void testBoundsKeptIfNotGivenOrOfOtherTypes() {
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("to", 1500L);
+        Map<String, Object> parametersByShard = ShardKeyRangeSplitter.split(router, ACTION, parameter, "from", "to");
+        assertEquals(Arrays.asList("partition1", "partition2"), new ArrayList<String>(parametersByShard.keySet()));
+        assertNull(subParameter(parametersByShard, "partition2").get("from"));
+        assertEquals(1000L, subParameter(parametersByShard, "partition1").get("to"));
+
+        // dates are located by epoch milliseconds, but are left as they are
+        parameter.put("from", new Date(500L));
+        parameter.put("to", new Date(1500L));
+        parametersByShard = ShardKeyRangeSplitter.split(router, ACTION, parameter, "from", "to");
+        assertEquals(Arrays.asList("partition1", "partition2"), new ArrayList<String>(parametersByShard.keySet()));
+        assertEquals(new Date(1500L), subParameter(parametersByShard, "partition1").get("to"));
+    }
+
+    public void testParametersThatCanNotBeSplit() {
+        assertNull(ShardKeyRangeSplitter.split(router, ACTION, new ShardKeyRange(1L, 2L), "from", "to"));
+
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        assertNull(ShardKeyRangeSplitter.split(router, ACTION, parameter, "from", "to"));
+        parameter.put("from", 2500L);
+        parameter.put("to", 1500L);
+        assertNull(ShardKeyRangeSplitter.split(router, ACTION, parameter, "from", "to"));
+
+        // routed by the namespace rule, which can't clip the bounds
+        ruleSequence.get(2).clear();
+        router.setRulesGroupByNamespaces(Collections.singletonMap(NAMESPACE, ruleSequence));
+        parameter.put("from", 1500L);
+        parameter.put("to", 2500L);
+        assertNull(ShardKeyRangeSplitter.split(router, ACTION, parameter, "from", "to"));
+    }
+}
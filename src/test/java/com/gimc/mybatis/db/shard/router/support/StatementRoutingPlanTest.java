@@ -0,0 +1,168 @@
+package com.gimc.mybatis.db.shard.router.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import com.gimc.mybatis.db.shard.entities.Offer;
+import com.gimc.mybatis.db.shard.router.DefaultShardInternalRouter;
+import com.gimc.mybatis.db.shard.router.ShardInternalRouter;
+import com.gimc.mybatis.db.shard.router.rules.IRoutingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisNamespaceShardingRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisShardingFunctionRule;
+import com.gimc.mybatis.db.shard.router.rules.mybatis.MyBatisSqlActionRule;
+import com.gimc.mybatis.db.shard.router.rules.support.ModFunction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class StatementRoutingPlanTest {
+
+    public static final String NAMESPACE = "com.gimc.mybatis.db.shard.entities.Offer";
+
+    private List<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>> ruleSequence;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        ruleSequence = new ArrayList<Set<IRoutingRule<MyBatisRoutingFact, List<String>>>>();
+        for (int i = 0; i < 4; i++) {
+            ruleSequence.add(new HashSet<IRoutingRule<MyBatisRoutingFact, List<String>>>());
+        }
+        Map<Object, String> destinations = new HashMap<Object, String>();
+        for (int i = 0; i < 4; i++) {
+            destinations.put(Long.valueOf(i), "partition" + i);
+        }
+        MyBatisShardingFunctionRule rule = new MyBatisShardingFunctionRule(NAMESPACE + ".load", false, "mod.apply(memberId)", destinations);
+        Map<String, Object> functions = new HashMap<String, Object>();
+        functions.put("mod", new ModFunction(4L));
+        rule.setFunctionMap(functions);
+        ruleSequence.get(0).add(rule);
+        ruleSequence.get(1).add(new MyBatisSqlActionRule(NAMESPACE + ".count", "partition0,partition1"));
+        ruleSequence.get(3).add(new MyBatisNamespaceRule(NAMESPACE, "partition0"));
+    }
+
+    public void testConstantPlan() {
+        StatementRoutingPlan plan = new StatementRoutingPlan(NAMESPACE + ".count", ruleSequence);
+        assertTrue(plan.isConstant());
+        assertTrue(plan.isKeyed());
+
+        // rules of other sql actions and namespaces don't count
+        plan = new StatementRoutingPlan("com.gimc.mybatis.db.shard.entities.Tweet.load", ruleSequence);
+        assertTrue(plan.isConstant());
+    }
+
+    public void testShardKeyedPlan() {
+        StatementRoutingPlan plan = new StatementRoutingPlan(NAMESPACE + ".load", ruleSequence);
+        assertFalse(plan.isConstant());
+        assertTrue(plan.isKeyed());
+
+        Offer offer = new Offer();
+        offer.setMemberId(5L);
+        offer.setSubject("first");
+        Offer another = new Offer();
+        another.setMemberId(9L);
+        another.setSubject("second");
+        RoutingCacheKey key = plan.cacheKeyOf(new MyBatisRoutingFact(NAMESPACE + ".load", offer));
+        assertEquals(key, plan.cacheKeyOf(new MyBatisRoutingFact(NAMESPACE + ".load", another)));
+
+        Map<String, Object> parameter = new HashMap<String, Object>();
+        parameter.put("memberId", 13);
+        assertEquals(key, plan.cacheKeyOf(new MyBatisRoutingFact(NAMESPACE + ".load", parameter)));
+
+        offer.setMemberId(6L);
+        assertFalse(key.equals(plan.cacheKeyOf(new MyBatisRoutingFact(NAMESPACE + ".load", offer))));
+        assertNotNull(plan.cacheKeyOf(new MyBatisRoutingFact(NAMESPACE + ".load", null)));
+    }
+
+    public void testArgumentDependentPlan() {
+        ruleSequence.get(2).add(new MyBatisNamespaceShardingRule(NAMESPACE, "partition1", "memberId > 100"));
+        StatementRoutingPlan plan = new StatementRoutingPlan(NAMESPACE + ".load", ruleSequence);
+        assertFalse(plan.isConstant());
+        assertFalse(plan.isKeyed());
+        assertNull(plan.cacheKeyOf(new MyBatisRoutingFact(NAMESPACE + ".load", new Offer())));
+    }
+
+    public void testRoutingResultsAreShared() {
+        DefaultShardInternalRouter router = new DefaultShardInternalRouter();
+        router.setRulesGroupByNamespaces(Collections.singletonMap(NAMESPACE, ruleSequence));
+
+        Offer offer = new Offer();
+        offer.setMemberId(6L);
+        RoutingResult result = router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".load", offer));
+        assertEquals("partition2", result.getResourceIdentities().get(0));
+        offer.setMemberId(10L);
+        assertSame(result, router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".load", offer)));
+        assertSame(router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".count", offer)), router.doRoute(new MyBatisRoutingFact(NAMESPACE
+            + ".count", null)));
+        try {
+            result.getResourceIdentities().add("partition0");
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // pass
+        }
+
+        assertTrue(router.doRoute(new MyBatisRoutingFact("com.gimc.mybatis.db.shard.entities.Tweet.load", offer)).getResourceIdentities()
+            .isEmpty());
+    }
+
+    public void testRulesAreChangedByPublishingOnly() {
+        DefaultShardInternalRouter router = new DefaultShardInternalRouter();
+        try {
+            router.getRulesGroupByNamespaces().put(NAMESPACE, ruleSequence);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // pass
+        }
+        assertTrue(router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".count", null)).getResourceIdentities().isEmpty());
+
+        router.setRulesGroupByNamespaces(Collections.singletonMap(NAMESPACE, ruleSequence));
+        assertEquals(2, router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".count", null)).getResourceIdentities().size());
+
+        ruleSequence.get(1).clear();
+        assertEquals(2, router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".count", null)).getResourceIdentities().size());
+        router.setRulesGroupByNamespaces(Collections.singletonMap(NAMESPACE, ruleSequence));
+        assertEquals("partition0", router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".count", null)).getResourceIdentities().get(0));
+    }
+
+    public void testRouterCachesByShardKey() {
+        ShardInternalRouter router = new ShardInternalRouter(true, 100);
+        router.setCacheByShardKey(true);
+        router.setRuleSequences(ruleSequence);
+
+        Offer offer = new Offer();
+        offer.setMemberId(6L);
+        RoutingResult result = router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".load", offer));
+        assertEquals("partition2", result.getResourceIdentities().get(0));
+
+        // same shard key, different argument
+        Offer another = new Offer();
+        another.setMemberId(10L);
+        another.setSubject("another");
+        assertSame(result, router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".load", another)));
+        assertEquals(1, router.getLocalCache().getHitCount());
+
+        // changing the argument after routing doesn't affect the cached result
+        offer.setMemberId(7L);
+        assertEquals("partition3", router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".load", offer)).getResourceIdentities().get(0));
+
+        // constant statements are routed once, without touching the cache
+        RoutingResult count = router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".count", offer));
+        assertEquals(2, count.getResourceIdentities().size());
+        assertSame(count, router.doRoute(new MyBatisRoutingFact(NAMESPACE + ".count", another)));
+        assertSame(count, router.planFor(NAMESPACE + ".count").getMemo());
+        assertEquals(1, router.getLocalCache().getHitCount());
+    }
+}
@@ -0,0 +1,144 @@
+package com.gimc.mybatis.db.shard.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+
+@Test
+public class ConcurrentLfuCacheTest {
+
+    public void testGetAndPutNormally() {
+        ConcurrentLfuCache<String, String> cache = new ConcurrentLfuCache<String, String>(100);
+        assertNull(cache.get("a"));
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        cache.put("a", "2");
+        assertEquals("2", cache.get("a"));
+        assertEquals(1, cache.size());
+
+        cache.put("b", null);
+        assertNull(cache.get("b"));
+
+        cache.remove("a");
+        assertNull(cache.get("a"));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    public void testSizeBoundIsHonored() {
+        ConcurrentLfuCache<Integer, Integer> cache = new ConcurrentLfuCache<Integer, Integer>(1000);
+        for (int i = 0; i < 100000; i++) {
+            cache.get(i);
+            cache.put(i, i);
+        }
+        assertTrue(cache.size() <= 1000);
+        assertTrue(cache.getEvictionCount() >= 99000);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertTrue(cache.size() <= 1000);
+    }
+
+    public void testFrequentEntriesSurviveScan() {
+        ConcurrentLfuCache<Integer, Integer> cache = new ConcurrentLfuCache<Integer, Integer>(1000);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 500; i++) {
+                if (cache.get(i) == null) {
+                    cache.put(i, i);
+                }
+            }
+        }
+        // one-off keys, 10 times as many as the cache can hold
+        for (int i = 1000000; i < 1010000; i++) {
+            if (cache.get(i) == null) {
+                cache.put(i, i);
+            }
+        }
+        int survivors = 0;
+        for (int i = 0; i < 500; i++) {
+            if (cache.get(i) != null) {
+                survivors++;
+            }
+        }
+        assertTrue("only " + survivors + " hot entries survived", survivors > 450);
+    }
+
+    public void testRemovedEntriesMakeRoom() {
+        ConcurrentLfuCache<Integer, Integer> cache = new ConcurrentLfuCache<Integer, Integer>(50);
+        for (int i = 0; i < 50; i++) {
+            cache.put(i, i);
+        }
+        cache.remove(0);
+        cache.put(100, 100);
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(50, cache.size());
+        for (int i = 1; i < 50; i++) {
+            assertEquals(Integer.valueOf(i), cache.get(i));
+        }
+        assertEquals(Integer.valueOf(100), cache.get(100));
+    }
+
+    public void testEntriesExpire() throws Exception {
+        ConcurrentLfuCache<String, String> cache = new ConcurrentLfuCache<String, String>(100, 50, TimeUnit.MILLISECONDS);
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        Thread.sleep(100);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getExpirationCount());
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        final ConcurrentLfuCache<Integer, Integer> cache = new ConcurrentLfuCache<Integer, Integer>(256);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            Thread thread = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                        for (int i = 0; i < 50000; i++) {
+                            int key = (i * 31 + seed) % 2048;
+                            Integer value = cache.get(key);
+                            if (value == null) {
+                                cache.put(key, key);
+                            } else if (value.intValue() != key) {
+                                throw new IllegalStateException("wrong value:" + value + " for key:" + key);
+                            }
+                            if (i % 10000 == 0) {
+                                cache.remove(key);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        latch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        assertTrue(cache.size() <= 256);
+        assertEquals(8 * 50000, cache.getHitCount() + cache.getMissCount());
+    }
+}
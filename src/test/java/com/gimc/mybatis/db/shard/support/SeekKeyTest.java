@@ -0,0 +1,63 @@
+package com.gimc.mybatis.db.shard.support;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.fail;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+@Test
+public class SeekKeyTest {
+
+    public void testRowsOrderedByKey() {
+        SeekKey seekKey = new SeekKey("gmtCreated desc, id");
+        Map<String, Object> r1 = row(new Timestamp(2000L), 3L);
+        Map<String, Object> r2 = row(new Timestamp(2000L), 5L);
+        Map<String, Object> r3 = row(new Timestamp(1000L), 1L);
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(Arrays.asList(r3, r2, r1));
+        Collections.sort(rows, seekKey);
+        assertEquals(Arrays.asList(r1, r2, r3), rows);
+    }
+
+    public void testTokenOfKey() {
+        SeekKey seekKey = new SeekKey("gmtCreated desc,offer.id desc");
+        Timestamp gmtCreated = new Timestamp(1234L);
+        gmtCreated.setNanos(5678);
+        Map<String, Object> offer = new HashMap<String, Object>();
+        offer.put("id", 42L);
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("gmtCreated", gmtCreated);
+        row.put("offer", offer);
+
+        Map<String, Object> values = seekKey.decode(seekKey.encode(row));
+        assertEquals(gmtCreated, values.get("gmtCreated"));
+        assertEquals(Collections.singletonMap("id", 42L), values.get("offer"));
+
+        try {
+            new SeekKey("gmtCreated desc,offer.id").decode(seekKey.encode(row));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // token of another key
+        }
+        try {
+            seekKey.encode(Collections.singletonMap("gmtCreated", new Object()));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // unsupported or missing values
+        }
+    }
+
+    private static Map<String, Object> row(Timestamp gmtCreated, long id) {
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("gmtCreated", gmtCreated);
+        row.put("id", id);
+        return row;
+    }
+}
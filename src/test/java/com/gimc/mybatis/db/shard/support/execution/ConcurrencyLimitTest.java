@@ -0,0 +1,60 @@
+package com.gimc.mybatis.db.shard.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+@Test
+public class ConcurrencyLimitTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(50);
+
+    public void testAimdLimit() throws Exception {
+        AimdConcurrencyLimit.Factory factory = new AimdConcurrencyLimit.Factory();
+        factory.setTimeoutMillis(20);
+        IConcurrencyLimit limit = factory.create(12);
+        assertEquals(10, limit.getLimit());
+
+        // not grown while most of the limit is unused
+        limit.onSample(FAST, 1, false);
+        assertEquals(10, limit.getLimit());
+        for (int i = 0; i < 5; i++) {
+            limit.onSample(FAST, limit.getLimit(), false);
+        }
+        assertEquals(12, limit.getLimit());
+
+        limit.onSample(SLOW, 12, false);
+        assertEquals(10, limit.getLimit());
+        limit.onSample(FAST, 10, true);
+        assertEquals(9, limit.getLimit());
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(FAST, 10, true);
+        }
+        assertEquals(1, limit.getLimit());
+    }
+
+    public void testGradientLimit() throws Exception {
+        IConcurrencyLimit limit = new GradientConcurrencyLimit.Factory().create(100);
+        for (int i = 0; i < 50; i++) {
+            limit.onSample(FAST, limit.getLimit(), false);
+        }
+        int steady = limit.getLimit();
+        assertTrue(steady > 10);
+
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(SLOW, limit.getLimit(), false);
+        }
+        assertTrue(limit.getLimit() < steady / 2);
+
+        // not grown while most of the limit is unused
+        int slow = limit.getLimit();
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(FAST, 0, false);
+        }
+        assertEquals(slow, limit.getLimit());
+    }
+}
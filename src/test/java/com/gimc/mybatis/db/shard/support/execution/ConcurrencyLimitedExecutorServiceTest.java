@@ -0,0 +1,174 @@
+package com.gimc.mybatis.db.shard.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class ConcurrencyLimitedExecutorServiceTest {
+
+    private ExecutorService delegate;
+    private FixedLimit limit;
+    private ConcurrencyLimitedExecutorService executor;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        delegate = Executors.newCachedThreadPool();
+        limit = new FixedLimit(1);
+        executor = new ConcurrencyLimitedExecutorService(delegate, limit, 1);
+    }
+
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        delegate.shutdownNow();
+    }
+
+    public void testRequestsBeyondLimitQueuedOrShed() throws Exception {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        Runnable task = new Runnable() {
+            public void run() {
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        };
+        executor.execute(task);
+        executor.execute(task);
+        try {
+            executor.execute(task);
+            fail();
+        } catch (RejectedExecutionException e) {
+            // shed since 1 is running and 1 is waiting
+        }
+        assertEquals(1, executor.getInFlightCount());
+        assertEquals(1, executor.getQueuedCount());
+        assertEquals(1, executor.getShedCount());
+
+        proceed.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(0, executor.getQueuedCount());
+        assertEquals(2, limit.samples.size());
+        assertFalse(limit.dropped);
+    }
+
+    public void testCancelledRequestsCountAsDropped() throws Exception {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Future<?> future = executor.submit(new Runnable() {
+            public void run() {
+            }
+        });
+        future.cancel(true);
+        proceed.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(limit.dropped);
+    }
+
+    public void testLimitFollowedAsItChanges() throws Exception {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(2);
+        executor = new ConcurrencyLimitedExecutorService(delegate, limit, 10);
+        for (int i = 0; i < 2; i++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    started.countDown();
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertFalse(started.await(100, TimeUnit.MILLISECONDS));
+        limit.limit = 2;
+        // the waiting request is dispatched once another one is queued or completes
+        executor.execute(new Runnable() {
+            public void run() {
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        proceed.countDown();
+    }
+
+    public void testInlineRequestsLimitedAndSampled() throws Exception {
+        final List<Thread> threads = new ArrayList<Thread>();
+        Runnable task = new Runnable() {
+            public void run() {
+                threads.add(Thread.currentThread());
+            }
+        };
+        assertTrue(executor.tryRunInline(task));
+        assertEquals(Thread.currentThread(), threads.get(0));
+        assertEquals(0, executor.getInFlightCount());
+        assertEquals(1, limit.samples.size());
+
+        final CountDownLatch proceed = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        // the only permit is taken
+        assertFalse(executor.tryRunInline(task));
+        assertEquals(1, threads.size());
+        proceed.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertFalse(executor.tryRunInline(task));
+    }
+
+    private static class FixedLimit implements IConcurrencyLimit {
+
+        private volatile int limit;
+        private final List<Long> samples = new ArrayList<Long>();
+        private volatile boolean dropped;
+
+        FixedLimit(int limit) {
+            this.limit = limit;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+            samples.add(rttNanos);
+            this.dropped |= dropped;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.gimc.mybatis.db.shard.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class DeadlineBoundConnectionTest {
+
+    private Connection target;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        target = new DriverManagerDataSource("jdbc:h2:mem:deadline", "sa", "").getConnection();
+    }
+
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        target.close();
+    }
+
+    public void testQueryTimeoutWithinDeadline() throws Exception {
+        DeadlineBoundConnection connection = new DeadlineBoundConnection(target, Deadline.after(2500));
+        PreparedStatement statement = connection.getConnection().prepareStatement("select 1");
+        assertEquals(3, statement.getQueryTimeout());
+        // timeouts of mapped statements can only shorten it
+        statement.setQueryTimeout(1);
+        assertEquals(1, statement.getQueryTimeout());
+        statement.setQueryTimeout(60);
+        assertEquals(3, statement.getQueryTimeout());
+        statement.setQueryTimeout(0);
+        assertEquals(3, statement.getQueryTimeout());
+        statement.close();
+    }
+
+    public void testNoStatementAfterCancelled() throws Exception {
+        DeadlineBoundConnection connection = new DeadlineBoundConnection(target, Deadline.after(1000));
+        Statement statement = connection.getConnection().createStatement();
+        connection.cancel();
+        assertTrue(connection.isCancelled());
+        try {
+            connection.getConnection().prepareStatement("select 1");
+            fail();
+        } catch (SQLTimeoutException e) {
+            // pass
+        }
+        statement.close();
+        assertFalse(target.isClosed());
+    }
+}
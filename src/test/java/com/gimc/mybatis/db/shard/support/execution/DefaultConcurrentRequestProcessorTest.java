@@ -0,0 +1,571 @@
+package com.gimc.mybatis.db.shard.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import com.gimc.mybatis.db.shard.SqlSessionCallBack;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.managed.ManagedTransactionFactory;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class DefaultConcurrentRequestProcessorTest {
+
+    private ExecutorService executor;
+    private TrackingDataSource dataSource;
+    private DefaultConcurrentRequestProcessor processor;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(2);
+        dataSource = new TrackingDataSource();
+        processor = new DefaultConcurrentRequestProcessor(new SqlSessionFactoryBuilder().build(new Configuration()));
+    }
+
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    public void testProcessingAsynchronously() throws Exception {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return query(session, "select 1");
+            }
+        }));
+        requests.add(request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                return query(session, "select 2");
+            }
+        }));
+
+        // the first request can't complete until the caller goes on
+        CompletableFuture<List<Object>> future = processor.processAsync(requests);
+        assertFalse(future.isDone());
+        proceed.countDown();
+        assertEquals(Arrays.asList((Object) 1, 2), future.get(10, TimeUnit.SECONDS));
+        dataSource.assertAllReleased(2);
+
+        assertEquals(Arrays.asList((Object) 1, 2), processor.process(requests));
+    }
+
+    public void testFailedRequestCompletesExceptionally() throws Exception {
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                return query(session, "select 1");
+            }
+        }));
+        requests.add(request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                throw new IllegalStateException("failed on purpose");
+            }
+        }));
+        try {
+            processor.processAsync(requests).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        dataSource.assertAllReleased(2);
+    }
+
+    public void testRejectedRequestsReleaseTheirConnections() throws Exception {
+        executor.shutdown();
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        for (int i = 0; i < 3; i++) {
+            requests.add(request(new SqlSessionCallBack() {
+                public Object execute(SqlSession session) throws SQLException {
+                    return query(session, "select 1");
+                }
+            }));
+        }
+        try {
+            processor.processAsync(requests).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        dataSource.assertAllReleased(3);
+
+        assertTrue(processor.processAsync(new ArrayList<ConcurrentRequest>()).get().isEmpty());
+    }
+
+    public void testShedRequestsFailTheCall() throws Exception {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        ConcurrencyLimitedExecutorService limited = new ConcurrencyLimitedExecutorService(executor, new AimdConcurrencyLimit.Factory().create(1), 0);
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        for (int i = 0; i < 2; i++) {
+            ConcurrentRequest request = request(new SqlSessionCallBack() {
+                public Object execute(SqlSession session) throws SQLException {
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                        throw new SQLException("interrupted");
+                    }
+                    return query(session, "select 1");
+                }
+            });
+            request.setExecutor(limited);
+            requests.add(request);
+        }
+        try {
+            processor.process(requests);
+            fail();
+        } catch (TransientDataAccessResourceException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(1, limited.getShedCount());
+        proceed.countDown();
+        limited.shutdown();
+        assertTrue(limited.awaitTermination(10, TimeUnit.SECONDS));
+        dataSource.assertAllReleased(2);
+    }
+
+    public void testStragglersAreCancelledWhenDeadlinePasses() throws Exception {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        Deadline deadline = Deadline.after(200);
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                return query(session, "select 1");
+            }
+        }, deadline));
+        requests.add(request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    throw new SQLException("interrupted");
+                }
+                return query(session, "select 2");
+            }
+        }, deadline));
+        long start = System.nanoTime();
+        try {
+            processor.process(requests);
+            fail();
+        } catch (QueryTimeoutException e) {
+            assertTrue(e.getMessage().contains("1 of 2"));
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        // the straggler still holds its connection, it's released by the worker once the straggler returns
+        assertEquals(1, dataSource.openConnections());
+        proceed.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        dataSource.assertAllReleased(2);
+    }
+
+    public void testRequestsNotStartedWhenDeadlinePassesAreReleasedByCaller() throws Exception {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        Deadline deadline = Deadline.after(200);
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        for (int i = 0; i < 2; i++) {
+            ConcurrentRequest request = request(new SqlSessionCallBack() {
+                public Object execute(SqlSession session) throws SQLException {
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                        throw new SQLException("interrupted");
+                    }
+                    return 1;
+                }
+            }, deadline);
+            request.setExecutor(single);
+            requests.add(request);
+        }
+        try {
+            processor.process(requests);
+            fail();
+        } catch (QueryTimeoutException e) {
+            assertTrue(e.getMessage().contains("2 of 2"));
+        }
+        // the queued one never starts, the running one keeps its connection until it returns
+        assertEquals(1, dataSource.openConnections());
+        proceed.countDown();
+        single.shutdown();
+        assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+        dataSource.assertAllReleased(2);
+    }
+
+    public void testStragglersAreCancelledWhenDeadlinePassesAsynchronously() throws Exception {
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Deadline deadline = Deadline.after(200);
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    throw new SQLException("interrupted");
+                } finally {
+                    done.countDown();
+                }
+                // no statement can be created once the deadline passes
+                return query(session, "select 1");
+            }
+        }, deadline));
+        try {
+            processor.processAsync(requests).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof QueryTimeoutException);
+        }
+        proceed.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        dataSource.assertAllReleased(1);
+    }
+
+    public void testRequestsWithinDeadline() throws Exception {
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        for (int i = 0; i < 2; i++) {
+            requests.add(request(new SqlSessionCallBack() {
+                public Object execute(SqlSession session) throws SQLException {
+                    return query(session, "select 1");
+                }
+            }, Deadline.after(10000)));
+        }
+        assertEquals(Arrays.asList((Object) 1, 1), processor.process(requests));
+        assertEquals(Arrays.asList((Object) 1, 1), processor.processAsync(requests).get(10, TimeUnit.SECONDS));
+        dataSource.assertAllReleased(4);
+    }
+
+    public void testSlowReadHedgedToStandby() throws Exception {
+        TrackingDataSource standby = new TrackingDataSource("jdbc:h2:mem:standby");
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setMinimumSamples(1);
+        policy.setMinimumDelayMillis(0);
+        policy.recordLatency(dataSource, TimeUnit.MILLISECONDS.toNanos(20));
+        processor.setHedgingPolicy(policy);
+
+        final CountDownLatch proceed = new CountDownLatch(1);
+        ConcurrentRequest request = request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                if (session.getConnection().getMetaData().getURL().contains("processor")) {
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                        throw new SQLException("interrupted");
+                    }
+                    return query(session, "select 1");
+                }
+                return query(session, "select 2");
+            }
+        });
+        request.setStandbyDataSource(standby);
+        try {
+            // the primary is still waiting when the standby answers, it keeps its connection until it returns
+            assertEquals(Arrays.asList((Object) 2), processor.process(Arrays.asList(request)));
+            assertEquals(1, dataSource.openConnections());
+            assertEquals(Arrays.asList((Object) 2), processor.processAsync(Arrays.asList(request)).get(10, TimeUnit.SECONDS));
+            assertEquals(2, dataSource.openConnections());
+        } finally {
+            proceed.countDown();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        dataSource.assertAllReleased(2);
+        policy.getExecutor().shutdown();
+        assertTrue(policy.getExecutor().awaitTermination(10, TimeUnit.SECONDS));
+        standby.assertAllReleased(2);
+    }
+
+    public void testPrimaryNotStartedWhenHedgeWinsIsReleased() throws Exception {
+        TrackingDataSource standby = new TrackingDataSource("jdbc:h2:mem:standby");
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setMinimumSamples(1);
+        policy.setMinimumDelayMillis(0);
+        policy.recordLatency(dataSource, TimeUnit.MILLISECONDS.toNanos(20));
+        processor.setHedgingPolicy(policy);
+
+        // the only worker of the data source is busy, the primary stays queued
+        final CountDownLatch proceed = new CountDownLatch(1);
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        single.execute(new Runnable() {
+            public void run() {
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    // exit
+                }
+            }
+        });
+        ConcurrentRequest request = request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                return query(session, "select 2");
+            }
+        });
+        request.setExecutor(single);
+        request.setStandbyDataSource(standby);
+        try {
+            assertEquals(Arrays.asList((Object) 2), processor.processAsync(Arrays.asList(request)).get(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList((Object) 2), processor.process(Arrays.asList(request)));
+            dataSource.assertAllReleased(2);
+        } finally {
+            proceed.countDown();
+        }
+        single.shutdown();
+        assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+        policy.getExecutor().shutdown();
+        assertTrue(policy.getExecutor().awaitTermination(10, TimeUnit.SECONDS));
+        standby.assertAllReleased(2);
+    }
+
+    public void testReadNotHedgedUntilLatencyKnown() throws Exception {
+        TrackingDataSource standby = new TrackingDataSource("jdbc:h2:mem:standby");
+        processor.setHedgingPolicy(new HedgingPolicy());
+        ConcurrentRequest request = request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new SQLException("interrupted");
+                }
+                return query(session, "select 1");
+            }
+        });
+        request.setStandbyDataSource(standby);
+        assertEquals(Arrays.asList((Object) 1), processor.process(Arrays.asList(request)));
+        dataSource.assertAllReleased(1);
+        standby.assertAllReleased(0);
+        assertTrue(processor.getHedgingPolicy().hedgeDelayNanos(dataSource) < 0);
+    }
+
+    public void testDeferredAcquisitionDoesNotWaitForExhaustedPool() throws Exception {
+        processor.setDeferredConnectionAcquisition(true);
+        ExhaustedDataSource exhausted = new ExhaustedDataSource();
+        final CountDownLatch answered = new CountDownLatch(1);
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                return query(session, "select 1");
+            }
+        }));
+        requests.get(0).setDataSource(exhausted);
+        requests.get(0).setIdentity("exhausted");
+        requests.add(request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                answered.countDown();
+                return query(session, "select 2");
+            }
+        }));
+        requests.get(1).setIdentity("available");
+
+        CompletableFuture<List<Object>> future = processor.processAsync(requests);
+        // the shard with connections available doesn't wait for the exhausted one
+        assertTrue(answered.await(10, TimeUnit.SECONDS));
+        assertFalse(future.isDone());
+        exhausted.available.countDown();
+        assertEquals(Arrays.asList((Object) 1, 2), future.get(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        exhausted.assertAllReleased(1);
+        dataSource.assertAllReleased(1);
+        assertFalse(exhausted.acquiringThreads().contains(Thread.currentThread()));
+        assertFalse(dataSource.acquiringThreads().contains(Thread.currentThread()));
+
+        Map<String, RequestStatistics.ShardStatistics> statistics = processor.getRequestStatistics().getShardStatistics();
+        assertEquals(Arrays.asList("available", "exhausted"), new ArrayList<String>(statistics.keySet()));
+        assertEquals(1, statistics.get("exhausted").getAcquisition().getCount());
+        assertEquals(1, statistics.get("exhausted").getExecution().getCount());
+        assertTrue(statistics.get("exhausted").getAcquisition().getTotalNanos() > statistics.get("available").getAcquisition().getTotalNanos());
+    }
+
+    public void testTransactionBoundConnectionsAcquiredInCallerThread() throws Exception {
+        processor.setDeferredConnectionAcquisition(true);
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                return query(session, "select 1");
+            }
+        }));
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            assertEquals(Arrays.asList((Object) 1), processor.process(requests));
+            assertEquals(Arrays.asList(Thread.currentThread()), dataSource.acquiringThreads());
+        } finally {
+            TransactionSynchronizationUtils.triggerBeforeCompletion();
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        dataSource.assertAllReleased(1);
+
+        assertEquals(Arrays.asList((Object) 1), processor.process(requests));
+        assertFalse(dataSource.acquiringThreads().contains(Thread.currentThread()));
+        dataSource.assertAllReleased(1);
+    }
+
+    public void testTransactionBoundRequestsProcessedInCallerThreadAsynchronously() throws Exception {
+        // sessions leave the connections open, only the processor releases them
+        ManagedTransactionFactory transactionFactory = new ManagedTransactionFactory();
+        Properties properties = new Properties();
+        properties.setProperty("closeConnection", "false");
+        transactionFactory.setProperties(properties);
+        processor = new DefaultConcurrentRequestProcessor(new SqlSessionFactoryBuilder().build(new Configuration(new Environment("test",
+            transactionFactory, dataSource))));
+        processor.setDeferredConnectionAcquisition(true);
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        requests.add(request(new SqlSessionCallBack() {
+            public Object execute(SqlSession session) throws SQLException {
+                return query(session, "select 1");
+            }
+        }));
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            // the caller waits for the statements, so that they never run while it goes on with the transaction
+            CompletableFuture<List<Object>> future = processor.processAsync(requests);
+            assertTrue(future.isDone());
+            assertEquals(Arrays.asList((Object) 1), future.get());
+            assertEquals(Arrays.asList(Thread.currentThread()), dataSource.acquiringThreads());
+            // the connection is held by the transaction until it completes
+            assertFalse(dataSource.connections.get(0).isClosed());
+        } finally {
+            TransactionSynchronizationUtils.triggerBeforeCompletion();
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        dataSource.assertAllReleased(1);
+
+        assertEquals(Arrays.asList((Object) 1), processor.processAsync(requests).get(10, TimeUnit.SECONDS));
+        assertFalse(dataSource.acquiringThreads().contains(Thread.currentThread()));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        dataSource.assertAllReleased(1);
+    }
+
+    private ConcurrentRequest request(SqlSessionCallBack action, Deadline deadline) {
+        ConcurrentRequest request = request(action);
+        request.setDeadline(deadline);
+        return request;
+    }
+
+    private ConcurrentRequest request(SqlSessionCallBack action) {
+        ConcurrentRequest request = new ConcurrentRequest();
+        request.setAction(action);
+        request.setDataSource(dataSource);
+        request.setExecutor(executor);
+        return request;
+    }
+
+    private static Object query(SqlSession session, String sql) throws SQLException {
+        Statement statement = session.getConnection().createStatement();
+        try {
+            ResultSet rs = statement.executeQuery(sql);
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static class TrackingDataSource extends DelegatingDataSource {
+
+        private final List<Connection> connections = new ArrayList<Connection>();
+        private final List<Thread> acquiringThreads = new ArrayList<Thread>();
+
+        TrackingDataSource() {
+            this("jdbc:h2:mem:processor");
+        }
+
+        TrackingDataSource(String url) {
+            super(new DriverManagerDataSource(url, "sa", ""));
+        }
+
+        @Override
+        public synchronized Connection getConnection() throws SQLException {
+            Connection connection = super.getConnection();
+            connections.add(connection);
+            acquiringThreads.add(Thread.currentThread());
+            return connection;
+        }
+
+        synchronized void assertAllReleased(int expected) throws SQLException {
+            assertEquals(expected, connections.size());
+            for (Connection connection : connections) {
+                assertTrue(connection.isClosed());
+            }
+            connections.clear();
+        }
+
+        synchronized int openConnections() throws SQLException {
+            int open = 0;
+            for (Connection connection : connections) {
+                if (!connection.isClosed()) {
+                    open++;
+                }
+            }
+            return open;
+        }
+
+        synchronized List<Thread> acquiringThreads() {
+            List<Thread> threads = new ArrayList<Thread>(acquiringThreads);
+            acquiringThreads.clear();
+            return threads;
+        }
+    }
+
+    /**
+     * connections are available only once {@link #available} counts down, like an exhausted pool.
+     */
+    private static class ExhaustedDataSource extends TrackingDataSource {
+
+        private final CountDownLatch available = new CountDownLatch(1);
+
+        ExhaustedDataSource() {
+            super("jdbc:h2:mem:exhausted");
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            try {
+                available.await();
+            } catch (InterruptedException e) {
+                throw new SQLException("interrupted");
+            }
+            return super.getConnection();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.gimc.mybatis.db.shard.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import com.gimc.mybatis.db.shard.SqlSessionCallBack;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.SqlSession;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class DefaultExecutionPlannerTest {
+
+    private static final String STATEMENT = "com.gimc.Offer.select";
+
+    private ExecutorService executor;
+    private DefaultExecutionPlanner planner;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        planner = new DefaultExecutionPlanner();
+        planner.setMinimumSamples(1);
+        planner.setParallelism(4);
+    }
+
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    public void testSingleShardInline() throws Exception {
+        List<ConcurrentRequest> requests = planner.plan(STATEMENT, SqlCommandType.SELECT, requests(1));
+        assertSame(InlineExecutorService.INSTANCE, requests.get(0).getExecutor());
+
+        // the caller can only give up on a slow request with a deadline if it runs on the executor
+        planner.recordLatency(STATEMENT, "shard0", TimeUnit.MILLISECONDS.toNanos(50));
+        requests = requests(1);
+        requests.get(0).setDeadline(Deadline.after(1000));
+        assertSame(executor, planner.plan(STATEMENT, SqlCommandType.SELECT, requests).get(0).getExecutor());
+
+        // giving up on a write doesn't undo it, it's bounded by the query timeout of its deadline instead
+        requests = requests(1);
+        requests.get(0).setDeadline(Deadline.after(1000));
+        assertSame(InlineExecutorService.INSTANCE, planner.plan(STATEMENT, SqlCommandType.UPDATE, requests).get(0).getExecutor());
+    }
+
+    public void testInlineRequestsKeepPermitsOfShards() throws Exception {
+        List<ConcurrentRequest> requests = requests(1);
+        ExecutorService limited = new ConcurrencyLimitedExecutorService(executor, new AimdConcurrencyLimit(1, 1, 1, 0.9, 1000), 0);
+        requests.get(0).setExecutor(limited);
+        ExecutorService inline = planner.plan(STATEMENT, SqlCommandType.SELECT, requests).get(0).getExecutor();
+        assertTrue(inline instanceof InlineExecutorService);
+        assertNotSame(InlineExecutorService.INSTANCE, inline);
+    }
+
+    public void testFanOutUntilLatenciesKnown() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            planner.recordLatency(STATEMENT, "shard" + i, TimeUnit.MICROSECONDS.toNanos(10));
+        }
+        for (ConcurrentRequest request : planner.plan(STATEMENT, SqlCommandType.SELECT, requests(8))) {
+            assertSame(executor, request.getExecutor());
+        }
+    }
+
+    public void testCheapReadsInlineOrBatched() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            planner.recordLatency(STATEMENT, "shard" + i, TimeUnit.MICROSECONDS.toNanos(10));
+        }
+        for (ConcurrentRequest request : planner.plan(STATEMENT, SqlCommandType.SELECT, requests(8))) {
+            assertSame(InlineExecutorService.INSTANCE, request.getExecutor());
+        }
+        // writes fan out however cheap they were
+        for (ConcurrentRequest request : planner.plan(STATEMENT, SqlCommandType.DELETE, requests(8))) {
+            assertSame(executor, request.getExecutor());
+        }
+
+        for (int n = 0; n < 50; n++) {
+            for (int i = 0; i < 8; i++) {
+                planner.recordLatency(STATEMENT, "shard" + i, TimeUnit.MICROSECONDS.toNanos(110));
+            }
+        }
+        // 880 microseconds altogether, in 4 sub-batches of 2 shards
+        List<ConcurrentRequest> requests = planner.plan(STATEMENT, SqlCommandType.SELECT, requests(8));
+        for (int i = 0; i < 8; i += 2) {
+            assertTrue(requests.get(i).getExecutor() instanceof SubBatchExecutorService);
+            assertSame(requests.get(i).getExecutor(), requests.get(i + 1).getExecutor());
+        }
+        assertNotSame(requests.get(0).getExecutor(), requests.get(2).getExecutor());
+
+        assertEquals(Long.valueOf(1), planner.getDecisions().get(ExecutionMode.INLINE));
+        assertEquals(Long.valueOf(1), planner.getDecisions().get(ExecutionMode.CONCURRENT));
+        assertEquals(Long.valueOf(1), planner.getDecisions().get(ExecutionMode.BATCHED));
+    }
+
+    public void testSubBatchesDoNotMixExecutors() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            planner.recordLatency(STATEMENT, "shard" + i, TimeUnit.MICROSECONDS.toNanos(110));
+        }
+        ExecutorService another = Executors.newSingleThreadExecutor();
+        try {
+            List<ConcurrentRequest> requests = requests(8);
+            for (int i = 1; i < 8; i += 2) {
+                requests.get(i).setExecutor(another);
+            }
+            // 2 shards in each sub-batch, both of them on the same executor
+            planner.plan(STATEMENT, SqlCommandType.SELECT, requests);
+            for (int i = 0; i < 8; i += 4) {
+                assertTrue(requests.get(i).getExecutor() instanceof SubBatchExecutorService);
+                assertSame(requests.get(i).getExecutor(), requests.get(i + 2).getExecutor());
+                assertSame(requests.get(i + 1).getExecutor(), requests.get(i + 3).getExecutor());
+                assertNotSame(requests.get(i).getExecutor(), requests.get(i + 1).getExecutor());
+            }
+            assertNotSame(requests.get(0).getExecutor(), requests.get(4).getExecutor());
+
+            // no shards to batch together
+            requests = requests(2);
+            requests.get(1).setExecutor(another);
+            planner.plan(STATEMENT, SqlCommandType.SELECT, requests);
+            assertSame(executor, requests.get(0).getExecutor());
+            assertSame(another, requests.get(1).getExecutor());
+            assertEquals(Long.valueOf(1), planner.getDecisions().get(ExecutionMode.CONCURRENT));
+        } finally {
+            another.shutdownNow();
+        }
+    }
+
+    public void testLatenciesMeasuredByPlannedActions() throws Exception {
+        assertEquals(-1, planner.expectedLatencyNanos(STATEMENT, "shard0"));
+        List<ConcurrentRequest> requests = planner.plan(STATEMENT, SqlCommandType.SELECT, requests(1));
+        assertEquals(1, requests.get(0).getAction().execute(null));
+        assertTrue(planner.expectedLatencyNanos(STATEMENT, "shard0") >= 0);
+    }
+
+    private List<ConcurrentRequest> requests(int shards) {
+        List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+        for (int i = 0; i < shards; i++) {
+            ConcurrentRequest request = new ConcurrentRequest();
+            request.setIdentity("shard" + i);
+            request.setExecutor(executor);
+            request.setAction(new SqlSessionCallBack() {
+                public Object execute(SqlSession session) throws SQLException {
+                    return 1;
+                }
+            });
+            requests.add(request);
+        }
+        return requests;
+    }
+}
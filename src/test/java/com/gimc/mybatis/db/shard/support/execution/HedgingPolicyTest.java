@@ -0,0 +1,65 @@
+package com.gimc.mybatis.db.shard.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testng.annotations.Test;
+
+@Test
+public class HedgingPolicyTest {
+
+    private final DataSource dataSource = new DriverManagerDataSource();
+
+    public void testDelayIsPercentileOfRecentLatencies() {
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setSampleSize(100);
+        policy.setMinimumSamples(10);
+        policy.setMinimumDelayMillis(0);
+        policy.setRecomputeInterval(1);
+        for (int i = 1; i <= 9; i++) {
+            policy.recordLatency(dataSource, i);
+        }
+        assertEquals(-1, policy.hedgeDelayNanos(dataSource));
+        for (int i = 10; i <= 100; i++) {
+            policy.recordLatency(dataSource, i);
+        }
+        assertEquals(95, policy.hedgeDelayNanos(dataSource));
+
+        // the oldest latencies are dropped
+        for (int i = 0; i < 100; i++) {
+            policy.recordLatency(dataSource, 1000);
+        }
+        assertEquals(1000, policy.hedgeDelayNanos(dataSource));
+        assertEquals(-1, policy.hedgeDelayNanos(new DriverManagerDataSource()));
+    }
+
+    public void testDelayIsRecomputedEveryInterval() {
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setSampleSize(100);
+        policy.setMinimumSamples(10);
+        policy.setMinimumDelayMillis(0);
+        policy.setRecomputeInterval(10);
+        for (int i = 0; i < 10; i++) {
+            policy.recordLatency(dataSource, 10);
+        }
+        // known as soon as there are enough latencies
+        assertEquals(10, policy.hedgeDelayNanos(dataSource));
+        for (int i = 0; i < 9; i++) {
+            policy.recordLatency(dataSource, 1000);
+        }
+        assertEquals(10, policy.hedgeDelayNanos(dataSource));
+        policy.recordLatency(dataSource, 1000);
+        assertEquals(1000, policy.hedgeDelayNanos(dataSource));
+    }
+
+    public void testMinimumDelay() {
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.setMinimumSamples(1);
+        policy.recordLatency(dataSource, 10);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(policy.getMinimumDelayMillis()), policy.hedgeDelayNanos(dataSource));
+    }
+}
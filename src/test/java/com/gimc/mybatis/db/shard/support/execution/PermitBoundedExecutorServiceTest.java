@@ -0,0 +1,158 @@
+package com.gimc.mybatis.db.shard.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class PermitBoundedExecutorServiceTest {
+
+    private ExecutorService sharedExecutor;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        sharedExecutor = VirtualThreads.newThreadPerTaskExecutor("test-");
+    }
+
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        sharedExecutor.shutdownNow();
+    }
+
+    public void testConcurrencyBoundedByPermits() throws Exception {
+        PermitBoundedExecutorService executor = new PermitBoundedExecutorService(sharedExecutor, 2);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(2);
+        final AtomicInteger concurrency = new AtomicInteger();
+        final AtomicInteger maxConcurrency = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    int current = concurrency.incrementAndGet();
+                    while (maxConcurrency.get() < current && !maxConcurrency.compareAndSet(maxConcurrency.get(), current)) {
+                        // retry
+                    }
+                    started.countDown();
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        concurrency.decrementAndGet();
+                    }
+                }
+            }));
+        }
+        // the caller is never blocked, the tasks beyond permits wait in queue
+        assertEquals(2, executor.getRunningCount());
+        assertEquals(8, executor.getPendingCount());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(2, concurrency.get());
+
+        proceed.countDown();
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(2, maxConcurrency.get());
+        assertEquals(0, executor.getPendingCount());
+    }
+
+    public void testInlineTasksTakePermits() throws Exception {
+        PermitBoundedExecutorService executor = new PermitBoundedExecutorService(sharedExecutor, 1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        Runnable task = new Runnable() {
+            public void run() {
+                threads.add(Thread.currentThread());
+            }
+        };
+        assertTrue(executor.tryRunInline(task));
+        assertEquals(Thread.currentThread(), threads.get(0));
+        assertEquals(0, executor.getRunningCount());
+
+        final CountDownLatch proceed = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        // the only permit is taken
+        assertFalse(executor.tryRunInline(task));
+        assertEquals(1, threads.size());
+        proceed.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertFalse(executor.tryRunInline(task));
+    }
+
+    public void testShuttingDown() throws Exception {
+        PermitBoundedExecutorService executor = new PermitBoundedExecutorService(sharedExecutor, 1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final AtomicInteger completed = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    completed.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            // pass
+        }
+        assertFalse(executor.awaitTermination(10, TimeUnit.MILLISECONDS));
+        proceed.countDown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(3, completed.get());
+        assertFalse(sharedExecutor.isShutdown());
+    }
+
+    public void testShuttingDownNow() throws Exception {
+        PermitBoundedExecutorService executor = new PermitBoundedExecutorService(sharedExecutor, 1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertEquals(2, executor.shutdownNow().size());
+        assertFalse(executor.isTerminated());
+        proceed.countDown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,202 @@
+package com.gimc.mybatis.db.shard.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class ShardCursorTest {
+
+    private static final Comparator<Integer> ASCENDING = new Comparator<Integer>() {
+        public int compare(Integer o1, Integer o2) {
+            return o1.intValue() - o2.intValue();
+        }
+    };
+
+    private ExecutorService executor;
+    private SqlSessionFactory sessionFactory;
+    private CountingDataSource shard1;
+    private CountingDataSource shard2;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        Configuration configuration = new Configuration();
+        ResultMap resultMap = new ResultMap.Builder(configuration, "ids", Integer.class, new ArrayList<ResultMapping>()).build();
+        configuration.addMappedStatement(new MappedStatement.Builder(configuration, "ids", new StaticSqlSource(configuration,
+            "select id from cursor_rows order by id"), SqlCommandType.SELECT).resultMaps(Arrays.asList(resultMap)).build());
+        configuration.addMappedStatement(new MappedStatement.Builder(configuration, "broken", new StaticSqlSource(configuration,
+            "select id from no_such_table"), SqlCommandType.SELECT).resultMaps(Arrays.asList(resultMap)).build());
+        configuration.addMappedStatement(new MappedStatement.Builder(configuration, "slow", new StaticSqlSource(configuration,
+            "select cast(max(x) as int) from system_range(1, 10000000000) where mod(x, 7) = 1"), SqlCommandType.SELECT).resultMaps(Arrays.asList(
+            resultMap)).build());
+        sessionFactory = new SqlSessionFactoryBuilder().build(configuration);
+        shard1 = new CountingDataSource("jdbc:h2:mem:cursor1;DB_CLOSE_DELAY=-1", 1, 4, 7, 10);
+        shard2 = new CountingDataSource("jdbc:h2:mem:cursor2;DB_CLOSE_DELAY=-1", 2, 3, 8);
+    }
+
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    public void testRowsMergedAsTheyAreRead() throws Exception {
+        ShardCursor<Integer> cursor = new ShardCursor<Integer>(sessionFactory, executor, ASCENDING).open("shard1", shard1, "ids", null).open(
+            "shard2", shard2, "ids", null);
+        List<Integer> rows = new ArrayList<Integer>();
+        while (cursor.hasNext()) {
+            rows.add(cursor.next());
+        }
+        assertEquals(Arrays.asList(1, 2, 3, 4, 7, 8, 10), rows);
+        shard1.awaitAllReleased();
+        shard2.awaitAllReleased();
+    }
+
+    public void testRowsInShardOrderWithoutComparator() throws Exception {
+        ShardCursor<Integer> cursor = new ShardCursor<Integer>(sessionFactory, executor, null).open("shard1", shard1, "ids", null).open("shard2",
+            shard2, "ids", null);
+        assertEquals(Arrays.asList(1, 4, 7, 10, 2, 3, 8), cursor.stream().collect(Collectors.toList()));
+    }
+
+    public void testClosedBeforeReadThrough() throws Exception {
+        ShardCursor<Integer> cursor = new ShardCursor<Integer>(sessionFactory, executor, ASCENDING).open("shard1", shard1, "ids", null).open(
+            "shard2", shard2, "ids", null);
+        assertEquals(Integer.valueOf(1), cursor.next());
+        cursor.close();
+        assertFalse(cursor.hasNext());
+        shard1.awaitAllReleased();
+        shard2.awaitAllReleased();
+    }
+
+    public void testRunningStatementCancelledOnClose() throws Exception {
+        ShardCursor<Integer> cursor = new ShardCursor<Integer>(sessionFactory, executor, ASCENDING).open("shard1", shard1, "ids", null).open(
+            "shard2", shard2, "slow", null);
+        // the worker of shard1 is waiting for the cursor, the statement of shard2 is running
+        shard2.awaitOpened();
+        Thread.sleep(100);
+        long start = System.nanoTime();
+        cursor.close();
+        shard1.awaitAllReleased();
+        shard2.awaitAllReleased();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    public void testPageOfBoundedShards() throws Exception {
+        RowBounds shardBounds = new RowBounds(0, 2 + 3);
+        ShardCursor<Integer> cursor = new ShardCursor<Integer>(sessionFactory, executor, ASCENDING).open("shard1", shard1, "ids", null,
+            shardBounds).open("shard2", shard2, "ids", null, shardBounds);
+        assertEquals(Arrays.asList(3, 4, 7), cursor.page(2, 3));
+        assertTrue(cursor.isClosed());
+        shard1.awaitAllReleased();
+        shard2.awaitAllReleased();
+
+        cursor = new ShardCursor<Integer>(sessionFactory, executor, ASCENDING).open("shard1", shard1, "ids", null).open("shard2", shard2, "ids",
+            null);
+        assertEquals(Arrays.asList(8, 10), cursor.page(5, 10));
+        assertEquals(0, new ShardCursor<Integer>(sessionFactory, executor, ASCENDING).open("shard1", shard1, "ids", null).page(10, 10).size());
+    }
+
+    public void testFailureOfShard() throws Exception {
+        ShardCursor<Integer> cursor = new ShardCursor<Integer>(sessionFactory, executor, ASCENDING).open("shard1", shard1, "ids", null).open(
+            "shard2", shard2, "broken", null);
+        try {
+            cursor.hasNext();
+            fail();
+        } catch (ConcurrencyFailureException e) {
+            assertTrue(e.getMessage().contains("shard2"));
+        }
+        assertTrue(cursor.isClosed());
+        shard1.awaitAllReleased();
+        shard2.awaitAllReleased();
+    }
+
+    private static class CountingDataSource extends DelegatingDataSource {
+
+        private final List<Connection> connections = new ArrayList<Connection>();
+
+        CountingDataSource(String url, int... ids) throws SQLException {
+            super(new DriverManagerDataSource(url, "sa", ""));
+            Connection connection = getTargetDataSource().getConnection();
+            try {
+                Statement statement = connection.createStatement();
+                statement.execute("drop table if exists cursor_rows");
+                statement.execute("create table cursor_rows (id int)");
+                for (int id : ids) {
+                    statement.execute("insert into cursor_rows values (" + id + ")");
+                }
+                statement.close();
+            } finally {
+                connection.close();
+            }
+        }
+
+        @Override
+        public synchronized Connection getConnection() throws SQLException {
+            Connection connection = super.getConnection();
+            connections.add(connection);
+            return connection;
+        }
+
+        void awaitOpened() throws Exception {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (true) {
+                synchronized (this) {
+                    if (!connections.isEmpty()) {
+                        return;
+                    }
+                }
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(10);
+            }
+        }
+
+        /**
+         * connections are closed by the workers once their rows run out.
+         */
+        void awaitAllReleased() throws Exception {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (true) {
+                synchronized (this) {
+                    boolean released = !connections.isEmpty();
+                    for (Connection connection : connections) {
+                        released &= connection.isClosed();
+                    }
+                    if (released) {
+                        return;
+                    }
+                }
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(10);
+            }
+        }
+    }
+}
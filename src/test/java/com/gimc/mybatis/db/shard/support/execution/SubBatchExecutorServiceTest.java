@@ -0,0 +1,64 @@
+package com.gimc.mybatis.db.shard.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+@Test
+public class SubBatchExecutorServiceTest {
+
+    public void testSubBatchRunsInOneHandoff() throws Exception {
+        final ExecutorService underlying = Executors.newSingleThreadExecutor();
+        final AtomicInteger handoffs = new AtomicInteger();
+        final CountDownLatch queued = new CountDownLatch(1);
+        try {
+            SubBatchExecutorService executor = new SubBatchExecutorService(new Executor() {
+                public void execute(final Runnable command) {
+                    handoffs.incrementAndGet();
+                    underlying.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                queued.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            command.run();
+                        }
+                    });
+                }
+            });
+            final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+            final CountDownLatch done = new CountDownLatch(9);
+            for (int i = 0; i < 10; i++) {
+                final boolean failing = (i == 4);
+                executor.execute(new Runnable() {
+                    public void run() {
+                        threads.add(Thread.currentThread());
+                        if (failing) {
+                            throw new IllegalStateException("failed on purpose");
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+            queued.countDown();
+            // the failed task doesn't stop the rest of the sub-batch
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(1, handoffs.get());
+            assertEquals(1, threads.size());
+        } finally {
+            underlying.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.gimc.mybatis.db.shard.support.execution;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class WorkStealingSchedulerTest {
+
+    private WorkStealingScheduler scheduler;
+
+    @BeforeMethod
+    protected void setUp() throws Exception {
+        scheduler = new WorkStealingScheduler(2, "worker-");
+    }
+
+    @AfterMethod
+    protected void tearDown() throws Exception {
+        scheduler.getPool().shutdownNow();
+    }
+
+    public void testBusyDataSourceDoesNotStarveOthers() throws Exception {
+        WorkStealingScheduler.DataSourceExecutorService busy = scheduler.executorFor(50);
+        ExecutorService idle = scheduler.executorFor(50);
+
+        final Semaphore proceed = new Semaphore(0);
+        final AtomicInteger busyDone = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            busy.execute(new Runnable() {
+                public void run() {
+                    proceed.acquireUninterruptibly();
+                    busyDone.incrementAndGet();
+                }
+            });
+        }
+        // all of the workers are free to the busy one while the others are idle
+        assertEquals(2, busy.getRunningCount());
+        assertEquals(3, busy.getPendingCount());
+
+        final CountDownLatch idleDone = new CountDownLatch(1);
+        idle.execute(new Runnable() {
+            public void run() {
+                idleDone.countDown();
+            }
+        });
+        assertFalse(idleDone.await(100, TimeUnit.MILLISECONDS));
+        // the busy one had been waiting longer, then it's the turn of the idle one
+        proceed.release(2);
+        assertTrue(idleDone.await(10, TimeUnit.SECONDS));
+        assertTrue(busyDone.get() <= 2);
+
+        proceed.release(3);
+        busy.shutdown();
+        assertTrue(busy.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(5, busyDone.get());
+        assertTrue(scheduler.getPool().getPoolSize() <= scheduler.getParallelism());
+    }
+
+    public void testPermitsOfDataSource() throws Exception {
+        WorkStealingScheduler.DataSourceExecutorService executor = scheduler.executorFor(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        assertEquals(1, executor.getRunningCount());
+        assertEquals(1, scheduler.getRunningCount());
+        proceed.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    public void testInlineTasksTakePermits() throws Exception {
+        WorkStealingScheduler.DataSourceExecutorService executor = scheduler.executorFor(1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        Runnable task = new Runnable() {
+            public void run() {
+                threads.add(Thread.currentThread());
+            }
+        };
+        assertTrue(executor.tryRunInline(task));
+        assertEquals(Thread.currentThread(), threads.get(0));
+        assertEquals(0, executor.getRunningCount());
+        assertEquals(0, scheduler.getRunningCount());
+
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        });
+        // the only permit is taken
+        assertFalse(executor.tryRunInline(task));
+        assertEquals(1, threads.size());
+        proceed.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertFalse(executor.tryRunInline(task));
+    }
+
+    public void testBoundsHoldUnderConcurrentSubmission() throws Exception {
+        final int dataSources = 4;
+        final int tasksEach = 2000;
+        final WorkStealingScheduler.DataSourceExecutorService[] executors = new WorkStealingScheduler.DataSourceExecutorService[dataSources];
+        final AtomicInteger[] running = new AtomicInteger[dataSources];
+        for (int i = 0; i < dataSources; i++) {
+            executors[i] = scheduler.executorFor(1);
+            running[i] = new AtomicInteger();
+        }
+        final AtomicInteger total = new AtomicInteger();
+        final AtomicInteger violations = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(dataSources * tasksEach);
+        ExecutorService submitters = Executors.newFixedThreadPool(dataSources);
+        try {
+            for (int i = 0; i < dataSources; i++) {
+                final int index = i;
+                submitters.execute(new Runnable() {
+                    public void run() {
+                        for (int n = 0; n < tasksEach; n++) {
+                            executors[index].execute(new Runnable() {
+                                public void run() {
+                                    if (running[index].incrementAndGet() > 1 || total.incrementAndGet() > scheduler.getParallelism()) {
+                                        violations.incrementAndGet();
+                                    }
+                                    total.decrementAndGet();
+                                    running[index].decrementAndGet();
+                                    done.countDown();
+                                }
+                            });
+                        }
+                    }
+                });
+            }
+            // no request is left behind in the queues
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+        } finally {
+            submitters.shutdownNow();
+        }
+        assertEquals(0, violations.get());
+        for (WorkStealingScheduler.DataSourceExecutorService executor : executors) {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertTrue(scheduler.getPool().awaitQuiescence(10, TimeUnit.SECONDS));
+        assertEquals(0, scheduler.getRunningCount());
+    }
+}